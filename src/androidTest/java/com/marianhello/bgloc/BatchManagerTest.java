@@ -28,11 +28,14 @@ import org.junit.runner.RunWith;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_DROP_LOCATION_TABLE;
 
@@ -158,6 +161,33 @@ public class BatchManagerTest {
         }
     }
 
+    @Test
+    public void testCreateGzippedBatch() throws IOException {
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(mDbHelper.getWritableDatabase());
+
+        for (int i = 1; i < 11; i++) {
+            BackgroundLocation location = new BackgroundLocation();
+            location.setTime(1000 + i);
+            location.setLatitude(40.21 + i);
+            location.setLongitude(23.45 + i);
+            location.setProvider("test");
+            location.setStatus(BackgroundLocation.SYNC_PENDING);
+            dao.persistLocation(location);
+        }
+
+        BatchManager batchManager = new BatchManager(mContext);
+        File batchFile = batchManager.createBatch(1000L, 0, null, true);
+        Assert.assertTrue(BatchManager.isGzipped(batchFile));
+
+        JsonReader reader = new JsonReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(batchFile)), "UTF-8"));
+        List<BackgroundLocation> locations = readLocationsArray(reader);
+        reader.close();
+
+        Assert.assertEquals(10, locations.size());
+        Assert.assertEquals(40.21 + 1, locations.get(0).getLatitude(), 0);
+        Assert.assertEquals(1000 + 10, locations.get(9).getTime());
+    }
+
     @Test
     public void testCreateBatchWithArrayListTemplate() {
         SQLiteLocationDAO dao = new SQLiteLocationDAO(mDbHelper.getWritableDatabase());
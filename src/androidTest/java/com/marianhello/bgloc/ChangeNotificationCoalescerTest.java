@@ -0,0 +1,116 @@
+package com.marianhello.bgloc;
+
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.marianhello.bgloc.data.provider.ChangeNotificationCoalescer;
+import com.marianhello.bgloc.data.provider.LocationContentProvider;
+import com.marianhello.bgloc.test.TestConstants;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ChangeNotificationCoalescerTest {
+    private final Uri mContentUri = LocationContentProvider.getContentUri(TestConstants.Authority);
+    private final List<Uri> mNotified = new ArrayList<Uri>();
+    private HandlerThread mThread;
+    private ChangeNotificationCoalescer mCoalescer;
+    private CountDownLatch mLatch;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread("ChangeNotificationCoalescerTest");
+        mThread.start();
+        mLatch = new CountDownLatch(1);
+        mCoalescer = new ChangeNotificationCoalescer(new ChangeNotificationCoalescer.Notifier() {
+            @Override
+            public void notifyChange(Uri uri) {
+                synchronized (mNotified) {
+                    mNotified.add(uri);
+                }
+                mLatch.countDown();
+            }
+        }, mThread.getLooper(), 10000);
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quit();
+    }
+
+    @Test
+    public void testDuplicatesAreMerged() {
+        mCoalescer.add(mContentUri);
+        mCoalescer.add(mContentUri);
+        mCoalescer.add(mContentUri.buildUpon().appendQueryParameter("compact", "10").build());
+        Assert.assertEquals(1, mCoalescer.getPendingCount());
+
+        mCoalescer.flush();
+        Assert.assertEquals(1, mNotified.size());
+        Assert.assertEquals(mContentUri, mNotified.get(0));
+        Assert.assertEquals(0, mCoalescer.getPendingCount());
+    }
+
+    @Test
+    public void testItemsAreMergedIntoTable() {
+        mCoalescer.add(LocationContentProvider.buildUriWithId(TestConstants.Authority, 1));
+        Assert.assertEquals(1, mCoalescer.getPendingCount());
+        mCoalescer.add(LocationContentProvider.buildUriWithId(TestConstants.Authority, 2));
+        mCoalescer.add(LocationContentProvider.buildUriWithId(TestConstants.Authority, 3));
+        Assert.assertEquals(1, mCoalescer.getPendingCount());
+
+        mCoalescer.flush();
+        Assert.assertEquals(1, mNotified.size());
+        Assert.assertEquals(mContentUri, mNotified.get(0));
+    }
+
+    @Test
+    public void testItemIsCoveredByTable() {
+        mCoalescer.add(mContentUri);
+        mCoalescer.add(LocationContentProvider.buildUriWithId(TestConstants.Authority, 1));
+        Assert.assertEquals(1, mCoalescer.getPendingCount());
+    }
+
+    @Test
+    public void testTablesAreNotMerged() {
+        mCoalescer.add(mContentUri);
+        mCoalescer.add(LocationContentProvider.getCounterContentUri(TestConstants.Authority));
+        Assert.assertEquals(2, mCoalescer.getPendingCount());
+
+        mCoalescer.flush();
+        Assert.assertEquals(2, mNotified.size());
+    }
+
+    @Test
+    public void testNotifiesWhenWindowEnds() throws InterruptedException {
+        mCoalescer = new ChangeNotificationCoalescer(new ChangeNotificationCoalescer.Notifier() {
+            @Override
+            public void notifyChange(Uri uri) {
+                synchronized (mNotified) {
+                    mNotified.add(uri);
+                }
+                mLatch.countDown();
+            }
+        }, mThread.getLooper(), 50);
+
+        mCoalescer.add(LocationContentProvider.buildUriWithId(TestConstants.Authority, 1));
+        mCoalescer.add(LocationContentProvider.buildUriWithId(TestConstants.Authority, 2));
+        Assert.assertTrue(mLatch.await(5, TimeUnit.SECONDS));
+        synchronized (mNotified) {
+            Assert.assertEquals(1, mNotified.size());
+            Assert.assertEquals(mContentUri, mNotified.get(0));
+        }
+    }
+}
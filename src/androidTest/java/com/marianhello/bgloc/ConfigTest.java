@@ -46,6 +46,14 @@ public class ConfigTest {
         Assert.assertEquals(config.getSyncThreshold(), configFromParcel.getSyncThreshold());
         Assert.assertTrue(config.getHttpHeaders().isEmpty());
         Assert.assertEquals(config.getMaxLocations(), configFromParcel.getMaxLocations());
+        Assert.assertEquals(config.getPostBatchSize(), configFromParcel.getPostBatchSize());
+        Assert.assertEquals(config.getPostBatchMaxDelay(), configFromParcel.getPostBatchMaxDelay());
+        Assert.assertEquals(config.getPostBatchMaxBytes(), configFromParcel.getPostBatchMaxBytes());
+        Assert.assertEquals(config.getGzipRequests(), configFromParcel.getGzipRequests());
+        Assert.assertEquals(config.getRetentionBudgetBytes(), configFromParcel.getRetentionBudgetBytes());
+        Assert.assertEquals(config.getRingBuffer(), configFromParcel.getRingBuffer());
+        Assert.assertEquals(config.getWalAutoCheckpointPages(), configFromParcel.getWalAutoCheckpointPages());
+        Assert.assertEquals(config.getWalCheckpointMode(), configFromParcel.getWalCheckpointMode());
     }
 
     @Test
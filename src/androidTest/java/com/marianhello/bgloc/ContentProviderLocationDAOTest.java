@@ -5,6 +5,9 @@ import android.location.Location;
 
 import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationPage;
+import com.marianhello.bgloc.data.LocationVisitor;
 import com.marianhello.bgloc.data.provider.ContentProviderLocationDAO;
 import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
 import com.marianhello.bgloc.test.LocationProviderTestCase;
@@ -14,17 +17,28 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import static android.support.test.InstrumentationRegistry.getContext;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry.SQL_DROP_LOCATION_ARCHIVE_TABLE;
 import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_DROP_LOCATION_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationRingEntry.SQL_DROP_LOCATION_RING_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationSpatialEntry.SQL_DROP_LOCATION_ARCHIVE_RTREE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationSpatialEntry.SQL_DROP_LOCATION_RTREE;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 public class ContentProviderLocationDAOTest extends LocationProviderTestCase {
     public void deleteDatabase() {
         SQLiteOpenHelper dbHelper = new SQLiteOpenHelper(getContext());
         SQLiteDatabase db = dbHelper.getWritableDatabase();
         dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_TABLE);
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_RING_TABLE);
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_ARCHIVE_TABLE);
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_RTREE);
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_ARCHIVE_RTREE);
         dbHelper.onCreate(db);
     }
 
@@ -163,6 +177,393 @@ public class ContentProviderLocationDAOTest extends LocationProviderTestCase {
         }
     }
 
+    @Test
+    public void testPersistLocations() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        Collection<BackgroundLocation> bgLocations = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < 100; i++) {
+            Location location = new Location("fake");
+            location.setLatitude(40.21 + i);
+            location.setLongitude(23.45 + i);
+            location.setProvider("test");
+            location.setTime(1000 + i);
+            bgLocations.add(BackgroundLocation.fromLocation(location));
+        }
+
+        assertEquals(100, dao.persistLocations(bgLocations));
+
+        Collection<BackgroundLocation> locations = dao.getAllLocations();
+        assertEquals(100, locations.size());
+        Iterator<BackgroundLocation> it = locations.iterator();
+        Iterator<BackgroundLocation> persisted = bgLocations.iterator();
+        for (int i = 0; i < 100; i++) {
+            BackgroundLocation storedLocation = it.next();
+            assertEquals(storedLocation.getLocationId(), persisted.next().getLocationId());
+            assertEquals(40.21 + i, storedLocation.getLatitude(), 0);
+            assertEquals(23.45 + i, storedLocation.getLongitude(), 0);
+            assertEquals(1000 + i, storedLocation.getTime(), 0);
+        }
+    }
+
+    @Test
+    public void testForEachLocation() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int i = 0; i < 10; i++) {
+            Location location = new Location("fake");
+            location.setAccuracy(200 + i);
+            location.setLatitude(40.21 + i);
+            location.setLongitude(23.45 + i);
+            location.setTime(1000 + i);
+            BackgroundLocation bgLocation = BackgroundLocation.fromLocation(location);
+            if (i % 2 == 0) {
+                bgLocation.setStatus(BackgroundLocation.DELETED);
+            }
+            dao.persistLocation(bgLocation);
+        }
+
+        final ArrayList<BackgroundLocation> visited = new ArrayList<BackgroundLocation>();
+        final ArrayList<Long> times = new ArrayList<Long>();
+        dao.forEachLocation(LocationFilter.VALID, new LocationVisitor() {
+            @Override
+            public boolean visit(BackgroundLocation location) {
+                visited.add(location);
+                times.add(location.getTime());
+                assertEquals(location.getTime() - 800, location.getAccuracy(), 0);
+                assertEquals(40.21 + location.getTime() - 1000, location.getLatitude(), 0);
+                return true;
+            }
+        });
+
+        assertEquals(5, times.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Long.valueOf(1001 + i * 2), times.get(i));
+        }
+        // location instance is reused
+        junit.framework.Assert.assertSame(visited.get(0), visited.get(4));
+    }
+
+    @Test
+    public void testForEachLocationShouldStopWhenVisitorReturnsFalse() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int i = 0; i < 10; i++) {
+            dao.persistLocation(BackgroundLocation.fromLocation(new Location("fake")));
+        }
+
+        final int[] count = { 0 };
+        dao.forEachLocation(LocationFilter.ALL, new LocationVisitor() {
+            @Override
+            public boolean visit(BackgroundLocation location) {
+                return ++count[0] < 3;
+            }
+        });
+
+        assertEquals(3, count[0]);
+    }
+
+    @Test
+    public void testGetLocationsPage() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        // pairs of locations share same time
+        for (int i = 0; i < 10; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i / 2);
+            dao.persistLocation(BackgroundLocation.fromLocation(location));
+        }
+
+        ArrayList<Long> ids = new ArrayList<Long>();
+        LocationPage page = LocationPage.first(3, LocationPage.ASCENDING);
+        long lastTime = page.getAfterTime();
+        long lastId = page.getAfterId();
+        for (int pages = 0; pages < 10; pages++) {
+            Collection<BackgroundLocation> locations = dao.getLocations(lastTime, lastId, 3, LocationPage.ASCENDING);
+            if (locations.isEmpty()) {
+                break;
+            }
+            junit.framework.Assert.assertTrue(locations.size() <= 3);
+            for (BackgroundLocation location : locations) {
+                junit.framework.Assert.assertTrue(location.getTime() >= lastTime);
+                ids.add(location.getLocationId());
+                lastTime = location.getTime();
+                lastId = location.getLocationId();
+            }
+        }
+
+        assertEquals(10, ids.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Long.valueOf(i + 1), ids.get(i));
+        }
+    }
+
+    @Test
+    public void testGetLocationsPageDescending() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int i = 0; i < 10; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i / 2);
+            dao.persistLocation(BackgroundLocation.fromLocation(location));
+        }
+
+        ArrayList<BackgroundLocation> firstPage = new ArrayList<BackgroundLocation>(
+                dao.getLocations(Long.MAX_VALUE, Long.MAX_VALUE, 4, LocationPage.DESCENDING));
+        assertEquals(4, firstPage.size());
+        assertEquals(10, firstPage.get(0).getLocationId().longValue());
+        assertEquals(7, firstPage.get(3).getLocationId().longValue());
+
+        BackgroundLocation last = firstPage.get(3);
+        ArrayList<BackgroundLocation> secondPage = new ArrayList<BackgroundLocation>(
+                dao.getLocations(last.getTime(), last.getLocationId(), 4, LocationPage.DESCENDING));
+        assertEquals(4, secondPage.size());
+        assertEquals(6, secondPage.get(0).getLocationId().longValue());
+        assertEquals(3, secondPage.get(3).getLocationId().longValue());
+    }
+
+    @Test
+    public void testCompactLocations() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int i = 0; i < 1200; i++) {
+            BackgroundLocation location = BackgroundLocation.fromLocation(new Location("fake"));
+            location.setStatus(i % 3 == 0 ? BackgroundLocation.SYNC_PENDING : BackgroundLocation.DELETED);
+            dao.persistLocation(location);
+        }
+
+        assertEquals(800, dao.compactLocations());
+
+        Collection<BackgroundLocation> locations = dao.getAllLocations();
+        assertEquals(400, locations.size());
+        for (BackgroundLocation location : locations) {
+            assertEquals(BackgroundLocation.SYNC_PENDING, location.getStatus());
+        }
+        assertEquals(0, dao.compactLocations());
+    }
+
+    @Test
+    public void testPurgeOlderThan() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int i = 0; i < 10; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            BackgroundLocation bgLocation = BackgroundLocation.fromLocation(location);
+            bgLocation.setStatus(i % 2 == 0 ? BackgroundLocation.POST_PENDING : BackgroundLocation.DELETED);
+            dao.persistLocation(bgLocation);
+        }
+
+        assertEquals(4, dao.purgeOlderThan(1004));
+
+        Collection<BackgroundLocation> locations = dao.getAllLocations();
+        assertEquals(6, locations.size());
+        for (BackgroundLocation location : locations) {
+            junit.framework.Assert.assertTrue(location.getTime() >= 1004);
+        }
+    }
+
+    @Test
+    public void testArchiveLocations() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        // 300 synced locations (2 chunks), interleaved with pending ones
+        long[] ids = new long[400];
+        for (int i = 0; i < 400; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            location.setLatitude(48.1234567 + i * 0.0001);
+            location.setLongitude(17.1234567 - i * 0.0001);
+            BackgroundLocation bgLocation = BackgroundLocation.fromLocation(location);
+            if (i % 4 == 3) {
+                bgLocation.setStatus(BackgroundLocation.SYNC_PENDING);
+            } else {
+                bgLocation.setStatus(BackgroundLocation.DELETED);
+                bgLocation.setBatchStartMillis(500L);
+            }
+            ids[i] = dao.persistLocation(bgLocation);
+        }
+
+        assertEquals(300, dao.archiveLocations(2000));
+        assertEquals(0, dao.archiveLocations(2000));
+
+        Collection<BackgroundLocation> locations = dao.getAllLocations();
+        assertEquals(400, locations.size());
+        long[] mergedIds = new long[400];
+        Set<Long> uniqueIds = new HashSet<Long>();
+        int i = 0;
+        for (BackgroundLocation location : locations) {
+            mergedIds[i] = location.getLocationId();
+            if (i % 4 == 3) {
+                assertEquals(ids[i], mergedIds[i]);
+            } else {
+                // archived locations get ids of their own
+                assertTrue(mergedIds[i] < 0);
+            }
+            uniqueIds.add(mergedIds[i]);
+            assertEquals(1000 + i, location.getTime());
+            assertEquals(48.1234567 + i * 0.0001, location.getLatitude(), 1e-7);
+            i++;
+        }
+        assertEquals(400, uniqueIds.size());
+
+        assertEquals(100, dao.getValidLocations().size());
+
+        BackgroundLocation archived = dao.getLocationById(mergedIds[10]);
+        assertEquals(1010, archived.getTime());
+        assertEquals(BackgroundLocation.DELETED, archived.getStatus());
+        assertEquals(Long.valueOf(500L), archived.getBatchStartMillis());
+
+        // pages are merged from location table and archive
+        Collection<BackgroundLocation> page = dao.getLocations(1200, mergedIds[200], 10, LocationPage.DESCENDING);
+        assertEquals(10, page.size());
+        i = 199;
+        for (BackgroundLocation location : page) {
+            assertEquals(mergedIds[i--], location.getLocationId().longValue());
+        }
+
+        assertEquals(50, dao.purgeOlderThan(1050));
+        assertEquals(350, dao.getAllLocations().size());
+
+        // oldest archived locations are removed over maxLocations
+        assertEquals(50, dao.trimArchive(300));
+        assertEquals(300, dao.getAllLocations().size());
+        assertEquals(100, dao.getValidLocations().size());
+
+        dao.deleteAllLocations();
+        assertEquals(0, dao.getAllLocations().size());
+    }
+
+    @Test
+    public void testArchivedLocationIdsAreNotReused() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                Location location = new Location("fake");
+                location.setTime(1000 + round * 10 + i);
+                BackgroundLocation bgLocation = BackgroundLocation.fromLocation(location);
+                bgLocation.setStatus(BackgroundLocation.DELETED);
+                bgLocation.setBatchStartMillis(500L);
+                // ring slots are reused once previous locations were archived
+                dao.persistLocationToRing(bgLocation, 10);
+            }
+            assertEquals(10, dao.archiveLocations(2000));
+        }
+
+        Set<Long> uniqueIds = new HashSet<Long>();
+        for (BackgroundLocation location : dao.getAllLocations()) {
+            uniqueIds.add(location.getLocationId());
+        }
+        assertEquals(30, uniqueIds.size());
+    }
+
+    @Test
+    public void testGetLocationsInBounds() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        // grid of 10x10 locations, first half synced and archived
+        for (int i = 0; i < 100; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            location.setLatitude(48.0 + (i / 10) * 0.1);
+            location.setLongitude(17.0 + (i % 10) * 0.1);
+            BackgroundLocation bgLocation = BackgroundLocation.fromLocation(location);
+            if (i < 50) {
+                bgLocation.setStatus(BackgroundLocation.DELETED);
+                bgLocation.setBatchStartMillis(500L);
+            }
+            dao.persistLocation(bgLocation);
+        }
+        assertEquals(50, dao.archiveLocations(2000));
+
+        // rows 3..6, columns 2..4
+        Collection<BackgroundLocation> locations = dao.getLocationsInBounds(48.25, 17.15, 48.65, 17.45, 0, 2000);
+        assertEquals(12, locations.size());
+        long previousTime = 0;
+        for (BackgroundLocation location : locations) {
+            junit.framework.Assert.assertTrue(location.getLatitude() >= 48.25 && location.getLatitude() <= 48.65);
+            junit.framework.Assert.assertTrue(location.getLongitude() >= 17.15 && location.getLongitude() <= 17.45);
+            junit.framework.Assert.assertTrue(location.getTime() > previousTime);
+            previousTime = location.getTime();
+        }
+
+        // time range restricts result to hot locations only
+        assertEquals(6, dao.getLocationsInBounds(48.25, 17.15, 48.65, 17.45, 1050, 2000).size());
+        assertEquals(0, dao.getLocationsInBounds(10, 10, 11, 11, 0, 2000).size());
+    }
+
+    @Test
+    public void testGetLocationsBetween() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        // 0..29 synced and archived, 30..59 sync pending, 60..99 post pending
+        for (int i = 0; i < 100; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            BackgroundLocation bgLocation = BackgroundLocation.fromLocation(location);
+            if (i < 30) {
+                bgLocation.setStatus(BackgroundLocation.DELETED);
+                bgLocation.setBatchStartMillis(500L);
+            } else if (i < 60) {
+                bgLocation.setStatus(BackgroundLocation.SYNC_PENDING);
+            }
+            dao.persistLocation(bgLocation);
+        }
+        assertEquals(30, dao.archiveLocations(2000));
+
+        Collection<BackgroundLocation> locations = dao.getLocationsBetween(1010, 1070, LocationFilter.STATUS_ANY);
+        assertEquals(60, locations.size());
+        long expectedTime = 1010;
+        for (BackgroundLocation location : locations) {
+            assertEquals(expectedTime++, location.getTime());
+        }
+        assertEquals(60, dao.countLocationsBetween(1010, 1070, LocationFilter.STATUS_ANY));
+
+        assertEquals(20, dao.getLocationsBetween(1010, 1070, LocationFilter.STATUS_DELETED).size());
+        assertEquals(20, dao.countLocationsBetween(1010, 1070, LocationFilter.STATUS_DELETED));
+        assertEquals(40, dao.getLocationsBetween(1010, 1070, LocationFilter.STATUS_VALID).size());
+        assertEquals(40, dao.countLocationsBetween(1010, 1070, LocationFilter.STATUS_VALID));
+        assertEquals(10, dao.countLocationsBetween(1010, 1070, LocationFilter.STATUS_POST_PENDING));
+        assertEquals(50, dao.countLocationsBetween(1010, 1070,
+                LocationFilter.STATUS_DELETED | LocationFilter.STATUS_SYNC_PENDING));
+        assertEquals(0, dao.countLocationsBetween(2000, 3000, LocationFilter.STATUS_ANY));
+
+        // archive chunk inside range is counted by its stored count, boundaries exactly
+        assertEquals(100, dao.countLocationsBetween(1000, 1100, LocationFilter.STATUS_ANY));
+        assertEquals(30, dao.countLocationsBetween(0, 1030, LocationFilter.STATUS_DELETED));
+        assertEquals(29, dao.countLocationsBetween(0, 1029, LocationFilter.STATUS_DELETED));
+        assertEquals(29, dao.countLocationsBetween(1001, 1100, LocationFilter.STATUS_DELETED));
+    }
+
+    @Test
+    public void testStatusCounters() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        long[] ids = new long[10];
+        for (int i = 0; i < 10; i++) {
+            BackgroundLocation location = BackgroundLocation.fromLocation(new Location("fake"));
+            location.setStatus(i < 6 ? BackgroundLocation.POST_PENDING : BackgroundLocation.SYNC_PENDING);
+            ids[i] = dao.persistLocation(location);
+        }
+        assertEquals(6, dao.getUnpostedLocationsCount());
+        assertEquals(4, dao.getSyncPendingLocationsCount());
+
+        dao.updateLocationForSync(ids[0]);
+        dao.deleteLocationById(ids[1]);
+        dao.deleteLocationById(ids[9]);
+        assertEquals(4, dao.getUnpostedLocationsCount());
+        assertEquals(4, dao.getSyncPendingLocationsCount());
+        assertEquals(dao.getLocationsForSyncCount(System.currentTimeMillis()), dao.getSyncPendingLocationsCount());
+
+        dao.deleteUnpostedLocations();
+        assertEquals(0, dao.getUnpostedLocationsCount());
+        assertEquals(8, dao.getSyncPendingLocationsCount());
+
+        dao.deleteAllLocations();
+        assertEquals(0, dao.getSyncPendingLocationsCount());
+    }
+
     @Test
     public void testPersistLocationWithRowLimit() {
         LocationDAO dao = new ContentProviderLocationDAO(getContext());
@@ -208,6 +609,121 @@ public class ContentProviderLocationDAOTest extends LocationProviderTestCase {
         assertEquals(locationId, Long.valueOf(101));
     }
 
+    @Test
+    public void testPersistLocationToRing() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        int ringSize = 100;
+
+        for (int i = 0; i < ringSize * 2 + 5; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            BackgroundLocation bgLocation = BackgroundLocation.fromLocation(location);
+            bgLocation.setStatus(BackgroundLocation.DELETED);
+            long locationId = dao.persistLocationToRing(bgLocation, ringSize);
+            // replaced location gets new id
+            assertEquals(i + 1, locationId);
+        }
+
+        Collection<BackgroundLocation> locations = dao.getAllLocations();
+        assertEquals(ringSize, locations.size());
+        // oldest locations were replaced
+        assertEquals(1000 + ringSize + 5, locations.iterator().next().getTime());
+    }
+
+    @Test
+    public void testPersistLocationToRingKeepsUnsentLocations() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        int ringSize = 10;
+
+        for (int i = 0; i < ringSize; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            dao.persistLocationToRing(BackgroundLocation.fromLocation(location), ringSize);
+        }
+        // only first half was synced
+        dao.markRange(1, 5, BackgroundLocation.DELETED);
+
+        for (int i = 0; i < ringSize; i++) {
+            Location location = new Location("fake");
+            location.setTime(2000 + i);
+            assertEquals(ringSize + i + 1, dao.persistLocationToRing(BackgroundLocation.fromLocation(location), ringSize));
+        }
+
+        // synced slots were replaced, unsent locations were kept and new ones stored beside them
+        ArrayList<BackgroundLocation> locations = new ArrayList(dao.getAllLocations());
+        assertEquals(15, locations.size());
+        assertEquals(1005, locations.get(0).getTime());
+        for (long id = 6; id <= ringSize; id++) {
+            assertEquals(BackgroundLocation.POST_PENDING, dao.getLocationById(id).getStatus());
+        }
+        assertEquals(2009, locations.get(14).getTime());
+    }
+
+    @Test
+    public void testPersistLocationToRingWhenRingSizeReduced() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int i = 0; i < 100; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            dao.persistLocationToRing(BackgroundLocation.fromLocation(location), 100);
+        }
+        dao.markRange(1, 50, BackgroundLocation.DELETED);
+        dao.markRange(91, 95, BackgroundLocation.DELETED);
+
+        Location location = new Location("fake");
+        location.setTime(2000);
+        // newest 10 locations are moved into slots, next one replaces the oldest in slot 1
+        assertEquals(101, dao.persistLocationToRing(BackgroundLocation.fromLocation(location), 10));
+
+        // older synced locations were dropped, unsent ones are kept outside of the ring
+        ArrayList<BackgroundLocation> locations = new ArrayList(dao.getAllLocations());
+        assertEquals(50, locations.size());
+        assertEquals(1050, locations.get(0).getTime());
+        assertEquals(2000, locations.get(49).getTime());
+
+        // ids are not renumbered
+        assertEquals(1050, dao.getLocationById(51).getTime());
+        assertEquals(1092, dao.getLocationById(92).getTime());
+        assertEquals(2000, dao.getLocationById(101).getTime());
+    }
+
+    @Test
+    public void testGetLocationsInBoundsAfterRingSizeChanged() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        for (int i = 0; i < 100; i++) {
+            Location location = new Location("fake");
+            location.setTime(1000 + i);
+            location.setLatitude(10 + i * 0.01);
+            location.setLongitude(20);
+            dao.persistLocationToRing(BackgroundLocation.fromLocation(location), 100);
+        }
+        dao.markRange(1, 100, BackgroundLocation.DELETED);
+
+        Location location = new Location("fake");
+        location.setTime(2000);
+        location.setLatitude(50);
+        location.setLongitude(20);
+        // ring is rebuilt, locations over capacity are dropped
+        dao.persistLocationToRing(BackgroundLocation.fromLocation(location), 10);
+
+        assertEquals(10, dao.getLocationsInBounds(0, 0, 60, 60, 0, 3000).size());
+
+        Collection<BackgroundLocation> locations = dao.getLocationsInBounds(10.945, 19.9, 10.955, 20.1, 0, 3000);
+        assertEquals(1, locations.size());
+        assertEquals(1095, locations.iterator().next().getTime());
+
+        locations = dao.getLocationsInBounds(49.9, 19.9, 50.1, 20.1, 0, 3000);
+        assertEquals(1, locations.size());
+        assertEquals(2000, locations.iterator().next().getTime());
+
+        // replaced and dropped locations are not in index anymore
+        assertEquals(0, dao.getLocationsInBounds(9.9, 19.9, 10.895, 20.1, 0, 3000).size());
+    }
+
     @Test
     public void testPersistLocationWithBatchId() {
         LocationDAO dao = new ContentProviderLocationDAO(getContext());
@@ -434,4 +950,49 @@ public class ContentProviderLocationDAOTest extends LocationProviderTestCase {
         assertEquals(0, dao.getUnpostedLocationsCount());
         assertEquals(1, dao.getLocationsForSyncCount(0));
     }
+
+    @Test
+    public void testMarkLocations() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        // more ids than fit into single statement
+        long[] ids = new long[1100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dao.persistLocation(BackgroundLocation.fromLocation(new Location("fake")));
+        }
+
+        long[] marked = new long[1000];
+        System.arraycopy(ids, 0, marked, 0, marked.length);
+        assertEquals(1000, dao.markLocations(marked, BackgroundLocation.SYNC_PENDING));
+        assertEquals(100, dao.getUnpostedLocationsCount());
+        assertEquals(1000, dao.getLocationsForSyncCount(0));
+
+        // locations already in given status are not counted
+        assertEquals(100, dao.markLocations(ids, BackgroundLocation.SYNC_PENDING));
+        assertEquals(0, dao.markLocations(new long[0], BackgroundLocation.DELETED));
+
+        assertEquals(3, dao.markLocations(new long[] { ids[0], ids[5], ids[5], ids[9] }, BackgroundLocation.DELETED));
+        assertEquals(1097, dao.getLocationsForSyncCount(0));
+        assertEquals(BackgroundLocation.DELETED, dao.getLocationById(ids[5]).getStatus());
+    }
+
+    @Test
+    public void testMarkRange() {
+        LocationDAO dao = new ContentProviderLocationDAO(getContext());
+
+        long[] ids = new long[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dao.persistLocation(BackgroundLocation.fromLocation(new Location("fake")));
+        }
+
+        assertEquals(4, dao.markRange(ids[2], ids[5], BackgroundLocation.DELETED));
+        assertEquals(6, dao.getUnpostedLocationsCount());
+        assertEquals(BackgroundLocation.POST_PENDING, dao.getLocationById(ids[1]).getStatus());
+        assertEquals(BackgroundLocation.DELETED, dao.getLocationById(ids[2]).getStatus());
+        assertEquals(BackgroundLocation.DELETED, dao.getLocationById(ids[5]).getStatus());
+        assertEquals(BackgroundLocation.POST_PENDING, dao.getLocationById(ids[6]).getStatus());
+
+        assertEquals(2, dao.markRange(ids[4], ids[7], BackgroundLocation.DELETED));
+        assertEquals(0, dao.markRange(ids[9] + 1, ids[9] + 100, BackgroundLocation.DELETED));
+    }
 }
@@ -0,0 +1,199 @@
+package com.marianhello.bgloc;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.test.filters.SmallTest;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.provider.DirectLocationDAO;
+import com.marianhello.bgloc.data.provider.LocationContentProvider;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationProviderEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_DROP_LOCATION_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationRingEntry.SQL_DROP_LOCATION_RING_TABLE;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DirectLocationDAOTest {
+    private HandlerThread mObserverThread;
+
+    @Before
+    public void deleteDatabase() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteOpenHelper dbHelper = new SQLiteOpenHelper(ctx);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_TABLE);
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_RING_TABLE);
+        dbHelper.onCreate(db);
+
+        mObserverThread = new HandlerThread("DirectLocationDAOTest");
+        mObserverThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        mObserverThread.quit();
+    }
+
+    @Test
+    public void persistLocationShouldNotifyObservers() throws InterruptedException {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        LocationDAO dao = new DirectLocationDAO(ctx, new SQLiteOpenHelper(ctx).getWritableDatabase());
+        String authority = ResourceResolver.newInstance(ctx).getAuthority();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Uri> uris = Collections.synchronizedList(new ArrayList<Uri>());
+        ContentObserver observer = new ContentObserver(new Handler(mObserverThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                uris.add(uri);
+                latch.countDown();
+            }
+        };
+        ctx.getContentResolver().registerContentObserver(
+                LocationContentProvider.getContentUri(authority), true, observer);
+
+        try {
+            long locationId = dao.persistLocation(BackgroundLocation.fromLocation(new Location("fake")));
+            dao.deleteLocationById(locationId);
+
+            // both changes of location are merged into single notification
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(uris.contains(LocationContentProvider.buildUriWithId(authority, locationId)));
+        } finally {
+            ctx.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void deleteLocationShouldRemoveRow() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        LocationDAO dao = new DirectLocationDAO(ctx, new SQLiteOpenHelper(ctx).getWritableDatabase());
+
+        long locationId = dao.persistLocation(BackgroundLocation.fromLocation(new Location("fake")));
+        dao.persistLocation(BackgroundLocation.fromLocation(new Location("fake")));
+        dao.deleteLocationById(locationId);
+
+        Assert.assertNull(dao.getLocationById(locationId));
+        Assert.assertEquals(1, dao.getAllLocations().size());
+
+        Assert.assertEquals(1, dao.deleteAllLocations());
+        Assert.assertEquals(0, dao.getAllLocations().size());
+    }
+
+    @Test
+    public void compiledStatementsShouldBindAllColumns() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        LocationDAO dao = new DirectLocationDAO(ctx, db);
+
+        BackgroundLocation location = new BackgroundLocation();
+        location.setTime(1000);
+        location.setLatitude(48.1);
+        location.setLongitude(17.1);
+        location.setAccuracy(5);
+        long locationId = dao.persistLocation(location);
+
+        BackgroundLocation stored = dao.getLocationById(locationId);
+        Assert.assertNull(stored.getProvider());
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME,
+                LocationEntry.COLUMN_NAME_LOCATION_PROVIDER + " IS NULL AND " +
+                        LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " IS NULL"));
+        Assert.assertTrue(stored.hasAccuracy());
+        Assert.assertFalse(stored.hasSpeed());
+        Assert.assertEquals(BackgroundLocation.POST_PENDING, stored.getStatus());
+        // compact row: fixed-point coordinates, absent values are NULL
+        Assert.assertEquals(48.1, stored.getLatitude(), 0);
+        Assert.assertEquals(17.1, stored.getLongitude(), 0);
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME,
+                LocationEntry.COLUMN_NAME_LATITUDE_E7 + " = 481000000 AND " +
+                        LocationEntry.COLUMN_NAME_SPEED + " IS NULL AND " +
+                        LocationEntry.COLUMN_NAME_PROVIDER_ID + " IS NULL"));
+
+        dao.updateLocationForSync(locationId);
+        Assert.assertEquals(BackgroundLocation.SYNC_PENDING, dao.getLocationById(locationId).getStatus());
+
+        // synced ring slot is overwritten by compiled update, location gets new id
+        dao.deleteLocationById(locationId);
+        location.setProvider("gps");
+        location.setLocationProvider(1);
+        location.setBatchStartMillis(500L);
+        location.setMockFlags(0x0003);
+        long replacedId = dao.persistLocationToRing(location, 1);
+        dao.markRange(replacedId, replacedId, BackgroundLocation.DELETED);
+        location.setTime(2000);
+        long slotLocationId = dao.persistLocationToRing(location, 1);
+        Assert.assertTrue(slotLocationId > replacedId);
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME,
+                LocationEntry.COLUMN_NAME_RING_SLOT + " = 1"));
+        stored = dao.getLocationById(slotLocationId);
+        Assert.assertEquals("gps", stored.getProvider());
+        Assert.assertEquals(Integer.valueOf(1), stored.getLocationProvider());
+        Assert.assertEquals(Long.valueOf(500L), stored.getBatchStartMillis());
+        Assert.assertEquals(2000, stored.getTime());
+        Assert.assertEquals(0x0003, stored.getMockFlags());
+        Assert.assertTrue(stored.hasAccuracy());
+        // provider name is stored once
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, LocationProviderEntry.TABLE_NAME,
+                LocationProviderEntry.COLUMN_NAME_NAME + " = ?", new String[] { "gps" }));
+    }
+
+    @Test
+    public void concurrentWritesShouldNotDeadlock() throws InterruptedException {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        final LocationDAO dao = new DirectLocationDAO(ctx, new SQLiteOpenHelper(ctx).getWritableDatabase());
+        final long locationId = dao.persistLocation(BackgroundLocation.fromLocation(new Location("fake")));
+        final CountDownLatch done = new CountDownLatch(2);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 50; i++) {
+                    List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+                    for (int j = 0; j < 10; j++) {
+                        locations.add(BackgroundLocation.fromLocation(new Location("fake")));
+                    }
+                    dao.persistLocations(locations);
+                }
+                done.countDown();
+            }
+        }).start();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 500; i++) {
+                    dao.updateLocationForSync(locationId);
+                }
+                done.countDown();
+            }
+        }).start();
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(501, dao.getAllLocations().size());
+    }
+}
@@ -0,0 +1,62 @@
+package com.marianhello.bgloc;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.test.filters.SmallTest;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.LocationArchiver;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LocationArchiverTest {
+    @Before
+    public void deleteDatabase() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteOpenHelper.getHelper(ctx).close();
+        ctx.deleteDatabase(SQLiteOpenHelper.SQLITE_DATABASE_NAME);
+    }
+
+    @Test
+    public void archiveShouldBeTrimmedToMaxLocations() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < 600; i++) {
+            BackgroundLocation location = new BackgroundLocation();
+            location.setTime(1000 + i);
+            location.setStatus(i < 500 ? BackgroundLocation.DELETED : BackgroundLocation.SYNC_PENDING);
+            location.setBatchStartMillis(i < 500 ? 500L : null);
+            locations.add(location);
+        }
+        dao.persistLocations(locations);
+
+        LocationArchiver archiver = new LocationArchiver(db);
+        Assert.assertEquals(500, archiver.archive(2000));
+        // 100 pending locations stay in location table, 200 oldest archived ones are dropped
+        Assert.assertEquals(200, archiver.trim(400));
+        Assert.assertEquals(0, archiver.trim(400));
+
+        Collection<BackgroundLocation> stored = dao.getAllLocations();
+        Assert.assertEquals(400, stored.size());
+        Assert.assertEquals(1200, stored.iterator().next().getTime());
+        Assert.assertEquals(100, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+    }
+}
@@ -1,8 +1,13 @@
 package com.marianhello.bgloc;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
 
@@ -77,11 +82,15 @@ public class LocationContentProviderTest extends LocationProviderTestCase {
         assertEquals(200, cursor.getFloat(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_ACCURACY)), 0);
         assertEquals(900, cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_ALTITUDE)), 0);
         assertEquals(2, cursor.getFloat(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_BEARING)), 0);
-        assertEquals(40.21, cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE)), 0);
-        assertEquals(23.45, cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LONGITUDE)), 0);
+        assertEquals(402100000, cursor.getLong(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE_E7)));
+        assertEquals(234500000, cursor.getLong(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LONGITUDE_E7)));
+        assertEquals(40.21, LocationEntry.fromE7(cursor.getLong(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE_E7))), 0);
         assertEquals(20, cursor.getFloat(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_SPEED)), 0);
         assertEquals("test", cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_PROVIDER)));
         assertEquals(1000, cursor.getLong(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_TIME)), 0);
+        assertEquals(LocationEntry.FLAG_HAS_ACCURACY | LocationEntry.FLAG_HAS_SPEED | LocationEntry.FLAG_HAS_BEARING
+                | LocationEntry.FLAG_HAS_ALTITUDE, cursor.getInt(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_FLAGS)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_RADIUS)));
 
         cursor.close();
     }
@@ -153,6 +162,81 @@ public class LocationContentProviderTest extends LocationProviderTestCase {
         assertEquals("new test", cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_PROVIDER)));
     }
 
+    @Test
+    public void testShouldBulkInsertLocations() {
+        ContentValues[] values = new ContentValues[10];
+        for (int i = 0; i < values.length; i++) {
+            BackgroundLocation location = new BackgroundLocation();
+            location.setLatitude(40.21 + i);
+            location.setLongitude(23.45 + i);
+            location.setProvider("test");
+            location.setTime(1000 + i);
+            values[i] = location.toContentValues();
+        }
+
+        int rowsInserted = mResolver.bulkInsert(mContentUri, values);
+        assertEquals(10, rowsInserted);
+
+        Cursor cursor = mResolver.query(mContentUri, null, null, null,null);
+        assertEquals(10, cursor.getCount());
+        for (int i = 0; i < values.length; i++) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(LocationEntry.toE7(40.21 + i), cursor.getLong(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE_E7)));
+            assertEquals(1000 + i, cursor.getLong(cursor.getColumnIndex(LocationEntry.COLUMN_NAME_TIME)));
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testShouldApplyBatchInSingleTransaction() throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < 3; i++) {
+            BackgroundLocation location = new BackgroundLocation();
+            location.setLatitude(40.21 + i);
+            location.setLongitude(23.45 + i);
+            location.setTime(1000 + i);
+            operations.add(ContentProviderOperation.newInsert(mContentUri)
+                    .withValues(location.toContentValues())
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newAssertQuery(mContentUri)
+                .withExpectedCount(3)
+                .build());
+
+        ContentProviderResult[] results = mResolver.applyBatch(TestConstants.Authority, operations);
+        assertEquals(4, results.length);
+
+        Cursor cursor = mResolver.query(mContentUri, null, null, null,null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+    }
+
+    @Test
+    public void testShouldRollbackFailedBatch() throws RemoteException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        BackgroundLocation location = new BackgroundLocation();
+        location.setLatitude(40.21);
+        location.setLongitude(23.45);
+        location.setTime(1000);
+        operations.add(ContentProviderOperation.newInsert(mContentUri)
+                .withValues(location.toContentValues())
+                .build());
+        operations.add(ContentProviderOperation.newAssertQuery(mContentUri)
+                .withExpectedCount(2)
+                .build());
+
+        try {
+            mResolver.applyBatch(TestConstants.Authority, operations);
+            fail("Assertion should fail batch");
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+
+        Cursor cursor = mResolver.query(mContentUri, null, null, null,null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
     private Uri createLocation(BackgroundLocation location) {
         return mResolver.insert(mContentUri, location.toContentValues());
     }
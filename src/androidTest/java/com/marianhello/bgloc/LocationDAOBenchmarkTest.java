@@ -0,0 +1,221 @@
+package com.marianhello.bgloc;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.provider.ContentProviderLocationDAO;
+import com.marianhello.bgloc.data.provider.DirectLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_DROP_LEGACY_LOCATION_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_DROP_LOCATION_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationRingEntry.SQL_DROP_LOCATION_RING_TABLE;
+
+/**
+ * Compares insert and query throughput of location DAO going through
+ * LocationContentProvider with direct (in-process) DAO.
+ * Direct DAO is expected to be not slower than provider (beyond tolerance).
+ *
+ * Run with: adb shell am instrument -w -e size large -e class com.marianhello.bgloc.LocationDAOBenchmarkTest ...
+ * Results are logged with tag LocationDAOBenchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class LocationDAOBenchmarkTest {
+    private static final String TAG = "LocationDAOBenchmark";
+    private static final int LOCATIONS_COUNT = 2000;
+    private static final int QUERY_ROUNDS = 20;
+    // allowed slowdown of direct DAO, timings on emulators are noisy
+    private static final double TOLERANCE = 1.5;
+    private static final long TOLERANCE_MILLIS = 50;
+
+    @Before
+    public void deleteDatabase() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteOpenHelper dbHelper = new SQLiteOpenHelper(ctx);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_TABLE);
+        dbHelper.execAndLogSql(db, SQL_DROP_LOCATION_RING_TABLE);
+        dbHelper.onCreate(db);
+    }
+
+    @Test
+    public void directLocationDAOShouldNotBeSlowerThanContentProvider() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        long[] provider = benchmark("ContentProviderLocationDAO", new ContentProviderLocationDAO(ctx));
+        deleteDatabase();
+        long[] direct = benchmark("DirectLocationDAO", new DirectLocationDAO(ctx));
+
+        assertNotSlower("inserts", provider[0], direct[0]);
+        assertNotSlower("queries", provider[1], direct[1]);
+    }
+
+    /**
+     * Compares size and full scan time of compact location rows with row format
+     * used before database version 20 (REAL coordinates, has_* columns, provider names)
+     */
+    @Test
+    public void compactRowFormat() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        db.execSQL(SQL_DROP_LEGACY_LOCATION_TABLE);
+        db.execSQL("CREATE TABLE " + LocationEntry.LEGACY_TABLE_NAME + " (" +
+                LocationEntry._ID + " INTEGER PRIMARY KEY," +
+                LocationEntry.COLUMN_NAME_TIME + " INTEGER," +
+                LocationEntry.COLUMN_NAME_ACCURACY + " REAL," +
+                LocationEntry.COLUMN_NAME_SPEED + " REAL," +
+                LocationEntry.COLUMN_NAME_BEARING + " REAL," +
+                LocationEntry.COLUMN_NAME_ALTITUDE + " REAL," +
+                LocationEntry.COLUMN_NAME_LATITUDE + " REAL," +
+                LocationEntry.COLUMN_NAME_LONGITUDE + " REAL," +
+                LocationEntry.COLUMN_NAME_RADIUS + " REAL," +
+                LocationEntry.COLUMN_NAME_HAS_ACCURACY + " INTEGER," +
+                LocationEntry.COLUMN_NAME_HAS_SPEED + " INTEGER," +
+                LocationEntry.COLUMN_NAME_HAS_BEARING + " INTEGER," +
+                LocationEntry.COLUMN_NAME_HAS_ALTITUDE + " INTEGER," +
+                LocationEntry.COLUMN_NAME_HAS_RADIUS + " INTEGER," +
+                LocationEntry.COLUMN_NAME_PROVIDER + " TEXT," +
+                LocationEntry.COLUMN_NAME_LOCATION_PROVIDER + " INTEGER," +
+                LocationEntry.COLUMN_NAME_STATUS + " INTEGER," +
+                LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " INTEGER," +
+                LocationEntry.COLUMN_NAME_MOCK_FLAGS + " INTEGER)");
+
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(LOCATIONS_COUNT);
+        for (int i = 0; i < LOCATIONS_COUNT; i++) {
+            Location location = new Location("fused");
+            location.setLatitude(40.21 + i / 100000d);
+            location.setLongitude(23.45 + i / 100000d);
+            location.setAccuracy(12.5f);
+            location.setSpeed(1.25f);
+            location.setBearing(90.5f);
+            location.setAltitude(301.2);
+            location.setTime(1000 + i);
+            locations.add(BackgroundLocation.fromLocation(location));
+        }
+
+        long pages = getUsedPages(db);
+        db.beginTransaction();
+        try {
+            for (BackgroundLocation l : locations) {
+                ContentValues values = new ContentValues();
+                values.put(LocationEntry.COLUMN_NAME_TIME, l.getTime());
+                values.put(LocationEntry.COLUMN_NAME_ACCURACY, l.getAccuracy());
+                values.put(LocationEntry.COLUMN_NAME_SPEED, l.getSpeed());
+                values.put(LocationEntry.COLUMN_NAME_BEARING, l.getBearing());
+                values.put(LocationEntry.COLUMN_NAME_ALTITUDE, l.getAltitude());
+                values.put(LocationEntry.COLUMN_NAME_LATITUDE, l.getLatitude());
+                values.put(LocationEntry.COLUMN_NAME_LONGITUDE, l.getLongitude());
+                values.put(LocationEntry.COLUMN_NAME_RADIUS, l.getRadius());
+                values.put(LocationEntry.COLUMN_NAME_HAS_ACCURACY, l.hasAccuracy());
+                values.put(LocationEntry.COLUMN_NAME_HAS_SPEED, l.hasSpeed());
+                values.put(LocationEntry.COLUMN_NAME_HAS_BEARING, l.hasBearing());
+                values.put(LocationEntry.COLUMN_NAME_HAS_ALTITUDE, l.hasAltitude());
+                values.put(LocationEntry.COLUMN_NAME_HAS_RADIUS, l.hasRadius());
+                values.put(LocationEntry.COLUMN_NAME_PROVIDER, l.getProvider());
+                values.put(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER, l.getLocationProvider());
+                values.put(LocationEntry.COLUMN_NAME_STATUS, l.getStatus());
+                values.put(LocationEntry.COLUMN_NAME_MOCK_FLAGS, l.getMockFlags());
+                db.insert(LocationEntry.LEGACY_TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long legacyPages = getUsedPages(db) - pages;
+
+        pages = getUsedPages(db);
+        new SQLiteLocationDAO(db).persistLocations(locations);
+        long compactPages = getUsedPages(db) - pages;
+
+        long legacyScanMillis = scan(db, "SELECT sum(" + LocationEntry.COLUMN_NAME_LATITUDE + "), sum(" +
+                LocationEntry.COLUMN_NAME_LONGITUDE + "), count(" + LocationEntry.COLUMN_NAME_PROVIDER + ")" +
+                " FROM " + LocationEntry.LEGACY_TABLE_NAME);
+        long compactScanMillis = scan(db, "SELECT sum(" + LocationEntry.COLUMN_NAME_LATITUDE_E7 + "), sum(" +
+                LocationEntry.COLUMN_NAME_LONGITUDE_E7 + "), count(" + LocationEntry.COLUMN_NAME_PROVIDER_ID + ")" +
+                " FROM " + LocationEntry.TABLE_NAME);
+        db.execSQL(SQL_DROP_LEGACY_LOCATION_TABLE);
+
+        Log.i(TAG, "Legacy rows pages: " + legacyPages + " scanned rows/s: " + perSecond(LOCATIONS_COUNT * QUERY_ROUNDS, legacyScanMillis)
+                + " compact rows pages: " + compactPages + " scanned rows/s: " + perSecond(LOCATIONS_COUNT * QUERY_ROUNDS, compactScanMillis));
+        Assert.assertTrue(compactPages < legacyPages);
+    }
+
+    /**
+     * @return insert and query time in millis
+     */
+    private long[] benchmark(String name, LocationDAO dao) {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < LOCATIONS_COUNT; i++) {
+            Location location = new Location("fake");
+            location.setLatitude(40.21 + i / 1000d);
+            location.setLongitude(23.45 + i / 1000d);
+            location.setTime(1000 + i);
+            dao.persistLocation(BackgroundLocation.fromLocation(location));
+        }
+        long insertMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < QUERY_ROUNDS; i++) {
+            Assert.assertEquals(LOCATIONS_COUNT, dao.getAllLocations().size());
+        }
+        long queryMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, name + " inserts/s: " + perSecond(LOCATIONS_COUNT, insertMillis)
+                + " queried rows/s: " + perSecond(LOCATIONS_COUNT * QUERY_ROUNDS, queryMillis));
+        return new long[] { insertMillis, queryMillis };
+    }
+
+    private static void assertNotSlower(String what, long providerMillis, long directMillis) {
+        Assert.assertTrue("Direct DAO " + what + " took " + directMillis + "ms, provider " + providerMillis + "ms",
+                directMillis <= providerMillis * TOLERANCE + TOLERANCE_MILLIS);
+    }
+
+    private static long scan(SQLiteDatabase db, String sql) {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < QUERY_ROUNDS; i++) {
+            Cursor cursor = db.rawQuery(sql, null);
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals(LOCATIONS_COUNT, cursor.getLong(2));
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static long getUsedPages(SQLiteDatabase db) {
+        return pragma(db, "page_count") - pragma(db, "freelist_count");
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("PRAGMA " + name, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long perSecond(long count, long millis) {
+        return count * 1000 / Math.max(millis, 1);
+    }
+}
@@ -0,0 +1,163 @@
+package com.marianhello.bgloc;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.test.filters.SmallTest;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.LocationRetention;
+import com.marianhello.bgloc.data.sqlite.LocationRetentionPolicy;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LocationRetentionTest {
+    @Before
+    public void deleteDatabase() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteOpenHelper.getHelper(ctx).close();
+        ctx.deleteDatabase(SQLiteOpenHelper.SQLITE_DATABASE_NAME);
+    }
+
+    @Test
+    public void retentionShouldEvictSyncedLocationsFirst() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        persistLocations(dao, 200, 1000, false);
+        dao.markRange(1, 100, BackgroundLocation.DELETED);
+
+        // everything is over budget, single chunk of 50 locations is evicted
+        LocationRetentionPolicy policy = new LocationRetentionPolicy(1,
+                new LocationRetention.OldestSyncedFirst(), new LocationRetention.ProtectStationary());
+        Assert.assertEquals(50, new LocationRetention(db, policy, 50).enforce(1));
+
+        Assert.assertEquals(150, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+        Assert.assertEquals(50, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME,
+                "valid = ? AND _id > 50", new String[] { String.valueOf(BackgroundLocation.DELETED) }));
+        Assert.assertEquals(100, dao.getUnpostedLocationsCount());
+    }
+
+    @Test
+    public void retentionShouldKeepStationaryFixes() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        persistLocations(dao, 10, 1000, true);
+
+        LocationRetentionPolicy policy = new LocationRetentionPolicy(1, new LocationRetention.ProtectStationary());
+        Assert.assertEquals(5, new LocationRetention(db, policy).enforce());
+
+        for (BackgroundLocation location : dao.getAllLocations()) {
+            Assert.assertTrue(location.hasRadius());
+        }
+    }
+
+    @Test
+    public void retentionShouldThinDenseSegments() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        persistLocations(dao, 12, 1000, false);
+        // last two locations are pending post, they are kept
+        dao.markRange(1, 10, BackgroundLocation.DELETED);
+
+        LocationRetentionPolicy policy = new LocationRetentionPolicy(1, new LocationRetention.ThinDenseSegments(5000));
+        Assert.assertEquals(8, new LocationRetention(db, policy).enforce());
+
+        List<Long> times = new ArrayList<Long>();
+        for (BackgroundLocation location : dao.getAllLocations()) {
+            times.add(location.getTime());
+        }
+        Assert.assertEquals(Arrays.asList(0L, 5000L, 10000L, 11000L), times);
+    }
+
+    @Test
+    public void retentionShouldResumeThinningWhereItStopped() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        persistLocations(dao, 10, 1000, false);
+        dao.markRange(1, 10, BackgroundLocation.DELETED);
+
+        // every run evicts single chunk of 3 locations, so thinning is spread over several runs
+        LocationRetention.ThinDenseSegments thin = new LocationRetention.ThinDenseSegments(5000, 4);
+        LocationRetentionPolicy policy = new LocationRetentionPolicy(1, thin);
+        Assert.assertEquals(3, new LocationRetention(db, policy, 3).enforce(1));
+        Assert.assertEquals(7, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+        Assert.assertEquals(3, new LocationRetention(db, policy, 3).enforce(1));
+        Assert.assertEquals(2, new LocationRetention(db, policy, 3).enforce(1));
+
+        List<Long> times = new ArrayList<Long>();
+        for (BackgroundLocation location : dao.getAllLocations()) {
+            times.add(location.getTime());
+        }
+        Assert.assertEquals(Arrays.asList(0L, 5000L), times);
+    }
+
+    @Test
+    public void defaultRetentionShouldKeepUnsentLocations() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        persistLocations(dao, 20, 1000, false);
+        dao.markRange(1, 10, BackgroundLocation.DELETED);
+        dao.markRange(11, 15, BackgroundLocation.SYNC_PENDING);
+
+        Assert.assertEquals(10, new LocationRetention(db, new LocationRetentionPolicy(1)).enforce());
+
+        Assert.assertEquals(10, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+        Assert.assertEquals(0, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME,
+                "valid = ?", new String[] { String.valueOf(BackgroundLocation.DELETED) }));
+    }
+
+    @Test
+    public void retentionShouldNotEvictWithinBudget() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        persistLocations(dao, 10, 1000, false);
+
+        Assert.assertEquals(0, new LocationRetention(db, LocationRetentionPolicy.getDefault()).enforce());
+        LocationRetention retention = new LocationRetention(db, new LocationRetentionPolicy(Long.MAX_VALUE));
+        Assert.assertTrue(retention.getUsedBytes() > 0);
+        Assert.assertEquals(0, retention.enforce());
+        Assert.assertEquals(10, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+    }
+
+    /**
+     * Persist locations recorded in given interval
+     *
+     * @param stationary when true, every even location is stationary fix
+     */
+    private void persistLocations(SQLiteLocationDAO dao, int count, long intervalMillis, boolean stationary) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < count; i++) {
+            BackgroundLocation location = new BackgroundLocation();
+            location.setProvider("test");
+            location.setTime(i * intervalMillis);
+            location.setLatitude(40.21 + i);
+            location.setLongitude(23.45 + i);
+            if (stationary && i % 2 == 0) {
+                location.setRadius(50);
+            }
+            locations.add(location);
+        }
+        dao.persistLocations(locations);
+    }
+}
@@ -56,6 +56,9 @@ public class SQLiteConfigurationDAOTest {
         config.setUrl("http://server:1234/locations");
         config.setSyncUrl("http://server:1234/syncLocations");
         config.setSyncThreshold(200);
+        config.setPostBatchSize(20);
+        config.setPostBatchMaxDelay(3000);
+        config.setGzipRequests(true);
         config.setStopOnTerminate(false);
         config.setStopOnStillActivity(false);
         config.setStationaryRadius(50);
@@ -87,6 +90,9 @@ public class SQLiteConfigurationDAOTest {
             Assert.assertEquals("http://server:1234/locations", storedConfig.getUrl());
             Assert.assertEquals("http://server:1234/syncLocations", storedConfig.getSyncUrl());
             Assert.assertEquals(200, storedConfig.getSyncThreshold().intValue());
+            Assert.assertEquals(20, storedConfig.getPostBatchSize().intValue());
+            Assert.assertEquals(3000, storedConfig.getPostBatchMaxDelay().intValue());
+            Assert.assertEquals(Boolean.TRUE, storedConfig.getGzipRequests());
             Assert.assertEquals(Boolean.FALSE, storedConfig.getStopOnTerminate());
             Assert.assertEquals(Boolean.FALSE, storedConfig.getStopOnStillActivity());
             Assert.assertEquals(50, storedConfig.getStationaryRadius(), 0);
@@ -130,9 +130,9 @@ public class SQLiteLocationDAOTest {
         locations = dao.getValidLocations();
         Assert.assertEquals(10, locations.size());
 
-        dao.deleteAllLocations();
+        Assert.assertEquals(10, dao.deleteAllLocations());
 
-        locations = dao.getValidLocations();
+        locations = dao.getAllLocations();
         Assert.assertEquals(0, locations.size());
     }
 
@@ -3,6 +3,7 @@ package com.marianhello.bgloc;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.location.Location;
 import android.support.test.InstrumentationRegistry;
@@ -10,15 +11,19 @@ import android.support.test.runner.AndroidJUnit4;
 import android.support.test.filters.SmallTest;
 
 import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.LocationProviderDictionary;
+import com.marianhello.bgloc.data.sqlite.LocationSpatialIndex;
 import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
 import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
 import com.marianhello.bgloc.sqlite.SQLiteOpenHelper10;
+import com.marianhello.bgloc.sqlite.SQLiteOpenHelper19;
 
 import junit.framework.Assert;
 
 import org.json.JSONObject;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -133,19 +138,17 @@ public class SQLiteOpenHelperTest {
         Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_SPEED)));
         Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_BEARING)));
         Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_ALTITUDE)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_LATITUDE)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_LONGITUDE)));
+        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_LATITUDE_E7)));
+        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_LONGITUDE_E7)));
         Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_RADIUS)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ACCURACY)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_SPEED)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_BEARING)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ALTITUDE)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_RADIUS)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_PROVIDER)));
+        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_FLAGS)));
+        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_PROVIDER_ID)));
         Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_LOCATION_PROVIDER)));
         Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_STATUS)));
         Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_BATCH_START_MILLIS)));
-        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_MOCK_FLAGS)));
+        Assert.assertFalse(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_LATITUDE)));
+        Assert.assertFalse(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ACCURACY)));
+        Assert.assertFalse(columnNames.contains((SQLiteLocationContract.LocationEntry.COLUMN_NAME_PROVIDER)));
 
         cursor.close();
 
@@ -163,6 +166,7 @@ public class SQLiteOpenHelperTest {
         Assert.assertEquals(20, storedLocation.getSpeed(), 0);
         Assert.assertEquals("test", storedLocation.getProvider(), "test");
         Assert.assertEquals(1000, storedLocation.getTime(), 0);
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationProviderEntry.TABLE_NAME));
 
 
         // test configuration table upgrade
@@ -192,9 +196,66 @@ public class SQLiteOpenHelperTest {
         Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD)));
         Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_HEADERS)));
         Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_DELAY)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_BYTES)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_GZIP_REQUESTS)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_RETENTION_BUDGET_BYTES)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_RING_BUFFER)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES)));
+        Assert.assertTrue(columnNames.contains((SQLiteConfigurationContract.ConfigurationEntry.COLUMN_NAME_WAL_CHECKPOINT_MODE)));
 
         cursor.close();
 
+        // test location ring table was created
+
+        cursor = db.query(SQLiteLocationContract.LocationRingEntry.TABLE_NAME, null, null, null, null, null, null);
+        columnNames = Arrays.asList(cursor.getColumnNames());
+
+        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationRingEntry.COLUMN_NAME_CAPACITY)));
+        Assert.assertTrue(columnNames.contains((SQLiteLocationContract.LocationRingEntry.COLUMN_NAME_HEAD)));
+
+        cursor.close();
+
+        // test location indexes were created
+
+        cursor = db.query("sqlite_master", new String[] { "name" }, "type = 'index' AND tbl_name = ?",
+                new String[] { SQLiteLocationContract.LocationEntry.TABLE_NAME }, null, null, null);
+        List<String> indexNames = new ArrayList<String>();
+        while (cursor.moveToNext()) {
+            indexNames.add(cursor.getString(0));
+        }
+
+        Assert.assertTrue(indexNames.contains("time_idx"));
+        Assert.assertTrue(indexNames.contains("batch_id_idx"));
+        Assert.assertTrue(indexNames.contains("status_time_idx"));
+        Assert.assertTrue(indexNames.contains("ring_slot_idx"));
+
+        cursor.close();
+
+        // test location counters were created
+
+        cursor = db.query(SQLiteLocationContract.LocationCounterEntry.TABLE_NAME, null, null, null, null, null, null);
+        Assert.assertEquals(3, cursor.getCount());
+        cursor.close();
+
+        cursor = db.query("sqlite_master", new String[] { "name" }, "type = 'trigger' AND tbl_name = ? AND name LIKE 'location_counter_%'",
+                new String[] { SQLiteLocationContract.LocationEntry.TABLE_NAME }, null, null, null);
+        Assert.assertEquals(3, cursor.getCount());
+        cursor.close();
+
+        // test location archive was created
+
+        cursor = db.query("sqlite_master", new String[] { "name" }, "type = 'index' AND tbl_name = ?",
+                new String[] { SQLiteLocationContract.LocationArchiveEntry.TABLE_NAME }, null, null, null);
+        indexNames = new ArrayList<String>();
+        while (cursor.moveToNext()) {
+            indexNames.add(cursor.getString(0));
+        }
+        Assert.assertTrue(indexNames.contains("archive_time_min_idx"));
+        Assert.assertTrue(indexNames.contains("archive_time_max_idx"));
+        cursor.close();
+
 //        SQLiteConfigurationDAO configDAO = new SQLiteConfigurationDAO(db);
 //        try {
 //            Config storedConfig = configDAO.retrieveConfiguration();
@@ -222,4 +283,163 @@ public class SQLiteOpenHelperTest {
 //            Assert.fail(e.getMessage());
 //        }
     }
+
+    @Test
+    public void upgradeDatabaseFromVersion19ShouldKeepLocations() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db19 = new SQLiteOpenHelper19(ctx).getWritableDatabase();
+
+        for (int i = 0; i < 3; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_TIME, 1000 + i);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_LATITUDE, 40.21 + i);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_LONGITUDE, 23.45);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_ACCURACY, 10 + i);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ACCURACY, 1);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_SPEED, 0);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_SPEED, 0);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_PROVIDER, i == 0 ? "gps" : "network");
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_LOCATION_PROVIDER, 1);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_STATUS, i);
+            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_MOCK_FLAGS, 0);
+            db19.insert(SQLiteLocationContract.LocationEntry.TABLE_NAME, null, values);
+        }
+        db19.close();
+
+        // begin test
+
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        Assert.assertEquals(3, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+        Assert.assertEquals(0, DatabaseUtils.queryNumEntries(db, "sqlite_master",
+                "name = ?", new String[] { SQLiteLocationContract.LocationEntry.LEGACY_TABLE_NAME }));
+        Assert.assertEquals(2, DatabaseUtils.queryNumEntries(db, SQLiteLocationContract.LocationProviderEntry.TABLE_NAME));
+
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        for (int i = 0; i < 3; i++) {
+            BackgroundLocation location = dao.getLocationById(i + 1);
+            Assert.assertNotNull(location);
+            Assert.assertEquals(1000 + i, location.getTime());
+            Assert.assertEquals(40.21 + i, location.getLatitude(), 1e-7);
+            Assert.assertEquals(23.45, location.getLongitude(), 1e-7);
+            Assert.assertEquals(10 + i, location.getAccuracy(), 0);
+            Assert.assertFalse(location.hasSpeed());
+            Assert.assertEquals(i == 0 ? "gps" : "network", location.getProvider());
+            Assert.assertEquals(i, location.getStatus());
+        }
+
+        // database is switched to incremental auto vacuum by upgrade
+        Cursor cursor = db.rawQuery("PRAGMA auto_vacuum", null);
+        cursor.moveToFirst();
+        Assert.assertEquals(2, cursor.getInt(0)); // INCREMENTAL
+        cursor.close();
+    }
+
+    @Test
+    public void hotQueriesShouldNotScanLocationTable() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+
+        String[] queries = {
+                // getLocationsForSyncCount
+                "SELECT count(*) FROM location WHERE valid = 2 AND ( batch_start IS NULL OR batch_start < 1000 )",
+                // BatchManager.createBatchFromTemplate
+                "SELECT * FROM location WHERE valid = 2 AND ( batch_start IS NULL OR batch_start < 1000 ) ORDER BY time ASC",
+                // getFirstUnpostedLocation
+                "SELECT * FROM location WHERE _id = (SELECT MIN(_id) AS _id FROM location WHERE valid = 1 ORDER BY time)",
+                // getNextUnpostedLocation
+                "SELECT * FROM location WHERE _id = (SELECT MIN(_id) AS _id FROM location WHERE valid = 1 AND _id <> 1 ORDER BY time)",
+                // getUnpostedLocationsCount, getSyncPendingLocationsCount
+                "SELECT count FROM location_counter WHERE status = 1",
+                // deleteUnpostedLocations
+                "UPDATE location SET valid = 2 WHERE valid = 1",
+                // BatchManager.setBatchCompleted
+                "UPDATE location SET valid = 0 WHERE batch_start = 1000",
+                // getLocations (keyset page)
+                "SELECT * FROM location WHERE time >= 1000 AND (time > 1000 OR _id > 5) ORDER BY time ASC,_id ASC LIMIT 50",
+                "SELECT * FROM location WHERE time <= 1000 AND (time < 1000 OR _id < 5) ORDER BY time DESC,_id DESC LIMIT 50",
+                // getLocationsBetween, countLocationsBetween
+                "SELECT * FROM location WHERE time >= 0 AND time < 1000 ORDER BY time ASC,_id ASC",
+                "SELECT count(*) FROM location WHERE valid IN (1,2) AND time >= 0 AND time < 1000",
+        };
+
+        for (String sql : queries) {
+            assertNoTableScan(db, sql);
+        }
+    }
+
+    @Test
+    public void boundsQueryShouldUseSpatialIndex() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+        Assume.assumeTrue(LocationSpatialIndex.isAvailable(db));
+
+        // getLocationsInBounds
+        assertNoTableScan(db, "SELECT * FROM location WHERE " + LocationSpatialIndex.getSelection()
+                .replace("?", "1") + " AND lat_e7 BETWEEN 10000000 AND 20000000 AND lon_e7 BETWEEN 10000000 AND 20000000 AND time >= 0 AND time < 1000");
+    }
+
+    @Test
+    public void newDatabaseShouldUseIncrementalAutoVacuum() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteDatabase db = new SQLiteOpenHelper(ctx).getWritableDatabase();
+
+        Cursor cursor = db.rawQuery("PRAGMA auto_vacuum", null);
+        cursor.moveToFirst();
+        Assert.assertEquals(2, cursor.getInt(0)); // INCREMENTAL
+        cursor.close();
+    }
+
+    @Test
+    public void databaseShouldUseWriteAheadLog() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteOpenHelper helper = new SQLiteOpenHelper(ctx);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        Assert.assertTrue(cursor.moveToFirst());
+        Assert.assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+
+        helper.close();
+    }
+
+    @Test
+    public void readOnlyDatabaseShouldNotWaitForWriter() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        SQLiteOpenHelper helper = new SQLiteOpenHelper(ctx);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        SQLiteDatabase readOnlyDb = helper.getReadOnlyDatabase();
+
+        Assert.assertNotSame(db, readOnlyDb);
+        Assert.assertTrue(readOnlyDb.isReadOnly());
+
+        ContentValues values = LocationProviderDictionary.encode(db, new BackgroundLocation().toContentValues());
+        db.beginTransaction();
+        try {
+            db.insert(SQLiteLocationContract.LocationEntry.TABLE_NAME, null, values);
+            // reader sees last committed state while write transaction is in progress
+            Assert.assertEquals(0, DatabaseUtils.queryNumEntries(readOnlyDb, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals(1, DatabaseUtils.queryNumEntries(readOnlyDb, SQLiteLocationContract.LocationEntry.TABLE_NAME));
+
+        helper.close();
+    }
+
+    private void assertNoTableScan(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                // full table scan is reported as "SCAN TABLE location" (or "SCAN location" in newer sqlite)
+                boolean isTableScan = detail.matches("^SCAN (TABLE )?location\\b.*") && !detail.contains(" USING ");
+                Assert.assertFalse("Full table scan in: " + sql + " plan: " + detail, isTableScan);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
 }
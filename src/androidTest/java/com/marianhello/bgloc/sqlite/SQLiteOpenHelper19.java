@@ -0,0 +1,62 @@
+package com.marianhello.bgloc.sqlite;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract.ConfigurationEntry;
+
+/**
+ * Database in row format before version 20 (plain coordinates, has_* columns, provider name)
+ */
+public class SQLiteOpenHelper19 extends android.database.sqlite.SQLiteOpenHelper {
+    private static final String SQLITE_DATABASE_NAME = "cordova_bg_geolocation.db";
+    private static final int DATABASE_VERSION = 19;
+    private static final String TEXT_TYPE = " TEXT";
+    private static final String INTEGER_TYPE = " INTEGER";
+    private static final String REAL_TYPE = " REAL";
+
+    private static final String[] SQL_ALTER_TABLES = {
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_STATUS + INTEGER_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_RADIUS + REAL_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_HAS_ACCURACY + INTEGER_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_HAS_SPEED + INTEGER_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_HAS_BEARING + INTEGER_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_HAS_ALTITUDE + INTEGER_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_HAS_RADIUS + INTEGER_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + INTEGER_TYPE,
+            "ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " + LocationEntry.COLUMN_NAME_MOCK_FLAGS + INTEGER_TYPE,
+            "CREATE INDEX time_idx ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_NAME_TIME + ")",
+            "ALTER TABLE " + ConfigurationEntry.TABLE_NAME + " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_TEMPLATE + TEXT_TYPE,
+            "ALTER TABLE " + ConfigurationEntry.TABLE_NAME + " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_NOTIFICATIONS_ENABLED + INTEGER_TYPE
+    };
+
+    private final SQLiteOpenHelper10 helper10;
+
+    public SQLiteOpenHelper19(Context context) {
+        super(context, SQLITE_DATABASE_NAME, null, DATABASE_VERSION);
+        helper10 = new SQLiteOpenHelper10(context);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        helper10.onCreate(db);
+        for (String sql : SQL_ALTER_TABLES) {
+            db.execSQL(sql);
+            Log.d(this.getClass().getName(), sql);
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + ConfigurationEntry.TABLE_NAME);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+}
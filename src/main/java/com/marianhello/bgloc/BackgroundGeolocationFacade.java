@@ -8,6 +8,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.database.sqlite.SQLiteDatabase;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Build;
@@ -20,11 +21,19 @@ import android.text.TextUtils;
 
 import com.github.jparkie.promise.Promise;
 import com.intentfilter.androidpermissions.PermissionManager;
+import com.marianhello.bgloc.data.AsyncDAO;
 import com.marianhello.bgloc.data.BackgroundActivity;
 import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.ConfigurationDAO;
 import com.marianhello.bgloc.data.DAOFactory;
+import com.marianhello.bgloc.data.DatabaseExecutor;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationExporter;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationPage;
+import com.marianhello.bgloc.data.LocationVisitor;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
 import com.marianhello.bgloc.provider.LocationProvider;
 import com.marianhello.bgloc.service.LocationService;
 import com.marianhello.bgloc.service.LocationServiceImpl;
@@ -41,8 +50,12 @@ import com.marianhello.logging.UncaughtExceptionLogger;
 import org.json.JSONException;
 import org.slf4j.event.Level;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
 public class BackgroundGeolocationFacade {
@@ -281,6 +294,174 @@ public class BackgroundGeolocationFacade {
         return dao.getValidLocations();
     }
 
+    /**
+     * Non-blocking variant of getLocations()
+     *
+     * @param callback invoked on database thread (can be null)
+     */
+    public Future<Collection<BackgroundLocation>> getLocationsAsync(AsyncDAO.Callback<Collection<BackgroundLocation>> callback) {
+        return DAOFactory.createAsyncDAO(getContext()).getAllLocations(callback);
+    }
+
+    /**
+     * Non-blocking variant of getValidLocations()
+     *
+     * @param callback invoked on database thread (can be null)
+     */
+    public Future<Collection<BackgroundLocation>> getValidLocationsAsync(AsyncDAO.Callback<Collection<BackgroundLocation>> callback) {
+        return DAOFactory.createAsyncDAO(getContext()).getValidLocations(callback);
+    }
+
+    /**
+     * Get single page of stored locations ordered by time
+     *
+     * Pass time and id of last location of previous page to get next page.
+     * For first page use LocationPage.first(limit, direction).
+     *
+     * @param afterTime time of last location of previous page
+     * @param afterId id of last location of previous page
+     * @param limit maximum number of locations in page
+     * @param direction LocationPage.ASCENDING or LocationPage.DESCENDING
+     */
+    public Collection<BackgroundLocation> getLocations(long afterTime, long afterId, int limit, int direction) {
+        LocationDAO dao = DAOFactory.createLocationDAO(getContext());
+        return dao.getLocations(afterTime, afterId, limit, direction);
+    }
+
+    public Collection<BackgroundLocation> getLocations(LocationPage page) {
+        return getLocations(page.getAfterTime(), page.getAfterId(), page.getLimit(), page.getDirection());
+    }
+
+    /**
+     * Non-blocking variant of getLocations(LocationPage)
+     *
+     * @param callback invoked on database thread (can be null)
+     */
+    public Future<Collection<BackgroundLocation>> getLocationsAsync(LocationPage page, AsyncDAO.Callback<Collection<BackgroundLocation>> callback) {
+        return DAOFactory.createAsyncDAO(getContext()).getLocations(page, callback);
+    }
+
+    /**
+     * Get locations recorded in given time range (eg. today's route)
+     *
+     * For streaming use forEachLocation(LocationFilter.between(fromMillis, toMillis, statusMask), visitor).
+     *
+     * @param fromMillis inclusive, time in milliseconds since epoch
+     * @param toMillis exclusive, time in milliseconds since epoch
+     * @param statusMask combination of LocationFilter.STATUS_* masks
+     */
+    public Collection<BackgroundLocation> getLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+        LocationDAO dao = DAOFactory.createLocationDAO(getContext());
+        return dao.getLocationsBetween(fromMillis, toMillis, statusMask);
+    }
+
+    /**
+     * Non-blocking variant of getLocationsBetween
+     *
+     * @param callback invoked on database thread (can be null)
+     */
+    public Future<Collection<BackgroundLocation>> getLocationsBetweenAsync(long fromMillis, long toMillis, int statusMask,
+                                                                           AsyncDAO.Callback<Collection<BackgroundLocation>> callback) {
+        return DAOFactory.createAsyncDAO(getContext()).getLocationsBetween(fromMillis, toMillis, statusMask, callback);
+    }
+
+    /**
+     * Count locations recorded in given time range
+     *
+     * @param fromMillis inclusive, time in milliseconds since epoch
+     * @param toMillis exclusive, time in milliseconds since epoch
+     * @param statusMask combination of LocationFilter.STATUS_* masks
+     */
+    public long countLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+        LocationDAO dao = DAOFactory.createLocationDAO(getContext());
+        return dao.countLocationsBetween(fromMillis, toMillis, statusMask);
+    }
+
+    /**
+     * Get locations inside bounding box recorded in given time range
+     *
+     * @param fromTime inclusive, time in milliseconds since epoch
+     * @param toTime exclusive, time in milliseconds since epoch
+     */
+    public Collection<BackgroundLocation> getLocationsInBounds(double minLatitude, double minLongitude,
+                                                               double maxLatitude, double maxLongitude,
+                                                               long fromTime, long toTime) {
+        LocationDAO dao = DAOFactory.createLocationDAO(getContext());
+        return dao.getLocationsInBounds(minLatitude, minLongitude, maxLatitude, maxLongitude, fromTime, toTime);
+    }
+
+    /**
+     * Process stored locations one by one without loading them all into memory
+     *
+     * @param filter locations to be visited (eg. LocationFilter.VALID)
+     * @param visitor called for every location, location instance is reused between calls
+     */
+    public void forEachLocation(LocationFilter filter, LocationVisitor visitor) {
+        LocationDAO dao = DAOFactory.createLocationDAO(getContext());
+        dao.forEachLocation(filter, visitor);
+    }
+
+    /**
+     * Export locations recorded in given time range into file
+     *
+     * Locations are streamed from database into file, so export of any size
+     * runs in constant memory (see LocationExporter).
+     *
+     * @param file output file (overwritten)
+     * @param format one of LocationExporter.FORMAT_*
+     * @param fromMillis inclusive, time in milliseconds since epoch
+     * @param toMillis exclusive, time in milliseconds since epoch
+     * @param statusMask combination of LocationFilter.STATUS_* masks
+     * @param gzip compress output by gzip
+     * @param listener export progress listener (can be null)
+     * @return number of exported locations
+     */
+    public long exportLocations(File file, int format, long fromMillis, long toMillis, int statusMask,
+                                boolean gzip, LocationExporter.ProgressListener listener) throws IOException {
+        return exportLocations(DAOFactory.createLocationDAO(getContext()), file, format, fromMillis, toMillis,
+                statusMask, gzip, listener);
+    }
+
+    /**
+     * Non-blocking variant of exportLocations
+     *
+     * Export runs on its own low priority thread (DatabaseExecutor.getExportInstance),
+     * so it never delays queued database writes and reads. In provider process
+     * locations are read over dedicated read-only connection, other processes read
+     * through provider.
+     *
+     * @param callback notified with number of exported locations or IOException (can be null)
+     */
+    public Future<Long> exportLocationsAsync(final File file, final int format, final long fromMillis, final long toMillis,
+                                             final int statusMask, final boolean gzip,
+                                             final LocationExporter.ProgressListener listener,
+                                             AsyncDAO.Callback<Long> callback) {
+        final Context context = getContext();
+        return DAOFactory.createExportAsyncDAO(context).submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                if (!DAOFactory.isInProviderProcess(context)) {
+                    return exportLocations(file, format, fromMillis, toMillis, statusMask, gzip, listener);
+                }
+                SQLiteDatabase db = SQLiteOpenHelper.getHelper(context).openReadOnlyConnection();
+                try {
+                    return exportLocations(new SQLiteLocationDAO(db), file, format, fromMillis, toMillis,
+                            statusMask, gzip, listener);
+                } finally {
+                    db.close();
+                }
+            }
+        }, callback);
+    }
+
+    private long exportLocations(LocationDAO dao, File file, int format, long fromMillis, long toMillis, int statusMask,
+                                 boolean gzip, LocationExporter.ProgressListener listener) throws IOException {
+        LocationExporter exporter = new LocationExporter(dao, format);
+        exporter.setGzip(gzip);
+        exporter.setProgressListener(listener);
+        return exporter.export(fromMillis, toMillis, statusMask, file);
+    }
+
     public BackgroundLocation getStationaryLocation() {
         return mStationaryLocation;
     }
@@ -291,12 +472,51 @@ public class BackgroundGeolocationFacade {
         dao.deleteLocationById(locationId.longValue());
     }
 
+    /**
+     * Non-blocking variant of deleteLocation()
+     *
+     * Deletion is queued ahead of pending reads.
+     *
+     * @param locationId
+     * @param callback notified once location is deleted (can be null)
+     */
+    public Future<Void> deleteLocationAsync(Long locationId, AsyncDAO.Callback<Void> callback) {
+        logger.info("Deleting location locationId={}", locationId);
+        return DAOFactory.createAsyncDAO(getContext()).deleteLocationById(locationId.longValue(), callback);
+    }
+
     public void deleteAllLocations() {
         logger.info("Deleting all locations");
         LocationDAO dao = DAOFactory.createLocationDAO(getContext());
         dao.deleteAllLocations();
     }
 
+    /**
+     * Non-blocking variant of deleteAllLocations()
+     *
+     * Deletion is queued ahead of pending reads.
+     *
+     * @param callback notified with number of deleted locations (can be null)
+     */
+    public Future<Integer> deleteAllLocationsAsync(AsyncDAO.Callback<Integer> callback) {
+        logger.info("Deleting all locations");
+        return DAOFactory.createAsyncDAO(getContext()).deleteAllLocations(callback);
+    }
+
+    /**
+     * Physically remove all locations recorded before timestamp
+     *
+     * Note: blocking call, don't call from main thread
+     *
+     * @param timestamp time in milliseconds since epoch
+     * @return number of removed locations
+     */
+    public int purgeLocationsOlderThan(long timestamp) {
+        logger.info("Purging locations older than={}", timestamp);
+        LocationDAO dao = DAOFactory.createLocationDAO(getContext());
+        return dao.purgeOlderThan(timestamp);
+    }
+
     public BackgroundLocation getCurrentLocation(int timeout, long maximumAge, boolean enableHighAccuracy) throws PluginException {
         logger.info("Getting current location with timeout:{} maximumAge:{} enableHighAccuracy:{}", timeout, maximumAge, enableHighAccuracy);
 
@@ -380,6 +600,20 @@ public class BackgroundGeolocationFacade {
         }
     }
 
+    /**
+     * Non-blocking variant of getStoredConfig()
+     *
+     * @param callback notified with config or PluginException (can be null)
+     */
+    public Future<Config> getStoredConfigAsync(AsyncDAO.Callback<Config> callback) {
+        return DAOFactory.createAsyncDAO(getContext()).submit(DatabaseExecutor.PRIORITY_READ, new Callable<Config>() {
+            @Override
+            public Config call() throws PluginException {
+                return getStoredConfig();
+            }
+        }, callback);
+    }
+
     public Collection<LogEntry> getLogEntries(int limit) {
         DBLogReader logReader = new DBLogReader();
         return logReader.getEntries(limit, 0, Level.DEBUG);
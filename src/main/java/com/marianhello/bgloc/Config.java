@@ -63,6 +63,14 @@ public class Config implements Parcelable
     private Integer syncThreshold;
     private HashMap httpHeaders;
     private Integer maxLocations;
+    private Integer postBatchSize;
+    private Integer postBatchMaxDelay; //milliseconds
+    private Integer postBatchMaxBytes;
+    private Boolean gzipRequests;
+    private Long retentionBudgetBytes;
+    private Boolean ringBuffer;
+    private Integer walAutoCheckpointPages;
+    private String walCheckpointMode;
     private LocationTemplate template;
 
     public Config () {
@@ -94,6 +102,14 @@ public class Config implements Parcelable
         this.syncThreshold = config.syncThreshold;
         this.httpHeaders = CloneHelper.deepCopy(config.httpHeaders);
         this.maxLocations = config.maxLocations;
+        this.postBatchSize = config.postBatchSize;
+        this.postBatchMaxDelay = config.postBatchMaxDelay;
+        this.postBatchMaxBytes = config.postBatchMaxBytes;
+        this.gzipRequests = config.gzipRequests;
+        this.retentionBudgetBytes = config.retentionBudgetBytes;
+        this.ringBuffer = config.ringBuffer;
+        this.walAutoCheckpointPages = config.walAutoCheckpointPages;
+        this.walCheckpointMode = config.walCheckpointMode;
         if (config.template instanceof AbstractLocationTemplate) {
             this.template = ((AbstractLocationTemplate)config.template).clone();
         }
@@ -123,6 +139,14 @@ public class Config implements Parcelable
         setSyncUrl(in.readString());
         setSyncThreshold(in.readInt());
         setMaxLocations(in.readInt());
+        setPostBatchSize(in.readInt());
+        setPostBatchMaxDelay(in.readInt());
+        setPostBatchMaxBytes(in.readInt());
+        setGzipRequests((Boolean) in.readValue(null));
+        setRetentionBudgetBytes(in.readLong());
+        setRingBuffer((Boolean) in.readValue(null));
+        setWalAutoCheckpointPages((Integer) in.readValue(null));
+        setWalCheckpointMode(in.readString());
         Bundle bundle = in.readBundle();
         setHttpHeaders((HashMap<String, String>) bundle.getSerializable("httpHeaders"));
         setTemplate((LocationTemplate) bundle.getSerializable(AbstractLocationTemplate.BUNDLE_KEY));
@@ -154,6 +178,14 @@ public class Config implements Parcelable
         config.syncThreshold = 100;
         config.httpHeaders = null;
         config.maxLocations = 10000;
+        config.postBatchSize = 1; // each location is posted immediately
+        config.postBatchMaxDelay = 5000; //milliseconds
+        config.postBatchMaxBytes = 65536;
+        config.gzipRequests = false;
+        config.retentionBudgetBytes = 0L; // retention disabled
+        config.ringBuffer = false;
+        config.walAutoCheckpointPages = 1000;
+        config.walCheckpointMode = "PASSIVE";
         config.template = null;
 
         return config;
@@ -188,6 +220,14 @@ public class Config implements Parcelable
         out.writeString(getSyncUrl());
         out.writeInt(getSyncThreshold());
         out.writeInt(getMaxLocations());
+        out.writeInt(getPostBatchSize());
+        out.writeInt(getPostBatchMaxDelay());
+        out.writeInt(getPostBatchMaxBytes());
+        out.writeValue(getGzipRequests());
+        out.writeLong(getRetentionBudgetBytes());
+        out.writeValue(getRingBuffer());
+        out.writeValue(getWalAutoCheckpointPages());
+        out.writeString(getWalCheckpointMode());
         Bundle bundle = new Bundle();
         bundle.putSerializable("httpHeaders", getHttpHeaders());
         bundle.putSerializable(AbstractLocationTemplate.BUNDLE_KEY, (AbstractLocationTemplate) getTemplate());
@@ -522,6 +562,143 @@ public class Config implements Parcelable
         this.maxLocations = maxLocations;
     }
 
+    public boolean hasPostBatchSize() {
+        return postBatchSize != null;
+    }
+
+    /**
+     * Maximum number of locations posted to url in single request,
+     * values less than 2 disable batching
+     */
+    public Integer getPostBatchSize() {
+        return postBatchSize;
+    }
+
+    public void setPostBatchSize(Integer postBatchSize) {
+        this.postBatchSize = postBatchSize;
+    }
+
+    public boolean hasPostBatchMaxDelay() {
+        return postBatchMaxDelay != null;
+    }
+
+    /**
+     * Maximum time in milliseconds location waits in batch before batch is posted
+     */
+    public Integer getPostBatchMaxDelay() {
+        return postBatchMaxDelay;
+    }
+
+    public void setPostBatchMaxDelay(Integer postBatchMaxDelay) {
+        this.postBatchMaxDelay = postBatchMaxDelay;
+    }
+
+    public boolean hasPostBatchMaxBytes() {
+        return postBatchMaxBytes != null;
+    }
+
+    /**
+     * Maximum size of batch request body, 0 for no limit
+     */
+    public Integer getPostBatchMaxBytes() {
+        return postBatchMaxBytes;
+    }
+
+    public void setPostBatchMaxBytes(Integer postBatchMaxBytes) {
+        this.postBatchMaxBytes = postBatchMaxBytes;
+    }
+
+    public boolean isPostBatching() {
+        return postBatchSize != null && postBatchSize > 1;
+    }
+
+    public boolean hasGzipRequests() {
+        return gzipRequests != null;
+    }
+
+    /**
+     * Compress bodies posted to url and syncUrl (Content-Encoding: gzip)
+     */
+    public Boolean getGzipRequests() {
+        return gzipRequests;
+    }
+
+    public void setGzipRequests(Boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+    }
+
+    public boolean hasRetentionBudgetBytes() {
+        return retentionBudgetBytes != null;
+    }
+
+    /**
+     * Maximum size of database in bytes (see LocationRetention), 0 disables retention
+     */
+    public Long getRetentionBudgetBytes() {
+        return retentionBudgetBytes;
+    }
+
+    public void setRetentionBudgetBytes(Long retentionBudgetBytes) {
+        this.retentionBudgetBytes = retentionBudgetBytes;
+    }
+
+    public boolean hasRingBuffer() {
+        return ringBuffer != null;
+    }
+
+    /**
+     * Store locations in ring buffer of maxLocations slots (see LocationRingBuffer)
+     */
+    public Boolean getRingBuffer() {
+        return ringBuffer;
+    }
+
+    public void setRingBuffer(Boolean ringBuffer) {
+        this.ringBuffer = ringBuffer;
+    }
+
+    public boolean hasWalAutoCheckpointPages() {
+        return walAutoCheckpointPages != null;
+    }
+
+    /**
+     * WAL size (in pages) after which database is checkpointed automatically, 0 disables
+     * automatic checkpoints (see WalCheckpointPolicy)
+     */
+    public Integer getWalAutoCheckpointPages() {
+        return walAutoCheckpointPages;
+    }
+
+    public void setWalAutoCheckpointPages(Integer walAutoCheckpointPages) {
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+    }
+
+    public boolean hasWalCheckpointMode() {
+        return walCheckpointMode != null;
+    }
+
+    /**
+     * Mode of checkpoint run when database goes idle (PASSIVE, FULL, RESTART, TRUNCATE),
+     * NONE disables it (see WalCheckpointPolicy)
+     */
+    public String getWalCheckpointMode() {
+        return walCheckpointMode;
+    }
+
+    public void setWalCheckpointMode(String walCheckpointMode) {
+        this.walCheckpointMode = walCheckpointMode;
+    }
+
+    /**
+     * @return number of ring buffer slots or 0 when locations are stored unbounded
+     */
+    public int getRingSize() {
+        if (Boolean.TRUE.equals(ringBuffer) && hasMaxLocations() && maxLocations > 0) {
+            return maxLocations;
+        }
+        return 0;
+    }
+
     public boolean hasTemplate() {
         return template != null;
     }
@@ -564,6 +741,14 @@ public class Config implements Parcelable
                 .append(" syncThreshold=").append(getSyncThreshold())
                 .append(" httpHeaders=").append(getHttpHeaders().toString())
                 .append(" maxLocations=").append(getMaxLocations())
+                .append(" postBatchSize=").append(getPostBatchSize())
+                .append(" postBatchMaxDelay=").append(getPostBatchMaxDelay())
+                .append(" postBatchMaxBytes=").append(getPostBatchMaxBytes())
+                .append(" gzipRequests=").append(getGzipRequests())
+                .append(" retentionBudgetBytes=").append(getRetentionBudgetBytes())
+                .append(" ringBuffer=").append(getRingBuffer())
+                .append(" walAutoCheckpointPages=").append(getWalAutoCheckpointPages())
+                .append(" walCheckpointMode=").append(getWalCheckpointMode())
                 .append(" postTemplate=").append(hasTemplate() ? getTemplate().toString() : null)
                 .append("]")
                 .toString();
@@ -657,6 +842,30 @@ public class Config implements Parcelable
         if (config2.hasMaxLocations()) {
             merger.setMaxLocations(config2.getMaxLocations());
         }
+        if (config2.hasPostBatchSize()) {
+            merger.setPostBatchSize(config2.getPostBatchSize());
+        }
+        if (config2.hasPostBatchMaxDelay()) {
+            merger.setPostBatchMaxDelay(config2.getPostBatchMaxDelay());
+        }
+        if (config2.hasPostBatchMaxBytes()) {
+            merger.setPostBatchMaxBytes(config2.getPostBatchMaxBytes());
+        }
+        if (config2.hasGzipRequests()) {
+            merger.setGzipRequests(config2.getGzipRequests());
+        }
+        if (config2.hasRetentionBudgetBytes()) {
+            merger.setRetentionBudgetBytes(config2.getRetentionBudgetBytes());
+        }
+        if (config2.hasRingBuffer()) {
+            merger.setRingBuffer(config2.getRingBuffer());
+        }
+        if (config2.hasWalAutoCheckpointPages()) {
+            merger.setWalAutoCheckpointPages(config2.getWalAutoCheckpointPages());
+        }
+        if (config2.hasWalCheckpointMode()) {
+            merger.setWalCheckpointMode(config2.getWalCheckpointMode());
+        }
         if (config2.hasTemplate()) {
             merger.setTemplate(config2.getTemplate());
         }
@@ -0,0 +1,129 @@
+package com.marianhello.bgloc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Long lived client posting json to single url
+ *
+ * Url is parsed and request headers are copied once, when client is created,
+ * not for every request. Each request gets connect and read timeout and its response
+ * body is read to the end (see HttpPostService), so HttpURLConnection returns socket
+ * into its keep-alive pool and following request to same host reuses it, skipping
+ * TCP and TLS handshake. Connection is intentionally never disconnected, as that
+ * would close pooled socket.
+ *
+ * Create new client when url or headers change (see isFor).
+ * Request bodies are gzip compressed when setGzip is enabled.
+ */
+public class HttpPostClient {
+    private final String mUrl;
+    private final URL mURL;
+    private final Map<String, String> mHeaders;
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private volatile boolean mGzip;
+
+    public HttpPostClient(String url, Map<String, String> headers) throws MalformedURLException {
+        this(url, headers, HttpPostService.CONNECT_TIMEOUT, HttpPostService.READ_TIMEOUT);
+    }
+
+    /**
+     * @param url destination url
+     * @param headers headers sent with every request (may be null)
+     * @param connectTimeout milliseconds
+     * @param readTimeout milliseconds
+     * @throws MalformedURLException
+     */
+    public HttpPostClient(String url, Map<String, String> headers, int connectTimeout, int readTimeout)
+            throws MalformedURLException {
+        mUrl = url;
+        mURL = new URL(url);
+        mHeaders = headers == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new HashMap<String, String>(headers));
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    public boolean isGzip() {
+        return mGzip;
+    }
+
+    /**
+     * @return true if client posts to url with headers
+     */
+    public boolean isFor(String url, Map<String, String> headers) {
+        if (!mUrl.equals(url)) {
+            return false;
+        }
+        return headers == null ? mHeaders.isEmpty() : mHeaders.equals(headers);
+    }
+
+    protected HttpURLConnection openConnection() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) mURL.openConnection();
+        conn.setConnectTimeout(mConnectTimeout);
+        conn.setReadTimeout(mReadTimeout);
+        return conn;
+    }
+
+    /**
+     * @param body json
+     * @param headers request specific headers (may be null)
+     * @return response code
+     * @throws IOException
+     */
+    public int postJSONString(String body, Map headers) throws IOException {
+        return newService().postJSONString(body, headers);
+    }
+
+    /**
+     * @param file json file
+     * @param headers request specific headers (may be null)
+     * @param listener upload progress listener (may be null)
+     * @return response code
+     * @throws IOException
+     */
+    public int postJSONFile(File file, Map headers, HttpPostService.UploadingProgressListener listener)
+            throws IOException {
+        return newService().postJSONFile(file, headers, listener);
+    }
+
+    /**
+     * Post json file compressed by gzip beforehand (eg. batch file), file is sent as is
+     *
+     * @param file gzip compressed json file
+     * @param headers request specific headers (may be null)
+     * @param listener upload progress listener (may be null)
+     * @return response code
+     * @throws IOException
+     */
+    public int postGzippedJSONFile(File file, Map headers, HttpPostService.UploadingProgressListener listener)
+            throws IOException {
+        return newService().postGzippedJSONFile(file, headers, listener);
+    }
+
+    private HttpPostService newService() throws IOException {
+        HttpPostService service = new HttpPostService(openConnection(), mHeaders);
+        service.setGzip(mGzip);
+        return service;
+    }
+}
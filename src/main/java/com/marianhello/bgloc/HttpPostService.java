@@ -7,6 +7,7 @@ import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -14,16 +15,21 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
 
 import java.net.URL;
 import java.net.HttpURLConnection;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 
 public class HttpPostService {
     public static final int BUFFER_SIZE = 1024;
+    public static final int CONNECT_TIMEOUT = 15000; //milliseconds
+    public static final int READ_TIMEOUT = 30000; //milliseconds
 
     private String mUrl;
     private HttpURLConnection mHttpURLConnection;
+    private Map mDefaultHeaders;
+    private boolean mGzip;
 
     public interface UploadingProgressListener {
         void onProgress(int progress);
@@ -37,13 +43,81 @@ public class HttpPostService {
         mHttpURLConnection = httpURLConnection;
     }
 
+    /**
+     * @param httpURLConnection
+     * @param defaultHeaders headers sent before headers of request (may be null)
+     */
+    public HttpPostService(final HttpURLConnection httpURLConnection, Map defaultHeaders) {
+        mHttpURLConnection = httpURLConnection;
+        mDefaultHeaders = defaultHeaders;
+    }
+
+    /**
+     * Compress request body (Content-Encoding: gzip)
+     *
+     * String body is compressed in memory and posted with fixed length,
+     * file is compressed while it is streamed (chunked transfer).
+     */
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
     private HttpURLConnection openConnection() throws IOException {
         if (mHttpURLConnection == null) {
             mHttpURLConnection = (HttpURLConnection) new URL(mUrl).openConnection();
+            mHttpURLConnection.setConnectTimeout(CONNECT_TIMEOUT);
+            mHttpURLConnection.setReadTimeout(READ_TIMEOUT);
         }
         return mHttpURLConnection;
     }
 
+    private void setRequestHeaders(HttpURLConnection conn, Map headers) {
+        conn.setRequestProperty("Content-Type", "application/json");
+        if (mDefaultHeaders != null) {
+            Iterator<Map.Entry<String, String>> it = mDefaultHeaders.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, String> pair = it.next();
+                conn.setRequestProperty(pair.getKey(), pair.getValue());
+            }
+        }
+        Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> pair = it.next();
+            conn.setRequestProperty(pair.getKey(), pair.getValue());
+        }
+    }
+
+    /**
+     * Read response code and discard response body
+     *
+     * Connection can be kept alive and reused by next request to same host
+     * only if response body was read to the end and stream was closed.
+     */
+    private static int readResponse(HttpURLConnection conn) throws IOException {
+        int responseCode = conn.getResponseCode();
+        InputStream is = null;
+        try {
+            is = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+            if (is != null) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (is.read(buffer) != -1) {
+                    // discard
+                }
+            }
+        } catch (IOException e) {
+            // response code is known, connection just won't be reused
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    // noop
+                }
+            }
+        }
+        return responseCode;
+    }
+
     public int postJSON(JSONObject json, Map headers) throws IOException {
         String jsonString = "null";
         if (json != null) {
@@ -67,21 +141,23 @@ public class HttpPostService {
             headers = new HashMap();
         }
 
+        byte[] bytes = body.getBytes("UTF-8");
+        if (mGzip) {
+            bytes = gzip(bytes);
+        }
         HttpURLConnection conn = this.openConnection();
         conn.setDoOutput(true);
-        conn.setFixedLengthStreamingMode(body.length());
+        conn.setFixedLengthStreamingMode(bytes.length);
         conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, String> pair = it.next();
-            conn.setRequestProperty(pair.getKey(), pair.getValue());
+        setRequestHeaders(conn, headers);
+        if (mGzip) {
+            conn.setRequestProperty("Content-Encoding", "gzip");
         }
 
-        OutputStreamWriter os = null;
+        OutputStream os = null;
         try {
-            os = new OutputStreamWriter(conn.getOutputStream());
-            os.write(body);
+            os = conn.getOutputStream();
+            os.write(bytes);
 
         } finally {
             if (os != null) {
@@ -90,7 +166,7 @@ public class HttpPostService {
             }
         }
 
-        return conn.getResponseCode();
+        return readResponse(conn);
     }
 
     public int postJSONFile(File file, Map headers, UploadingProgressListener listener) throws IOException {
@@ -98,6 +174,26 @@ public class HttpPostService {
     }
 
     public int postJSONFile(InputStream stream, Map headers, UploadingProgressListener listener) throws IOException {
+        return postStream(stream, headers, listener, mGzip, false);
+    }
+
+    /**
+     * Post json file compressed by gzip beforehand, file is sent as is
+     */
+    public int postGzippedJSONFile(File file, Map headers, UploadingProgressListener listener) throws IOException {
+        return postGzippedJSONFile(new FileInputStream(file), headers, listener);
+    }
+
+    public int postGzippedJSONFile(InputStream stream, Map headers, UploadingProgressListener listener) throws IOException {
+        return postStream(stream, headers, listener, false, true);
+    }
+
+    /**
+     * @param compress compress stream while posting
+     * @param compressed stream is already compressed
+     */
+    private int postStream(InputStream stream, Map headers, UploadingProgressListener listener,
+                           boolean compress, boolean compressed) throws IOException {
         if (headers == null) {
             headers = new HashMap();
         }
@@ -105,19 +201,17 @@ public class HttpPostService {
         final long streamSize = stream.available();
         HttpURLConnection conn = this.openConnection();
 
-        conn.setDoInput(false);
         conn.setDoOutput(true);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+        if (!compress && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             conn.setFixedLengthStreamingMode(streamSize);
         } else {
+            // compressed length is not known until whole stream is compressed
             conn.setChunkedStreamingMode(0);
         }
         conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, String> pair = it.next();
-            conn.setRequestProperty(pair.getKey(), pair.getValue());
+        setRequestHeaders(conn, headers);
+        if (compress || compressed) {
+            conn.setRequestProperty("Content-Encoding", "gzip");
         }
 
         long progress = 0;
@@ -128,7 +222,9 @@ public class HttpPostService {
         BufferedOutputStream os = null;
         try {
             is = new BufferedInputStream(stream);
-            os = new BufferedOutputStream(conn.getOutputStream());
+            os = compress
+                    ? new BufferedOutputStream(new GZIPOutputStream(conn.getOutputStream(), BUFFER_SIZE))
+                    : new BufferedOutputStream(conn.getOutputStream());
             while ((bytesRead = is.read(buffer)) != -1) {
                 os.write(buffer, 0, bytesRead);
                 os.flush();
@@ -148,7 +244,18 @@ public class HttpPostService {
             }
         }
 
-        return conn.getResponseCode();
+        return readResponse(conn);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        GZIPOutputStream gos = new GZIPOutputStream(bos);
+        try {
+            gos.write(bytes);
+        } finally {
+            gos.close();
+        }
+        return bos.toByteArray();
     }
 
     public static int postJSON(String url, JSONObject json, Map headers) throws IOException {
@@ -1,19 +1,24 @@
 package com.marianhello.bgloc;
 
 import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.DatabaseExecutor;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationWriter;
 import com.marianhello.logging.LoggerManager;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.json.JSONException;
 
-import java.util.concurrent.ExecutorService;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Location task to post/sync locations from location providers
@@ -29,16 +34,45 @@ import java.util.UUID;
  * If only option.syncUrl is defined, locations are send only in single batch,
  * when number of locations reaches syncTreshold.
  *
+ * When created with LocationWriter, add only enqueues location and locations are
+ * committed by writer thread in groups, posting starts once location is committed.
+ * Locations left in writer's journal by killed process are committed once config
+ * is set again.
+ *
+ * Locations are stored unbounded, unless option.ringBuffer is set, then they are
+ * stored in ring buffer of option.maxLocations slots (see LocationRingBuffer).
+ *
+ * Every RETENTION_INTERVAL added locations, option.retentionBudgetBytes is enforced
+ * (see LocationRetention) on bulk lane of DatabaseExecutor, so eviction never delays persistence.
+ *
+ * When option.postBatchSize is greater than 1, locations are not posted one by one,
+ * but collected and posted as single json array, when batch reaches postBatchSize
+ * locations or postBatchMaxBytes bytes, or when oldest location waited postBatchMaxDelay.
+ * Batch is posted or failed as a whole and status of all its locations is changed
+ * by single markLocations call.
+ *
+ * Locations are posted by HttpPostClient created once per config, so connection
+ * to url is kept alive between posts.
  */
 public class PostLocationTask {
+    public static final int RETENTION_INTERVAL = 100;
+
     private final LocationDAO mLocationDAO;
     private final PostLocationTaskListener mTaskListener;
     private final ConnectivityListener mConnectivityListener;
+    private final LocationWriter mWriter;
 
-    private final ExecutorService mExecutor;
+    private final ScheduledExecutorService mExecutor;
+
+    // pending post batch, accessed only from executor thread
+    private final ArrayList<Long> mBatchIds = new ArrayList<Long>();
+    private final StringBuilder mBatchBody = new StringBuilder();
+    private ScheduledFuture<?> mBatchTimeout;
 
     private volatile boolean mHasConnectivity = true;
     private volatile Config mConfig;
+    private volatile HttpPostClient mHttpClient;
+    private final AtomicInteger mAddedCount = new AtomicInteger();
 
     private org.slf4j.Logger logger;
 
@@ -51,18 +85,57 @@ public class PostLocationTask {
 
     public PostLocationTask(LocationDAO dao, PostLocationTaskListener taskListener,
                             ConnectivityListener connectivityListener) {
+        this(dao, taskListener, connectivityListener, null);
+    }
+
+    /**
+     * @param dao location DAO
+     * @param taskListener
+     * @param connectivityListener
+     * @param writer group commit writer (may be null)
+     */
+    public PostLocationTask(LocationDAO dao, PostLocationTaskListener taskListener,
+                            ConnectivityListener connectivityListener, LocationWriter writer) {
         logger = LoggerManager.getLogger(PostLocationTask.class);
         logger.info("Creating PostLocationTask");
 
         mLocationDAO = dao;
         mTaskListener = taskListener;
         mConnectivityListener = connectivityListener;
+        mWriter = writer;
 
-        mExecutor = Executors.newSingleThreadExecutor();
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
     }
 
     public void setConfig(Config config) {
+        boolean replay = mConfig == null && mWriter != null;
+        mHttpClient = createHttpClient(config, mHttpClient);
         mConfig = config;
+        if (mWriter != null) {
+            mWriter.setRingSize(config.getRingSize());
+        }
+        if (replay) {
+            int count = mWriter.replayJournal(mCommitCallback);
+            if (count > 0) {
+                logger.info("Replaying {} journaled locations", count);
+            }
+        }
+    }
+
+    private HttpPostClient createHttpClient(Config config, HttpPostClient client) {
+        if (!config.hasValidUrl()) {
+            return null;
+        }
+        if (client == null || !client.isFor(config.getUrl(), config.getHttpHeaders())) {
+            try {
+                client = new HttpPostClient(config.getUrl(), config.getHttpHeaders());
+            } catch (MalformedURLException e) {
+                logger.warn("Invalid url: {}", config.getUrl());
+                return null;
+            }
+        }
+        client.setGzip(Boolean.TRUE.equals(config.getGzipRequests()));
+        return client;
     }
 
     public void setHasConnectivity(boolean hasConnectivity) {
@@ -84,7 +157,27 @@ public class PostLocationTask {
             return;
         }
 
-        long locationId = mLocationDAO.persistLocation(location);
+        if (mAddedCount.incrementAndGet() % RETENTION_INTERVAL == 0
+                && mConfig.hasRetentionBudgetBytes() && mConfig.getRetentionBudgetBytes() > 0) {
+            enforceRetention(mConfig.getRetentionBudgetBytes());
+        }
+
+        if (mWriter != null) {
+            try {
+                mWriter.write(location, mCommitCallback);
+                return;
+            } catch (RejectedExecutionException ex) {
+                // writer is closed, persist directly
+            }
+        }
+
+        long locationId;
+        int ringSize = mConfig.getRingSize();
+        if (ringSize > 0) {
+            locationId = mLocationDAO.persistLocationToRing(location, ringSize);
+        } else {
+            locationId = mLocationDAO.persistLocation(location);
+        }
         location.setLocationId(locationId);
 
         try {
@@ -99,11 +192,51 @@ public class PostLocationTask {
         }
     }
 
+    private final LocationWriter.Callback mCommitCallback = new LocationWriter.Callback() {
+        @Override
+        public void onCommitted(final BackgroundLocation location) {
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        post(location);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // no more posting, location goes straight to sync queue
+                mLocationDAO.updateLocationForSync(location.getLocationId());
+            }
+        }
+    };
+
+    private void enforceRetention(final long budgetBytes) {
+        DatabaseExecutor.getInstance().submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int evicted = mLocationDAO.enforceRetention(budgetBytes);
+                if (evicted > 0) {
+                    logger.info("Evicted {} locations over retention budget", evicted);
+                }
+                return evicted;
+            }
+        });
+    }
+
     public void shutdown() {
         shutdown(60);
     }
 
     public void shutdown(int waitSeconds) {
+        if (mWriter != null) {
+            // commit pending locations, so they are queued for posting before executor shuts down
+            mWriter.close();
+        }
+        try {
+            // post incomplete batch now, instead of waiting for its timeout
+            mExecutor.execute(mPostBatchTask);
+        } catch (RejectedExecutionException ex) {
+            // already shut down
+        }
         mExecutor.shutdown();
         try {
             if (!mExecutor.awaitTermination(waitSeconds, TimeUnit.SECONDS)) {
@@ -115,9 +248,23 @@ public class PostLocationTask {
         }
     }
 
+    private final Runnable mPostBatchTask = new Runnable() {
+        @Override
+        public void run() {
+            postBatch();
+        }
+    };
+
     private void post(final BackgroundLocation location) {
         long locationId = location.getLocationId();
 
+        if (mConfig.isPostBatching() && mHasConnectivity && mConfig.hasValidUrl()) {
+            addToBatch(location);
+            return;
+        }
+        // batch left from batching mode (config changed or connectivity lost) goes first
+        postBatch();
+
         if (mHasConnectivity && mConfig.hasValidUrl()) {
             if (postLocation(location)) {
                 mLocationDAO.deleteLocationById(locationId);
@@ -130,8 +277,67 @@ public class PostLocationTask {
             mLocationDAO.updateLocationForSync(locationId);
         }
 
+        requestSyncIfNeeded();
+    }
+
+    private void addToBatch(BackgroundLocation location) {
+        String json;
+        try {
+            json = String.valueOf(mConfig.getTemplate().locationToJson(location));
+        } catch (JSONException e) {
+            logger.warn("Location to json failed: {}", location.toString());
+            mLocationDAO.updateLocationForSync(location.getLocationId());
+            requestSyncIfNeeded();
+            return;
+        }
+
+        int maxBytes = mConfig.hasPostBatchMaxBytes() ? mConfig.getPostBatchMaxBytes() : 0;
+        if (maxBytes > 0 && !mBatchIds.isEmpty() && mBatchBody.length() + json.length() + 1 > maxBytes) {
+            // location doesn't fit, post batch without it
+            postBatch();
+        }
+
+        mBatchBody.append(mBatchIds.isEmpty() ? '[' : ',').append(json);
+        mBatchIds.add(location.getLocationId());
+
+        if (mBatchIds.size() >= mConfig.getPostBatchSize() || (maxBytes > 0 && mBatchBody.length() + 1 >= maxBytes)) {
+            postBatch();
+        } else if (mBatchTimeout == null) {
+            long maxDelay = mConfig.hasPostBatchMaxDelay() ? mConfig.getPostBatchMaxDelay() : 0;
+            mBatchTimeout = mExecutor.schedule(mPostBatchTask, maxDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void postBatch() {
+        if (mBatchTimeout != null) {
+            mBatchTimeout.cancel(false);
+            mBatchTimeout = null;
+        }
+        if (mBatchIds.isEmpty()) {
+            return;
+        }
+
+        long[] ids = new long[mBatchIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mBatchIds.get(i);
+        }
+        String body = mBatchBody.append(']').toString();
+        mBatchIds.clear();
+        mBatchBody.setLength(0);
+
+        logger.debug("Posting batch of {} locations", ids.length);
+        if (mHasConnectivity && postJSON(body)) {
+            mLocationDAO.markLocations(ids, BackgroundLocation.DELETED);
+            return;
+        }
+
+        mLocationDAO.markLocations(ids, BackgroundLocation.SYNC_PENDING);
+        requestSyncIfNeeded();
+    }
+
+    private void requestSyncIfNeeded() {
         if (mConfig.hasValidSyncUrl()) {
-            long syncLocationsCount = mLocationDAO.getLocationsForSyncCount(System.currentTimeMillis());
+            long syncLocationsCount = mLocationDAO.getSyncPendingLocationsCount();
             if (syncLocationsCount >= mConfig.getSyncThreshold()) {
                 logger.debug("Attempt to sync locations: {} threshold: {}", syncLocationsCount, mConfig.getSyncThreshold());
                 mTaskListener.onSyncRequested();
@@ -141,26 +347,28 @@ public class PostLocationTask {
 
     private boolean postLocation(BackgroundLocation location) {
         logger.debug("Executing PostLocationTask#postLocation");
-        JSONObject jsonLocation;
+        String jsonLocation;
         try {
-            JSONArray jsonLocations = new JSONArray();
-            jsonLocations.put(mConfig.getTemplate().locationToJson(location));
-            jsonLocation = jsonLocations.getJSONObject(0);
+            jsonLocation = String.valueOf(mConfig.getTemplate().locationToJson(location));
         } catch (JSONException e) {
             logger.warn("Location to json failed: {}", location.toString());
             return false;
         }
 
-        String url = mConfig.getUrl();
+        return postJSON(jsonLocation);
+    }
+
+    private boolean postJSON(String body) {
+        HttpPostClient client = mHttpClient;
+        if (client == null) {
+            return false;
+        }
         int responseCode;
 
         try {
-            HashMap<String, String> httpHeaders = new HashMap<String, String>();
-            httpHeaders.putAll(mConfig.getHttpHeaders());
             String correlationId = "M3-" + UUID.randomUUID().toString();
-            httpHeaders.put("correlationID", correlationId);
-            logger.debug("Posting json to url: {} headers: {}", url, httpHeaders);
-            responseCode = HttpPostService.postJSON(url, jsonLocation, httpHeaders);
+            logger.debug("Posting json to url: {} correlationID: {}", client.getUrl(), correlationId);
+            responseCode = client.postJSONString(body, Collections.singletonMap("correlationID", correlationId));
         } catch (Exception e) {
             mHasConnectivity = mConnectivityListener.hasConnectivity();
             logger.warn("Error while posting locations: {}", e.getMessage());
@@ -0,0 +1,176 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.bgloc.Config;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Non-blocking facade of LocationDAO and ConfigurationDAO
+ *
+ * Every call is queued on DatabaseExecutor and returns immediately. Result is available
+ * through returned future and optional callback. Callbacks are invoked on database thread,
+ * post to main looper when touching UI.
+ */
+public class AsyncDAO {
+    public interface Callback<T> {
+        void onResult(T result);
+        void onError(Throwable error);
+    }
+
+    private final LocationDAO mLocationDAO;
+    private final ConfigurationDAO mConfigurationDAO;
+    private final DatabaseExecutor mExecutor;
+
+    public AsyncDAO(LocationDAO locationDAO, ConfigurationDAO configurationDAO, DatabaseExecutor executor) {
+        mLocationDAO = locationDAO;
+        mConfigurationDAO = configurationDAO;
+        mExecutor = executor;
+    }
+
+    public Future<Collection<BackgroundLocation>> getAllLocations(Callback<Collection<BackgroundLocation>> callback) {
+        return submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Collection<BackgroundLocation>>() {
+            @Override
+            public Collection<BackgroundLocation> call() {
+                return mLocationDAO.getAllLocations();
+            }
+        }, callback);
+    }
+
+    public Future<Collection<BackgroundLocation>> getValidLocations(Callback<Collection<BackgroundLocation>> callback) {
+        return submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Collection<BackgroundLocation>>() {
+            @Override
+            public Collection<BackgroundLocation> call() {
+                return mLocationDAO.getValidLocations();
+            }
+        }, callback);
+    }
+
+    public Future<Collection<BackgroundLocation>> getLocations(final LocationPage page, Callback<Collection<BackgroundLocation>> callback) {
+        return submit(DatabaseExecutor.PRIORITY_READ, new Callable<Collection<BackgroundLocation>>() {
+            @Override
+            public Collection<BackgroundLocation> call() {
+                return mLocationDAO.getLocations(page.getAfterTime(), page.getAfterId(), page.getLimit(), page.getDirection());
+            }
+        }, callback);
+    }
+
+    public Future<Collection<BackgroundLocation>> getLocationsBetween(final long fromMillis, final long toMillis, final int statusMask,
+                                                                      Callback<Collection<BackgroundLocation>> callback) {
+        return submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Collection<BackgroundLocation>>() {
+            @Override
+            public Collection<BackgroundLocation> call() {
+                return mLocationDAO.getLocationsBetween(fromMillis, toMillis, statusMask);
+            }
+        }, callback);
+    }
+
+    public Future<Long> countLocationsBetween(final long fromMillis, final long toMillis, final int statusMask, Callback<Long> callback) {
+        return submit(DatabaseExecutor.PRIORITY_READ, new Callable<Long>() {
+            @Override
+            public Long call() {
+                return mLocationDAO.countLocationsBetween(fromMillis, toMillis, statusMask);
+            }
+        }, callback);
+    }
+
+    public Future<Collection<BackgroundLocation>> getLocationsInBounds(final double minLatitude, final double minLongitude,
+                                                                       final double maxLatitude, final double maxLongitude,
+                                                                       final long fromTime, final long toTime,
+                                                                       Callback<Collection<BackgroundLocation>> callback) {
+        return submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Collection<BackgroundLocation>>() {
+            @Override
+            public Collection<BackgroundLocation> call() {
+                return mLocationDAO.getLocationsInBounds(minLatitude, minLongitude, maxLatitude, maxLongitude, fromTime, toTime);
+            }
+        }, callback);
+    }
+
+    /**
+     * Visit locations on database thread
+     */
+    public Future<Void> forEachLocation(final LocationFilter filter, final LocationVisitor visitor, Callback<Void> callback) {
+        return submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Void>() {
+            @Override
+            public Void call() {
+                mLocationDAO.forEachLocation(filter, visitor);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> deleteLocationById(final long locationId, Callback<Void> callback) {
+        return submit(DatabaseExecutor.PRIORITY_WRITE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                mLocationDAO.deleteLocationById(locationId);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Integer> deleteAllLocations(Callback<Integer> callback) {
+        return submit(DatabaseExecutor.PRIORITY_WRITE, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mLocationDAO.deleteAllLocations();
+            }
+        }, callback);
+    }
+
+    public Future<Integer> purgeOlderThan(final long timestamp, Callback<Integer> callback) {
+        return submit(DatabaseExecutor.PRIORITY_WRITE, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mLocationDAO.purgeOlderThan(timestamp);
+            }
+        }, callback);
+    }
+
+    public Future<Config> retrieveConfiguration(Callback<Config> callback) {
+        return submit(DatabaseExecutor.PRIORITY_READ, new Callable<Config>() {
+            @Override
+            public Config call() throws Exception {
+                return mConfigurationDAO.retrieveConfiguration();
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> persistConfiguration(final Config config, Callback<Boolean> callback) {
+        return submit(DatabaseExecutor.PRIORITY_WRITE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mConfigurationDAO.persistConfiguration(config);
+            }
+        }, callback);
+    }
+
+    /**
+     * Run custom database work on given lane
+     *
+     * @param priority one of DatabaseExecutor.PRIORITY_*
+     * @param task database work
+     * @param callback notified with result or error (can be null)
+     */
+    public <T> Future<T> submit(int priority, final Callable<T> task, final Callback<T> callback) {
+        return mExecutor.submit(priority, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                T result;
+                try {
+                    result = task.call();
+                } catch (Exception e) {
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                    throw e;
+                }
+                if (callback != null) {
+                    callback.onResult(result);
+                }
+                return result;
+            }
+        });
+    }
+}
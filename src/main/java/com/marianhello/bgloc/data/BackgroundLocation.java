@@ -166,34 +166,7 @@ public class BackgroundLocation implements Parcelable {
      * @return the note
      */
     public static BackgroundLocation fromCursor(Cursor c) {
-        BackgroundLocation l = new BackgroundLocation();
-
-        l.setProvider(c.getString(c.getColumnIndex(LocationEntry.COLUMN_NAME_PROVIDER)));
-        l.setTime(c.getLong(c.getColumnIndex(LocationEntry.COLUMN_NAME_TIME)));
-        if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_ACCURACY)) == 1) {
-            l.setAccuracy(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_ACCURACY)));
-        }
-        if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_SPEED)) == 1) {
-            l.setSpeed(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_SPEED)));
-        }
-        if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_BEARING)) == 1) {
-            l.setBearing(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_BEARING)));
-        }
-        if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_ALTITUDE)) == 1) {
-            l.setAltitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_ALTITUDE)));
-        }
-        if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_RADIUS)) == 1) {
-            l.setRadius(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_RADIUS)));
-        }
-        l.setLatitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE)));
-        l.setLongitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_LONGITUDE)));
-        l.setLocationProvider(c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER)));
-        l.setBatchStartMillis(c.getLong(c.getColumnIndex(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS)));
-        l.setStatus(c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_STATUS)));
-        l.setLocationId(c.getLong(c.getColumnIndex(LocationEntry._ID)));
-        l.setMockFlags(c.getInt((c.getColumnIndex(LocationEntry.COLUMN_NAME_MOCK_FLAGS))));
-
-        return l;
+        return new LocationCursorReader(c).read();
     }
 
     @Override
@@ -240,6 +213,33 @@ public class BackgroundLocation implements Parcelable {
         return new BackgroundLocation(this);
     }
 
+    /**
+     * Reset all properties to initial state, so instance can be reused
+     */
+    void reset() {
+        locationId = null;
+        locationProvider = null;
+        batchStartMillis = null;
+        provider = null;
+        latitude = 0.0;
+        longitude = 0.0;
+        time = 0;
+        elapsedRealtimeNanos = 0;
+        accuracy = 0.0f;
+        speed = 0.0f;
+        bearing = 0.0f;
+        altitude = 0.0f;
+        radius = 0.0f;
+        hasAccuracy = false;
+        hasAltitude = false;
+        hasSpeed = false;
+        hasBearing = false;
+        hasRadius = false;
+        mockFlags = 0x0000;
+        status = POST_PENDING;
+        extras = null;
+    }
+
     /**
      * Returns locationId if location was stored in db.
      * @return locationId or null
@@ -875,31 +875,42 @@ public class BackgroundLocation implements Parcelable {
 
     /**
      * Return the contentvalues for this record
+     *
+     * Values are in compact row format, except of provider which is passed by name
+     * (see LocationProviderDictionary.encode).
      */
     public ContentValues toContentValues() {
         ContentValues values = new ContentValues();
         //values.put(LocationEntry._ID, locationId);
         values.put(LocationEntry.COLUMN_NAME_TIME, time);
-        values.put(LocationEntry.COLUMN_NAME_ACCURACY, accuracy);
-        values.put(LocationEntry.COLUMN_NAME_SPEED, speed);
-        values.put(LocationEntry.COLUMN_NAME_BEARING, bearing);
-        values.put(LocationEntry.COLUMN_NAME_ALTITUDE, altitude);
-        values.put(LocationEntry.COLUMN_NAME_LATITUDE, latitude);
-        values.put(LocationEntry.COLUMN_NAME_LONGITUDE, longitude);
-        values.put(LocationEntry.COLUMN_NAME_RADIUS, radius);
-        values.put(LocationEntry.COLUMN_NAME_HAS_ACCURACY, hasAccuracy);
-        values.put(LocationEntry.COLUMN_NAME_HAS_SPEED, hasSpeed);
-        values.put(LocationEntry.COLUMN_NAME_HAS_BEARING, hasBearing);
-        values.put(LocationEntry.COLUMN_NAME_HAS_ALTITUDE, hasAltitude);
-        values.put(LocationEntry.COLUMN_NAME_HAS_RADIUS, hasRadius);
+        values.put(LocationEntry.COLUMN_NAME_ACCURACY, hasAccuracy ? accuracy : null);
+        values.put(LocationEntry.COLUMN_NAME_SPEED, hasSpeed ? speed : null);
+        values.put(LocationEntry.COLUMN_NAME_BEARING, hasBearing ? bearing : null);
+        values.put(LocationEntry.COLUMN_NAME_ALTITUDE, hasAltitude ? altitude : null);
+        values.put(LocationEntry.COLUMN_NAME_LATITUDE_E7, LocationEntry.toE7(latitude));
+        values.put(LocationEntry.COLUMN_NAME_LONGITUDE_E7, LocationEntry.toE7(longitude));
+        values.put(LocationEntry.COLUMN_NAME_RADIUS, hasRadius ? radius : null);
+        values.put(LocationEntry.COLUMN_NAME_FLAGS, getFlags());
         values.put(LocationEntry.COLUMN_NAME_PROVIDER, provider);
         values.put(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER, locationProvider);
         values.put(LocationEntry.COLUMN_NAME_STATUS, status);
         values.put(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS, batchStartMillis);
-        values.put(LocationEntry.COLUMN_NAME_MOCK_FLAGS, mockFlags);
         return values;
     }
 
+    /**
+     * Returns has_* flags and mock flags packed into flags column of location table
+     */
+    public int getFlags() {
+        int flags = mockFlags << LocationEntry.FLAG_MOCK_SHIFT;
+        if (hasAccuracy) flags |= LocationEntry.FLAG_HAS_ACCURACY;
+        if (hasSpeed) flags |= LocationEntry.FLAG_HAS_SPEED;
+        if (hasBearing) flags |= LocationEntry.FLAG_HAS_BEARING;
+        if (hasAltitude) flags |= LocationEntry.FLAG_HAS_ALTITUDE;
+        if (hasRadius) flags |= LocationEntry.FLAG_HAS_RADIUS;
+        return flags;
+    }
+
     public Object getValueForKey(String key) {
         if ("@id".equals(key)) {
             return locationId;
@@ -0,0 +1,35 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.bgloc.Config;
+
+import org.json.JSONException;
+
+/**
+ * Configuration DAO reading through process wide ConfigurationCache
+ *
+ * Only first retrieve (and first one after configuration was persisted)
+ * goes to delegate DAO, every retrieve returns configuration caller can modify.
+ */
+public class CachedConfigurationDAO implements ConfigurationDAO {
+    private final ConfigurationDAO mDelegate;
+    private final ConfigurationCache mCache;
+
+    public CachedConfigurationDAO(ConfigurationDAO delegate, ConfigurationCache cache) {
+        mDelegate = delegate;
+        mCache = cache;
+    }
+
+    @Override
+    public boolean persistConfiguration(Config config) throws NullPointerException {
+        try {
+            return mDelegate.persistConfiguration(config);
+        } finally {
+            mCache.notifyChanged();
+        }
+    }
+
+    @Override
+    public Config retrieveConfiguration() throws JSONException {
+        return mCache.get(mDelegate);
+    }
+}
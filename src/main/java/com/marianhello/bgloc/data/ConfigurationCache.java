@@ -0,0 +1,138 @@
+package com.marianhello.bgloc.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.ResourceResolver;
+import com.marianhello.bgloc.data.provider.LocationContentProvider;
+import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract.ConfigurationEntry;
+
+import org.json.JSONException;
+
+/**
+ * Process wide cache of stored configuration
+ *
+ * Configuration is loaded from database once, readers then get copy of cached
+ * snapshot without touching database or parsing JSON columns (headers, template).
+ * Copies are handed out, so no reader can change snapshot seen by others.
+ *
+ * Every invalidation bumps version of cache. Loaded configuration is kept only
+ * when version did not change while it was being read, so slow read racing
+ * with persist never puts stale configuration back. Processes don't share
+ * cache, persisted configuration is announced by change of getContentUri,
+ * which invalidates caches of other processes.
+ */
+public class ConfigurationCache {
+    private static ConfigurationCache sInstance;
+
+    private final ContentResolver mResolver;
+    private final Uri mContentUri;
+    private final ContentObserver mObserver;
+
+    private Config mSnapshot;
+    private boolean mLoaded = false;
+    private long mVersion = 0;
+
+    /**
+     * Create cache not connected to other processes
+     */
+    public ConfigurationCache() {
+        mResolver = null;
+        mContentUri = null;
+        mObserver = null;
+    }
+
+    private ConfigurationCache(ContentResolver resolver, Uri contentUri) {
+        mResolver = resolver;
+        mContentUri = contentUri;
+        mObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        mResolver.registerContentObserver(mContentUri, false, mObserver);
+    }
+
+    public static synchronized ConfigurationCache getInstance(Context context) {
+        if (sInstance == null) {
+            ResourceResolver resourceResolver = ResourceResolver.newInstance(context);
+            sInstance = new ConfigurationCache(context.getApplicationContext().getContentResolver(),
+                    getContentUri(resourceResolver.getAuthority()));
+        }
+        return sInstance;
+    }
+
+    /**
+     * The content URI announcing configuration changes
+     *
+     * Used only for change notifications, LocationContentProvider doesn't serve it.
+     *
+     * @param authority The authority of the locations content provider
+     * @return Uri of stored configuration
+     */
+    public static Uri getContentUri(String authority) {
+        return LocationContentProvider.getBaseContentUri(authority).buildUpon()
+                .appendPath(ConfigurationEntry.TABLE_NAME)
+                .build();
+    }
+
+    /**
+     * Get copy of cached configuration, load it by given DAO when not cached
+     *
+     * @param dao DAO reading configuration from database
+     * @return configuration or null when there is no stored configuration
+     * @throws JSONException
+     */
+    public Config get(ConfigurationDAO dao) throws JSONException {
+        long version;
+        synchronized (this) {
+            if (mLoaded) {
+                return copy(mSnapshot);
+            }
+            version = mVersion;
+        }
+
+        Config config = dao.retrieveConfiguration();
+        synchronized (this) {
+            if (version == mVersion) {
+                mSnapshot = copy(config);
+                mLoaded = true;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Drop cached configuration
+     */
+    public synchronized void invalidate() {
+        mVersion++;
+        mSnapshot = null;
+        mLoaded = false;
+    }
+
+    /**
+     * Drop cached configuration in this and all other processes
+     *
+     * Has to be called after configuration was persisted.
+     */
+    public void notifyChanged() {
+        invalidate();
+        if (mResolver != null) {
+            // own observer is skipped, sync adapter is not requested to sync
+            mResolver.notifyChange(mContentUri, mObserver, false);
+        }
+    }
+
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    private static Config copy(Config config) {
+        return config != null ? new Config(config) : null;
+    }
+}
@@ -1,17 +1,112 @@
 package com.marianhello.bgloc.data;
 
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.os.Build;
+import android.os.Process;
 
 import com.marianhello.bgloc.data.provider.ContentProviderLocationDAO;
+import com.marianhello.bgloc.data.provider.DirectLocationDAO;
+import com.marianhello.bgloc.data.provider.LocationContentProvider;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
 import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationDAO;
 
 public abstract class DAOFactory {
+    private static Boolean sInProviderProcess;
+
+    /**
+     * Create location DAO
+     *
+     * Callers running in the process hosting LocationContentProvider access database
+     * directly (observers are still notified), other processes go through the provider.
+     *
+     * @param context
+     * @return location DAO
+     */
     public static LocationDAO createLocationDAO(Context context) {
+        if (isInProviderProcess(context)) {
+            return new DirectLocationDAO(context);
+        }
         return new ContentProviderLocationDAO(context);
     }
 
+    /**
+     * Create configuration DAO
+     *
+     * Stored configuration is cached by process wide ConfigurationCache.
+     *
+     * @param context
+     * @return configuration DAO
+     */
     public static ConfigurationDAO createConfigurationDAO(Context context) {
-        return new SQLiteConfigurationDAO(context);
+        return new CachedConfigurationDAO(new SQLiteConfigurationDAO(context), ConfigurationCache.getInstance(context));
+    }
+
+    /**
+     * Create non-blocking DAO running on process wide DatabaseExecutor
+     *
+     * @param context
+     * @return async DAO
+     */
+    public static AsyncDAO createAsyncDAO(Context context) {
+        return new AsyncDAO(createLocationDAO(context), createConfigurationDAO(context), DatabaseExecutor.getInstance());
+    }
+
+    /**
+     * Create non-blocking DAO for exports
+     *
+     * Tasks run on DatabaseExecutor.getExportInstance, not on shared database thread.
+     *
+     * @param context
+     * @return async DAO
+     */
+    public static AsyncDAO createExportAsyncDAO(Context context) {
+        return new AsyncDAO(createLocationDAO(context), createConfigurationDAO(context), DatabaseExecutor.getExportInstance());
+    }
+
+    /**
+     * Check if current process is the one LocationContentProvider runs in
+     *
+     * @param context
+     * @return true if provider is declared for current process
+     */
+    public static synchronized boolean isInProviderProcess(Context context) {
+        if (sInProviderProcess == null) {
+            String providerProcess = getProviderProcessName(context);
+            sInProviderProcess = providerProcess != null && providerProcess.equals(getCurrentProcessName(context));
+        }
+        return sInProviderProcess;
+    }
+
+    private static String getProviderProcessName(Context context) {
+        ComponentName component = new ComponentName(context, LocationContentProvider.class);
+        try {
+            ProviderInfo info = context.getPackageManager().getProviderInfo(component, 0);
+            return info.processName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static String getCurrentProcessName(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return Application.getProcessName();
+        }
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null || activityManager.getRunningAppProcesses() == null) {
+            return null;
+        }
+        int pid = Process.myPid();
+        for (ActivityManager.RunningAppProcessInfo processInfo : activityManager.getRunningAppProcesses()) {
+            if (processInfo.pid == pid) {
+                return processInfo.processName;
+            }
+        }
+        return null;
     }
 }
@@ -0,0 +1,108 @@
+package com.marianhello.bgloc.data;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated executor for database work with priority lanes
+ *
+ * Single worker thread takes queued tasks by priority: writes first, then short reads,
+ * bulk reads (whole table, exports) last. Tasks of same priority run in order they
+ * were submitted. Running task is never interrupted by task of higher priority.
+ *
+ * Exports, which may stream whole table for minutes, do not belong to any lane,
+ * they run on separate low priority export executor (see getExportInstance).
+ */
+public class DatabaseExecutor {
+    public static final int PRIORITY_WRITE = 0;
+    public static final int PRIORITY_READ = 1;
+    public static final int PRIORITY_BULK_READ = 2;
+
+    private static DatabaseExecutor sInstance;
+    private static DatabaseExecutor sExportInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    public DatabaseExecutor() {
+        this("bgloc-database", Thread.NORM_PRIORITY);
+    }
+
+    public DatabaseExecutor(final String threadName, final int threadPriority) {
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                thread.setPriority(threadPriority);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Process wide executor, so all database work of process shares same lanes
+     */
+    public static synchronized DatabaseExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new DatabaseExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Process wide executor for exports
+     *
+     * Long export never holds worker of getInstance, so queued writes and reads
+     * are not delayed by it. Exports queue behind each other.
+     */
+    public static synchronized DatabaseExecutor getExportInstance() {
+        if (sExportInstance == null) {
+            sExportInstance = new DatabaseExecutor("bgloc-export", Thread.MIN_PRIORITY);
+        }
+        return sExportInstance;
+    }
+
+    /**
+     * Submit task to given lane
+     *
+     * @param priority one of PRIORITY_WRITE, PRIORITY_READ, PRIORITY_BULK_READ
+     * @param task database work
+     * @return future of task result
+     */
+    public <T> Future<T> submit(int priority, Callable<T> task) {
+        PrioritizedTask<T> future = new PrioritizedTask<T>(task, priority, mSequence.getAndIncrement());
+        mExecutor.execute(future);
+        return future;
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private static class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+        private final int priority;
+        private final long sequence;
+
+        PrioritizedTask(Callable<T> task, int priority, long sequence) {
+            super(task);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
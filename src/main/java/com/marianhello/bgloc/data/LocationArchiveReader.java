@@ -0,0 +1,266 @@
+package com.marianhello.bgloc.data;
+
+import android.database.Cursor;
+
+import com.marianhello.bgloc.data.sqlite.LocationChunkCodec;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Reads archived locations from cursor of archive chunks in (time, id) order
+ *
+ * Chunk time ranges may overlap, so decoded locations are buffered until
+ * no unread chunk can contain location preceding them. Chunks are decoded
+ * lazily, reading first page of results decodes only chunks it needs.
+ *
+ * Cursor has to be ordered by time_min ascending (or time_max descending
+ * for descending page), see getChunkSortOrder.
+ */
+public class LocationArchiveReader {
+    public static final String[] CHUNK_COLUMNS = {
+            LocationArchiveEntry.COLUMN_NAME_TIME_MIN,
+            LocationArchiveEntry.COLUMN_NAME_TIME_MAX,
+            LocationArchiveEntry.COLUMN_NAME_DATA
+    };
+
+    /**
+     * Number of locations in chunks of cursor
+     */
+    public static final String[] CHUNK_COUNT_COLUMNS = {
+            "ifnull(sum(" + LocationArchiveEntry.COLUMN_NAME_COUNT + "), 0)"
+    };
+
+    private static final int QUEUE_CAPACITY = 256;
+
+    private static final Comparator<BackgroundLocation> ASCENDING = new Comparator<BackgroundLocation>() {
+        @Override
+        public int compare(BackgroundLocation a, BackgroundLocation b) {
+            if (a.getTime() != b.getTime()) {
+                return a.getTime() < b.getTime() ? -1 : 1;
+            }
+            return a.getLocationId().compareTo(b.getLocationId());
+        }
+    };
+
+    private static final Comparator<BackgroundLocation> DESCENDING = new Comparator<BackgroundLocation>() {
+        @Override
+        public int compare(BackgroundLocation a, BackgroundLocation b) {
+            return ASCENDING.compare(b, a);
+        }
+    };
+
+    private final Cursor chunks;
+    private final LocationFilter filter;
+    private final LocationPage page;
+    private final boolean descending;
+    private final Comparator<BackgroundLocation> comparator;
+    private final PriorityQueue<BackgroundLocation> queue;
+    private boolean hasChunk;
+
+    /**
+     * @param chunks cursor of archive chunks with CHUNK_COLUMNS (may be null)
+     * @param filter filter of locations (may be null)
+     * @param page page key and direction (may be null)
+     */
+    public LocationArchiveReader(Cursor chunks, LocationFilter filter, LocationPage page) {
+        this.chunks = chunks;
+        this.filter = filter;
+        this.page = page;
+        this.descending = page != null && page.getDirection() == LocationPage.DESCENDING;
+        this.comparator = descending ? DESCENDING : ASCENDING;
+        this.queue = new PriorityQueue<BackgroundLocation>(QUEUE_CAPACITY, comparator);
+        this.hasChunk = chunks != null && chunks.moveToFirst();
+    }
+
+    /**
+     * Chunks overlapping time range (both bounds inclusive)
+     */
+    public static String getChunkSelection() {
+        return LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " >= ? AND " + LocationArchiveEntry.COLUMN_NAME_TIME_MIN + " <= ?";
+    }
+
+    public static String[] getChunkSelectionArgs(long fromTime, long toTime) {
+        return new String[] { String.valueOf(fromTime), String.valueOf(toTime) };
+    }
+
+    public static String[] getChunkSelectionArgs(LocationFilter filter) {
+        return getChunkSelectionArgs(filter.getFromTime(), filter.getToTime());
+    }
+
+    public static String[] getChunkSelectionArgs(LocationPage page) {
+        return page.getDirection() == LocationPage.DESCENDING
+                ? getChunkSelectionArgs(Long.MIN_VALUE, page.getAfterTime())
+                : getChunkSelectionArgs(page.getAfterTime(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Chunks inside time range (from inclusive, to exclusive), every archived location
+     * of such chunk is in range, so they can be counted without decoding
+     */
+    public static String getCoveredChunkSelection() {
+        return LocationArchiveEntry.COLUMN_NAME_TIME_MIN + " >= ? AND " + LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " < ?";
+    }
+
+    public static String[] getCoveredChunkSelectionArgs(LocationFilter filter) {
+        return new String[] { String.valueOf(filter.getFromTime()), String.valueOf(filter.getToTime()) };
+    }
+
+    /**
+     * Chunks overlapping time range, which are not inside it (see getCoveredChunkSelection)
+     */
+    public static String getBoundaryChunkSelection() {
+        return getChunkSelection() + " AND (" +
+                LocationArchiveEntry.COLUMN_NAME_TIME_MIN + " < ? OR " + LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " >= ?)";
+    }
+
+    public static String[] getBoundaryChunkSelectionArgs(LocationFilter filter) {
+        String fromTime = String.valueOf(filter.getFromTime());
+        String toTime = String.valueOf(filter.getToTime());
+        return new String[] { fromTime, toTime, fromTime, toTime };
+    }
+
+    public static String getChunkSortOrder(boolean descending) {
+        return descending
+                ? LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " DESC"
+                : LocationArchiveEntry.COLUMN_NAME_TIME_MIN + " ASC";
+    }
+
+    /**
+     * Archived locations have negative ids (see LocationArchiver), which never
+     * collide with ids of location table
+     */
+    public static boolean isArchivedId(long id) {
+        return id < 0;
+    }
+
+    /**
+     * Chunks which id range contains given id
+     */
+    public static String getChunkByIdSelection() {
+        return LocationArchiveEntry.COLUMN_NAME_ID_MIN + " <= ? AND " + LocationArchiveEntry.COLUMN_NAME_ID_MAX + " >= ?";
+    }
+
+    public static String[] getChunkByIdSelectionArgs(long id) {
+        return new String[] { String.valueOf(id), String.valueOf(id) };
+    }
+
+    /**
+     * Find archived location in cursor of chunks with CHUNK_COLUMNS
+     *
+     * @return location or null when not found
+     */
+    public static BackgroundLocation findById(Cursor chunks, long id) {
+        try {
+            while (chunks.moveToNext()) {
+                for (BackgroundLocation location : LocationChunkCodec.decode(chunks.getBlob(2))) {
+                    if (location.getLocationId() == id) {
+                        return location;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Corrupted location archive chunk", e);
+        }
+        return null;
+    }
+
+    public boolean hasNext() {
+        fill();
+        return !queue.isEmpty();
+    }
+
+    public BackgroundLocation peek() {
+        fill();
+        return queue.peek();
+    }
+
+    public BackgroundLocation next() {
+        fill();
+        return queue.poll();
+    }
+
+    /**
+     * Count remaining locations
+     */
+    public long count() {
+        long count = 0;
+        while (hasNext()) {
+            next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if a should be read before b
+     */
+    public boolean precedes(BackgroundLocation a, BackgroundLocation b) {
+        return comparator.compare(a, b) < 0;
+    }
+
+    private void fill() {
+        while (hasChunk && (queue.isEmpty() || !isFinal(queue.peek()))) {
+            readChunk();
+        }
+    }
+
+    /**
+     * Location is final, when next unread chunk cannot contain location preceding it
+     */
+    private boolean isFinal(BackgroundLocation location) {
+        if (descending) {
+            return location.getTime() > chunks.getLong(1);
+        }
+        return location.getTime() < chunks.getLong(0);
+    }
+
+    private void readChunk() {
+        try {
+            for (BackgroundLocation location : LocationChunkCodec.decode(chunks.getBlob(2))) {
+                if ((filter == null || filter.matches(location)) && (page == null || page.follows(location))) {
+                    queue.add(location);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Corrupted location archive chunk", e);
+        }
+        hasChunk = chunks.moveToNext();
+    }
+
+    /**
+     * Visit hot locations merged with archived ones
+     *
+     * Hot cursor has to be ordered the same way as archive (time, _id).
+     *
+     * @param hot cursor of location table
+     * @param archive reader of archived locations
+     * @param visitor receives locations until it returns false
+     * @param reuse reuse location instance for hot locations
+     */
+    public static void merge(Cursor hot, LocationArchiveReader archive, LocationVisitor visitor, boolean reuse) {
+        LocationCursorReader reader = new LocationCursorReader(hot);
+        BackgroundLocation location = new BackgroundLocation();
+        boolean hasHot = hot.moveToNext();
+
+        while (hasHot || archive.hasNext()) {
+            BackgroundLocation next;
+            if (hasHot) {
+                BackgroundLocation hotLocation = reader.read(reuse ? location : new BackgroundLocation());
+                if (archive.hasNext() && archive.precedes(archive.peek(), hotLocation)) {
+                    next = archive.next();
+                } else {
+                    next = hotLocation;
+                    hasHot = hot.moveToNext();
+                }
+            } else {
+                next = archive.next();
+            }
+            if (!visitor.visit(next)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.marianhello.bgloc.data;
+
+import android.database.Cursor;
+
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+
+/**
+ * Reads locations from cursor
+ *
+ * Column indexes are resolved only once per cursor, and location
+ * instance can be reused for every row. Cursor has to contain columns
+ * of LocationEntry.PROJECTION_ALL (rows in compact format with provider name).
+ */
+public class LocationCursorReader {
+    private final Cursor cursor;
+
+    private final int idIndex;
+    private final int providerIndex;
+    private final int timeIndex;
+    private final int accuracyIndex;
+    private final int speedIndex;
+    private final int bearingIndex;
+    private final int altitudeIndex;
+    private final int radiusIndex;
+    private final int latitudeIndex;
+    private final int longitudeIndex;
+    private final int flagsIndex;
+    private final int locationProviderIndex;
+    private final int batchStartIndex;
+    private final int statusIndex;
+
+    public LocationCursorReader(Cursor cursor) {
+        this.cursor = cursor;
+
+        idIndex = cursor.getColumnIndex(LocationEntry._ID);
+        providerIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_PROVIDER);
+        timeIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_TIME);
+        accuracyIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_ACCURACY);
+        speedIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_SPEED);
+        bearingIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_BEARING);
+        altitudeIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_ALTITUDE);
+        radiusIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_RADIUS);
+        latitudeIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE_E7);
+        longitudeIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LONGITUDE_E7);
+        flagsIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_FLAGS);
+        locationProviderIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER);
+        batchStartIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS);
+        statusIndex = cursor.getColumnIndex(LocationEntry.COLUMN_NAME_STATUS);
+    }
+
+    /**
+     * Read location at current cursor position
+     *
+     * @return new location
+     */
+    public BackgroundLocation read() {
+        return read(new BackgroundLocation());
+    }
+
+    /**
+     * Read location at current cursor position into given location.
+     * All previous location properties are overwritten.
+     *
+     * @param l location to be filled
+     * @return the same location
+     */
+    public BackgroundLocation read(BackgroundLocation l) {
+        Cursor c = cursor;
+
+        int flags = c.getInt(flagsIndex);
+
+        l.reset();
+        l.setProvider(c.getString(providerIndex));
+        l.setTime(c.getLong(timeIndex));
+        if ((flags & LocationEntry.FLAG_HAS_ACCURACY) != 0) {
+            l.setAccuracy(c.getFloat(accuracyIndex));
+        }
+        if ((flags & LocationEntry.FLAG_HAS_SPEED) != 0) {
+            l.setSpeed(c.getFloat(speedIndex));
+        }
+        if ((flags & LocationEntry.FLAG_HAS_BEARING) != 0) {
+            l.setBearing(c.getFloat(bearingIndex));
+        }
+        if ((flags & LocationEntry.FLAG_HAS_ALTITUDE) != 0) {
+            l.setAltitude(c.getDouble(altitudeIndex));
+        }
+        if ((flags & LocationEntry.FLAG_HAS_RADIUS) != 0) {
+            l.setRadius(c.getFloat(radiusIndex));
+        }
+        l.setLatitude(LocationEntry.fromE7(c.getLong(latitudeIndex)));
+        l.setLongitude(LocationEntry.fromE7(c.getLong(longitudeIndex)));
+        l.setLocationProvider(c.getInt(locationProviderIndex));
+        l.setBatchStartMillis(c.getLong(batchStartIndex));
+        l.setStatus(c.getInt(statusIndex));
+        l.setLocationId(c.getLong(idIndex));
+        l.setMockFlags(flags >>> LocationEntry.FLAG_MOCK_SHIFT);
+
+        return l;
+    }
+}
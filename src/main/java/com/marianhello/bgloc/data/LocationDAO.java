@@ -5,17 +5,34 @@ import java.util.Collection;
 public interface LocationDAO {
     Collection<BackgroundLocation> getAllLocations();
     Collection<BackgroundLocation> getValidLocations();
+    void forEachLocation(LocationFilter filter, LocationVisitor visitor);
+    Collection<BackgroundLocation> getLocations(long afterTime, long afterId, int limit, int direction);
     BackgroundLocation getLocationById(long id);
     BackgroundLocation getFirstUnpostedLocation();
     BackgroundLocation getNextUnpostedLocation(long fromId);
     long getUnpostedLocationsCount();
     long getLocationsForSyncCount(long millisSinceLastBatch);
+    long getSyncPendingLocationsCount();
     long persistLocation(BackgroundLocation location);
     long persistLocation(BackgroundLocation location, int maxRows);
+    int persistLocations(Collection<BackgroundLocation> locations);
+    long persistLocationToRing(BackgroundLocation location, int ringSize);
     long persistLocationForSync(BackgroundLocation location, int maxRows);
     void updateLocationForSync(long locationId);
     void deleteLocationById(long locationId);
+    int markLocations(long[] ids, int status);
+    int markRange(long fromId, long toId, int status);
     BackgroundLocation deleteFirstUnpostedLocation();
     int deleteAllLocations();
     int deleteUnpostedLocations();
+    int compactLocations();
+    int purgeOlderThan(long timestamp);
+    int archiveLocations(long olderThan);
+    int trimArchive(long maxLocations);
+    int enforceRetention(long budgetBytes);
+    Collection<BackgroundLocation> getLocationsBetween(long fromMillis, long toMillis, int statusMask);
+    long countLocationsBetween(long fromMillis, long toMillis, int statusMask);
+    Collection<BackgroundLocation> getLocationsInBounds(double minLatitude, double minLongitude,
+                                                        double maxLatitude, double maxLongitude,
+                                                        long fromTime, long toTime);
 }
@@ -0,0 +1,413 @@
+package com.marianhello.bgloc.data;
+
+import android.util.JsonWriter;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming export of location history
+ *
+ * Locations (including archived ones) are visited one by one by LocationDAO.forEachLocation
+ * and written straight into output, so heap usage doesn't depend on size of export.
+ *
+ * Formats:
+ * FORMAT_GEOJSON - FeatureCollection of Point features, location attributes in properties
+ * FORMAT_GPX     - GPX 1.1 document with single track segment
+ * FORMAT_CSV     - header line followed by line per location
+ * FORMAT_NDJSON  - JSON object per line
+ *
+ * Optional attributes (accuracy, altitude...) are written only when location has them.
+ */
+public class LocationExporter {
+    public static final int FORMAT_GEOJSON = 0;
+    public static final int FORMAT_GPX = 1;
+    public static final int FORMAT_CSV = 2;
+    public static final int FORMAT_NDJSON = 3;
+
+    public static final int PROGRESS_INTERVAL = 1000;
+
+    private static final String GPX_NAMESPACE = "http://www.topografix.com/GPX/1/1";
+    private static final String CSV_SEPARATOR = ",";
+    private static final String CSV_LINE_END = "\r\n";
+
+    public interface ProgressListener {
+        /**
+         * Called every PROGRESS_INTERVAL exported locations and once export is completed
+         *
+         * @param exported number of locations exported so far
+         * @param total number of locations matching export filter
+         */
+        void onProgress(long exported, long total);
+    }
+
+    private final LocationDAO mLocationDAO;
+    private final int mFormat;
+    private boolean mGzip = false;
+    private ProgressListener mProgressListener;
+
+    public LocationExporter(LocationDAO dao, int format) {
+        if (format < FORMAT_GEOJSON || format > FORMAT_NDJSON) {
+            throw new IllegalArgumentException("Invalid format: " + format);
+        }
+        mLocationDAO = dao;
+        mFormat = format;
+    }
+
+    /**
+     * @param gzip compress output by gzip
+     */
+    public void setGzip(boolean gzip) {
+        mGzip = gzip;
+    }
+
+    /**
+     * @param listener export progress listener (can be null)
+     */
+    public void setProgressListener(ProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Export locations into file
+     *
+     * @param fromMillis inclusive, time in milliseconds since epoch
+     * @param toMillis exclusive, time in milliseconds since epoch
+     * @param statusMask combination of LocationFilter.STATUS_* masks
+     * @param file output file (overwritten)
+     * @return number of exported locations
+     * @throws IOException
+     */
+    public long export(long fromMillis, long toMillis, int statusMask, File file) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            return export(fromMillis, toMillis, statusMask, fos);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Export locations into output stream
+     *
+     * Stream is flushed, but not closed.
+     *
+     * @param fromMillis inclusive, time in milliseconds since epoch
+     * @param toMillis exclusive, time in milliseconds since epoch
+     * @param statusMask combination of LocationFilter.STATUS_* masks
+     * @param out output stream
+     * @return number of exported locations
+     * @throws IOException
+     */
+    public long export(long fromMillis, long toMillis, int statusMask, OutputStream out) throws IOException {
+        final long total = mProgressListener != null
+                ? mLocationDAO.countLocationsBetween(fromMillis, toMillis, statusMask) : -1;
+
+        // gzip stream is never closed, output stream belongs to caller,
+        // but its deflater has to be released even when export fails
+        GzipOutputStream gzip = mGzip ? new GzipOutputStream(out) : null;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(gzip != null ? gzip : out, "UTF-8"));
+            final FormatWriter formatWriter = createFormatWriter(writer);
+            final long[] exported = { 0 };
+            final IOException[] error = { null };
+
+            formatWriter.begin();
+            mLocationDAO.forEachLocation(LocationFilter.between(fromMillis, toMillis, statusMask), new LocationVisitor() {
+                @Override
+                public boolean visit(BackgroundLocation location) {
+                    try {
+                        formatWriter.write(location);
+                    } catch (IOException e) {
+                        error[0] = e;
+                        return false;
+                    }
+                    if (++exported[0] % PROGRESS_INTERVAL == 0 && mProgressListener != null) {
+                        mProgressListener.onProgress(exported[0], total);
+                    }
+                    return true;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            formatWriter.end();
+
+            writer.flush();
+            if (gzip != null) {
+                gzip.finish();
+            }
+            out.flush();
+
+            if (mProgressListener != null) {
+                mProgressListener.onProgress(exported[0], total);
+            }
+            return exported[0];
+        } finally {
+            if (gzip != null) {
+                gzip.release();
+            }
+        }
+    }
+
+    private FormatWriter createFormatWriter(Writer writer) throws IOException {
+        switch (mFormat) {
+            case FORMAT_GPX:
+                return new GpxWriter(writer);
+            case FORMAT_CSV:
+                return new CsvWriter(writer);
+            case FORMAT_NDJSON:
+                return new NdjsonWriter(writer);
+            default:
+                return new GeoJsonWriter(writer);
+        }
+    }
+
+    /**
+     * GZIPOutputStream which can free its deflater without closing underlying stream
+     */
+    private static class GzipOutputStream extends GZIPOutputStream {
+        GzipOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        void release() {
+            def.end();
+        }
+    }
+
+    private static abstract class FormatWriter {
+        abstract void begin() throws IOException;
+        abstract void write(BackgroundLocation location) throws IOException;
+        abstract void end() throws IOException;
+    }
+
+    /**
+     * Write location attributes as members of current JSON object
+     *
+     * Floats are written boxed, so they keep their shortest decimal representation.
+     */
+    private static void writeJsonProperties(JsonWriter writer, BackgroundLocation location) throws IOException {
+        if (location.getLocationId() != null) {
+            writer.name("id").value(location.getLocationId());
+        }
+        writer.name("time").value(location.getTime());
+        if (location.hasAccuracy()) {
+            writer.name("accuracy").value(Float.valueOf(location.getAccuracy()));
+        }
+        if (location.hasAltitude()) {
+            writer.name("altitude").value(location.getAltitude());
+        }
+        if (location.hasSpeed()) {
+            writer.name("speed").value(Float.valueOf(location.getSpeed()));
+        }
+        if (location.hasBearing()) {
+            writer.name("bearing").value(Float.valueOf(location.getBearing()));
+        }
+        if (location.hasRadius()) {
+            writer.name("radius").value(Float.valueOf(location.getRadius()));
+        }
+        if (location.getProvider() != null) {
+            writer.name("provider").value(location.getProvider());
+        }
+        if (location.getLocationProvider() != null) {
+            writer.name("locationProvider").value(location.getLocationProvider());
+        }
+        writer.name("status").value(location.getStatus());
+    }
+
+    private static class GeoJsonWriter extends FormatWriter {
+        private final JsonWriter writer;
+
+        GeoJsonWriter(Writer out) {
+            writer = new JsonWriter(out);
+        }
+
+        @Override
+        void begin() throws IOException {
+            writer.beginObject();
+            writer.name("type").value("FeatureCollection");
+            writer.name("features").beginArray();
+        }
+
+        @Override
+        void write(BackgroundLocation location) throws IOException {
+            writer.beginObject();
+            writer.name("type").value("Feature");
+            writer.name("geometry").beginObject();
+            writer.name("type").value("Point");
+            writer.name("coordinates").beginArray();
+            writer.value(location.getLongitude()).value(location.getLatitude());
+            if (location.hasAltitude()) {
+                writer.value(location.getAltitude());
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.name("properties").beginObject();
+            writeJsonProperties(writer, location);
+            writer.endObject();
+            writer.endObject();
+        }
+
+        @Override
+        void end() throws IOException {
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+        }
+    }
+
+    private static class NdjsonWriter extends FormatWriter {
+        private final Writer out;
+
+        NdjsonWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        void begin() {
+        }
+
+        @Override
+        void write(BackgroundLocation location) throws IOException {
+            // JsonWriter accepts single top-level value, so every line gets its own
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject();
+            writer.name("latitude").value(location.getLatitude());
+            writer.name("longitude").value(location.getLongitude());
+            writeJsonProperties(writer, location);
+            writer.endObject();
+            out.write('\n');
+        }
+
+        @Override
+        void end() {
+        }
+    }
+
+    private static class CsvWriter extends FormatWriter {
+        private static final String[] COLUMNS = {
+                "id", "time", "latitude", "longitude", "accuracy", "altitude",
+                "speed", "bearing", "radius", "provider", "locationProvider", "status"
+        };
+
+        private final Writer out;
+
+        CsvWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        void begin() throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    out.write(CSV_SEPARATOR);
+                }
+                out.write(COLUMNS[i]);
+            }
+            out.write(CSV_LINE_END);
+        }
+
+        @Override
+        void write(BackgroundLocation location) throws IOException {
+            out.write(location.getLocationId() != null ? String.valueOf(location.getLocationId()) : "");
+            out.write(CSV_SEPARATOR);
+            out.write(String.valueOf(location.getTime()));
+            out.write(CSV_SEPARATOR);
+            out.write(String.valueOf(location.getLatitude()));
+            out.write(CSV_SEPARATOR);
+            out.write(String.valueOf(location.getLongitude()));
+            out.write(CSV_SEPARATOR);
+            out.write(location.hasAccuracy() ? String.valueOf(location.getAccuracy()) : "");
+            out.write(CSV_SEPARATOR);
+            out.write(location.hasAltitude() ? String.valueOf(location.getAltitude()) : "");
+            out.write(CSV_SEPARATOR);
+            out.write(location.hasSpeed() ? String.valueOf(location.getSpeed()) : "");
+            out.write(CSV_SEPARATOR);
+            out.write(location.hasBearing() ? String.valueOf(location.getBearing()) : "");
+            out.write(CSV_SEPARATOR);
+            out.write(location.hasRadius() ? String.valueOf(location.getRadius()) : "");
+            out.write(CSV_SEPARATOR);
+            out.write(escape(location.getProvider()));
+            out.write(CSV_SEPARATOR);
+            out.write(location.getLocationProvider() != null ? String.valueOf(location.getLocationProvider()) : "");
+            out.write(CSV_SEPARATOR);
+            out.write(String.valueOf(location.getStatus()));
+            out.write(CSV_LINE_END);
+        }
+
+        @Override
+        void end() {
+        }
+
+        private static String escape(String value) {
+            if (value == null) {
+                return "";
+            }
+            if (value.contains(CSV_SEPARATOR) || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+                return "\"" + value.replace("\"", "\"\"") + "\"";
+            }
+            return value;
+        }
+    }
+
+    private static class GpxWriter extends FormatWriter {
+        private final XmlSerializer serializer;
+        private final SimpleDateFormat dateFormat;
+
+        GpxWriter(Writer out) throws IOException {
+            serializer = Xml.newSerializer();
+            serializer.setOutput(out);
+            dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        @Override
+        void begin() throws IOException {
+            serializer.startDocument("UTF-8", null);
+            serializer.setPrefix("", GPX_NAMESPACE);
+            serializer.startTag(GPX_NAMESPACE, "gpx");
+            serializer.attribute(null, "version", "1.1");
+            serializer.attribute(null, "creator", "background-geolocation");
+            serializer.startTag(GPX_NAMESPACE, "trk");
+            serializer.startTag(GPX_NAMESPACE, "trkseg");
+        }
+
+        @Override
+        void write(BackgroundLocation location) throws IOException {
+            serializer.startTag(GPX_NAMESPACE, "trkpt");
+            serializer.attribute(null, "lat", String.valueOf(location.getLatitude()));
+            serializer.attribute(null, "lon", String.valueOf(location.getLongitude()));
+            if (location.hasAltitude()) {
+                serializer.startTag(GPX_NAMESPACE, "ele");
+                serializer.text(String.valueOf(location.getAltitude()));
+                serializer.endTag(GPX_NAMESPACE, "ele");
+            }
+            serializer.startTag(GPX_NAMESPACE, "time");
+            serializer.text(dateFormat.format(new Date(location.getTime())));
+            serializer.endTag(GPX_NAMESPACE, "time");
+            serializer.endTag(GPX_NAMESPACE, "trkpt");
+        }
+
+        @Override
+        void end() throws IOException {
+            serializer.endTag(GPX_NAMESPACE, "trkseg");
+            serializer.endTag(GPX_NAMESPACE, "trk");
+            serializer.endTag(GPX_NAMESPACE, "gpx");
+            serializer.endDocument();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+
+/**
+ * Selection of locations for location queries
+ *
+ * Besides sql selection filter can be evaluated in memory
+ * (used for archived locations, see LocationArchiveReader).
+ */
+public class LocationFilter {
+    /**
+     * Status masks (see between)
+     */
+    public static final int STATUS_DELETED = 1 << BackgroundLocation.DELETED;
+    public static final int STATUS_POST_PENDING = 1 << BackgroundLocation.POST_PENDING;
+    public static final int STATUS_SYNC_PENDING = 1 << BackgroundLocation.SYNC_PENDING;
+    public static final int STATUS_VALID = STATUS_POST_PENDING | STATUS_SYNC_PENDING;
+    public static final int STATUS_ANY = STATUS_DELETED | STATUS_VALID;
+
+    public static final LocationFilter ALL = new LocationFilter(null, null, STATUS_ANY, Long.MIN_VALUE, Long.MAX_VALUE);
+    public static final LocationFilter VALID = new LocationFilter(
+            LocationEntry.COLUMN_NAME_STATUS + " <> ?",
+            new String[] { String.valueOf(BackgroundLocation.DELETED) },
+            STATUS_VALID, Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final String selection;
+    private final String[] selectionArgs;
+
+    private final int statusMask;
+    private final long fromTime;
+    private final long toTime;
+    private final double minLatitude;
+    private final double minLongitude;
+    private final double maxLatitude;
+    private final double maxLongitude;
+
+    private LocationFilter(String selection, String[] selectionArgs,
+                           int statusMask, long fromTime, long toTime) {
+        this(selection, selectionArgs, statusMask, fromTime, toTime,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    private LocationFilter(String selection, String[] selectionArgs,
+                           int statusMask, long fromTime, long toTime,
+                           double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.statusMask = statusMask;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.minLatitude = minLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLatitude = maxLatitude;
+        this.maxLongitude = maxLongitude;
+    }
+
+    /**
+     * Locations with given status
+     *
+     * @param status one of BackgroundLocation.DELETED, POST_PENDING or SYNC_PENDING
+     */
+    public static LocationFilter withStatus(int status) {
+        return new LocationFilter(
+                LocationEntry.COLUMN_NAME_STATUS + " = ?",
+                new String[] { String.valueOf(status) },
+                1 << status, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Locations recorded in given time range
+     *
+     * @param fromMillis inclusive
+     * @param toMillis exclusive
+     */
+    public static LocationFilter between(long fromMillis, long toMillis) {
+        return new LocationFilter(
+                LocationEntry.COLUMN_NAME_TIME + " >= ? AND " + LocationEntry.COLUMN_NAME_TIME + " < ?",
+                new String[] { String.valueOf(fromMillis), String.valueOf(toMillis) },
+                STATUS_ANY, fromMillis, toMillis);
+    }
+
+    /**
+     * Locations with status in statusMask recorded in given time range
+     *
+     * Selection is range of time index, when statusMask is narrower
+     * than STATUS_ANY, status is checked by the same index entry (status_time_idx).
+     *
+     * @param fromMillis inclusive
+     * @param toMillis exclusive
+     * @param statusMask combination of STATUS_DELETED, STATUS_POST_PENDING and STATUS_SYNC_PENDING
+     */
+    public static LocationFilter between(long fromMillis, long toMillis, int statusMask) {
+        statusMask &= STATUS_ANY;
+        if (statusMask == STATUS_ANY) {
+            return between(fromMillis, toMillis);
+        }
+
+        StringBuilder statuses = new StringBuilder();
+        for (int status = BackgroundLocation.DELETED; status <= BackgroundLocation.SYNC_PENDING; status++) {
+            if ((statusMask & (1 << status)) != 0) {
+                statuses.append(statuses.length() > 0 ? "," : "").append(status);
+            }
+        }
+
+        return new LocationFilter(
+                LocationEntry.COLUMN_NAME_STATUS + " IN (" + statuses + ") AND " +
+                        LocationEntry.COLUMN_NAME_TIME + " >= ? AND " + LocationEntry.COLUMN_NAME_TIME + " < ?",
+                new String[] { String.valueOf(fromMillis), String.valueOf(toMillis) },
+                statusMask, fromMillis, toMillis);
+    }
+
+    /**
+     * Locations inside bounding box recorded in given time range
+     *
+     * Bounds are inclusive (at precision of stored coordinates), boxes crossing
+     * antimeridian are not supported.
+     * Query is served by spatial index when available (see LocationSpatialIndex).
+     *
+     * @param fromMillis inclusive
+     * @param toMillis exclusive
+     */
+    public static LocationFilter inBounds(double minLatitude, double minLongitude,
+                                          double maxLatitude, double maxLongitude,
+                                          long fromMillis, long toMillis) {
+        return new LocationFilter(
+                LocationEntry.COLUMN_NAME_LATITUDE_E7 + " BETWEEN ? AND ? AND " +
+                        LocationEntry.COLUMN_NAME_LONGITUDE_E7 + " BETWEEN ? AND ? AND " +
+                        LocationEntry.COLUMN_NAME_TIME + " >= ? AND " + LocationEntry.COLUMN_NAME_TIME + " < ?",
+                new String[] {
+                        String.valueOf(LocationEntry.toE7(minLatitude)), String.valueOf(LocationEntry.toE7(maxLatitude)),
+                        String.valueOf(LocationEntry.toE7(minLongitude)), String.valueOf(LocationEntry.toE7(maxLongitude)),
+                        String.valueOf(fromMillis), String.valueOf(toMillis)
+                },
+                STATUS_ANY, fromMillis, toMillis,
+                minLatitude, minLongitude, maxLatitude, maxLongitude);
+    }
+
+    public String getSelection() {
+        return selection;
+    }
+
+    public String[] getSelectionArgs() {
+        return selectionArgs;
+    }
+
+    public int getStatusMask() {
+        return statusMask;
+    }
+
+    /**
+     * @return lower time bound (inclusive)
+     */
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    /**
+     * @return upper time bound (exclusive)
+     */
+    public long getToTime() {
+        return toTime;
+    }
+
+    public boolean hasBounds() {
+        return minLatitude != Double.NEGATIVE_INFINITY || maxLatitude != Double.POSITIVE_INFINITY
+                || minLongitude != Double.NEGATIVE_INFINITY || maxLongitude != Double.POSITIVE_INFINITY;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * Check if locations with given status can pass the filter
+     */
+    public boolean acceptsStatus(int status) {
+        return (statusMask & (1 << status)) != 0;
+    }
+
+    public boolean matches(BackgroundLocation location) {
+        return acceptsStatus(location.getStatus())
+                && location.getTime() >= fromTime
+                && location.getTime() < toTime
+                && location.getLatitude() >= minLatitude
+                && location.getLatitude() <= maxLatitude
+                && location.getLongitude() >= minLongitude
+                && location.getLongitude() <= maxLongitude;
+    }
+}
@@ -0,0 +1,225 @@
+package com.marianhello.bgloc.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of fixed size location records backed by memory mapped file
+ *
+ * Appending location is a copy into mapped page (no syscall, no fsync), so it's cheap
+ * enough to be done on the thread delivering location. Records are moved into database
+ * later by flusher: {@link #read()} returns pending records, {@link #markFlushed(int)}
+ * releases them after they were persisted. Records not marked flushed (process was
+ * killed before flush) are returned again by {@link #read()} after restart.
+ *
+ * Journal keeps only fields of new fixes, location id, batch start and extras
+ * are not journaled.
+ *
+ * Layout: header (magic, version, head, tail) followed by capacity records.
+ * Each record carries CRC32, torn record at the tail is dropped on read.
+ */
+public class LocationJournal {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int MAGIC = 0x4c4a524e; // LJRN
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int POSITION_OFFSET = 8;
+
+    private static final int RECORD_SIZE = 96;
+    private static final int PROVIDER_SIZE = 15;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_SPEED = 1 << 1;
+    private static final int HAS_BEARING = 1 << 2;
+    private static final int HAS_ALTITUDE = 1 << 3;
+    private static final int HAS_RADIUS = 1 << 4;
+    private static final int HAS_LOCATION_PROVIDER = 1 << 5;
+    private static final int HAS_PROVIDER = 1 << 6;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final int capacity;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+
+    private int head;
+    private int tail;
+
+    public LocationJournal(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    public LocationJournal(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        this.file = new RandomAccessFile(file, "rw");
+        this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            writeHeader(0, 0);
+        } else {
+            long position = buffer.getLong(POSITION_OFFSET);
+            head = (int) (position >>> 32);
+            tail = (int) position;
+            if (head < 0 || tail > capacity || head > tail) {
+                writeHeader(0, 0);
+            }
+        }
+    }
+
+    /**
+     * Append location to journal
+     *
+     * @param location
+     * @return false when journal is full (location was not appended)
+     */
+    public synchronized boolean append(BackgroundLocation location) {
+        if (tail >= capacity) {
+            return false;
+        }
+
+        int offset = HEADER_SIZE + tail * RECORD_SIZE;
+        int flags = 0;
+        if (location.hasAccuracy()) flags |= HAS_ACCURACY;
+        if (location.hasSpeed()) flags |= HAS_SPEED;
+        if (location.hasBearing()) flags |= HAS_BEARING;
+        if (location.hasAltitude()) flags |= HAS_ALTITUDE;
+        if (location.hasRadius()) flags |= HAS_RADIUS;
+        if (location.getLocationProvider() != null) flags |= HAS_LOCATION_PROVIDER;
+        if (location.getProvider() != null) flags |= HAS_PROVIDER;
+
+        buffer.putLong(offset, location.getTime());
+        buffer.putLong(offset + 8, location.getElapsedRealtimeNanos());
+        buffer.putDouble(offset + 16, location.getLatitude());
+        buffer.putDouble(offset + 24, location.getLongitude());
+        buffer.putDouble(offset + 32, location.getAltitude());
+        buffer.putFloat(offset + 40, location.getAccuracy());
+        buffer.putFloat(offset + 44, location.getSpeed());
+        buffer.putFloat(offset + 48, location.getBearing());
+        buffer.putFloat(offset + 52, location.getRadius());
+        buffer.putInt(offset + 56, flags);
+        buffer.putInt(offset + 60, location.getLocationProvider() != null ? location.getLocationProvider() : 0);
+        buffer.putInt(offset + 64, location.getStatus());
+        buffer.putInt(offset + 68, location.getMockFlags());
+
+        byte[] provider = location.getProvider() != null ? location.getProvider().getBytes(CHARSET) : new byte[0];
+        int providerLength = Math.min(provider.length, PROVIDER_SIZE);
+        buffer.put(offset + 72, (byte) providerLength);
+        for (int i = 0; i < PROVIDER_SIZE; i++) {
+            buffer.put(offset + 73 + i, i < providerLength ? provider[i] : 0);
+        }
+        buffer.putInt(offset + CRC_OFFSET, checksum(offset));
+
+        // record is complete, publish it
+        writeHeader(head, tail + 1);
+        return true;
+    }
+
+    /**
+     * Read records pending flush
+     *
+     * @return locations in order they were appended
+     */
+    public synchronized List<BackgroundLocation> read() {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(tail - head);
+        for (int index = head; index < tail; index++) {
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            if (buffer.getInt(offset + CRC_OFFSET) != checksum(offset)) {
+                // torn record, nothing after it was published
+                writeHeader(head, index);
+                break;
+            }
+            locations.add(readRecord(offset));
+        }
+        return locations;
+    }
+
+    /**
+     * Release given number of records returned by {@link #read()}
+     * Journal is rewound when there are no more pending records.
+     *
+     * @param count number of flushed records
+     */
+    public synchronized void markFlushed(int count) {
+        int newHead = Math.min(head + count, tail);
+        if (newHead == tail) {
+            writeHeader(0, 0);
+        } else {
+            writeHeader(newHead, tail);
+        }
+    }
+
+    public synchronized int size() {
+        return tail - head;
+    }
+
+    public synchronized boolean isEmpty() {
+        return tail == head;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private BackgroundLocation readRecord(int offset) {
+        int flags = buffer.getInt(offset + 56);
+
+        BackgroundLocation location = new BackgroundLocation();
+        location.setTime(buffer.getLong(offset));
+        location.setElapsedRealtimeNanos(buffer.getLong(offset + 8));
+        location.setLatitude(buffer.getDouble(offset + 16));
+        location.setLongitude(buffer.getDouble(offset + 24));
+        if ((flags & HAS_ALTITUDE) != 0) location.setAltitude(buffer.getDouble(offset + 32));
+        if ((flags & HAS_ACCURACY) != 0) location.setAccuracy(buffer.getFloat(offset + 40));
+        if ((flags & HAS_SPEED) != 0) location.setSpeed(buffer.getFloat(offset + 44));
+        if ((flags & HAS_BEARING) != 0) location.setBearing(buffer.getFloat(offset + 48));
+        if ((flags & HAS_RADIUS) != 0) location.setRadius(buffer.getFloat(offset + 52));
+        if ((flags & HAS_LOCATION_PROVIDER) != 0) location.setLocationProvider(buffer.getInt(offset + 60));
+        location.setStatus(buffer.getInt(offset + 64));
+        location.setMockFlags(buffer.getInt(offset + 68));
+
+        if ((flags & HAS_PROVIDER) != 0) {
+            byte[] provider = new byte[buffer.get(offset + 72)];
+            for (int i = 0; i < provider.length; i++) {
+                provider[i] = buffer.get(offset + 73 + i);
+            }
+            location.setProvider(new String(provider, CHARSET));
+        }
+
+        return location;
+    }
+
+    private int checksum(int offset) {
+        crc.reset();
+        for (int i = 0; i < CRC_OFFSET; i++) {
+            crc.update(buffer.get(offset + i));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Head and tail are written by single aligned store,
+     * so killed process cannot leave them inconsistent
+     */
+    private void writeHeader(int head, int tail) {
+        this.head = head;
+        this.tail = tail;
+        buffer.putLong(POSITION_OFFSET, ((long) head << 32) | (tail & 0xFFFFFFFFL));
+    }
+}
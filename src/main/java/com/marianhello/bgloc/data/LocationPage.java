@@ -0,0 +1,96 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+
+/**
+ * Keyset pagination of locations ordered by (time, id)
+ *
+ * Page contains up to limit locations following (ASCENDING) or preceding (DESCENDING)
+ * location identified by afterTime and afterId. Next page is requested with time
+ * and id of last location of current page. Query is range scan of time index,
+ * so cost of the page doesn't depend on its position in history.
+ *
+ * To get first page use afterTime and afterId Long.MIN_VALUE for ASCENDING
+ * and Long.MAX_VALUE for DESCENDING direction.
+ */
+public class LocationPage {
+    public static final int ASCENDING = 1;
+    public static final int DESCENDING = -1;
+
+    private final long afterTime;
+    private final long afterId;
+    private final int limit;
+    private final int direction;
+
+    public LocationPage(long afterTime, long afterId, int limit, int direction) {
+        if (direction != ASCENDING && direction != DESCENDING) {
+            throw new IllegalArgumentException("Invalid direction: " + direction);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        this.afterTime = afterTime;
+        this.afterId = afterId;
+        this.limit = limit;
+        this.direction = direction;
+    }
+
+    public static LocationPage first(int limit, int direction) {
+        long after = direction == DESCENDING ? Long.MAX_VALUE : Long.MIN_VALUE;
+        return new LocationPage(after, after, limit, direction);
+    }
+
+    public long getAfterTime() {
+        return afterTime;
+    }
+
+    public long getAfterId() {
+        return afterId;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    /**
+     * Check if location belongs after page key in page direction
+     */
+    public boolean follows(BackgroundLocation location) {
+        long time = location.getTime();
+        long id = location.getLocationId() != null ? location.getLocationId() : 0;
+        if (direction == ASCENDING) {
+            return time > afterTime || (time == afterTime && id > afterId);
+        }
+        return time < afterTime || (time == afterTime && id < afterId);
+    }
+
+    /**
+     * Leading time term is range of time index,
+     * second one skips already seen locations with same time
+     */
+    public String getSelection() {
+        String op = direction == ASCENDING ? ">" : "<";
+        return new StringBuilder()
+                .append(LocationEntry.COLUMN_NAME_TIME).append(" ").append(op).append("= ? AND (")
+                .append(LocationEntry.COLUMN_NAME_TIME).append(" ").append(op).append(" ? OR ")
+                .append(LocationEntry._ID).append(" ").append(op).append(" ?)")
+                .toString();
+    }
+
+    public String[] getSelectionArgs() {
+        return new String[] {
+                String.valueOf(afterTime),
+                String.valueOf(afterTime),
+                String.valueOf(afterId)
+        };
+    }
+
+    public String getSortOrder() {
+        String order = direction == ASCENDING ? " ASC" : " DESC";
+        return LocationEntry.COLUMN_NAME_TIME + order + "," + LocationEntry._ID + order;
+    }
+}
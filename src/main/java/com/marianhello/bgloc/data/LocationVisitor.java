@@ -0,0 +1,14 @@
+package com.marianhello.bgloc.data;
+
+public interface LocationVisitor {
+    /**
+     * Called for every location matching filter, in order of location time.
+     *
+     * NOTE: location instance is reused between calls. Use location.makeClone()
+     * if you need to keep it after method returns.
+     *
+     * @param location
+     * @return true to continue with next location, false to stop iteration
+     */
+    boolean visit(BackgroundLocation location);
+}
@@ -0,0 +1,327 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.logging.LoggerManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit writer of incoming locations
+ *
+ * Callers only enqueue location (and append it into journal when given), so thread
+ * delivering fixes never touches database. Single writer thread drains the queue and
+ * commits pending locations in one transaction, once maxBatchSize locations are pending
+ * or maxDelayMillis after first of them was enqueued, whichever comes first.
+ * Callback of every write is invoked on writer thread with id assigned to location.
+ *
+ * Ring buffer slots (see setRingSize) are written one by one, as each of them
+ * replaces oldest slot.
+ *
+ * Locations of failed commit stay pending (and unflushed in journal) and are retried
+ * together with next locations (batch never grows over maxBatchSize). Retry delay starts
+ * at twice maxDelayMillis and doubles with every failed commit up to MAX_RETRY_DELAY_MILLIS.
+ * Locations still pending when writer is closed (or failing commit on close) are not
+ * retried anymore, they are replayed from journal on next start.
+ *
+ * Process can be killed after commit, but before locations were released from journal.
+ * Replayed location already stored with the same time and coordinates is not inserted
+ * again, its callback gets id of stored location.
+ */
+public class LocationWriter {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+    public static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    /**
+     * Coordinates are stored with 7 decimal places
+     */
+    private static final double COORDINATE_EPSILON = 1e-7;
+
+    public interface Callback {
+        /**
+         * @param location committed location with location id set
+         */
+        void onCommitted(BackgroundLocation location);
+    }
+
+    private static class PendingWrite {
+        final BackgroundLocation location;
+        final Callback callback;
+        final boolean journaled;
+        final boolean replayed;
+        boolean persisted;
+
+        PendingWrite(BackgroundLocation location, Callback callback, boolean journaled, boolean replayed) {
+            this.location = location;
+            this.callback = callback;
+            this.journaled = journaled;
+            this.replayed = replayed;
+        }
+    }
+
+    private static final PendingWrite SHUTDOWN = new PendingWrite(null, null, false, false);
+
+    private final LocationDAO mLocationDAO;
+    private final LocationJournal mJournal;
+    private final int mMaxBatchSize;
+    private final long mMaxDelayNanos;
+    private final BlockingQueue<PendingWrite> mQueue = new LinkedBlockingQueue<PendingWrite>();
+    private final Thread mThread;
+    private final CountDownLatch mCloseSignal = new CountDownLatch(1);
+
+    private volatile int mRingSize = 0;
+    private volatile boolean mClosed = false;
+
+    private org.slf4j.Logger logger;
+
+    public LocationWriter(LocationDAO dao, LocationJournal journal) {
+        this(dao, journal, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param dao location DAO, persistLocations has to set ids of persisted locations
+     * @param journal ingestion journal (may be null)
+     * @param maxBatchSize maximum number of locations committed in one transaction
+     * @param maxDelayMillis maximum time location waits for commit
+     */
+    public LocationWriter(LocationDAO dao, LocationJournal journal, int maxBatchSize, long maxDelayMillis) {
+        logger = LoggerManager.getLogger(LocationWriter.class);
+
+        mLocationDAO = dao;
+        mJournal = journal;
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "bgloc-writer");
+        mThread.start();
+    }
+
+    /**
+     * @param ringSize size of ring buffer locations are written into, 0 for plain inserts
+     */
+    public void setRingSize(int ringSize) {
+        mRingSize = ringSize;
+    }
+
+    /**
+     * Enqueue location for commit
+     *
+     * @param location
+     * @param callback notified on writer thread once location is committed (can be null)
+     * @throws RejectedExecutionException when writer was closed
+     */
+    public void write(BackgroundLocation location, Callback callback) {
+        if (mClosed) {
+            throw new RejectedExecutionException("Location writer closed");
+        }
+        boolean journaled = mJournal != null && mJournal.append(location);
+        mQueue.add(new PendingWrite(location, callback, journaled, false));
+    }
+
+    /**
+     * Enqueue locations left in journal by previous process
+     *
+     * Has to be called before first write.
+     *
+     * @param callback notified on writer thread for every replayed location (can be null)
+     * @return number of replayed locations
+     */
+    public int replayJournal(Callback callback) {
+        if (mJournal == null || mClosed) {
+            return 0;
+        }
+        List<BackgroundLocation> locations = mJournal.read();
+        for (BackgroundLocation location : locations) {
+            mQueue.add(new PendingWrite(location, callback, true, true));
+        }
+        return locations.size();
+    }
+
+    /**
+     * Commit pending locations and stop writer thread
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mCloseSignal.countDown();
+        mQueue.add(SHUTDOWN);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<PendingWrite> batch = new ArrayList<PendingWrite>(mMaxBatchSize);
+        boolean running = true;
+        int failures = 0;
+
+        try {
+            while (running) {
+                // non empty batch holds writes of failed commit
+                if (batch.isEmpty()) {
+                    PendingWrite first = mQueue.take();
+                    if (first == SHUTDOWN) {
+                        break;
+                    }
+                    batch.add(first);
+                }
+
+                long deadline = System.nanoTime() + (failures > 0 ? getRetryDelayNanos(failures) : mMaxDelayNanos);
+                while (batch.size() < mMaxBatchSize) {
+                    PendingWrite next = mQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == SHUTDOWN) {
+                        running = false;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                if (running && failures > 0) {
+                    // full batch still waits for retry, unless writer is being closed
+                    mCloseSignal.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+
+                int committed = commit(batch);
+                batch.subList(0, committed).clear();
+                if (batch.isEmpty()) {
+                    failures = 0;
+                } else if (mClosed) {
+                    break;
+                } else {
+                    failures++;
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Location writer interrupted with {} pending locations", batch.size() + mQueue.size());
+            return;
+        }
+
+        if (!batch.isEmpty()) {
+            // SHUTDOWN is always last, so count of queued locations is one less
+            int queued = running ? mQueue.size() - 1 : 0;
+            logger.warn("Location writer closed with {} uncommitted locations", batch.size() + Math.max(queued, 0));
+        }
+    }
+
+    private long getRetryDelayNanos(int failures) {
+        // 2x, 4x, 8x ... maxDelay
+        long delay = mMaxDelayNanos << Math.min(failures, 16);
+        return Math.min(delay, TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_DELAY_MILLIS));
+    }
+
+    /**
+     * Commit batch
+     *
+     * Committed writes are released from journal and their callbacks are invoked.
+     *
+     * @param batch
+     * @return number of writes committed from start of batch
+     */
+    private int commit(List<PendingWrite> batch) {
+        int committed = 0;
+
+        try {
+            for (PendingWrite write : batch) {
+                if (write.replayed && !write.persisted) {
+                    findPersisted(write);
+                }
+            }
+
+            int ringSize = mRingSize;
+            if (ringSize > 0) {
+                for (PendingWrite write : batch) {
+                    if (write.persisted) {
+                        committed++;
+                        continue;
+                    }
+                    long locationId = mLocationDAO.persistLocationToRing(write.location, ringSize);
+                    if (locationId < 0) {
+                        break;
+                    }
+                    write.location.setLocationId(locationId);
+                    committed++;
+                }
+            } else {
+                List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(batch.size());
+                for (PendingWrite write : batch) {
+                    if (!write.persisted) {
+                        locations.add(write.location);
+                    }
+                }
+                // batch is persisted in single transaction, short count means nothing was
+                if (locations.isEmpty() || mLocationDAO.persistLocations(locations) == locations.size()) {
+                    committed = batch.size();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error committing locations: {}", e.getMessage());
+        }
+
+        if (committed < batch.size()) {
+            logger.warn("Committed {} of {} locations, will retry rest", committed, batch.size());
+        } else {
+            logger.debug("Committed locations: {}", committed);
+        }
+
+        int journaled = 0;
+        for (PendingWrite write : batch.subList(0, committed)) {
+            if (write.journaled) {
+                journaled++;
+            }
+        }
+        markFlushed(journaled);
+
+        for (PendingWrite write : batch.subList(0, committed)) {
+            if (write.callback == null) {
+                continue;
+            }
+            try {
+                write.callback.onCommitted(write.location);
+            } catch (RuntimeException e) {
+                logger.error("Location writer callback failed: {}", e.getMessage());
+            }
+        }
+
+        return committed;
+    }
+
+    /**
+     * Look up replayed location committed by previous process
+     */
+    private void findPersisted(PendingWrite write) {
+        BackgroundLocation location = write.location;
+        Collection<BackgroundLocation> stored = mLocationDAO.getLocationsBetween(
+                location.getTime(), location.getTime() + 1, LocationFilter.STATUS_ANY);
+        for (BackgroundLocation candidate : stored) {
+            if (Math.abs(candidate.getLatitude() - location.getLatitude()) < COORDINATE_EPSILON
+                    && Math.abs(candidate.getLongitude() - location.getLongitude()) < COORDINATE_EPSILON) {
+                location.setLocationId(candidate.getLocationId());
+                write.persisted = true;
+                return;
+            }
+        }
+    }
+
+    private void markFlushed(int count) {
+        if (count > 0) {
+            mJournal.markFlushed(count);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.marianhello.bgloc.data.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges change notifications posted within short window into as few as possible
+ *
+ * First change starts the window, changes arriving before it ends are merged with
+ * pending ones and all are delivered together when window ends. Query parameters are
+ * dropped (observers are matched by path only), uri already covered by pending
+ * ancestor is skipped and siblings (eg. two location items) are replaced by their
+ * parent. Notifying parent wakes up observers of its descendants too, so no
+ * observer misses a change, it is only told about it less often.
+ *
+ * All writers of the process (LocationContentProvider, DirectLocationDAO) use
+ * coalescer shared per ContentResolver (see forResolver), so their changes
+ * are merged together.
+ */
+public class ChangeNotificationCoalescer {
+    public static final long DEFAULT_WINDOW_MILLIS = 50;
+
+    public interface Notifier {
+        void notifyChange(Uri uri);
+    }
+
+    private final Notifier mNotifier;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+
+    private static HandlerThread sThread;
+    private static final Map<ContentResolver, ChangeNotificationCoalescer> sInstances =
+            new HashMap<ContentResolver, ChangeNotificationCoalescer>();
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ChangeNotificationCoalescer(Notifier notifier, Looper looper) {
+        this(notifier, looper, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public ChangeNotificationCoalescer(Notifier notifier, Looper looper, long windowMillis) {
+        mNotifier = notifier;
+        mHandler = new Handler(looper);
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * @param resolver
+     * @return coalescer notifying given resolver, shared by all its callers in current process
+     */
+    public static synchronized ChangeNotificationCoalescer forResolver(final ContentResolver resolver) {
+        ChangeNotificationCoalescer instance = sInstances.get(resolver);
+        if (instance == null) {
+            if (sThread == null) {
+                sThread = new HandlerThread("ChangeNotificationCoalescer", Process.THREAD_PRIORITY_BACKGROUND);
+                sThread.start();
+            }
+            instance = new ChangeNotificationCoalescer(new Notifier() {
+                @Override
+                public void notifyChange(Uri uri) {
+                    resolver.notifyChange(uri, null);
+                }
+            }, sThread.getLooper());
+            sInstances.put(resolver, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Add changed uri, listeners are notified when window ends
+     *
+     * @param uri the URI that changed
+     */
+    public void add(Uri uri) {
+        Uri merged = uri.buildUpon().clearQuery().build();
+        synchronized (mPending) {
+            boolean wasEmpty = mPending.isEmpty();
+            if (!merge(merged)) {
+                return;
+            }
+            if (wasEmpty) {
+                mHandler.postDelayed(mFlushTask, mWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Notify listeners about all pending changes immediately
+     */
+    public void flush() {
+        List<Uri> changes;
+        synchronized (mPending) {
+            mHandler.removeCallbacks(mFlushTask);
+            changes = new ArrayList<Uri>(mPending);
+            mPending.clear();
+        }
+        for (Uri uri : changes) {
+            mNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * @return number of notifications waiting for window to end
+     */
+    public int getPendingCount() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * Merge uri into pending ones
+     *
+     * @return false if uri is already covered by pending change
+     */
+    private boolean merge(Uri uri) {
+        boolean merging = true;
+        while (merging) {
+            merging = false;
+            Iterator<Uri> it = mPending.iterator();
+            while (it.hasNext()) {
+                Uri pending = it.next();
+                if (isAncestorOrSelf(pending, uri)) {
+                    return false;
+                }
+                if (isAncestorOrSelf(uri, pending)) {
+                    it.remove();
+                    continue;
+                }
+                Uri parent = getParent(uri);
+                if (parent != null && parent.equals(getParent(pending))) {
+                    it.remove();
+                    uri = parent;
+                    // parent may cover or be covered by other pending uris
+                    merging = true;
+                    break;
+                }
+            }
+        }
+        mPending.add(uri);
+        return true;
+    }
+
+    private static boolean isAncestorOrSelf(Uri ancestor, Uri uri) {
+        if (!equals(ancestor.getScheme(), uri.getScheme()) || !equals(ancestor.getAuthority(), uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorPath = ancestor.getPathSegments();
+        List<String> path = uri.getPathSegments();
+        return ancestorPath.size() <= path.size() && ancestorPath.equals(path.subList(0, ancestorPath.size()));
+    }
+
+    /**
+     * Get parent uri, tables (uris with single path segment) have no parent
+     */
+    private static Uri getParent(Uri uri) {
+        List<String> path = uri.getPathSegments();
+        if (path.size() < 2) {
+            return null;
+        }
+        Uri.Builder builder = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority());
+        for (String segment : path.subList(0, path.size() - 1)) {
+            builder.appendPath(segment);
+        }
+        return builder.build();
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -1,17 +1,27 @@
 package com.marianhello.bgloc.data.provider;
 
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 
 import com.marianhello.bgloc.ResourceResolver;
 import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationArchiveReader;
+import com.marianhello.bgloc.data.LocationCursorReader;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationPage;
+import com.marianhello.bgloc.data.LocationVisitor;
+import com.marianhello.bgloc.data.sqlite.LocationArchiver;
+import com.marianhello.bgloc.data.sqlite.LocationCompactor;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
 import com.marianhello.logging.LoggerManager;
 
@@ -54,8 +64,9 @@ public class ContentProviderLocationDAO implements LocationDAO {
                     whereArgs,
                     LocationEntry.COLUMN_NAME_TIME + " ASC"
             );
+            LocationCursorReader reader = new LocationCursorReader(cursor);
             while (cursor.moveToNext()) {
-                locations.add(BackgroundLocation.fromCursor(cursor));
+                locations.add(reader.read());
             }
         } finally {
             if (cursor != null) {
@@ -66,9 +77,267 @@ public class ContentProviderLocationDAO implements LocationDAO {
         return locations;
     }
 
+    /**
+     * Get single page of locations using keyset pagination (see {@link LocationPage})
+     *
+     * @param afterTime time of last location of previous page
+     * @param afterId id of last location of previous page
+     * @param limit maximum number of locations in page
+     * @param direction LocationPage.ASCENDING or LocationPage.DESCENDING
+     * @return collection of locations
+     */
+    @Override
+    public Collection<BackgroundLocation> getLocations(long afterTime, long afterId, final int limit, int direction) {
+        LocationPage page = new LocationPage(afterTime, afterId, limit, direction);
+        final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(limit);
+        Cursor cursor = null;
+        Cursor chunks = null;
+
+        try {
+            cursor = mResolver.query(
+                    LocationContentProvider.getPageContentUri(mAuthority, page),
+                    null,
+                    null,
+                    null,
+                    null
+            );
+            chunks = queryArchive(
+                    LocationArchiveReader.getChunkSelectionArgs(page),
+                    LocationArchiveReader.getChunkSortOrder(direction == LocationPage.DESCENDING)
+            );
+            LocationArchiveReader.merge(cursor, new LocationArchiveReader(chunks, null, page), new LocationVisitor() {
+                @Override
+                public boolean visit(BackgroundLocation location) {
+                    locations.add(location);
+                    return locations.size() < limit;
+                }
+            }, false);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (chunks != null) {
+                chunks.close();
+            }
+        }
+
+        return locations;
+    }
+
+    /**
+     * Iterate over locations matching filter ordered by time without loading
+     * them all into memory. Single location instance is reused for all rows.
+     *
+     * @param filter
+     * @param visitor
+     */
+    @Override
+    public void forEachLocation(LocationFilter filter, LocationVisitor visitor) {
+        visitLocations(filter, visitor, true);
+    }
+
+    /**
+     * Visit locations of location table merged with archived ones
+     *
+     * @param filter
+     * @param visitor
+     * @param reuse reuse single location instance for rows of location table
+     */
+    private void visitLocations(LocationFilter filter, LocationVisitor visitor, boolean reuse) {
+        Cursor cursor = null;
+        Cursor chunks = null;
+
+        try {
+            cursor = mResolver.query(
+                    mContentUri,
+                    null,
+                    filter.getSelection(),
+                    filter.getSelectionArgs(),
+                    LocationEntry.COLUMN_NAME_TIME + " ASC," + LocationEntry._ID + " ASC"
+            );
+            if (filter.acceptsStatus(LocationArchiver.ARCHIVED_STATUS)) {
+                chunks = queryArchive(
+                        LocationArchiveReader.getChunkSelectionArgs(filter),
+                        LocationArchiveReader.getChunkSortOrder(false)
+                );
+            }
+            LocationArchiveReader.merge(cursor, new LocationArchiveReader(chunks, filter, null), visitor, reuse);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (chunks != null) {
+                chunks.close();
+            }
+        }
+    }
+
+    /**
+     * Query archive chunks overlapping time range given by selectionArgs
+     * (see LocationArchiveReader.getChunkSelection)
+     */
+    private Cursor queryArchive(String[] selectionArgs, String sortOrder) {
+        return mResolver.query(
+                LocationContentProvider.getArchiveContentUri(mAuthority),
+                LocationArchiveReader.CHUNK_COLUMNS,
+                LocationArchiveReader.getChunkSelection(),
+                selectionArgs,
+                sortOrder
+        );
+    }
+
+    /**
+     * Get locations (including archived ones) recorded in given time range ordered by time
+     *
+     * @param fromMillis inclusive
+     * @param toMillis exclusive
+     * @param statusMask combination of LocationFilter.STATUS_* masks
+     * @return collection of locations
+     */
+    @Override
+    public Collection<BackgroundLocation> getLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+        final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        visitLocations(LocationFilter.between(fromMillis, toMillis, statusMask), new LocationVisitor() {
+            @Override
+            public boolean visit(BackgroundLocation location) {
+                locations.add(location);
+                return true;
+            }
+        }, false);
+
+        return locations;
+    }
+
+    /**
+     * Count locations (including archived ones) recorded in given time range
+     *
+     * @param fromMillis inclusive
+     * @param toMillis exclusive
+     * @param statusMask combination of LocationFilter.STATUS_* masks
+     * @return number of locations
+     */
+    @Override
+    public long countLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+        LocationFilter filter = LocationFilter.between(fromMillis, toMillis, statusMask);
+        long count;
+        Cursor cursor = null;
+
+        try {
+            cursor = mResolver.query(
+                    LocationContentProvider.getTimeRangeContentUri(mAuthority, fromMillis, toMillis, statusMask),
+                    new String[] { "count(*)" },
+                    null,
+                    null,
+                    null);
+            count = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (filter.acceptsStatus(LocationArchiver.ARCHIVED_STATUS)) {
+            // chunks inside time range are counted by stored count, only boundary ones are decoded
+            Cursor chunks = null;
+            try {
+                chunks = mResolver.query(
+                        LocationContentProvider.getArchiveContentUri(mAuthority),
+                        LocationArchiveReader.CHUNK_COUNT_COLUMNS,
+                        LocationArchiveReader.getCoveredChunkSelection(),
+                        LocationArchiveReader.getCoveredChunkSelectionArgs(filter),
+                        null);
+                count += chunks.moveToFirst() ? chunks.getLong(0) : 0;
+            } finally {
+                if (chunks != null) {
+                    chunks.close();
+                }
+            }
+
+            chunks = null;
+            try {
+                chunks = mResolver.query(
+                        LocationContentProvider.getArchiveContentUri(mAuthority),
+                        LocationArchiveReader.CHUNK_COLUMNS,
+                        LocationArchiveReader.getBoundaryChunkSelection(),
+                        LocationArchiveReader.getBoundaryChunkSelectionArgs(filter),
+                        LocationArchiveReader.getChunkSortOrder(false));
+                count += new LocationArchiveReader(chunks, filter, null).count();
+            } finally {
+                if (chunks != null) {
+                    chunks.close();
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get locations (including archived ones) inside bounding box recorded in given time range
+     * ordered by time. Candidates are taken from spatial index when available.
+     *
+     * @param fromTime inclusive
+     * @param toTime exclusive
+     * @return collection of locations
+     */
+    @Override
+    public Collection<BackgroundLocation> getLocationsInBounds(double minLatitude, double minLongitude,
+                                                               double maxLatitude, double maxLongitude,
+                                                               long fromTime, long toTime) {
+        LocationFilter filter = LocationFilter.inBounds(minLatitude, minLongitude, maxLatitude, maxLongitude, fromTime, toTime);
+        final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        Cursor cursor = null;
+        Cursor chunks = null;
+
+        try {
+            cursor = mResolver.query(
+                    LocationContentProvider.getBoundsContentUri(mAuthority, filter),
+                    null,
+                    filter.getSelection(),
+                    filter.getSelectionArgs(),
+                    LocationEntry.COLUMN_NAME_TIME + " ASC," + LocationEntry._ID + " ASC"
+            );
+            chunks = mResolver.query(
+                    LocationContentProvider.getArchiveBoundsContentUri(mAuthority, filter),
+                    LocationArchiveReader.CHUNK_COLUMNS,
+                    LocationArchiveReader.getChunkSelection(),
+                    LocationArchiveReader.getChunkSelectionArgs(filter),
+                    LocationArchiveReader.getChunkSortOrder(false)
+            );
+            LocationArchiveReader.merge(cursor, new LocationArchiveReader(chunks, filter, null), new LocationVisitor() {
+                @Override
+                public boolean visit(BackgroundLocation location) {
+                    locations.add(location);
+                    return true;
+                }
+            }, false);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (chunks != null) {
+                chunks.close();
+            }
+        }
+
+        return locations;
+    }
+
+    /**
+     * Get all locations including archived ones
+     */
     @Override
     public Collection<BackgroundLocation> getAllLocations() {
-        return getLocations(null, null);
+        final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        visitLocations(LocationFilter.ALL, new LocationVisitor() {
+            @Override
+            public boolean visit(BackgroundLocation location) {
+                locations.add(location);
+                return true;
+            }
+        }, false);
+
+        return locations;
     }
 
     @Override
@@ -81,6 +350,10 @@ public class ContentProviderLocationDAO implements LocationDAO {
 
     @Override
     public BackgroundLocation getLocationById(long id) {
+        if (LocationArchiveReader.isArchivedId(id)) {
+            return getArchivedLocationById(id);
+        }
+
         BackgroundLocation location = null;
 
         Cursor cursor = null;
@@ -105,7 +378,24 @@ public class ContentProviderLocationDAO implements LocationDAO {
         }
 
         return location;
+    }
 
+    private BackgroundLocation getArchivedLocationById(long id) {
+        Cursor chunks = null;
+        try {
+            chunks = mResolver.query(
+                    LocationContentProvider.getArchiveContentUri(mAuthority),
+                    LocationArchiveReader.CHUNK_COLUMNS,
+                    LocationArchiveReader.getChunkByIdSelection(),
+                    LocationArchiveReader.getChunkByIdSelectionArgs(id),
+                    null
+            );
+            return LocationArchiveReader.findById(chunks, id);
+        } finally {
+            if (chunks != null) {
+                chunks.close();
+            }
+        }
     }
 
     public int getLocationsCount() {
@@ -199,19 +489,39 @@ public class ContentProviderLocationDAO implements LocationDAO {
 
     @Override
     public long getUnpostedLocationsCount() {
-        String whereClause = SQLiteLocationContract.LocationEntry.COLUMN_NAME_STATUS + " = ?";
-        String[] whereArgs = { String.valueOf(BackgroundLocation.POST_PENDING) };
+        return getStatusCount(BackgroundLocation.POST_PENDING);
+    }
 
-        Cursor cursor = mResolver.query(
-                mContentUri,
-                null,
-                whereClause,
-                whereArgs,
-                null);
+    /**
+     * Get number of locations pending sync including those in unfinished batches
+     * (same as getLocationsForSyncCount(System.currentTimeMillis()), but without table scan)
+     */
+    @Override
+    public long getSyncPendingLocationsCount() {
+        return getStatusCount(BackgroundLocation.SYNC_PENDING);
+    }
 
-        int count = cursor.getCount();
-        cursor.close();
-        return count;
+    /**
+     * Read number of locations in given status from counter maintained by triggers
+     */
+    private long getStatusCount(int status) {
+        String whereClause = LocationCounterEntry.COLUMN_NAME_STATUS + " = ?";
+        String[] whereArgs = { String.valueOf(status) };
+        Cursor cursor = null;
+
+        try {
+            cursor = mResolver.query(
+                    LocationContentProvider.getCounterContentUri(mAuthority),
+                    new String[] { LocationCounterEntry.COLUMN_NAME_COUNT },
+                    whereClause,
+                    whereArgs,
+                    null);
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 
     @Override
@@ -226,16 +536,20 @@ public class ContentProviderLocationDAO implements LocationDAO {
                 String.valueOf(millisSinceLastBatch)
         };
 
-        Cursor cursor = mResolver.query(
-                mContentUri,
-                null,
-                whereClause,
-                whereArgs,
-                null);
-
-        int count = cursor.getCount();
-        cursor.close();
-        return count;
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(
+                    mContentUri,
+                    new String[] { "count(*)" },
+                    whereClause,
+                    whereArgs,
+                    null);
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 
     public Uri getOldestLocationUri() {
@@ -277,6 +591,40 @@ public class ContentProviderLocationDAO implements LocationDAO {
         return Integer.valueOf(locationUri.getLastPathSegment());
     }
 
+    /**
+     * Persist locations into database using single batch of inserts
+     *
+     * Location ids are updated from uris returned by batch.
+     *
+     * @param locations
+     * @return number of persisted locations
+     */
+    @Override
+    public int persistLocations(Collection<BackgroundLocation> locations) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(locations.size());
+        for (BackgroundLocation location : locations) {
+            operations.add(
+                    ContentProviderOperation.newInsert(mContentUri)
+                    .withValues(location.toContentValues())
+                    .build()
+            );
+        }
+
+        ContentProviderResult[] results;
+        try {
+            results = mResolver.applyBatch(mAuthority, operations);
+        } catch (Exception e) {
+            logger.error("Error persisting locations: {}", e.getMessage());
+            return 0;
+        }
+
+        int i = 0;
+        for (BackgroundLocation location : locations) {
+            location.setLocationId(Long.valueOf(results[i++].uri.getLastPathSegment()));
+        }
+        return results.length;
+    }
+
     @Override
     public long persistLocation(BackgroundLocation location, int maxRows) {
         if (maxRows == 0) {
@@ -326,6 +674,25 @@ public class ContentProviderLocationDAO implements LocationDAO {
         return 0;
     }
 
+    /**
+     * Persist location into ring buffer of given size
+     *
+     * @param location
+     * @param ringSize
+     * @return location id or -1 when error occured
+     */
+    @Override
+    public long persistLocationToRing(BackgroundLocation location, int ringSize) {
+        if (ringSize <= 0) {
+            return -1;
+        }
+
+        Uri locationUri = mResolver.insert(
+                LocationContentProvider.getRingContentUri(mAuthority, ringSize),
+                location.toContentValues());
+        return Long.valueOf(locationUri.getLastPathSegment());
+    }
+
     @Override
     public long persistLocationForSync(BackgroundLocation location, int maxRows) {
         Long locationId = location.getLocationId();
@@ -361,6 +728,41 @@ public class ContentProviderLocationDAO implements LocationDAO {
         mResolver.delete(LocationContentProvider.buildUriWithId(mAuthority, locationId), null, null);
     }
 
+    @Override
+    public int markLocations(long[] ids, int status) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(LocationContentProvider.EXTRA_IDS, ids);
+        extras.putInt(LocationContentProvider.EXTRA_STATUS, status);
+        return call(LocationContentProvider.METHOD_MARK_LOCATIONS, extras);
+    }
+
+    @Override
+    public int markRange(long fromId, long toId, int status) {
+        Bundle extras = new Bundle();
+        extras.putLong(LocationContentProvider.EXTRA_FROM_ID, fromId);
+        extras.putLong(LocationContentProvider.EXTRA_TO_ID, toId);
+        extras.putInt(LocationContentProvider.EXTRA_STATUS, status);
+        return call(LocationContentProvider.METHOD_MARK_RANGE, extras);
+    }
+
+    /**
+     * Evict locations over byte budget by default retention policy (see LocationRetention)
+     *
+     * @param budgetBytes maximum size of database, 0 or less disables retention
+     * @return number of evicted locations
+     */
+    @Override
+    public int enforceRetention(long budgetBytes) {
+        Bundle extras = new Bundle();
+        extras.putLong(LocationContentProvider.EXTRA_BUDGET_BYTES, budgetBytes);
+        return call(LocationContentProvider.METHOD_ENFORCE_RETENTION, extras);
+    }
+
+    private int call(String method, Bundle extras) {
+        Bundle result = mResolver.call(mContentUri, method, null, extras);
+        return result != null ? result.getInt(LocationContentProvider.EXTRA_COUNT) : 0;
+    }
+
     @Override
     public BackgroundLocation deleteFirstUnpostedLocation() {
         BackgroundLocation location = getFirstUnpostedLocation();
@@ -384,4 +786,55 @@ public class ContentProviderLocationDAO implements LocationDAO {
 
         return mResolver.update(mContentUri, values, whereClause, whereArgs);
     }
+
+    /**
+     * Physically remove DELETED locations (see LocationCompactor)
+     *
+     * @return number of removed locations
+     */
+    @Override
+    public int compactLocations() {
+        Bundle extras = new Bundle();
+        extras.putInt(LocationContentProvider.EXTRA_MAX_CHUNKS, LocationCompactor.DEFAULT_MAX_CHUNKS);
+        return call(LocationContentProvider.METHOD_COMPACT, extras);
+    }
+
+    /**
+     * Physically remove all locations recorded before timestamp
+     *
+     * @param timestamp time in milliseconds since epoch
+     * @return number of removed locations
+     */
+    @Override
+    public int purgeOlderThan(long timestamp) {
+        Bundle extras = new Bundle();
+        extras.putLong(LocationContentProvider.EXTRA_TIMESTAMP, timestamp);
+        return call(LocationContentProvider.METHOD_PURGE_OLDER_THAN, extras);
+    }
+
+    /**
+     * Move synced locations recorded before given time into archive (see LocationArchiver)
+     *
+     * @param olderThan time in milliseconds since epoch
+     * @return number of archived locations
+     */
+    @Override
+    public int archiveLocations(long olderThan) {
+        Bundle extras = new Bundle();
+        extras.putLong(LocationContentProvider.EXTRA_TIMESTAMP, olderThan);
+        return call(LocationContentProvider.METHOD_ARCHIVE, extras);
+    }
+
+    /**
+     * Remove oldest archived locations over maxLocations (see LocationArchiver)
+     *
+     * @param maxLocations maximum number of stored locations
+     * @return number of removed locations
+     */
+    @Override
+    public int trimArchive(long maxLocations) {
+        Bundle extras = new Bundle();
+        extras.putLong(LocationContentProvider.EXTRA_MAX_LOCATIONS, maxLocations);
+        return call(LocationContentProvider.METHOD_TRIM_ARCHIVE, extras);
+    }
 }
@@ -0,0 +1,221 @@
+package com.marianhello.bgloc.data.provider;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.marianhello.bgloc.ResourceResolver;
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationVisitor;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+
+import java.util.Collection;
+
+/**
+ * Location DAO for callers running in the same process as LocationContentProvider
+ *
+ * Reads and writes go directly to the database (no ContentResolver dispatch,
+ * uri parsing and cursor window copies), but changes are still announced
+ * with the same uris LocationContentProvider would use (merged by the same
+ * ChangeNotificationCoalescer), so content observers keep working. As with provider, deleted locations are removed physically.
+ */
+public class DirectLocationDAO implements LocationDAO {
+    private final SQLiteDatabase mDatabase;
+    private final LocationDAO mDelegate;
+    private final ChangeNotificationCoalescer mNotificationCoalescer;
+    private final String mAuthority;
+    private final Uri mContentUri;
+
+    public DirectLocationDAO(Context context) {
+        this(context, SQLiteOpenHelper.getHelper(context).getWritableDatabase());
+    }
+
+    public DirectLocationDAO(Context context, SQLiteDatabase db) {
+        ResourceResolver resourceResolver = ResourceResolver.newInstance(context);
+        mAuthority = resourceResolver.getAuthority();
+        mContentUri = LocationContentProvider.getContentUri(mAuthority);
+        mNotificationCoalescer = ChangeNotificationCoalescer.forResolver(
+                context.getApplicationContext().getContentResolver());
+        mDatabase = db;
+        mDelegate = new SQLiteLocationDAO(db);
+    }
+
+    @Override
+    public Collection<BackgroundLocation> getAllLocations() {
+        return mDelegate.getAllLocations();
+    }
+
+    @Override
+    public Collection<BackgroundLocation> getValidLocations() {
+        return mDelegate.getValidLocations();
+    }
+
+    @Override
+    public void forEachLocation(LocationFilter filter, LocationVisitor visitor) {
+        mDelegate.forEachLocation(filter, visitor);
+    }
+
+    @Override
+    public Collection<BackgroundLocation> getLocations(long afterTime, long afterId, int limit, int direction) {
+        return mDelegate.getLocations(afterTime, afterId, limit, direction);
+    }
+
+    @Override
+    public BackgroundLocation getLocationById(long id) {
+        return mDelegate.getLocationById(id);
+    }
+
+    @Override
+    public BackgroundLocation getFirstUnpostedLocation() {
+        return mDelegate.getFirstUnpostedLocation();
+    }
+
+    @Override
+    public BackgroundLocation getNextUnpostedLocation(long fromId) {
+        return mDelegate.getNextUnpostedLocation(fromId);
+    }
+
+    @Override
+    public long getUnpostedLocationsCount() {
+        return mDelegate.getUnpostedLocationsCount();
+    }
+
+    @Override
+    public long getLocationsForSyncCount(long millisSinceLastBatch) {
+        return mDelegate.getLocationsForSyncCount(millisSinceLastBatch);
+    }
+
+    @Override
+    public long getSyncPendingLocationsCount() {
+        return mDelegate.getSyncPendingLocationsCount();
+    }
+
+    @Override
+    public long persistLocation(BackgroundLocation location) {
+        return notifyItem(mDelegate.persistLocation(location));
+    }
+
+    @Override
+    public long persistLocation(BackgroundLocation location, int maxRows) {
+        return notifyItem(mDelegate.persistLocation(location, maxRows));
+    }
+
+    @Override
+    public int persistLocations(Collection<BackgroundLocation> locations) {
+        return notifyTable(mDelegate.persistLocations(locations));
+    }
+
+    @Override
+    public long persistLocationToRing(BackgroundLocation location, int ringSize) {
+        return notifyItem(mDelegate.persistLocationToRing(location, ringSize));
+    }
+
+    @Override
+    public long persistLocationForSync(BackgroundLocation location, int maxRows) {
+        return notifyItem(mDelegate.persistLocationForSync(location, maxRows));
+    }
+
+    @Override
+    public void updateLocationForSync(long locationId) {
+        mDelegate.updateLocationForSync(locationId);
+        notifyItem(locationId);
+    }
+
+    @Override
+    public void deleteLocationById(long locationId) {
+        String whereClause = LocationEntry._ID + " = ?";
+        String[] whereArgs = { String.valueOf(locationId) };
+        if (mDatabase.delete(LocationEntry.TABLE_NAME, whereClause, whereArgs) > 0) {
+            notifyItem(locationId);
+        }
+    }
+
+    @Override
+    public BackgroundLocation deleteFirstUnpostedLocation() {
+        BackgroundLocation location = getFirstUnpostedLocation();
+        deleteLocationById(location.getLocationId());
+
+        return location;
+    }
+
+    @Override
+    public int deleteAllLocations() {
+        // locations and archive are deleted in single transaction
+        return notifyTable(mDelegate.deleteAllLocations());
+    }
+
+    @Override
+    public int deleteUnpostedLocations() {
+        return notifyTable(mDelegate.deleteUnpostedLocations());
+    }
+
+    @Override
+    public int compactLocations() {
+        return notifyTable(mDelegate.compactLocations());
+    }
+
+    @Override
+    public int purgeOlderThan(long timestamp) {
+        return notifyTable(mDelegate.purgeOlderThan(timestamp));
+    }
+
+    @Override
+    public int archiveLocations(long olderThan) {
+        return notifyTable(mDelegate.archiveLocations(olderThan));
+    }
+
+    @Override
+    public int trimArchive(long maxLocations) {
+        return notifyTable(mDelegate.trimArchive(maxLocations));
+    }
+
+    @Override
+    public int enforceRetention(long budgetBytes) {
+        return notifyTable(mDelegate.enforceRetention(budgetBytes));
+    }
+
+    @Override
+    public int markLocations(long[] ids, int status) {
+        return notifyTable(mDelegate.markLocations(ids, status));
+    }
+
+    @Override
+    public int markRange(long fromId, long toId, int status) {
+        return notifyTable(mDelegate.markRange(fromId, toId, status));
+    }
+
+    @Override
+    public Collection<BackgroundLocation> getLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+        return mDelegate.getLocationsBetween(fromMillis, toMillis, statusMask);
+    }
+
+    @Override
+    public long countLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+        return mDelegate.countLocationsBetween(fromMillis, toMillis, statusMask);
+    }
+
+    @Override
+    public Collection<BackgroundLocation> getLocationsInBounds(double minLatitude, double minLongitude,
+                                                               double maxLatitude, double maxLongitude,
+                                                               long fromTime, long toTime) {
+        return mDelegate.getLocationsInBounds(minLatitude, minLongitude, maxLatitude, maxLongitude, fromTime, toTime);
+    }
+
+    private long notifyItem(long locationId) {
+        if (locationId > 0) {
+            mNotificationCoalescer.add(LocationContentProvider.buildUriWithId(mAuthority, locationId));
+        }
+        return locationId;
+    }
+
+    private int notifyTable(int rows) {
+        if (rows > 0) {
+            mNotificationCoalescer.add(mContentUri);
+        }
+        return rows;
+    }
+}
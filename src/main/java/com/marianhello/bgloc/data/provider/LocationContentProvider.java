@@ -1,22 +1,38 @@
 package com.marianhello.bgloc.data.provider;
 
 import android.content.ContentProvider;
-import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 
 import com.marianhello.bgloc.ResourceResolver;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationPage;
+import com.marianhello.bgloc.data.sqlite.LocationArchiver;
+import com.marianhello.bgloc.data.sqlite.LocationCompactor;
+import com.marianhello.bgloc.data.sqlite.LocationProviderDictionary;
+import com.marianhello.bgloc.data.sqlite.LocationRingBuffer;
+import com.marianhello.bgloc.data.sqlite.LocationSpatialIndex;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
 import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Content provider implementation based on
  * https://shellmonger.com/2017/06/28/android-notes-app-content-providers/
@@ -38,11 +54,118 @@ public class LocationContentProvider extends ContentProvider {
      */
     private static final int ONE_ITEM = 20;
 
+    /**
+     * The code for the UriMatch matching location counters
+     */
+    private static final int COUNTERS = 30;
+
+    /**
+     * The code for the UriMatch matching chunks of location archive
+     */
+    private static final int ARCHIVE = 40;
+
+    /**
+     * Query parameter of insert URI, when present location is stored into ring buffer
+     * of given size instead of being appended
+     */
+    public static final String QUERY_PARAM_RING_SIZE = "ring_size";
+
+    /**
+     * Query parameters of keyset paginated query (see LocationPage)
+     *
+     * limit     - maximum number of locations in page (required for paginated query)
+     * after     - time and id of last location of previous page separated by comma
+     * direction - asc (default) or desc
+     */
+    public static final String QUERY_PARAM_LIMIT = "limit";
+    public static final String QUERY_PARAM_AFTER = "after";
+    public static final String QUERY_PARAM_DIRECTION = "direction";
+
+    /**
+     * Query parameters of time range query (see LocationFilter.between)
+     *
+     * from        - lower time bound in milliseconds (inclusive)
+     * to          - upper time bound in milliseconds (exclusive)
+     * status_mask - combination of LocationFilter.STATUS_* masks (default all statuses)
+     */
+    public static final String QUERY_PARAM_FROM = "from";
+    public static final String QUERY_PARAM_TO = "to";
+    public static final String QUERY_PARAM_STATUS_MASK = "status_mask";
+
+    /**
+     * Query parameter of location and archive query URI, when present rows are restricted
+     * to bounding box "minLat,minLon,maxLat,maxLon" by spatial index (if available)
+     */
+    public static final String QUERY_PARAM_BOUNDS = "bounds";
+
+    /**
+     * Methods of call() changing status of set of locations by single statement
+     *
+     * mark_locations - locations with ids in EXTRA_IDS
+     * mark_range     - locations with id between EXTRA_FROM_ID and EXTRA_TO_ID (inclusive)
+     *
+     * New status is passed in EXTRA_STATUS, number of changed locations
+     * is returned in EXTRA_COUNT.
+     */
+    public static final String METHOD_MARK_LOCATIONS = "mark_locations";
+    public static final String METHOD_MARK_RANGE = "mark_range";
+
+    /**
+     * Method of call() evicting locations over byte budget passed in EXTRA_BUDGET_BYTES
+     * (see LocationRetention), number of evicted locations is returned in EXTRA_COUNT
+     */
+    public static final String METHOD_ENFORCE_RETENTION = "enforce_retention";
+
+    /**
+     * Methods of call() purging locations by LocationCompactor
+     *
+     * compact          - purge DELETED locations in at most EXTRA_MAX_CHUNKS chunks
+     * purge_older_than - purge all locations recorded before EXTRA_TIMESTAMP
+     *
+     * Number of purged locations is returned in EXTRA_COUNT.
+     */
+    public static final String METHOD_COMPACT = "compact";
+    public static final String METHOD_PURGE_OLDER_THAN = "purge_older_than";
+
+    /**
+     * Methods of call() maintaining location archive by LocationArchiver
+     *
+     * archive      - move synced locations recorded before EXTRA_TIMESTAMP into archive
+     * trim_archive - remove oldest archived locations over EXTRA_MAX_LOCATIONS
+     *
+     * Number of archived (removed) locations is returned in EXTRA_COUNT.
+     */
+    public static final String METHOD_ARCHIVE = "archive";
+    public static final String METHOD_TRIM_ARCHIVE = "trim_archive";
+
+    public static final String EXTRA_IDS = "ids";
+    public static final String EXTRA_FROM_ID = "from_id";
+    public static final String EXTRA_TO_ID = "to_id";
+    public static final String EXTRA_STATUS = "status";
+    public static final String EXTRA_COUNT = "count";
+    public static final String EXTRA_BUDGET_BYTES = "budget_bytes";
+    public static final String EXTRA_MAX_CHUNKS = "max_chunks";
+    public static final String EXTRA_TIMESTAMP = "timestamp";
+    public static final String EXTRA_MAX_LOCATIONS = "max_locations";
+
     /**
      * The database helper for this content provider
      */
     private SQLiteOpenHelper mDatabaseHelper;
 
+    private String mAuthority;
+
+    /**
+     * Change notifications are merged within short window, so burst of writes
+     * wakes up observers only once (coalescer is shared with DirectLocationDAO)
+     */
+    private ChangeNotificationCoalescer mNotificationCoalescer;
+
+    /**
+     * Changes made by applyBatch on current thread, announced after batch is committed
+     */
+    private final ThreadLocal<List<Uri>> mBatchChanges = new ThreadLocal<List<Uri>>();
+
     /*
      * Initialize the UriMatcher with the URIs that this content provider handles
      *
@@ -68,6 +191,18 @@ public class LocationContentProvider extends ContentProvider {
                 authority,
                 LocationEntry.TABLE_NAME + "/#",
                 ONE_ITEM);
+
+        /* This URI is content://com.example.location/location_counter/ */
+        sUriMatcher.addURI(
+                authority,
+                LocationCounterEntry.TABLE_NAME,
+                COUNTERS);
+
+        /* This URI is content://com.example.location/location_archive/ */
+        sUriMatcher.addURI(
+                authority,
+                LocationArchiveEntry.TABLE_NAME,
+                ARCHIVE);
     }
 
     /**
@@ -82,11 +217,23 @@ public class LocationContentProvider extends ContentProvider {
     public boolean onCreate() {
         Context context = getContext();
         ResourceResolver resourceResolver = ResourceResolver.newInstance(getContext());
-        initialize(resourceResolver.getAuthority());
-        mDatabaseHelper = new SQLiteOpenHelper(context);
+        mAuthority = resourceResolver.getAuthority();
+        initialize(mAuthority);
+        mDatabaseHelper = SQLiteOpenHelper.getHelper(context);
+        mNotificationCoalescer = ChangeNotificationCoalescer.forResolver(context.getContentResolver());
         return true;
     }
 
+    /**
+     * Deliver pending change notifications.
+     * Called only by unit tests, system never shuts down provider.
+     */
+    @Override
+    public void shutdown() {
+        mNotificationCoalescer.flush();
+        super.shutdown();
+    }
+
     /**
      * The content provider must return the content type for its supported URIs.  The supported
      * URIs are defined in the UriMatcher
@@ -126,7 +273,12 @@ public class LocationContentProvider extends ContentProvider {
 
         int uriType = sUriMatcher.match(uri);
         SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        if (!db.inTransaction()) {
+            // reads outside of write transaction don't need to wait for writers
+            db = mDatabaseHelper.getReadOnlyDatabase();
+        }
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        String limit = null;
 
         switch (uriType) {
             /*
@@ -142,9 +294,35 @@ public class LocationContentProvider extends ContentProvider {
              */
             case ALL_ITEMS:
                 queryBuilder.setTables(LocationEntry.TABLE_NAME);
+                if (projection == null) {
+                    projection = LocationEntry.PROJECTION_ALL;
+                }
+                LocationPage page = getPage(uri);
+                if (page != null) {
+                    selection = TextUtils.isEmpty(selection)
+                            ? page.getSelection()
+                            : "(" + page.getSelection() + ") AND (" + selection + ")";
+                    selectionArgs = concat(page.getSelectionArgs(), selectionArgs);
+                    sortOrder = page.getSortOrder();
+                    limit = String.valueOf(page.getLimit());
+                }
                 if (TextUtils.isEmpty(sortOrder)) {
                     sortOrder = LocationEntry.COLUMN_NAME_TIME + " ASC";
                 }
+                LocationFilter timeRange = getTimeRange(uri);
+                if (timeRange != null) {
+                    selection = TextUtils.isEmpty(selection)
+                            ? timeRange.getSelection()
+                            : "(" + timeRange.getSelection() + ") AND (" + selection + ")";
+                    selectionArgs = concat(timeRange.getSelectionArgs(), selectionArgs);
+                }
+                LocationFilter bounds = getBounds(uri);
+                if (bounds != null && LocationSpatialIndex.isAvailable(db)) {
+                    selection = TextUtils.isEmpty(selection)
+                            ? LocationSpatialIndex.getSelection()
+                            : LocationSpatialIndex.getSelection() + " AND (" + selection + ")";
+                    selectionArgs = concat(LocationSpatialIndex.getSelectionArgs(bounds), selectionArgs);
+                }
                 break;
 
 
@@ -163,14 +341,39 @@ public class LocationContentProvider extends ContentProvider {
              */
             case ONE_ITEM:
                 queryBuilder.setTables(LocationEntry.TABLE_NAME);
+                if (projection == null) {
+                    projection = LocationEntry.PROJECTION_ALL;
+                }
                 queryBuilder.appendWhere(LocationEntry._ID + " = " + uri.getLastPathSegment());
                 break;
 
+            /*
+             * Number of locations in each status (content://com.example.location/location_counter)
+             */
+            case COUNTERS:
+                queryBuilder.setTables(LocationCounterEntry.TABLE_NAME);
+                break;
+
+            /*
+             * Archived location chunks (content://com.example.location/location_archive),
+             * decoded by LocationArchiveReader
+             */
+            case ARCHIVE:
+                queryBuilder.setTables(LocationArchiveEntry.TABLE_NAME);
+                LocationFilter chunkBounds = getBounds(uri);
+                if (chunkBounds != null && LocationSpatialIndex.isAvailable(db)) {
+                    selection = TextUtils.isEmpty(selection)
+                            ? LocationSpatialIndex.getChunkSelection()
+                            : LocationSpatialIndex.getChunkSelection() + " AND (" + selection + ")";
+                    selectionArgs = concat(LocationSpatialIndex.getSelectionArgs(chunkBounds), selectionArgs);
+                }
+                break;
+
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
 
-        Cursor cursor = queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+        Cursor cursor = queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -188,12 +391,20 @@ public class LocationContentProvider extends ContentProvider {
         switch (uriType) {
             case ALL_ITEMS:
                 SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
-                long id = db.insert(
-                        LocationEntry.TABLE_NAME,
-                        null,
-                        values);
+                values = LocationProviderDictionary.encode(db, values);
+                long id;
+                String ringSize = uri.getQueryParameter(QUERY_PARAM_RING_SIZE);
+                if (ringSize != null) {
+                    LocationRingBuffer ring = new LocationRingBuffer(db);
+                    id = ring.persist(values, Integer.parseInt(ringSize));
+                } else {
+                    id = db.insert(
+                            LocationEntry.TABLE_NAME,
+                            null,
+                            values);
+                }
                 if (id > 0) {
-                    Uri item = ContentUris.withAppendedId(uri, id);
+                    Uri item = ContentUris.withAppendedId(uri.buildUpon().clearQuery().build(), id);
                     notifyAllListeners(item);
                     return item;
                 }
@@ -204,6 +415,43 @@ public class LocationContentProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Insert multiple records into the database in single transaction.
+     * Listeners are notified only once, after transaction is committed.
+     *
+     * @param uri the base URI to insert at (must be a directory-based URI)
+     * @param values array of values to be inserted
+     * @return the number of inserted rows
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        int uriType = sUriMatcher.match(uri);
+        switch (uriType) {
+            case ALL_ITEMS:
+                SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+                int rows = 0;
+                db.beginTransactionNonExclusive();
+                try {
+                    for (ContentValues value : values) {
+                        db.insertOrThrow(
+                                LocationEntry.TABLE_NAME,
+                                null,
+                                LocationProviderDictionary.encode(db, value));
+                        rows++;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rows > 0) {
+                    notifyAllListeners(uri);
+                }
+                return rows;
+            default:
+                throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+    }
+
     /**
      * Delete one or more records from the SQLite database.
      *
@@ -219,9 +467,14 @@ public class LocationContentProvider extends ContentProvider {
         SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
         switch (uriType) {
             case ALL_ITEMS:
-                rows = db.delete(
-                        LocationEntry.TABLE_NAME,  // The table name
-                        selection, selectionArgs); // The WHERE clause
+                if (TextUtils.isEmpty(selection)) {
+                    // deleting all locations includes archived ones (in single transaction)
+                    rows = new SQLiteLocationDAO(db).deleteAllLocations();
+                } else {
+                    rows = db.delete(
+                            LocationEntry.TABLE_NAME,  // The table name
+                            selection, selectionArgs); // The WHERE clause
+                }
                 break;
             case ONE_ITEM:
                 String where = LocationEntry._ID + " = " + uri.getLastPathSegment();
@@ -250,6 +503,7 @@ public class LocationContentProvider extends ContentProvider {
         int uriType = sUriMatcher.match(uri);
         int rows;
         SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        values = LocationProviderDictionary.encode(db, values);
         switch (uriType) {
             case ALL_ITEMS:
                 rows = db.update(
@@ -277,13 +531,162 @@ public class LocationContentProvider extends ContentProvider {
     }
 
     /**
-     * Notify all listeners that the specified URI has changed
+     * Apply all operations in single transaction.
+     * If any operation fails, none of them is applied. Listeners are notified
+     * only after transaction is committed and changes of all operations are
+     * merged into single notification.
+     *
+     * @param operations the operations to apply
+     * @return the results of the applications
+     * @throws OperationApplicationException if any operation fails
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        List<Uri> changes = new ArrayList<Uri>();
+        ContentProviderResult[] results;
+        mBatchChanges.set(changes);
+        db.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+        for (Uri uri : changes) {
+            mNotificationCoalescer.add(uri);
+        }
+        return results;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        int rows;
+        if (METHOD_MARK_LOCATIONS.equals(method)) {
+            SQLiteLocationDAO dao = new SQLiteLocationDAO(mDatabaseHelper.getWritableDatabase());
+            rows = dao.markLocations(extras.getLongArray(EXTRA_IDS), extras.getInt(EXTRA_STATUS));
+        } else if (METHOD_MARK_RANGE.equals(method)) {
+            SQLiteLocationDAO dao = new SQLiteLocationDAO(mDatabaseHelper.getWritableDatabase());
+            rows = dao.markRange(extras.getLong(EXTRA_FROM_ID), extras.getLong(EXTRA_TO_ID), extras.getInt(EXTRA_STATUS));
+        } else if (METHOD_ENFORCE_RETENTION.equals(method)) {
+            SQLiteLocationDAO dao = new SQLiteLocationDAO(mDatabaseHelper.getWritableDatabase());
+            rows = dao.enforceRetention(extras.getLong(EXTRA_BUDGET_BYTES));
+        } else if (METHOD_COMPACT.equals(method)) {
+            LocationCompactor compactor = new LocationCompactor(mDatabaseHelper.getWritableDatabase());
+            rows = compactor.compact(extras.getInt(EXTRA_MAX_CHUNKS, LocationCompactor.DEFAULT_MAX_CHUNKS));
+        } else if (METHOD_PURGE_OLDER_THAN.equals(method)) {
+            LocationCompactor compactor = new LocationCompactor(mDatabaseHelper.getWritableDatabase());
+            rows = compactor.purgeOlderThan(extras.getLong(EXTRA_TIMESTAMP));
+        } else if (METHOD_ARCHIVE.equals(method)) {
+            LocationArchiver archiver = new LocationArchiver(mDatabaseHelper.getWritableDatabase());
+            rows = archiver.archive(extras.getLong(EXTRA_TIMESTAMP));
+        } else if (METHOD_TRIM_ARCHIVE.equals(method)) {
+            LocationArchiver archiver = new LocationArchiver(mDatabaseHelper.getWritableDatabase());
+            rows = archiver.trim(extras.getLong(EXTRA_MAX_LOCATIONS));
+        } else {
+            return super.call(method, arg, extras);
+        }
+
+        if (rows > 0) {
+            notifyAllListeners(getContentUri(mAuthority));
+        }
+        Bundle result = new Bundle();
+        result.putInt(EXTRA_COUNT, rows);
+        return result;
+    }
+
+    /**
+     * Parse keyset pagination query parameters
+     *
+     * @param uri
+     * @return page or null if uri is not paginated
+     */
+    private static LocationPage getPage(Uri uri) {
+        String limit = uri.getQueryParameter(QUERY_PARAM_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+
+        int direction = "desc".equalsIgnoreCase(uri.getQueryParameter(QUERY_PARAM_DIRECTION))
+                ? LocationPage.DESCENDING : LocationPage.ASCENDING;
+        String after = uri.getQueryParameter(QUERY_PARAM_AFTER);
+        if (after == null) {
+            return LocationPage.first(Integer.parseInt(limit), direction);
+        }
+
+        String[] key = after.split(",");
+        if (key.length != 2) {
+            throw new IllegalArgumentException("Invalid after parameter: " + after);
+        }
+        return new LocationPage(Long.parseLong(key[0]), Long.parseLong(key[1]), Integer.parseInt(limit), direction);
+    }
+
+    /**
+     * Parse time range query parameters
+     *
+     * @param uri
+     * @return filter or null if uri has no time range
+     */
+    private static LocationFilter getTimeRange(Uri uri) {
+        String from = uri.getQueryParameter(QUERY_PARAM_FROM);
+        String to = uri.getQueryParameter(QUERY_PARAM_TO);
+        String statusMask = uri.getQueryParameter(QUERY_PARAM_STATUS_MASK);
+        if (from == null && to == null && statusMask == null) {
+            return null;
+        }
+
+        return LocationFilter.between(
+                from != null ? Long.parseLong(from) : Long.MIN_VALUE,
+                to != null ? Long.parseLong(to) : Long.MAX_VALUE,
+                statusMask != null ? Integer.parseInt(statusMask) : LocationFilter.STATUS_ANY);
+    }
+
+    /**
+     * Parse bounding box query parameter
+     *
+     * @param uri
+     * @return filter with bounds or null if uri has no bounds
+     */
+    private static LocationFilter getBounds(Uri uri) {
+        String bounds = uri.getQueryParameter(QUERY_PARAM_BOUNDS);
+        if (bounds == null) {
+            return null;
+        }
+
+        String[] values = bounds.split(",");
+        if (values.length != 4) {
+            throw new IllegalArgumentException("Invalid bounds parameter: " + bounds);
+        }
+        return LocationFilter.inBounds(
+                Double.parseDouble(values[0]), Double.parseDouble(values[1]),
+                Double.parseDouble(values[2]), Double.parseDouble(values[3]),
+                Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (second == null) {
+            return first;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Notify all listeners that the specified URI has changed.
+     * Notification is deferred until batch in progress is committed
+     * and merged with other changes within coalescing window.
      * @param uri the URI that changed
      */
     private void notifyAllListeners(Uri uri) {
-        ContentResolver resolver = getContext().getContentResolver();
-        if (resolver != null) {
-            resolver.notifyChange(uri, null);
+        List<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+        } else {
+            mNotificationCoalescer.add(uri);
         }
     }
 
@@ -303,6 +706,104 @@ public class LocationContentProvider extends ContentProvider {
                 .build();
     }
 
+    /**
+     * The content URI for querying number of locations in each status
+     *
+     * @param authority The authority of the locations content provider
+     * @return Uri to query location counters
+     */
+    public static Uri getCounterContentUri(String authority) {
+        return getBaseContentUri(authority).buildUpon()
+                .appendPath(LocationCounterEntry.TABLE_NAME)
+                .build();
+    }
+
+    /**
+     * The content URI for querying chunks of location archive
+     *
+     * @param authority The authority of the locations content provider
+     * @return Uri to query archive chunks
+     */
+    public static Uri getArchiveContentUri(String authority) {
+        return getBaseContentUri(authority).buildUpon()
+                .appendPath(LocationArchiveEntry.TABLE_NAME)
+                .build();
+    }
+
+    /**
+     * The content URI for inserting locations into ring buffer of given size
+     *
+     * @param authority The authority of the locations content provider
+     * @param ringSize Maximum number of locations in the ring
+     * @return Uri to insert location into ring buffer
+     */
+    public static Uri getRingContentUri(String authority, int ringSize) {
+        return getContentUri(authority).buildUpon()
+                .appendQueryParameter(QUERY_PARAM_RING_SIZE, String.valueOf(ringSize))
+                .build();
+    }
+
+    /**
+     * The content URI for querying locations recorded in given time range
+     *
+     * @param authority The authority of the locations content provider
+     * @param fromMillis Lower time bound (inclusive)
+     * @param toMillis Upper time bound (exclusive)
+     * @param statusMask Combination of LocationFilter.STATUS_* masks
+     * @return Uri to query locations in time range
+     */
+    public static Uri getTimeRangeContentUri(String authority, long fromMillis, long toMillis, int statusMask) {
+        return getContentUri(authority).buildUpon()
+                .appendQueryParameter(QUERY_PARAM_FROM, String.valueOf(fromMillis))
+                .appendQueryParameter(QUERY_PARAM_TO, String.valueOf(toMillis))
+                .appendQueryParameter(QUERY_PARAM_STATUS_MASK, String.valueOf(statusMask))
+                .build();
+    }
+
+    /**
+     * The content URI for querying locations inside bounding box
+     *
+     * @param authority The authority of the locations content provider
+     * @param filter Filter with bounds (see LocationFilter.inBounds)
+     * @return Uri to query locations using spatial index
+     */
+    public static Uri getBoundsContentUri(String authority, LocationFilter filter) {
+        return appendBounds(getContentUri(authority), filter);
+    }
+
+    /**
+     * The content URI for querying archive chunks intersecting bounding box
+     *
+     * @param authority The authority of the locations content provider
+     * @param filter Filter with bounds (see LocationFilter.inBounds)
+     * @return Uri to query archive chunks using spatial index
+     */
+    public static Uri getArchiveBoundsContentUri(String authority, LocationFilter filter) {
+        return appendBounds(getArchiveContentUri(authority), filter);
+    }
+
+    private static Uri appendBounds(Uri uri, LocationFilter filter) {
+        return uri.buildUpon()
+                .appendQueryParameter(QUERY_PARAM_BOUNDS, filter.getMinLatitude() + "," + filter.getMinLongitude() +
+                        "," + filter.getMaxLatitude() + "," + filter.getMaxLongitude())
+                .build();
+    }
+
+    /**
+     * The content URI for querying single page of locations
+     *
+     * @param authority The authority of the locations content provider
+     * @param page Requested page
+     * @return Uri to query page of locations
+     */
+    public static Uri getPageContentUri(String authority, LocationPage page) {
+        return getContentUri(authority).buildUpon()
+                .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(page.getLimit()))
+                .appendQueryParameter(QUERY_PARAM_AFTER, page.getAfterTime() + "," + page.getAfterId())
+                .appendQueryParameter(QUERY_PARAM_DIRECTION, page.getDirection() == LocationPage.DESCENDING ? "desc" : "asc")
+                .build();
+    }
+
     /**
      * Builds a URI that adds the task _ID to the end of the location content URI path.
      * This is used to query details about a single location entry by _ID. This is what we
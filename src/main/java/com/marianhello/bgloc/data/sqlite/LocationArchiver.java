@@ -0,0 +1,275 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationCursorReader;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves locations, which will never change again, into cold archive
+ *
+ * Only synced locations (DELETED with batch start) are archived. Locations
+ * pending post or sync stay in location table, as posting and sync queues
+ * update them. Archived locations are packed by LocationChunkCodec into chunks
+ * of up to CHUNK_SIZE locations, each chunk carries its time and id range.
+ * Read APIs merge archive with location table (see LocationArchiveReader).
+ * Bounding box of every chunk is added to spatial index (see LocationSpatialIndex).
+ *
+ * Location table recycles ids (rowid of deleted last row), so
+ * archived locations are given new ids from separate space of negative ids,
+ * decreasing with every archived location. Archive is not bounded by itself,
+ * caller keeps it within maxLocations by {@link #trim(long)}.
+ */
+public class LocationArchiver {
+    private static final String TAG = LocationArchiver.class.getName();
+
+    public static final int CHUNK_SIZE = 256;
+
+    /**
+     * Status of all archived locations
+     */
+    public static final int ARCHIVED_STATUS = BackgroundLocation.DELETED;
+
+    private static final String SQL_ARCHIVABLE =
+            LocationEntry.COLUMN_NAME_STATUS + " = " + ARCHIVED_STATUS +
+                    " AND " + LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " IS NOT NULL" +
+                    " AND " + LocationEntry.COLUMN_NAME_TIME + " < ?";
+
+    private final SQLiteDatabase db;
+    private Boolean spatialIndexAvailable;
+
+    public LocationArchiver(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Archive synced locations recorded before given time
+     *
+     * Every chunk is written in its own transaction.
+     *
+     * @param olderThan time in milliseconds since epoch
+     * @return number of archived locations
+     */
+    public int archive(long olderThan) {
+        String[] args = { String.valueOf(olderThan) };
+        String orderBy = LocationEntry.COLUMN_NAME_TIME + " ASC," + LocationEntry._ID + " ASC";
+        int total = 0;
+        long nextId = DatabaseUtils.longForQuery(db,
+                "SELECT min(0, ifnull(min(" + LocationArchiveEntry.COLUMN_NAME_ID_MIN + "), 0)) - 1" +
+                        " FROM " + LocationArchiveEntry.TABLE_NAME, null);
+
+        SQLiteStatement delete = db.compileStatement(
+                "DELETE FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?");
+        try {
+            while (true) {
+                int count;
+                db.beginTransactionNonExclusive();
+                try {
+                    List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(CHUNK_SIZE);
+                    Cursor cursor = null;
+                    try {
+                        cursor = db.query(LocationEntry.TABLE_NAME, LocationEntry.PROJECTION_ALL, SQL_ARCHIVABLE, args,
+                                null, null, orderBy, String.valueOf(CHUNK_SIZE));
+                        LocationCursorReader reader = new LocationCursorReader(cursor);
+                        while (cursor.moveToNext()) {
+                            locations.add(reader.read());
+                        }
+                    } finally {
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                    }
+
+                    count = locations.size();
+                    if (count > 0) {
+                        for (int i = 0; i < count; i++) {
+                            BackgroundLocation location = locations.get(i);
+                            delete.bindLong(1, location.getLocationId());
+                            delete.executeUpdateDelete();
+                            location.setLocationId(nextId - total - i);
+                        }
+                        insertChunk(locations);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                total += count;
+                if (count < CHUNK_SIZE) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // chunk transaction was rolled back, locations stay in location table
+            Log.e(TAG, "Error archiving locations: " + e.getMessage());
+        } finally {
+            delete.close();
+        }
+
+        Log.d(TAG, "Archived locations: " + total);
+        return total;
+    }
+
+    /**
+     * Remove archived locations recorded before given time
+     *
+     * @param timestamp time in milliseconds since epoch
+     * @return number of removed locations
+     */
+    public int purgeOlderThan(long timestamp) {
+        String[] args = { String.valueOf(timestamp) };
+        int total = 0;
+
+        db.beginTransactionNonExclusive();
+        try {
+            // chunks partially older than timestamp are rewritten
+            Cursor cursor = null;
+            try {
+                cursor = db.query(LocationArchiveEntry.TABLE_NAME,
+                        new String[] { LocationArchiveEntry._ID, LocationArchiveEntry.COLUMN_NAME_DATA },
+                        LocationArchiveEntry.COLUMN_NAME_TIME_MIN + " < ? AND " + LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " >= ?",
+                        new String[] { String.valueOf(timestamp), String.valueOf(timestamp) },
+                        null, null, null);
+                while (cursor.moveToNext()) {
+                    List<BackgroundLocation> kept = new ArrayList<BackgroundLocation>();
+                    List<BackgroundLocation> locations = LocationChunkCodec.decode(cursor.getBlob(1));
+                    for (BackgroundLocation location : locations) {
+                        if (location.getTime() >= timestamp) {
+                            kept.add(location);
+                        }
+                    }
+                    total += locations.size() - kept.size();
+                    db.delete(LocationArchiveEntry.TABLE_NAME, LocationArchiveEntry._ID + " = ?",
+                            new String[] { String.valueOf(cursor.getLong(0)) });
+                    insertChunk(kept);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+
+            total += (int) DatabaseUtils.longForQuery(db,
+                    "SELECT ifnull(sum(" + LocationArchiveEntry.COLUMN_NAME_COUNT + "), 0) FROM " + LocationArchiveEntry.TABLE_NAME +
+                            " WHERE " + LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " < ?", args);
+            db.delete(LocationArchiveEntry.TABLE_NAME, LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " < ?", args);
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            Log.e(TAG, "Error purging location archive: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+
+        return total;
+    }
+
+    /**
+     * Remove oldest archived locations, so location table and archive together
+     * hold at most maxLocations locations
+     *
+     * Chunks are removed whole, only the last one is rewritten with its newest locations.
+     *
+     * @param maxLocations maximum number of stored locations
+     * @return number of removed locations
+     */
+    public int trim(long maxLocations) {
+        int total = 0;
+
+        db.beginTransactionNonExclusive();
+        try {
+            long excess = DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME) - Math.max(maxLocations, 0) +
+                    DatabaseUtils.longForQuery(db,
+                            "SELECT ifnull(sum(" + LocationArchiveEntry.COLUMN_NAME_COUNT + "), 0) FROM " + LocationArchiveEntry.TABLE_NAME, null);
+
+            Cursor cursor = null;
+            try {
+                cursor = db.query(LocationArchiveEntry.TABLE_NAME,
+                        new String[] { LocationArchiveEntry._ID, LocationArchiveEntry.COLUMN_NAME_COUNT, LocationArchiveEntry.COLUMN_NAME_DATA },
+                        null, null, null, null, LocationArchiveEntry.COLUMN_NAME_TIME_MAX + " ASC");
+                while (excess > 0 && cursor.moveToNext()) {
+                    int count = cursor.getInt(1);
+                    db.delete(LocationArchiveEntry.TABLE_NAME, LocationArchiveEntry._ID + " = ?",
+                            new String[] { String.valueOf(cursor.getLong(0)) });
+                    if (count > excess) {
+                        // chunk is ordered by time, newest locations are at its end
+                        List<BackgroundLocation> locations = LocationChunkCodec.decode(cursor.getBlob(2));
+                        insertChunk(new ArrayList<BackgroundLocation>(locations.subList((int) excess, locations.size())));
+                        count = (int) excess;
+                    }
+                    excess -= count;
+                    total += count;
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            total = 0;
+            Log.e(TAG, "Error trimming location archive: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+
+        if (total > 0) {
+            Log.d(TAG, "Trimmed archived locations: " + total);
+        }
+        return total;
+    }
+
+    /**
+     * Remove all archived locations
+     *
+     * @return number of removed locations
+     */
+    public int deleteAll() {
+        int count = (int) DatabaseUtils.longForQuery(db,
+                "SELECT ifnull(sum(" + LocationArchiveEntry.COLUMN_NAME_COUNT + "), 0) FROM " + LocationArchiveEntry.TABLE_NAME, null);
+        db.delete(LocationArchiveEntry.TABLE_NAME, null, null);
+        return count;
+    }
+
+    private void insertChunk(List<BackgroundLocation> locations) throws IOException {
+        if (locations.isEmpty()) {
+            return;
+        }
+
+        long timeMin = Long.MAX_VALUE, timeMax = Long.MIN_VALUE;
+        long idMin = Long.MAX_VALUE, idMax = Long.MIN_VALUE;
+        for (BackgroundLocation location : locations) {
+            timeMin = Math.min(timeMin, location.getTime());
+            timeMax = Math.max(timeMax, location.getTime());
+            idMin = Math.min(idMin, location.getLocationId());
+            idMax = Math.max(idMax, location.getLocationId());
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(LocationArchiveEntry.COLUMN_NAME_TIME_MIN, timeMin);
+        values.put(LocationArchiveEntry.COLUMN_NAME_TIME_MAX, timeMax);
+        values.put(LocationArchiveEntry.COLUMN_NAME_ID_MIN, idMin);
+        values.put(LocationArchiveEntry.COLUMN_NAME_ID_MAX, idMax);
+        values.put(LocationArchiveEntry.COLUMN_NAME_COUNT, locations.size());
+        values.put(LocationArchiveEntry.COLUMN_NAME_DATA, LocationChunkCodec.encode(locations));
+        long chunkId = db.insertOrThrow(LocationArchiveEntry.TABLE_NAME, null, values);
+
+        if (spatialIndexAvailable == null) {
+            spatialIndexAvailable = LocationSpatialIndex.isAvailable(db);
+        }
+        if (spatialIndexAvailable) {
+            LocationSpatialIndex.indexChunk(db, chunkId, locations);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary encoding of archived location chunk
+ *
+ * Locations are expected to be ordered by time. Ids, times and coordinates
+ * (in 1e-7 degrees, ~1cm precision) are stored as zigzag varint deltas to
+ * previous location, optional values only when present, providers are
+ * stored once per chunk. Whole chunk is deflated.
+ *
+ * Altitude is stored as double (chunks of version 1 stored it as float, they are still readable).
+ */
+public class LocationChunkCodec {
+    private static final int VERSION = 2;
+    private static final int VERSION_FLOAT_ALTITUDE = 1;
+    private static final double E7 = 1e7;
+
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_SPEED = 1 << 1;
+    private static final int HAS_BEARING = 1 << 2;
+    private static final int HAS_ALTITUDE = 1 << 3;
+    private static final int HAS_RADIUS = 1 << 4;
+    private static final int HAS_LOCATION_PROVIDER = 1 << 5;
+    private static final int HAS_BATCH_START = 1 << 6;
+
+    private LocationChunkCodec() {}
+
+    public static byte[] encode(List<BackgroundLocation> locations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(VERSION);
+        DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+
+        List<String> providers = new ArrayList<String>();
+        Map<String, Integer> providerIndexes = new HashMap<String, Integer>();
+        for (BackgroundLocation l : locations) {
+            String provider = l.getProvider();
+            if (provider != null && !providerIndexes.containsKey(provider)) {
+                providerIndexes.put(provider, providers.size() + 1); // 0 is null
+                providers.add(provider);
+            }
+        }
+        writeVarint(out, providers.size());
+        for (String provider : providers) {
+            out.writeUTF(provider);
+        }
+
+        writeVarint(out, locations.size());
+        long prevId = 0, prevTime = 0, prevLat = 0, prevLon = 0;
+        for (BackgroundLocation l : locations) {
+            long id = l.getLocationId() != null ? l.getLocationId() : 0;
+            long lat = Math.round(l.getLatitude() * E7);
+            long lon = Math.round(l.getLongitude() * E7);
+            writeSignedVarint(out, id - prevId);
+            writeSignedVarint(out, l.getTime() - prevTime);
+            writeSignedVarint(out, lat - prevLat);
+            writeSignedVarint(out, lon - prevLon);
+            prevId = id;
+            prevTime = l.getTime();
+            prevLat = lat;
+            prevLon = lon;
+
+            int flags = 0;
+            if (l.hasAccuracy()) flags |= HAS_ACCURACY;
+            if (l.hasSpeed()) flags |= HAS_SPEED;
+            if (l.hasBearing()) flags |= HAS_BEARING;
+            if (l.hasAltitude()) flags |= HAS_ALTITUDE;
+            if (l.hasRadius()) flags |= HAS_RADIUS;
+            if (l.getLocationProvider() != null) flags |= HAS_LOCATION_PROVIDER;
+            if (l.getBatchStartMillis() != null) flags |= HAS_BATCH_START;
+            writeVarint(out, flags);
+
+            String provider = l.getProvider();
+            writeVarint(out, provider != null ? providerIndexes.get(provider) : 0);
+            writeVarint(out, l.getStatus());
+            writeVarint(out, l.getMockFlags());
+            if (l.getLocationProvider() != null) writeVarint(out, l.getLocationProvider());
+            if (l.getBatchStartMillis() != null) writeSignedVarint(out, l.getBatchStartMillis() - l.getTime());
+            if (l.hasAccuracy()) out.writeFloat(l.getAccuracy());
+            if (l.hasSpeed()) out.writeFloat(l.getSpeed());
+            if (l.hasBearing()) out.writeFloat(l.getBearing());
+            if (l.hasAltitude()) out.writeDouble(l.getAltitude());
+            if (l.hasRadius()) out.writeFloat(l.getRadius());
+        }
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    public static List<BackgroundLocation> decode(byte[] data) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        int version = bytes.read();
+        if (version != VERSION && version != VERSION_FLOAT_ALTITUDE) {
+            throw new IOException("Unsupported chunk version: " + version);
+        }
+        DataInputStream in = new DataInputStream(new InflaterInputStream(bytes));
+
+        int providersCount = (int) readVarint(in);
+        String[] providers = new String[providersCount + 1];
+        for (int i = 1; i <= providersCount; i++) {
+            providers[i] = in.readUTF();
+        }
+
+        int count = (int) readVarint(in);
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        long id = 0, time = 0, lat = 0, lon = 0;
+        for (int i = 0; i < count; i++) {
+            id += readSignedVarint(in);
+            time += readSignedVarint(in);
+            lat += readSignedVarint(in);
+            lon += readSignedVarint(in);
+            int flags = (int) readVarint(in);
+
+            BackgroundLocation l = new BackgroundLocation();
+            l.setLocationId(id);
+            l.setTime(time);
+            l.setLatitude(lat / E7);
+            l.setLongitude(lon / E7);
+            l.setProvider(providers[(int) readVarint(in)]);
+            l.setStatus((int) readVarint(in));
+            l.setMockFlags((int) readVarint(in));
+            if ((flags & HAS_LOCATION_PROVIDER) != 0) l.setLocationProvider((int) readVarint(in));
+            if ((flags & HAS_BATCH_START) != 0) l.setBatchStartMillis(time + readSignedVarint(in));
+            if ((flags & HAS_ACCURACY) != 0) l.setAccuracy(in.readFloat());
+            if ((flags & HAS_SPEED) != 0) l.setSpeed(in.readFloat());
+            if ((flags & HAS_BEARING) != 0) l.setBearing(in.readFloat());
+            if ((flags & HAS_ALTITUDE) != 0) {
+                l.setAltitude(version == VERSION_FLOAT_ALTITUDE ? in.readFloat() : in.readDouble());
+            }
+            if ((flags & HAS_RADIUS) != 0) l.setRadius(in.readFloat());
+            locations.add(l);
+        }
+        in.close();
+
+        return locations;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static void writeSignedVarint(DataOutputStream out, long value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long readSignedVarint(DataInputStream in) throws IOException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
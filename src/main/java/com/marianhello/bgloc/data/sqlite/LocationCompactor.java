@@ -0,0 +1,162 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+
+/**
+ * Physically removes locations from location table
+ *
+ * Deleting location usually only flags it as DELETED, so rows have to be purged
+ * eventually. Rows are deleted in chunks, each in its own short transaction,
+ * so location persistence running concurrently is never blocked for long.
+ * Freed pages are returned to filesystem by incremental vacuum (database is switched
+ * to auto_vacuum=INCREMENTAL on creation or schema upgrade, see SQLiteOpenHelper).
+ * Compactor itself never runs full VACUUM.
+ *
+ * Intended to be run when database goes idle (eg. after sync batch is completed).
+ */
+public class LocationCompactor {
+    private static final String TAG = LocationCompactor.class.getName();
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_MAX_CHUNKS = 20;
+    public static final int DEFAULT_VACUUM_PAGES = 1024;
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final SQLiteDatabase db;
+    private final int chunkSize;
+
+    public LocationCompactor(SQLiteDatabase db) {
+        this(db, DEFAULT_CHUNK_SIZE);
+    }
+
+    public LocationCompactor(SQLiteDatabase db, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.db = db;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Purge DELETED locations using default limits
+     *
+     * @return number of purged locations
+     */
+    public int compact() {
+        return compact(DEFAULT_MAX_CHUNKS);
+    }
+
+    /**
+     * Purge DELETED locations
+     *
+     * @param maxChunks maximum number of chunks purged in this run
+     * @return number of purged locations
+     */
+    public int compact(int maxChunks) {
+        String where = LocationEntry.COLUMN_NAME_STATUS + " = " + BackgroundLocation.DELETED;
+        int rows = deleteInChunks(where, null, maxChunks);
+        Log.d(TAG, "Purged deleted locations: " + rows);
+        incrementalVacuum(DEFAULT_VACUUM_PAGES);
+        return rows;
+    }
+
+    /**
+     * Purge all locations (regardless of their status, including archived) recorded before timestamp
+     *
+     * @param timestamp time in milliseconds since epoch
+     * @return number of purged locations
+     */
+    public int purgeOlderThan(long timestamp) {
+        String where = LocationEntry.COLUMN_NAME_TIME + " < ?";
+        int rows = deleteInChunks(where, new String[] { String.valueOf(timestamp) }, Integer.MAX_VALUE);
+        rows += new LocationArchiver(db).purgeOlderThan(timestamp);
+        Log.d(TAG, "Purged locations older than: " + timestamp + " count: " + rows);
+        incrementalVacuum(DEFAULT_VACUUM_PAGES);
+        return rows;
+    }
+
+    private int deleteInChunks(String where, String[] whereArgs, int maxChunks) {
+        String sql = new StringBuilder("DELETE FROM ")
+                .append(LocationEntry.TABLE_NAME)
+                .append(" WHERE ").append(LocationEntry._ID)
+                .append(" IN (SELECT ").append(LocationEntry._ID)
+                .append(" FROM ").append(LocationEntry.TABLE_NAME)
+                .append(" WHERE ").append(where)
+                .append(" LIMIT ").append(chunkSize).append(")")
+                .toString();
+
+        int total = 0;
+        SQLiteStatement stmt = db.compileStatement(sql);
+        try {
+            for (int chunk = 0; chunk < maxChunks; chunk++) {
+                int rows;
+                db.beginTransactionNonExclusive();
+                try {
+                    if (whereArgs != null) {
+                        stmt.bindAllArgsAsStrings(whereArgs);
+                    }
+                    rows = stmt.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                total += rows;
+                if (rows < chunkSize) {
+                    break;
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+
+        return total;
+    }
+
+    /**
+     * Return up to maxPages free pages to filesystem
+     *
+     * Does nothing if database is not in incremental auto vacuum mode.
+     *
+     * @param maxPages
+     */
+    public void incrementalVacuum(int maxPages) {
+        if (!isIncrementalAutoVacuum(db)) {
+            return;
+        }
+
+        Cursor cursor = null;
+        try {
+            // every step of pragma frees single page, cursor has to be exhausted
+            cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+            while (cursor.moveToNext()) {
+                // nothing to read
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Error executing incremental vacuum: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    static boolean isIncrementalAutoVacuum(SQLiteDatabase db) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA auto_vacuum", null);
+            return cursor.moveToFirst() && cursor.getInt(0) == AUTO_VACUUM_INCREMENTAL;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationProviderEntry;
+
+/**
+ * Dictionary of location provider names
+ *
+ * There are only few distinct provider names (gps, network, fused...), so location
+ * rows keep just id of the name (see LocationProviderEntry). Name is added into
+ * dictionary on first use, lookups go through cached compiled statements.
+ * Ids are not cached in memory, as transaction adding new name can still be rolled back.
+ */
+public class LocationProviderDictionary {
+    private static final String SQL_SELECT_ID =
+            "SELECT " + LocationProviderEntry._ID + " FROM " + LocationProviderEntry.TABLE_NAME +
+                    " WHERE " + LocationProviderEntry.COLUMN_NAME_NAME + " = ?";
+
+    private static final String SQL_INSERT =
+            "INSERT INTO " + LocationProviderEntry.TABLE_NAME +
+                    " (" + LocationProviderEntry.COLUMN_NAME_NAME + ") VALUES (?)";
+
+    private LocationProviderDictionary() {}
+
+    /**
+     * Get id of provider name, name is added when not in dictionary yet
+     *
+     * @param db writable database
+     * @param name provider name
+     * @return id of name or null when name is null
+     */
+    public static Long getId(SQLiteDatabase db, String name) {
+        if (name == null) {
+            return null;
+        }
+
+        SQLiteStatementCache cache = SQLiteStatementCache.forDatabase(db);
+        SQLiteStatement select = cache.get(SQL_SELECT_ID);
+        select.bindString(1, name);
+        try {
+            return select.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            SQLiteStatement insert = cache.get(SQL_INSERT);
+            insert.bindString(1, name);
+            return insert.executeInsert();
+        }
+    }
+
+    /**
+     * Replace provider name of location values (see BackgroundLocation.toContentValues)
+     * by its id
+     *
+     * @param db writable database
+     * @param values location values
+     * @return values which can be written into location table
+     */
+    public static ContentValues encode(SQLiteDatabase db, ContentValues values) {
+        if (values == null || !values.containsKey(LocationEntry.COLUMN_NAME_PROVIDER)) {
+            return values;
+        }
+
+        ContentValues encoded = new ContentValues(values);
+        encoded.remove(LocationEntry.COLUMN_NAME_PROVIDER);
+        encoded.put(LocationEntry.COLUMN_NAME_PROVIDER_ID, getId(db, values.getAsString(LocationEntry.COLUMN_NAME_PROVIDER)));
+        return encoded;
+    }
+}
@@ -0,0 +1,282 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+
+/**
+ * Keeps database within byte budget of retention policy
+ *
+ * Database size is taken from page_count and freelist_count, so space already
+ * freed (but not yet returned to filesystem) is not counted. When database is
+ * over budget, number of locations to evict is estimated from average size of
+ * stored location and eviction strategies of policy are asked in order to evict
+ * them. Default strategies evict synced locations only, so database holding
+ * mostly locations pending post or sync may stay over budget. Every chunk is evicted in its own short transaction, number of chunks
+ * per run is limited, so concurrent location persistence is never blocked for long
+ * and large excess is evicted over several runs.
+ */
+public class LocationRetention {
+    private static final String TAG = LocationRetention.class.getName();
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_MAX_CHUNKS = 10;
+
+    /**
+     * Strategy selecting locations to evict
+     */
+    public interface EvictionStrategy {
+        /**
+         * Evict locations, called in transaction
+         *
+         * @param db
+         * @param maxLocations maximum number of locations to evict (archive chunk is evicted whole)
+         * @return number of evicted locations, 0 when strategy has nothing more to evict
+         */
+        int evict(SQLiteDatabase db, int maxLocations);
+    }
+
+    /**
+     * Evicts synced locations oldest first
+     *
+     * Archive (holding only synced locations) is evicted first, chunk by chunk,
+     * then synced or deleted locations of location table.
+     */
+    public static class OldestSyncedFirst implements EvictionStrategy {
+        @Override
+        public int evict(SQLiteDatabase db, int maxLocations) {
+            Cursor cursor = null;
+            try {
+                cursor = db.query(LocationArchiveEntry.TABLE_NAME,
+                        new String[] { LocationArchiveEntry._ID, LocationArchiveEntry.COLUMN_NAME_COUNT },
+                        null, null, null, null, LocationArchiveEntry.COLUMN_NAME_TIME_MIN + " ASC", "1");
+                if (cursor.moveToFirst()) {
+                    db.delete(LocationArchiveEntry.TABLE_NAME, LocationArchiveEntry._ID + " = ?",
+                            new String[] { String.valueOf(cursor.getLong(0)) });
+                    return cursor.getInt(1);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+
+            return db.delete(LocationEntry.TABLE_NAME, LocationEntry._ID + " IN (SELECT " + LocationEntry._ID +
+                    " FROM " + LocationEntry.TABLE_NAME +
+                    " WHERE " + LocationEntry.COLUMN_NAME_STATUS + " = " + BackgroundLocation.DELETED +
+                    " ORDER BY " + LocationEntry.COLUMN_NAME_TIME + " ASC LIMIT " + maxLocations + ")", null);
+        }
+    }
+
+    /**
+     * Evicts oldest locations of any status, but keeps stationary fixes (locations with radius)
+     *
+     * Last resort, locations pending post or sync are evicted too, so they are lost.
+     * It is not part of default policy, it has to be added to policy explicitly.
+     */
+    public static class ProtectStationary implements EvictionStrategy {
+        @Override
+        public int evict(SQLiteDatabase db, int maxLocations) {
+            return db.delete(LocationEntry.TABLE_NAME, LocationEntry._ID + " IN (SELECT " + LocationEntry._ID +
+                    " FROM " + LocationEntry.TABLE_NAME + " WHERE " + SQL_NOT_STATIONARY +
+                    " ORDER BY " + LocationEntry.COLUMN_NAME_TIME + " ASC LIMIT " + maxLocations + ")", null);
+        }
+    }
+
+    /**
+     * Thins out dense segments of synced track, oldest first
+     *
+     * Synced location recorded sooner than minIntervalMillis after previous kept
+     * location is evicted. Stationary fixes and locations pending post or sync are
+     * always kept.
+     *
+     * Every call scans at most maxScanRows locations and remembers where it stopped,
+     * next call (also in next retention run, when strategy instance is reused)
+     * resumes from there. Once end of table is reached, thinning starts over from
+     * the oldest location.
+     */
+    public static class ThinDenseSegments implements EvictionStrategy {
+        public static final int DEFAULT_MAX_SCAN_ROWS = 5000;
+
+        private final long minIntervalMillis;
+        private final int maxScanRows;
+
+        // last scanned location and time of last kept location
+        private long afterTime = Long.MIN_VALUE;
+        private long afterId = Long.MIN_VALUE;
+        private long keptTime = Long.MIN_VALUE;
+
+        public ThinDenseSegments(long minIntervalMillis) {
+            this(minIntervalMillis, DEFAULT_MAX_SCAN_ROWS);
+        }
+
+        public ThinDenseSegments(long minIntervalMillis, int maxScanRows) {
+            if (maxScanRows <= 0) {
+                throw new IllegalArgumentException("Invalid max scan rows: " + maxScanRows);
+            }
+            this.minIntervalMillis = minIntervalMillis;
+            this.maxScanRows = maxScanRows;
+        }
+
+        @Override
+        public synchronized int evict(SQLiteDatabase db, int maxLocations) {
+            long[] ids = new long[maxLocations];
+            int count = 0;
+            int scanned = 0;
+            boolean fromStart = afterTime == Long.MIN_VALUE;
+
+            Cursor cursor = null;
+            try {
+                cursor = db.query(LocationEntry.TABLE_NAME,
+                        new String[] { LocationEntry._ID, LocationEntry.COLUMN_NAME_TIME, LocationEntry.COLUMN_NAME_FLAGS },
+                        LocationEntry.COLUMN_NAME_STATUS + " = " + BackgroundLocation.DELETED +
+                                " AND (" + LocationEntry.COLUMN_NAME_TIME + " > ? OR (" +
+                                LocationEntry.COLUMN_NAME_TIME + " = ? AND " + LocationEntry._ID + " > ?))",
+                        new String[] { String.valueOf(afterTime), String.valueOf(afterTime), String.valueOf(afterId) },
+                        null, null,
+                        LocationEntry.COLUMN_NAME_TIME + " ASC," + LocationEntry._ID + " ASC",
+                        String.valueOf(maxScanRows));
+                while (count < maxLocations && cursor.moveToNext()) {
+                    scanned++;
+                    long id = cursor.getLong(0);
+                    long time = cursor.getLong(1);
+                    boolean stationary = (cursor.getInt(2) & LocationEntry.FLAG_HAS_RADIUS) != 0;
+                    if (!stationary && keptTime != Long.MIN_VALUE && time - keptTime < minIntervalMillis) {
+                        ids[count++] = id;
+                    } else {
+                        keptTime = time;
+                    }
+                    afterTime = time;
+                    afterId = id;
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+
+            if (count < maxLocations && scanned < maxScanRows) {
+                // end of table, start over next time
+                afterTime = Long.MIN_VALUE;
+                afterId = Long.MIN_VALUE;
+                keptTime = Long.MIN_VALUE;
+                if (count == 0 && !fromStart) {
+                    return evict(db, maxLocations);
+                }
+            }
+
+            SQLiteStatement delete = db.compileStatement(
+                    "DELETE FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?");
+            try {
+                for (int i = 0; i < count; i++) {
+                    delete.bindLong(1, ids[i]);
+                    delete.executeUpdateDelete();
+                }
+            } finally {
+                delete.close();
+            }
+
+            return count;
+        }
+    }
+
+    private static final String SQL_NOT_STATIONARY =
+            "(" + LocationEntry.COLUMN_NAME_FLAGS + " & " + LocationEntry.FLAG_HAS_RADIUS + ") = 0";
+
+    private final SQLiteDatabase db;
+    private final LocationRetentionPolicy policy;
+    private final int chunkSize;
+
+    public LocationRetention(SQLiteDatabase db, LocationRetentionPolicy policy) {
+        this(db, policy, DEFAULT_CHUNK_SIZE);
+    }
+
+    public LocationRetention(SQLiteDatabase db, LocationRetentionPolicy policy, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.db = db;
+        this.policy = policy;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Evict locations over budget using default limits
+     *
+     * @return number of evicted locations
+     */
+    public int enforce() {
+        return enforce(DEFAULT_MAX_CHUNKS);
+    }
+
+    /**
+     * Evict locations over budget
+     *
+     * @param maxChunks maximum number of chunks evicted in this run
+     * @return number of evicted locations
+     */
+    public int enforce(int maxChunks) {
+        if (!policy.isEnabled()) {
+            return 0;
+        }
+
+        long usedBytes = getUsedBytes();
+        long excessBytes = usedBytes - policy.getBudgetBytes();
+        if (excessBytes <= 0) {
+            return 0;
+        }
+
+        long locations = DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME) +
+                DatabaseUtils.longForQuery(db, "SELECT ifnull(sum(" + LocationArchiveEntry.COLUMN_NAME_COUNT + "), 0) FROM " +
+                        LocationArchiveEntry.TABLE_NAME, null);
+        if (locations == 0) {
+            return 0;
+        }
+        long locationBytes = Math.max(1, usedBytes / locations);
+        int remaining = (int) Math.min((long) maxChunks * chunkSize, (excessBytes + locationBytes - 1) / locationBytes);
+
+        int total = 0;
+        for (EvictionStrategy strategy : policy.getStrategies()) {
+            while (remaining > 0) {
+                int evicted;
+                db.beginTransactionNonExclusive();
+                try {
+                    evicted = strategy.evict(db, Math.min(chunkSize, remaining));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (evicted == 0) {
+                    break;
+                }
+                total += evicted;
+                remaining -= evicted;
+            }
+        }
+
+        if (remaining > 0) {
+            Log.w(TAG, "Still over budget, strategies have nothing more to evict, remaining: " + remaining);
+        }
+        if (total > 0) {
+            new LocationCompactor(db).incrementalVacuum(LocationCompactor.DEFAULT_VACUUM_PAGES);
+        }
+        Log.d(TAG, "Evicted locations: " + total + " over budget bytes: " + excessBytes);
+        return total;
+    }
+
+    /**
+     * Get number of bytes used by database, free pages are not counted
+     */
+    public long getUsedBytes() {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return (pageCount - freePages) * pageSize;
+    }
+}
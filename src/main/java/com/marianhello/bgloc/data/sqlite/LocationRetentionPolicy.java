@@ -0,0 +1,64 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Location retention policy
+ *
+ * budgetBytes - maximum size of database (free pages not counted),
+ *               0 or less disables retention
+ * strategies  - eviction strategies (see LocationRetention), asked in order until
+ *               database fits into budget
+ */
+public class LocationRetentionPolicy {
+    public static final long DEFAULT_THIN_INTERVAL_MILLIS = 10000;
+
+    // shared by default policies, so thinning resumes where previous run stopped
+    private static final LocationRetention.ThinDenseSegments DEFAULT_THIN_DENSE_SEGMENTS =
+            new LocationRetention.ThinDenseSegments(DEFAULT_THIN_INTERVAL_MILLIS);
+
+    private final long budgetBytes;
+    private final List<LocationRetention.EvictionStrategy> strategies;
+
+    /**
+     * Create policy with default strategies: dense segments of synced track are
+     * thinned first, then oldest synced locations are evicted.
+     * Locations pending post or sync are never evicted by default policy
+     * (see LocationRetention.ProtectStationary for last resort).
+     */
+    public LocationRetentionPolicy(long budgetBytes) {
+        this(budgetBytes, DEFAULT_THIN_DENSE_SEGMENTS, new LocationRetention.OldestSyncedFirst());
+    }
+
+    public LocationRetentionPolicy(long budgetBytes, LocationRetention.EvictionStrategy... strategies) {
+        this.budgetBytes = budgetBytes;
+        this.strategies = Collections.unmodifiableList(Arrays.asList(strategies));
+    }
+
+    public static LocationRetentionPolicy getDefault() {
+        return new LocationRetentionPolicy(0);
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public List<LocationRetention.EvictionStrategy> getStrategies() {
+        return strategies;
+    }
+
+    public boolean isEnabled() {
+        return budgetBytes > 0;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("LocationRetentionPolicy[budgetBytes=").append(budgetBytes)
+                .append(" strategies=").append(strategies.size())
+                .append("]")
+                .toString();
+    }
+}
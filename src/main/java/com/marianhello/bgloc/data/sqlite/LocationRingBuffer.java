@@ -0,0 +1,227 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationRingEntry;
+
+import static com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper.COMMA_SEP;
+
+/**
+ * Ring buffer storage of location table
+ *
+ * Locations are stored in fixed slots 1..capacity (ring_slot column). Persisted head
+ * pointer points to slot which will be written next (the oldest one, when ring is full).
+ * Storing location is then single update of the slot row (or insert into empty slot)
+ * followed by head pointer update. No counting, deleting or vacuuming is needed.
+ *
+ * Only synced locations are replaced. When slot holds location still pending post
+ * or sync, new location is stored outside of the ring instead and head moves on,
+ * so unsent locations are never lost, table just grows over capacity until
+ * they are sent (size of database is then bounded by retention, see LocationRetention).
+ *
+ * Slot is not an id, location stored into slot always gets new id, so ids held
+ * by other components never point to another location.
+ *
+ * Locations are arranged into slots only when capacity changes. Locations inserted
+ * outside of the ring have no slot and are not touched by the ring.
+ */
+public class LocationRingBuffer {
+    private static final String TAG = LocationRingBuffer.class.getName();
+
+    private static final String SQL_SELECT_STATE =
+            "SELECT " + LocationRingEntry.COLUMN_NAME_CAPACITY + COMMA_SEP +
+                    LocationRingEntry.COLUMN_NAME_HEAD + COMMA_SEP +
+                    "(SELECT max(" + LocationEntry.COLUMN_NAME_RING_SLOT + ") FROM " + LocationEntry.TABLE_NAME + ")" +
+                    " FROM " + LocationRingEntry.TABLE_NAME +
+                    " WHERE " + LocationRingEntry._ID + " = " + LocationRingEntry.STATE_ID;
+
+    private static final String SQL_REPLACE_STATE =
+            "INSERT OR REPLACE INTO " + LocationRingEntry.TABLE_NAME + " (" +
+                    LocationRingEntry._ID + COMMA_SEP +
+                    LocationRingEntry.COLUMN_NAME_CAPACITY + COMMA_SEP +
+                    LocationRingEntry.COLUMN_NAME_HEAD +
+                    ") VALUES (" + LocationRingEntry.STATE_ID + ", ?, ?)";
+
+    private static final String SQL_SLOT_USED =
+            "SELECT count(*) FROM " + LocationEntry.TABLE_NAME +
+                    " WHERE " + LocationEntry.COLUMN_NAME_RING_SLOT + " = ?";
+
+    private static final String SQL_NEXT_ID =
+            "SELECT ifnull(max(" + LocationEntry._ID + "), 0) + 1 FROM " + LocationEntry.TABLE_NAME;
+
+    private final SQLiteDatabase db;
+
+    public LocationRingBuffer(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Store location values into next slot of the ring
+     *
+     * @param values location values (without _id)
+     * @param capacity maximum number of locations in the ring
+     * @return id of stored location or -1 when capacity is not positive
+     */
+    public long persist(ContentValues values, int capacity) {
+        return persist(values, null, capacity);
+    }
+
+    /**
+     * Store location into next slot of the ring using compiled statements
+     *
+     * @param location
+     * @param capacity maximum number of locations in the ring
+     * @return id of stored location or -1 when capacity is not positive
+     */
+    public long persist(BackgroundLocation location, int capacity) {
+        return persist(null, location, capacity);
+    }
+
+    private long persist(ContentValues values, BackgroundLocation location, int capacity) {
+        if (capacity <= 0) {
+            return -1;
+        }
+
+        long locationId;
+        db.beginTransactionNonExclusive();
+        try {
+            int head = readHead(capacity);
+            if (head < 0) {
+                head = rebuild(capacity);
+            }
+
+            long slot = head + 1;
+            locationId = SQLiteStatementCache.forDatabase(db).get(SQL_NEXT_ID).simpleQueryForLong();
+            if (location != null) {
+                if (LocationStatements.updateRing(db, slot, locationId, location) == 0) {
+                    if (isSlotUsed(slot)) {
+                        // slot holds unsent location
+                        LocationStatements.insert(db, location, locationId);
+                    } else {
+                        // slot is empty (ring is not full yet or row was deleted)
+                        LocationStatements.insertToRing(db, location, locationId, slot);
+                    }
+                }
+            } else {
+                ContentValues slotValues = new ContentValues(values);
+                slotValues.put(LocationEntry._ID, locationId);
+                String whereClause = LocationEntry.COLUMN_NAME_RING_SLOT + " = ? AND " +
+                        LocationEntry.COLUMN_NAME_STATUS + " = " + BackgroundLocation.DELETED;
+                String[] whereArgs = { String.valueOf(slot) };
+                if (db.update(LocationEntry.TABLE_NAME, slotValues, whereClause, whereArgs) == 0) {
+                    if (!isSlotUsed(slot)) {
+                        slotValues.put(LocationEntry.COLUMN_NAME_RING_SLOT, slot);
+                    }
+                    db.insertOrThrow(LocationEntry.TABLE_NAME, LocationEntry.COLUMN_NAME_NULLABLE, slotValues);
+                }
+            }
+
+            SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_REPLACE_STATE);
+            stmt.bindLong(1, capacity);
+            stmt.bindLong(2, (head + 1) % capacity);
+            stmt.executeInsert();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return locationId;
+    }
+
+    private boolean isSlotUsed(long slot) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_SLOT_USED);
+        stmt.bindLong(1, slot);
+        return stmt.simpleQueryForLong() > 0;
+    }
+
+    /**
+     * Get persisted head pointer
+     *
+     * @param capacity expected ring capacity
+     * @return head pointer or -1 if ring has to be rebuilt
+     */
+    private int readHead(int capacity) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(SQL_SELECT_STATE, null);
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            int storedCapacity = cursor.getInt(0);
+            int head = cursor.getInt(1);
+            long maxSlot = cursor.isNull(2) ? 0 : cursor.getLong(2);
+            if (storedCapacity != capacity || maxSlot > capacity || head < 0 || head >= capacity) {
+                return -1;
+            }
+            return head;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Arrange newest locations fitting into ring into slots ordered by time
+     * (oldest location in slot 1). Ids of locations are kept.
+     *
+     * Older synced locations are deleted, older locations pending post or sync
+     * are kept outside of the ring, so they are not lost.
+     *
+     * @param capacity ring capacity
+     * @return head pointer
+     */
+    private int rebuild(int capacity) {
+        Log.d(TAG, "Rebuilding location ring with capacity: " + capacity);
+
+        String newest = new StringBuilder("SELECT ")
+                .append(LocationEntry._ID).append(COMMA_SEP).append(LocationEntry.COLUMN_NAME_TIME)
+                .append(" FROM ").append(LocationEntry.TABLE_NAME)
+                .append(" ORDER BY ").append(LocationEntry.COLUMN_NAME_TIME).append(" DESC,")
+                .append(LocationEntry._ID).append(" DESC")
+                .append(" LIMIT ").append(capacity)
+                .toString();
+
+        db.execSQL("DELETE FROM " + LocationEntry.TABLE_NAME +
+                " WHERE " + LocationEntry.COLUMN_NAME_STATUS + " = " + BackgroundLocation.DELETED +
+                " AND " + LocationEntry._ID + " NOT IN (SELECT " + LocationEntry._ID + " FROM (" + newest + "))");
+
+        db.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_RING_SLOT + " = NULL" +
+                " WHERE " + LocationEntry.COLUMN_NAME_RING_SLOT + " IS NOT NULL");
+
+        long[] ids;
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT " + LocationEntry._ID + " FROM (" + newest + ")" +
+                    " ORDER BY " + LocationEntry.COLUMN_NAME_TIME + " ASC," + LocationEntry._ID + " ASC", null);
+            ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        SQLiteStatement stmt = db.compileStatement("UPDATE " + LocationEntry.TABLE_NAME +
+                " SET " + LocationEntry.COLUMN_NAME_RING_SLOT + " = ? WHERE " + LocationEntry._ID + " = ?");
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                stmt.bindLong(1, i + 1);
+                stmt.bindLong(2, ids[i]);
+                stmt.executeUpdateDelete();
+            }
+        } finally {
+            stmt.close();
+        }
+
+        return ids.length % capacity;
+    }
+}
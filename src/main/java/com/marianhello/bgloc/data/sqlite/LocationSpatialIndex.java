@@ -0,0 +1,132 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationSpatialEntry;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * R*Tree index of location coordinates
+ *
+ * Locations are indexed as points by triggers of location table, archive chunks
+ * by their bounding box (see LocationArchiver). Bounding box query first takes
+ * candidate ids from the index, exact bounds and time range are then checked
+ * on candidate rows only.
+ *
+ * Not every SQLite build has rtree module. When index cannot be created,
+ * bounding box queries fall back to time index and filter rows by coordinates.
+ */
+public class LocationSpatialIndex {
+    private static final String TAG = LocationSpatialIndex.class.getName();
+
+    private static final String SQL_INTERSECTS =
+            LocationSpatialEntry.COLUMN_NAME_MAX_LATITUDE + " >= ? AND " +
+                    LocationSpatialEntry.COLUMN_NAME_MIN_LATITUDE + " <= ? AND " +
+                    LocationSpatialEntry.COLUMN_NAME_MAX_LONGITUDE + " >= ? AND " +
+                    LocationSpatialEntry.COLUMN_NAME_MIN_LONGITUDE + " <= ?";
+
+    private LocationSpatialIndex() {}
+
+    /**
+     * Create spatial index and index existing locations and archive chunks
+     *
+     * @param db
+     * @return false when rtree module is not available
+     */
+    public static boolean create(SQLiteDatabase db) {
+        try {
+            db.execSQL(LocationSpatialEntry.SQL_CREATE_LOCATION_RTREE);
+            db.execSQL(LocationSpatialEntry.SQL_CREATE_LOCATION_ARCHIVE_RTREE);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Spatial index not available: " + e.getMessage());
+            return false;
+        }
+
+        db.execSQL(LocationSpatialEntry.SQL_CREATE_LOCATION_RTREE_INSERT_TRIGGER);
+        db.execSQL(LocationSpatialEntry.SQL_CREATE_LOCATION_RTREE_DELETE_TRIGGER);
+        db.execSQL(LocationSpatialEntry.SQL_CREATE_LOCATION_RTREE_UPDATE_TRIGGER);
+        db.execSQL(LocationSpatialEntry.SQL_CREATE_LOCATION_ARCHIVE_RTREE_DELETE_TRIGGER);
+        db.execSQL(LocationSpatialEntry.SQL_POPULATE_LOCATION_RTREE);
+
+        Cursor cursor = null;
+        try {
+            cursor = db.query(LocationArchiveEntry.TABLE_NAME,
+                    new String[] { LocationArchiveEntry._ID, LocationArchiveEntry.COLUMN_NAME_DATA },
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                indexChunk(db, cursor.getLong(0), LocationChunkCodec.decode(cursor.getBlob(1)));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error indexing location archive: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return true;
+    }
+
+    public static boolean isAvailable(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, "sqlite_master", "type = 'table' AND name = ?",
+                new String[] { LocationSpatialEntry.TABLE_NAME }) > 0;
+    }
+
+    /**
+     * Index bounding box of archive chunk
+     */
+    public static void indexChunk(SQLiteDatabase db, long chunkId, List<BackgroundLocation> locations) {
+        double minLatitude = Double.POSITIVE_INFINITY, maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+        for (BackgroundLocation location : locations) {
+            minLatitude = Math.min(minLatitude, location.getLatitude());
+            maxLatitude = Math.max(maxLatitude, location.getLatitude());
+            minLongitude = Math.min(minLongitude, location.getLongitude());
+            maxLongitude = Math.max(maxLongitude, location.getLongitude());
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(LocationSpatialEntry.COLUMN_NAME_ID, chunkId);
+        values.put(LocationSpatialEntry.COLUMN_NAME_MIN_LATITUDE, minLatitude);
+        values.put(LocationSpatialEntry.COLUMN_NAME_MAX_LATITUDE, maxLatitude);
+        values.put(LocationSpatialEntry.COLUMN_NAME_MIN_LONGITUDE, minLongitude);
+        values.put(LocationSpatialEntry.COLUMN_NAME_MAX_LONGITUDE, maxLongitude);
+        db.insertWithOnConflict(LocationSpatialEntry.ARCHIVE_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Locations which index entry intersects bounds of filter
+     */
+    public static String getSelection() {
+        return LocationEntry._ID + " IN (SELECT " + LocationSpatialEntry.COLUMN_NAME_ID +
+                " FROM " + LocationSpatialEntry.TABLE_NAME + " WHERE " + SQL_INTERSECTS + ")";
+    }
+
+    /**
+     * Archive chunks which bounding box intersects bounds of filter
+     */
+    public static String getChunkSelection() {
+        return LocationArchiveEntry._ID + " IN (SELECT " + LocationSpatialEntry.COLUMN_NAME_ID +
+                " FROM " + LocationSpatialEntry.ARCHIVE_TABLE_NAME + " WHERE " + SQL_INTERSECTS + ")";
+    }
+
+    public static String[] getSelectionArgs(LocationFilter filter) {
+        return new String[] {
+                String.valueOf(filter.getMinLatitude()),
+                String.valueOf(filter.getMaxLatitude()),
+                String.valueOf(filter.getMinLongitude()),
+                String.valueOf(filter.getMaxLongitude())
+        };
+    }
+}
@@ -0,0 +1,250 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+
+/**
+ * Write statements of location table
+ *
+ * Values are bound by typed bind calls straight from BackgroundLocation, so no
+ * ContentValues are allocated and nothing is boxed. Statements come from
+ * SQLiteStatementCache, each of them is compiled once per database.
+ */
+class LocationStatements {
+    /**
+     * Maximum number of ids bound to single statement (SQLite limits
+     * number of host parameters to 999 on older versions)
+     */
+    static final int MAX_IDS_PER_STATEMENT = 512;
+
+    private static final String[] COLUMNS = {
+            LocationEntry.COLUMN_NAME_PROVIDER_ID,
+            LocationEntry.COLUMN_NAME_TIME,
+            LocationEntry.COLUMN_NAME_ACCURACY,
+            LocationEntry.COLUMN_NAME_SPEED,
+            LocationEntry.COLUMN_NAME_BEARING,
+            LocationEntry.COLUMN_NAME_ALTITUDE,
+            LocationEntry.COLUMN_NAME_RADIUS,
+            LocationEntry.COLUMN_NAME_LATITUDE_E7,
+            LocationEntry.COLUMN_NAME_LONGITUDE_E7,
+            LocationEntry.COLUMN_NAME_FLAGS,
+            LocationEntry.COLUMN_NAME_LOCATION_PROVIDER,
+            LocationEntry.COLUMN_NAME_BATCH_START_MILLIS,
+            LocationEntry.COLUMN_NAME_STATUS
+    };
+
+    // _id is bound last, NULL lets SQLite assign new rowid
+    private static final String SQL_INSERT =
+            "INSERT INTO " + LocationEntry.TABLE_NAME + " (" + TextUtils.join(",", COLUMNS) + "," + LocationEntry._ID + ")" +
+                    " VALUES (" + placeholders(COLUMNS.length + 1) + ")";
+
+    // _id and ring slot are bound last
+    private static final String SQL_INSERT_RING =
+            "INSERT INTO " + LocationEntry.TABLE_NAME + " (" + TextUtils.join(",", COLUMNS) + "," + LocationEntry._ID +
+                    "," + LocationEntry.COLUMN_NAME_RING_SLOT + ") VALUES (" + placeholders(COLUMNS.length + 2) + ")";
+
+    private static final String SQL_UPDATE_RING =
+            "UPDATE " + LocationEntry.TABLE_NAME + " SET " + TextUtils.join(" = ?,", COLUMNS) + " = ?," +
+                    LocationEntry._ID + " = ? WHERE " + LocationEntry.COLUMN_NAME_RING_SLOT + " = ?" +
+                    " AND " + LocationEntry.COLUMN_NAME_STATUS + " = " + BackgroundLocation.DELETED;
+
+    private static final String SQL_UPDATE =
+            "UPDATE " + LocationEntry.TABLE_NAME + " SET " + TextUtils.join(" = ?,", COLUMNS) + " = ?" +
+                    " WHERE " + LocationEntry._ID + " = ?";
+
+    private static final String SQL_UPDATE_STATUS =
+            "UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_STATUS + " = ?" +
+                    " WHERE " + LocationEntry._ID + " = ?";
+
+    private static final String SQL_TRANSITION_STATUS =
+            "UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_STATUS + " = ?" +
+                    " WHERE " + LocationEntry.COLUMN_NAME_STATUS + " = ?";
+
+    private static final String SQL_DELETE_OLDEST =
+            "DELETE FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " IN" +
+                    " (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                    " ORDER BY " + LocationEntry.COLUMN_NAME_TIME + " LIMIT ?)";
+
+    private static final String SQL_MARK_RANGE =
+            "UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_STATUS + " = ?" +
+                    " WHERE " + LocationEntry._ID + " BETWEEN ? AND ?" +
+                    " AND " + LocationEntry.COLUMN_NAME_STATUS + " <> ?";
+
+    private LocationStatements() {}
+
+    /**
+     * @param id row id or 0 to assign new one
+     * @return row id of inserted location
+     */
+    static long insert(SQLiteDatabase db, BackgroundLocation location, long id) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_INSERT);
+        bindLocation(db, stmt, location);
+        if (id > 0) {
+            stmt.bindLong(COLUMNS.length + 1, id);
+        } else {
+            stmt.bindNull(COLUMNS.length + 1);
+        }
+        return stmt.executeInsert();
+    }
+
+    /**
+     * Overwrite all columns of location with given id
+     *
+     * @return number of updated rows
+     */
+    static int update(SQLiteDatabase db, long id, BackgroundLocation location) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_UPDATE);
+        bindLocation(db, stmt, location);
+        stmt.bindLong(COLUMNS.length + 1, id);
+        return stmt.executeUpdateDelete();
+    }
+
+    /**
+     * Insert location into given ring slot
+     *
+     * @return row id of inserted location
+     */
+    static long insertToRing(SQLiteDatabase db, BackgroundLocation location, long id, long slot) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_INSERT_RING);
+        bindLocation(db, stmt, location);
+        stmt.bindLong(COLUMNS.length + 1, id);
+        stmt.bindLong(COLUMNS.length + 2, slot);
+        return stmt.executeInsert();
+    }
+
+    /**
+     * Replace synced location stored in given ring slot, location gets new id
+     *
+     * @return number of updated rows (0 when slot is empty or holds location pending post or sync)
+     */
+    static int updateRing(SQLiteDatabase db, long slot, long id, BackgroundLocation location) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_UPDATE_RING);
+        bindLocation(db, stmt, location);
+        stmt.bindLong(COLUMNS.length + 1, id);
+        stmt.bindLong(COLUMNS.length + 2, slot);
+        return stmt.executeUpdateDelete();
+    }
+
+    static int updateStatus(SQLiteDatabase db, long id, int status) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_UPDATE_STATUS);
+        stmt.bindLong(1, status);
+        stmt.bindLong(2, id);
+        return stmt.executeUpdateDelete();
+    }
+
+    /**
+     * Change status of all locations with status fromStatus to toStatus
+     */
+    static int transitionStatus(SQLiteDatabase db, int fromStatus, int toStatus) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_TRANSITION_STATUS);
+        stmt.bindLong(1, toStatus);
+        stmt.bindLong(2, fromStatus);
+        return stmt.executeUpdateDelete();
+    }
+
+    /**
+     * Physically delete given number of oldest locations
+     */
+    static int deleteOldest(SQLiteDatabase db, long count) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_DELETE_OLDEST);
+        stmt.bindLong(1, count);
+        return stmt.executeUpdateDelete();
+    }
+
+    /**
+     * Change status of given locations by one statement per MAX_IDS_PER_STATEMENT ids
+     *
+     * Id lists are padded by repeating last id up to power of two, so only
+     * few distinct statements are ever compiled.
+     *
+     * @return number of locations which status was changed
+     */
+    static int markLocations(SQLiteDatabase db, long[] ids, int status) {
+        int rows = 0;
+        for (int offset = 0; offset < ids.length; offset += MAX_IDS_PER_STATEMENT) {
+            int count = Math.min(MAX_IDS_PER_STATEMENT, ids.length - offset);
+            int size = Integer.highestOneBit(count);
+            if (size < count) {
+                size <<= 1;
+            }
+
+            SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(getMarkLocationsSql(size));
+            stmt.bindLong(1, status);
+            stmt.bindLong(2, status);
+            for (int i = 0; i < size; i++) {
+                stmt.bindLong(i + 3, ids[offset + Math.min(i, count - 1)]);
+            }
+            rows += stmt.executeUpdateDelete();
+        }
+        return rows;
+    }
+
+    /**
+     * Change status of locations with id in range fromId..toId (both inclusive)
+     *
+     * @return number of locations which status was changed
+     */
+    static int markRange(SQLiteDatabase db, long fromId, long toId, int status) {
+        SQLiteStatement stmt = SQLiteStatementCache.forDatabase(db).get(SQL_MARK_RANGE);
+        stmt.bindLong(1, status);
+        stmt.bindLong(2, fromId);
+        stmt.bindLong(3, toId);
+        stmt.bindLong(4, status);
+        return stmt.executeUpdateDelete();
+    }
+
+    private static String getMarkLocationsSql(int size) {
+        return "UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_STATUS + " = ?" +
+                " WHERE " + LocationEntry.COLUMN_NAME_STATUS + " <> ?" +
+                " AND " + LocationEntry._ID + " IN (" + placeholders(size) + ")";
+    }
+
+    private static void bindLocation(SQLiteDatabase db, SQLiteStatement stmt, BackgroundLocation l) {
+        Long providerId = LocationProviderDictionary.getId(db, l.getProvider());
+        if (providerId != null) {
+            stmt.bindLong(1, providerId);
+        } else {
+            stmt.bindNull(1);
+        }
+        stmt.bindLong(2, l.getTime());
+        bindOptional(stmt, 3, l.hasAccuracy(), l.getAccuracy());
+        bindOptional(stmt, 4, l.hasSpeed(), l.getSpeed());
+        bindOptional(stmt, 5, l.hasBearing(), l.getBearing());
+        bindOptional(stmt, 6, l.hasAltitude(), l.getAltitude());
+        bindOptional(stmt, 7, l.hasRadius(), l.getRadius());
+        stmt.bindLong(8, LocationEntry.toE7(l.getLatitude()));
+        stmt.bindLong(9, LocationEntry.toE7(l.getLongitude()));
+        stmt.bindLong(10, l.getFlags());
+        if (l.getLocationProvider() != null) {
+            stmt.bindLong(11, l.getLocationProvider());
+        } else {
+            stmt.bindNull(11);
+        }
+        if (l.getBatchStartMillis() != null) {
+            stmt.bindLong(12, l.getBatchStartMillis());
+        } else {
+            stmt.bindNull(12);
+        }
+        stmt.bindLong(13, l.getStatus());
+    }
+
+    private static void bindOptional(SQLiteStatement stmt, int index, boolean has, double value) {
+        if (has) {
+            stmt.bindDouble(index, value);
+        } else {
+            stmt.bindNull(index);
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+}
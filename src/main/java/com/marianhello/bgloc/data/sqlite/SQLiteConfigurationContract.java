@@ -41,6 +41,14 @@ public final class SQLiteConfigurationContract {
         public static final String COLUMN_NAME_HEADERS = "http_headers";
         public static final String COLUMN_NAME_MAX_LOCATIONS = "max_locations";
         public static final String COLUMN_NAME_TEMPLATE = "template";
+        public static final String COLUMN_NAME_POST_BATCH_SIZE = "post_batch_size";
+        public static final String COLUMN_NAME_POST_BATCH_MAX_DELAY = "post_batch_max_delay";
+        public static final String COLUMN_NAME_POST_BATCH_MAX_BYTES = "post_batch_max_bytes";
+        public static final String COLUMN_NAME_GZIP_REQUESTS = "gzip_requests";
+        public static final String COLUMN_NAME_RETENTION_BUDGET_BYTES = "retention_budget_bytes";
+        public static final String COLUMN_NAME_RING_BUFFER = "ring_buffer";
+        public static final String COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES = "wal_auto_checkpoint_pages";
+        public static final String COLUMN_NAME_WAL_CHECKPOINT_MODE = "wal_checkpoint_mode";
 
         public static final String SQL_CREATE_CONFIG_TABLE =
                 "CREATE TABLE " + ConfigurationEntry.TABLE_NAME + " (" +
@@ -69,7 +77,15 @@ public final class SQLiteConfigurationContract {
                         ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD + INTEGER_TYPE + COMMA_SEP +
                         ConfigurationEntry.COLUMN_NAME_HEADERS + TEXT_TYPE + COMMA_SEP +
                         ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS + INTEGER_TYPE + COMMA_SEP +
-                        ConfigurationEntry.COLUMN_NAME_TEMPLATE + TEXT_TYPE +
+                        ConfigurationEntry.COLUMN_NAME_TEMPLATE + TEXT_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE + INTEGER_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_DELAY + INTEGER_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_BYTES + INTEGER_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_GZIP_REQUESTS + INTEGER_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_RETENTION_BUDGET_BYTES + INTEGER_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_RING_BUFFER + INTEGER_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES + INTEGER_TYPE + COMMA_SEP +
+                        ConfigurationEntry.COLUMN_NAME_WAL_CHECKPOINT_MODE + TEXT_TYPE +
                         " )";
 
         public static final String SQL_DROP_CONFIG_TABLE =
@@ -57,7 +57,15 @@ public class SQLiteConfigurationDAO implements ConfigurationDAO {
       ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD,
       ConfigurationEntry.COLUMN_NAME_HEADERS,
       ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS,
-      ConfigurationEntry.COLUMN_NAME_TEMPLATE
+      ConfigurationEntry.COLUMN_NAME_TEMPLATE,
+      ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE,
+      ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_DELAY,
+      ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_BYTES,
+      ConfigurationEntry.COLUMN_NAME_GZIP_REQUESTS,
+      ConfigurationEntry.COLUMN_NAME_RETENTION_BUDGET_BYTES,
+      ConfigurationEntry.COLUMN_NAME_RING_BUFFER,
+      ConfigurationEntry.COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES,
+      ConfigurationEntry.COLUMN_NAME_WAL_CHECKPOINT_MODE
     };
 
     String whereClause = null;
@@ -125,6 +133,27 @@ public class SQLiteConfigurationDAO implements ConfigurationDAO {
     config.setHttpHeaders(new JSONObject(c.getString(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_HEADERS))));
     config.setMaxLocations(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS)));
     config.setTemplate(LocationTemplateFactory.fromJSONString(c.getString(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_TEMPLATE))));
+    // columns added by upgrade are null for configuration stored before, defaults are kept
+    if (!c.isNull(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE))) {
+      config.setPostBatchSize(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE)));
+      config.setPostBatchMaxDelay(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_DELAY)));
+      config.setPostBatchMaxBytes(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_BYTES)));
+    }
+    if (!c.isNull(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_GZIP_REQUESTS))) {
+      config.setGzipRequests( (c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_GZIP_REQUESTS)) == 1) ? true : false );
+    }
+    if (!c.isNull(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_RETENTION_BUDGET_BYTES))) {
+      config.setRetentionBudgetBytes(c.getLong(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_RETENTION_BUDGET_BYTES)));
+    }
+    if (!c.isNull(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_RING_BUFFER))) {
+      config.setRingBuffer( (c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_RING_BUFFER)) == 1) ? true : false );
+    }
+    if (!c.isNull(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES))) {
+      config.setWalAutoCheckpointPages(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES)));
+    }
+    if (!c.isNull(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_WAL_CHECKPOINT_MODE))) {
+      config.setWalCheckpointMode(c.getString(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_WAL_CHECKPOINT_MODE)));
+    }
 
     return config;
   }
@@ -157,6 +186,14 @@ public class SQLiteConfigurationDAO implements ConfigurationDAO {
     values.put(ConfigurationEntry.COLUMN_NAME_HEADERS, new JSONObject(config.getHttpHeaders()).toString());
     values.put(ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS, config.getMaxLocations());
     values.put(ConfigurationEntry.COLUMN_NAME_TEMPLATE, config.hasTemplate() ? config.getTemplate().toString() : null);
+    values.put(ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE, config.getPostBatchSize());
+    values.put(ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_DELAY, config.getPostBatchMaxDelay());
+    values.put(ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_BYTES, config.getPostBatchMaxBytes());
+    values.put(ConfigurationEntry.COLUMN_NAME_GZIP_REQUESTS, Boolean.TRUE.equals(config.getGzipRequests()) ? 1 : 0);
+    values.put(ConfigurationEntry.COLUMN_NAME_RETENTION_BUDGET_BYTES, config.getRetentionBudgetBytes());
+    values.put(ConfigurationEntry.COLUMN_NAME_RING_BUFFER, Boolean.TRUE.equals(config.getRingBuffer()) ? 1 : 0);
+    values.put(ConfigurationEntry.COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES, config.getWalAutoCheckpointPages());
+    values.put(ConfigurationEntry.COLUMN_NAME_WAL_CHECKPOINT_MODE, config.getWalCheckpointMode());
 
     return values;
   }
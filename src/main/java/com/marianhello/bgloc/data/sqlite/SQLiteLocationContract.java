@@ -3,6 +3,9 @@ package com.marianhello.bgloc.data.sqlite;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import static com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper.BLOB_TYPE;
 import static com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper.COMMA_SEP;
 import static com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper.INTEGER_TYPE;
 import static com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper.REAL_TYPE;
@@ -13,29 +16,62 @@ public final class SQLiteLocationContract {
     // give it an empty constructor.
     public SQLiteLocationContract() {}
 
-    /* Inner class that defines the table contents */
+    /*
+     * Inner class that defines the table contents
+     *
+     * Rows are stored in compact format (since version 20): coordinates as fixed-point
+     * integers (degrees * 1e7), has_* booleans and mock flags packed into flags column
+     * and provider name replaced by id of location_provider row. Values absent
+     * by flags are stored as NULL. Location queries return provider name
+     * aliased as provider column (see PROJECTION_ALL).
+     */
     public static abstract class LocationEntry implements BaseColumns {
         public static final String TABLE_NAME = "location";
+        public static final String LEGACY_TABLE_NAME = "location_legacy";
         public static final String COLUMN_NAME_NULLABLE = "NULLHACK";
         public static final String COLUMN_NAME_TIME = "time";
         public static final String COLUMN_NAME_ACCURACY = "accuracy";
         public static final String COLUMN_NAME_SPEED = "speed";
         public static final String COLUMN_NAME_BEARING = "bearing";
         public static final String COLUMN_NAME_ALTITUDE = "altitude";
+        public static final String COLUMN_NAME_LATITUDE_E7 = "lat_e7";
+        public static final String COLUMN_NAME_LONGITUDE_E7 = "lon_e7";
+        public static final String COLUMN_NAME_RADIUS = "radius";
+        public static final String COLUMN_NAME_FLAGS = "flags";
+        public static final String COLUMN_NAME_PROVIDER_ID = "provider_id";
+        public static final String COLUMN_NAME_PROVIDER = "provider";
+        public static final String COLUMN_NAME_LOCATION_PROVIDER = "service_provider";
+        public static final String COLUMN_NAME_STATUS = "valid";
+        public static final String COLUMN_NAME_BATCH_START_MILLIS = "batch_start";
+        public static final String COLUMN_NAME_RING_SLOT = "ring_slot";
+
+        /*
+         * Columns of row format before version 20, used only by database upgrade
+         */
         public static final String COLUMN_NAME_LATITUDE = "latitude";
         public static final String COLUMN_NAME_LONGITUDE = "longitude";
-        public static final String COLUMN_NAME_RADIUS = "radius";
         public static final String COLUMN_NAME_HAS_ACCURACY = "has_accuracy";
         public static final String COLUMN_NAME_HAS_SPEED = "has_speed";
         public static final String COLUMN_NAME_HAS_BEARING = "has_bearing";
         public static final String COLUMN_NAME_HAS_ALTITUDE = "has_altitude";
         public static final String COLUMN_NAME_HAS_RADIUS = "has_radius";
-        public static final String COLUMN_NAME_PROVIDER = "provider";
-        public static final String COLUMN_NAME_LOCATION_PROVIDER = "service_provider";
-        public static final String COLUMN_NAME_STATUS = "valid";
-        public static final String COLUMN_NAME_BATCH_START_MILLIS = "batch_start";
         public static final String COLUMN_NAME_MOCK_FLAGS = "mock_flags";
 
+        /*
+         * Bits of flags column, mock flags are stored above FLAG_MOCK_SHIFT
+         */
+        public static final int FLAG_HAS_ACCURACY = 1;
+        public static final int FLAG_HAS_SPEED = 1 << 1;
+        public static final int FLAG_HAS_BEARING = 1 << 2;
+        public static final int FLAG_HAS_ALTITUDE = 1 << 3;
+        public static final int FLAG_HAS_RADIUS = 1 << 4;
+        public static final int FLAG_MOCK_SHIFT = 8;
+
+        /**
+         * Scale of fixed-point coordinates (~1cm precision)
+         */
+        public static final double E7 = 1e7;
+
         public static final String SQL_CREATE_LOCATION_TABLE =
                 "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                         LocationEntry._ID + " INTEGER PRIMARY KEY," +
@@ -44,21 +80,74 @@ public final class SQLiteLocationContract {
                         LocationEntry.COLUMN_NAME_SPEED + REAL_TYPE + COMMA_SEP +
                         LocationEntry.COLUMN_NAME_BEARING + REAL_TYPE + COMMA_SEP +
                         LocationEntry.COLUMN_NAME_ALTITUDE + REAL_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_LATITUDE + REAL_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_LONGITUDE + REAL_TYPE + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_LATITUDE_E7 + INTEGER_TYPE + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_LONGITUDE_E7 + INTEGER_TYPE + COMMA_SEP +
                         LocationEntry.COLUMN_NAME_RADIUS + REAL_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_HAS_ACCURACY + INTEGER_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_HAS_SPEED + INTEGER_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_HAS_BEARING + INTEGER_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_HAS_ALTITUDE + INTEGER_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_HAS_RADIUS + INTEGER_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_PROVIDER + TEXT_TYPE + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_FLAGS + INTEGER_TYPE + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_PROVIDER_ID + INTEGER_TYPE + COMMA_SEP +
                         LocationEntry.COLUMN_NAME_LOCATION_PROVIDER + INTEGER_TYPE + COMMA_SEP +
                         LocationEntry.COLUMN_NAME_STATUS + INTEGER_TYPE + COMMA_SEP +
                         LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + INTEGER_TYPE + COMMA_SEP +
-                        LocationEntry.COLUMN_NAME_MOCK_FLAGS + INTEGER_TYPE +
+                        LocationEntry.COLUMN_NAME_RING_SLOT + INTEGER_TYPE +
                         " )";
 
+        /**
+         * Provider name of location row (see LocationProviderEntry)
+         */
+        public static final String SQL_PROVIDER_NAME =
+                "(SELECT " + LocationProviderEntry.COLUMN_NAME_NAME + " FROM " + LocationProviderEntry.TABLE_NAME +
+                        " WHERE " + LocationProviderEntry.TABLE_NAME + "." + LocationProviderEntry._ID +
+                        " = " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_NAME_PROVIDER_ID + ")";
+
+        /*
+         * Upgrade of row format to version 20, location table is rebuilt as columns
+         * cannot be dropped. Indexes and triggers of old table are dropped with it.
+         */
+        public static final String SQL_RENAME_LEGACY_LOCATION_TABLE =
+                "ALTER TABLE " + LocationEntry.TABLE_NAME + " RENAME TO " + LocationEntry.LEGACY_TABLE_NAME;
+
+        public static final String SQL_COPY_LEGACY_LOCATION_TABLE =
+                "INSERT INTO " + LocationEntry.TABLE_NAME + " (" +
+                        LocationEntry._ID + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_TIME + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_ACCURACY + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_SPEED + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_BEARING + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_ALTITUDE + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_LATITUDE_E7 + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_LONGITUDE_E7 + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_RADIUS + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_FLAGS + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_PROVIDER_ID + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_LOCATION_PROVIDER + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_STATUS + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + ")" +
+                        " SELECT " +
+                        LocationEntry._ID + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_TIME + COMMA_SEP +
+                        legacyValue(LocationEntry.COLUMN_NAME_HAS_ACCURACY, LocationEntry.COLUMN_NAME_ACCURACY) + COMMA_SEP +
+                        legacyValue(LocationEntry.COLUMN_NAME_HAS_SPEED, LocationEntry.COLUMN_NAME_SPEED) + COMMA_SEP +
+                        legacyValue(LocationEntry.COLUMN_NAME_HAS_BEARING, LocationEntry.COLUMN_NAME_BEARING) + COMMA_SEP +
+                        legacyValue(LocationEntry.COLUMN_NAME_HAS_ALTITUDE, LocationEntry.COLUMN_NAME_ALTITUDE) + COMMA_SEP +
+                        "CAST(round(" + LocationEntry.COLUMN_NAME_LATITUDE + " * " + E7 + ") AS INTEGER)" + COMMA_SEP +
+                        "CAST(round(" + LocationEntry.COLUMN_NAME_LONGITUDE + " * " + E7 + ") AS INTEGER)" + COMMA_SEP +
+                        legacyValue(LocationEntry.COLUMN_NAME_HAS_RADIUS, LocationEntry.COLUMN_NAME_RADIUS) + COMMA_SEP +
+                        legacyFlag(LocationEntry.COLUMN_NAME_HAS_ACCURACY, FLAG_HAS_ACCURACY) + " | " +
+                        legacyFlag(LocationEntry.COLUMN_NAME_HAS_SPEED, FLAG_HAS_SPEED) + " | " +
+                        legacyFlag(LocationEntry.COLUMN_NAME_HAS_BEARING, FLAG_HAS_BEARING) + " | " +
+                        legacyFlag(LocationEntry.COLUMN_NAME_HAS_ALTITUDE, FLAG_HAS_ALTITUDE) + " | " +
+                        legacyFlag(LocationEntry.COLUMN_NAME_HAS_RADIUS, FLAG_HAS_RADIUS) + " | " +
+                        "(ifnull(" + LocationEntry.COLUMN_NAME_MOCK_FLAGS + ", 0) << " + FLAG_MOCK_SHIFT + ")" + COMMA_SEP +
+                        "(SELECT " + LocationProviderEntry._ID + " FROM " + LocationProviderEntry.TABLE_NAME +
+                        " WHERE " + LocationProviderEntry.COLUMN_NAME_NAME + " = " + LocationEntry.COLUMN_NAME_PROVIDER + ")" + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_LOCATION_PROVIDER + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_STATUS + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_BATCH_START_MILLIS +
+                        " FROM " + LocationEntry.LEGACY_TABLE_NAME;
+
+        public static final String SQL_DROP_LEGACY_LOCATION_TABLE =
+                "DROP TABLE IF EXISTS " + LocationEntry.LEGACY_TABLE_NAME;
+
         public static final String SQL_DROP_LOCATION_TABLE =
                 "DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME;
 
@@ -68,6 +157,23 @@ public final class SQLiteLocationContract {
         public static final String SQL_CREATE_LOCATION_TABLE_BATCH_ID_IDX =
                 "CREATE INDEX batch_id_idx ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + ")";
 
+        /**
+         * Slot of ring buffer (see LocationRingBuffer), NULL for locations outside of the ring
+         */
+        public static final String SQL_CREATE_LOCATION_TABLE_RING_SLOT_IDX =
+                "CREATE UNIQUE INDEX ring_slot_idx ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_NAME_RING_SLOT + ")";
+
+        /**
+         * Serves status queries (post queue, sync batches and their counts) ordered by time.
+         * Status is equality prefix, time gives order without temp b-tree and batch_start
+         * makes sync count covering.
+         */
+        public static final String SQL_CREATE_LOCATION_TABLE_STATUS_TIME_IDX =
+                "CREATE INDEX status_time_idx ON " + LocationEntry.TABLE_NAME + " (" +
+                        LocationEntry.COLUMN_NAME_STATUS + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_TIME + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + ")";
+
         /**
          * The directory base-path
          */
@@ -79,7 +185,8 @@ public final class SQLiteLocationContract {
         public static final String ITEM_BASEPATH = "locations/#";
 
         /**
-         * A projection of all columns in the items table
+         * A projection of all columns in the items table, with provider name
+         * in place of provider id
          */
         public static final String[] PROJECTION_ALL = {
                 _ID,
@@ -88,19 +195,241 @@ public final class SQLiteLocationContract {
                 COLUMN_NAME_SPEED,
                 COLUMN_NAME_BEARING,
                 COLUMN_NAME_ALTITUDE,
-                COLUMN_NAME_LATITUDE,
-                COLUMN_NAME_LONGITUDE,
+                COLUMN_NAME_LATITUDE_E7,
+                COLUMN_NAME_LONGITUDE_E7,
                 COLUMN_NAME_RADIUS,
-                COLUMN_NAME_HAS_ACCURACY,
-                COLUMN_NAME_HAS_SPEED,
-                COLUMN_NAME_HAS_BEARING,
-                COLUMN_NAME_HAS_ALTITUDE,
-                COLUMN_NAME_HAS_RADIUS,
-                COLUMN_NAME_PROVIDER,
+                COLUMN_NAME_FLAGS,
+                SQL_PROVIDER_NAME + " AS " + COLUMN_NAME_PROVIDER,
                 COLUMN_NAME_LOCATION_PROVIDER,
                 COLUMN_NAME_STATUS,
-                COLUMN_NAME_BATCH_START_MILLIS,
-                COLUMN_NAME_MOCK_FLAGS
+                COLUMN_NAME_BATCH_START_MILLIS
         };
+
+        public static long toE7(double degrees) {
+            return Math.round(degrees * E7);
+        }
+
+        /**
+         * Division (not multiplication by 1e-7) gives back exactly the same double
+         * for coordinates with up to 7 decimal places
+         */
+        public static double fromE7(long e7) {
+            return e7 / E7;
+        }
+
+        private static String legacyValue(String hasColumn, String column) {
+            return "CASE WHEN " + hasColumn + " = 1 THEN " + column + " END";
+        }
+
+        private static String legacyFlag(String hasColumn, int flag) {
+            return "(CASE WHEN " + hasColumn + " = 1 THEN " + flag + " ELSE 0 END)";
+        }
+    }
+
+    /* Inner class that defines dictionary of location provider names (gps, network, fused...) */
+    public static abstract class LocationProviderEntry implements BaseColumns {
+        public static final String TABLE_NAME = "location_provider";
+        public static final String COLUMN_NAME_NAME = "name";
+
+        public static final String SQL_CREATE_LOCATION_PROVIDER_TABLE =
+                "CREATE TABLE IF NOT EXISTS " + LocationProviderEntry.TABLE_NAME + " (" +
+                        LocationProviderEntry._ID + " INTEGER PRIMARY KEY," +
+                        LocationProviderEntry.COLUMN_NAME_NAME + TEXT_TYPE + " UNIQUE" +
+                        " )";
+
+        public static final String SQL_DROP_LOCATION_PROVIDER_TABLE =
+                "DROP TABLE IF EXISTS " + LocationProviderEntry.TABLE_NAME;
+
+        /**
+         * Add provider names of legacy location table (see LocationEntry.SQL_COPY_LEGACY_LOCATION_TABLE)
+         */
+        public static final String SQL_POPULATE_LOCATION_PROVIDER =
+                "INSERT OR IGNORE INTO " + LocationProviderEntry.TABLE_NAME + " (" + LocationProviderEntry.COLUMN_NAME_NAME + ")" +
+                        " SELECT DISTINCT " + LocationEntry.COLUMN_NAME_PROVIDER + " FROM " + LocationEntry.LEGACY_TABLE_NAME +
+                        " WHERE " + LocationEntry.COLUMN_NAME_PROVIDER + " IS NOT NULL";
+    }
+
+    /* Inner class that defines ring buffer state of location table */
+    public static abstract class LocationRingEntry implements BaseColumns {
+        public static final String TABLE_NAME = "location_ring";
+        public static final String COLUMN_NAME_CAPACITY = "capacity";
+        public static final String COLUMN_NAME_HEAD = "head";
+
+        /**
+         * Ring buffer state is kept in single row with this id
+         */
+        public static final long STATE_ID = 1;
+
+        public static final String SQL_CREATE_LOCATION_RING_TABLE =
+                "CREATE TABLE " + LocationRingEntry.TABLE_NAME + " (" +
+                        LocationRingEntry._ID + " INTEGER PRIMARY KEY," +
+                        LocationRingEntry.COLUMN_NAME_CAPACITY + INTEGER_TYPE + COMMA_SEP +
+                        LocationRingEntry.COLUMN_NAME_HEAD + INTEGER_TYPE +
+                        " )";
+
+        public static final String SQL_DROP_LOCATION_RING_TABLE =
+                "DROP TABLE IF EXISTS " + LocationRingEntry.TABLE_NAME;
+
+        /**
+         * Forget ring state, locations are arranged into slots again by next ring write
+         */
+        public static final String SQL_RESET_LOCATION_RING =
+                "DELETE FROM " + LocationRingEntry.TABLE_NAME;
+    }
+
+    /* Inner class that defines number of locations in each status, maintained by triggers */
+    public static abstract class LocationCounterEntry {
+        public static final String TABLE_NAME = "location_counter";
+        public static final String COLUMN_NAME_STATUS = "status";
+        public static final String COLUMN_NAME_COUNT = "count";
+
+        public static final String SQL_CREATE_LOCATION_COUNTER_TABLE =
+                "CREATE TABLE IF NOT EXISTS " + LocationCounterEntry.TABLE_NAME + " (" +
+                        LocationCounterEntry.COLUMN_NAME_STATUS + " INTEGER PRIMARY KEY," +
+                        LocationCounterEntry.COLUMN_NAME_COUNT + INTEGER_TYPE +
+                        " )";
+
+        public static final String SQL_DROP_LOCATION_COUNTER_TABLE =
+                "DROP TABLE IF EXISTS " + LocationCounterEntry.TABLE_NAME;
+
+        /**
+         * (Re)compute counters of all statuses from location table
+         */
+        public static final String SQL_SEED_LOCATION_COUNTER =
+                "INSERT OR REPLACE INTO " + LocationCounterEntry.TABLE_NAME + " (" +
+                        LocationCounterEntry.COLUMN_NAME_STATUS + COMMA_SEP +
+                        LocationCounterEntry.COLUMN_NAME_COUNT + ")" +
+                        " SELECT s, (SELECT count(*) FROM " + LocationEntry.TABLE_NAME +
+                        " WHERE " + LocationEntry.COLUMN_NAME_STATUS + " = s)" +
+                        " FROM (SELECT " + BackgroundLocation.DELETED + " AS s" +
+                        " UNION ALL SELECT " + BackgroundLocation.POST_PENDING +
+                        " UNION ALL SELECT " + BackgroundLocation.SYNC_PENDING + ")";
+
+        /*
+         * Triggers are owned by location table, they are dropped with it.
+         */
+        public static final String SQL_CREATE_LOCATION_INSERT_TRIGGER =
+                "CREATE TRIGGER IF NOT EXISTS location_counter_insert AFTER INSERT ON " + LocationEntry.TABLE_NAME +
+                        " BEGIN " + updateCount("NEW", "+") + " END";
+
+        public static final String SQL_CREATE_LOCATION_DELETE_TRIGGER =
+                "CREATE TRIGGER IF NOT EXISTS location_counter_delete AFTER DELETE ON " + LocationEntry.TABLE_NAME +
+                        " BEGIN " + updateCount("OLD", "-") + " END";
+
+        public static final String SQL_CREATE_LOCATION_UPDATE_TRIGGER =
+                "CREATE TRIGGER IF NOT EXISTS location_counter_update AFTER UPDATE OF " + LocationEntry.COLUMN_NAME_STATUS +
+                        " ON " + LocationEntry.TABLE_NAME +
+                        " WHEN OLD." + LocationEntry.COLUMN_NAME_STATUS + " IS NOT NEW." + LocationEntry.COLUMN_NAME_STATUS +
+                        " BEGIN " + updateCount("OLD", "-") + " " + updateCount("NEW", "+") + " END";
+
+        private static String updateCount(String row, String op) {
+            return "UPDATE " + LocationCounterEntry.TABLE_NAME +
+                    " SET " + LocationCounterEntry.COLUMN_NAME_COUNT + " = " + LocationCounterEntry.COLUMN_NAME_COUNT +
+                    " " + op + " 1" +
+                    " WHERE " + LocationCounterEntry.COLUMN_NAME_STATUS + " = " + row + "." + LocationEntry.COLUMN_NAME_STATUS + ";";
+        }
+    }
+
+    /* Inner class that defines cold archive of locations packed into chunks (see LocationArchiver) */
+    public static abstract class LocationArchiveEntry implements BaseColumns {
+        public static final String TABLE_NAME = "location_archive";
+        public static final String COLUMN_NAME_TIME_MIN = "time_min";
+        public static final String COLUMN_NAME_TIME_MAX = "time_max";
+        public static final String COLUMN_NAME_ID_MIN = "id_min";
+        public static final String COLUMN_NAME_ID_MAX = "id_max";
+        public static final String COLUMN_NAME_COUNT = "count";
+        public static final String COLUMN_NAME_DATA = "data";
+
+        public static final String SQL_CREATE_LOCATION_ARCHIVE_TABLE =
+                "CREATE TABLE " + LocationArchiveEntry.TABLE_NAME + " (" +
+                        LocationArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                        LocationArchiveEntry.COLUMN_NAME_TIME_MIN + INTEGER_TYPE + COMMA_SEP +
+                        LocationArchiveEntry.COLUMN_NAME_TIME_MAX + INTEGER_TYPE + COMMA_SEP +
+                        LocationArchiveEntry.COLUMN_NAME_ID_MIN + INTEGER_TYPE + COMMA_SEP +
+                        LocationArchiveEntry.COLUMN_NAME_ID_MAX + INTEGER_TYPE + COMMA_SEP +
+                        LocationArchiveEntry.COLUMN_NAME_COUNT + INTEGER_TYPE + COMMA_SEP +
+                        LocationArchiveEntry.COLUMN_NAME_DATA + BLOB_TYPE +
+                        " )";
+
+        public static final String SQL_DROP_LOCATION_ARCHIVE_TABLE =
+                "DROP TABLE IF EXISTS " + LocationArchiveEntry.TABLE_NAME;
+
+        public static final String SQL_CREATE_LOCATION_ARCHIVE_TIME_MIN_IDX =
+                "CREATE INDEX archive_time_min_idx ON " + LocationArchiveEntry.TABLE_NAME + " (" + LocationArchiveEntry.COLUMN_NAME_TIME_MIN + ")";
+
+        public static final String SQL_CREATE_LOCATION_ARCHIVE_TIME_MAX_IDX =
+                "CREATE INDEX archive_time_max_idx ON " + LocationArchiveEntry.TABLE_NAME + " (" + LocationArchiveEntry.COLUMN_NAME_TIME_MAX + ")";
+    }
+
+    /* Inner class that defines R*Tree spatial index of locations and archive chunks (see LocationSpatialIndex) */
+    public static abstract class LocationSpatialEntry {
+        public static final String TABLE_NAME = "location_rtree";
+        public static final String ARCHIVE_TABLE_NAME = "location_archive_rtree";
+        public static final String COLUMN_NAME_ID = "id";
+        public static final String COLUMN_NAME_MIN_LATITUDE = "min_lat";
+        public static final String COLUMN_NAME_MAX_LATITUDE = "max_lat";
+        public static final String COLUMN_NAME_MIN_LONGITUDE = "min_lon";
+        public static final String COLUMN_NAME_MAX_LONGITUDE = "max_lon";
+
+        private static final String RTREE_COLUMNS = "(" +
+                COLUMN_NAME_ID + COMMA_SEP +
+                COLUMN_NAME_MIN_LATITUDE + COMMA_SEP +
+                COLUMN_NAME_MAX_LATITUDE + COMMA_SEP +
+                COLUMN_NAME_MIN_LONGITUDE + COMMA_SEP +
+                COLUMN_NAME_MAX_LONGITUDE + ")";
+
+        public static final String SQL_CREATE_LOCATION_RTREE =
+                "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME + " USING rtree" + RTREE_COLUMNS;
+
+        public static final String SQL_CREATE_LOCATION_ARCHIVE_RTREE =
+                "CREATE VIRTUAL TABLE IF NOT EXISTS " + ARCHIVE_TABLE_NAME + " USING rtree" + RTREE_COLUMNS;
+
+        public static final String SQL_DROP_LOCATION_RTREE =
+                "DROP TABLE IF EXISTS " + TABLE_NAME;
+
+        public static final String SQL_DROP_LOCATION_ARCHIVE_RTREE =
+                "DROP TABLE IF EXISTS " + ARCHIVE_TABLE_NAME;
+
+        public static final String SQL_POPULATE_LOCATION_RTREE =
+                "INSERT OR REPLACE INTO " + TABLE_NAME + " SELECT " + point(LocationEntry.TABLE_NAME) +
+                        " FROM " + LocationEntry.TABLE_NAME;
+
+        /*
+         * Location table triggers keep index in sync. Archive chunks are indexed by LocationArchiver,
+         * trigger only removes them.
+         */
+        public static final String SQL_CREATE_LOCATION_RTREE_INSERT_TRIGGER =
+                "CREATE TRIGGER IF NOT EXISTS location_rtree_insert AFTER INSERT ON " + LocationEntry.TABLE_NAME +
+                        " BEGIN INSERT OR REPLACE INTO " + TABLE_NAME + " VALUES (" + point("NEW") + "); END";
+
+        public static final String SQL_CREATE_LOCATION_RTREE_DELETE_TRIGGER =
+                "CREATE TRIGGER IF NOT EXISTS location_rtree_delete AFTER DELETE ON " + LocationEntry.TABLE_NAME +
+                        " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_NAME_ID + " = OLD." + LocationEntry._ID + "; END";
+
+        /*
+         * Fires on id change too (ring buffer rebuild renumbers rows), entry of old id is removed.
+         */
+        public static final String SQL_CREATE_LOCATION_RTREE_UPDATE_TRIGGER =
+                "CREATE TRIGGER IF NOT EXISTS location_rtree_update AFTER UPDATE OF " +
+                        LocationEntry._ID + COMMA_SEP +
+                        LocationEntry.COLUMN_NAME_LATITUDE_E7 + COMMA_SEP + LocationEntry.COLUMN_NAME_LONGITUDE_E7 +
+                        " ON " + LocationEntry.TABLE_NAME +
+                        " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_NAME_ID + " = OLD." + LocationEntry._ID + ";" +
+                        " INSERT OR REPLACE INTO " + TABLE_NAME + " VALUES (" + point("NEW") + "); END";
+
+        public static final String SQL_DROP_LOCATION_RTREE_UPDATE_TRIGGER =
+                "DROP TRIGGER IF EXISTS location_rtree_update";
+
+        public static final String SQL_CREATE_LOCATION_ARCHIVE_RTREE_DELETE_TRIGGER =
+                "CREATE TRIGGER IF NOT EXISTS location_archive_rtree_delete AFTER DELETE ON " + LocationArchiveEntry.TABLE_NAME +
+                        " BEGIN DELETE FROM " + ARCHIVE_TABLE_NAME + " WHERE " + COLUMN_NAME_ID + " = OLD." + LocationArchiveEntry._ID + "; END";
+
+        private static String point(String row) {
+            String latitude = row + "." + LocationEntry.COLUMN_NAME_LATITUDE_E7 + " / " + LocationEntry.E7;
+            String longitude = row + "." + LocationEntry.COLUMN_NAME_LONGITUDE_E7 + " / " + LocationEntry.E7;
+            return row + "." + LocationEntry._ID + COMMA_SEP +
+                    latitude + COMMA_SEP + latitude + COMMA_SEP +
+                    longitude + COMMA_SEP + longitude;
+        }
     }
 }
@@ -1,6 +1,5 @@
 package com.marianhello.bgloc.data.sqlite;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
@@ -8,7 +7,14 @@ import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 
 import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationArchiveReader;
+import com.marianhello.bgloc.data.LocationCursorReader;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationPage;
+import com.marianhello.bgloc.data.LocationVisitor;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
 import ru.andremoniy.sqlbuilder.SqlExpression;
 import ru.andremoniy.sqlbuilder.SqlSelectStatement;
@@ -54,8 +60,9 @@ public class SQLiteLocationDAO implements LocationDAO {
           having,                    // don't filter by row groups
           orderBy                    // The sort order
       );
+      LocationCursorReader reader = new LocationCursorReader(cursor);
       while (cursor.moveToNext()) {
-        locations.add(hydrate(cursor));
+        locations.add(reader.read());
       }
     } finally {
       if (cursor != null) {
@@ -65,8 +72,274 @@ public class SQLiteLocationDAO implements LocationDAO {
 
     return locations;
   }
+
+  /**
+   * Get single page of locations using keyset pagination (see {@link LocationPage})
+   *
+   * @param afterTime time of last location of previous page
+   * @param afterId id of last location of previous page
+   * @param limit maximum number of locations in page
+   * @param direction LocationPage.ASCENDING or LocationPage.DESCENDING
+   * @return collection of locations
+   */
+  public Collection<BackgroundLocation> getLocations(long afterTime, long afterId, final int limit, int direction) {
+    LocationPage page = new LocationPage(afterTime, afterId, limit, direction);
+    final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(limit);
+    Cursor cursor = null;
+    Cursor chunks = null;
+
+    try {
+      cursor = db.query(
+          LocationEntry.TABLE_NAME,
+          queryColumns(),
+          page.getSelection(),
+          page.getSelectionArgs(),
+          null,
+          null,
+          page.getSortOrder(),
+          String.valueOf(page.getLimit())
+      );
+      chunks = queryArchive(
+          LocationArchiveReader.getChunkSelectionArgs(page),
+          LocationArchiveReader.getChunkSortOrder(direction == LocationPage.DESCENDING)
+      );
+      LocationArchiveReader.merge(cursor, new LocationArchiveReader(chunks, null, page), new LocationVisitor() {
+        @Override
+        public boolean visit(BackgroundLocation location) {
+          locations.add(location);
+          return locations.size() < limit;
+        }
+      }, false);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+      if (chunks != null) {
+        chunks.close();
+      }
+    }
+
+    return locations;
+  }
+
+  /**
+   * Iterate over locations matching filter ordered by time without loading
+   * them all into memory. Single location instance is reused for all rows.
+   *
+   * @param filter
+   * @param visitor
+   */
+  public void forEachLocation(LocationFilter filter, LocationVisitor visitor) {
+    visitLocations(filter, visitor, true);
+  }
+
+  /**
+   * Visit locations of location table merged with archived ones
+   *
+   * @param filter
+   * @param visitor
+   * @param reuse reuse single location instance for rows of location table
+   */
+  private void visitLocations(LocationFilter filter, LocationVisitor visitor, boolean reuse) {
+    String orderBy = LocationEntry.COLUMN_NAME_TIME + " ASC," + LocationEntry._ID + " ASC";
+    Cursor cursor = null;
+    Cursor chunks = null;
+
+    try {
+      cursor = db.query(
+          LocationEntry.TABLE_NAME,
+          queryColumns(),
+          filter.getSelection(),
+          filter.getSelectionArgs(),
+          null,
+          null,
+          orderBy
+      );
+      if (filter.acceptsStatus(LocationArchiver.ARCHIVED_STATUS)) {
+        chunks = queryArchive(
+            LocationArchiveReader.getChunkSelectionArgs(filter),
+            LocationArchiveReader.getChunkSortOrder(false)
+        );
+      }
+      LocationArchiveReader.merge(cursor, new LocationArchiveReader(chunks, filter, null), visitor, reuse);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+      if (chunks != null) {
+        chunks.close();
+      }
+    }
+  }
+
+  /**
+   * Query archive chunks overlapping time range given by selectionArgs
+   * (see LocationArchiveReader.getChunkSelection)
+   */
+  private Cursor queryArchive(String[] selectionArgs, String orderBy) {
+    return db.query(
+        LocationArchiveEntry.TABLE_NAME,
+        LocationArchiveReader.CHUNK_COLUMNS,
+        LocationArchiveReader.getChunkSelection(),
+        selectionArgs,
+        null,
+        null,
+        orderBy
+    );
+  }
+
+  /**
+   * Get locations (including archived ones) recorded in given time range ordered by time
+   *
+   * @param fromMillis inclusive
+   * @param toMillis exclusive
+   * @param statusMask combination of LocationFilter.STATUS_* masks
+   * @return collection of locations
+   */
+  public Collection<BackgroundLocation> getLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+    final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+    visitLocations(LocationFilter.between(fromMillis, toMillis, statusMask), new LocationVisitor() {
+      @Override
+      public boolean visit(BackgroundLocation location) {
+        locations.add(location);
+        return true;
+      }
+    }, false);
+
+    return locations;
+  }
+
+  /**
+   * Count locations (including archived ones) recorded in given time range
+   *
+   * Location table is counted from index only (time_idx or status_time_idx).
+   * Archive chunks inside time range are counted by their stored count,
+   * only chunks crossing range bounds are decoded.
+   *
+   * @param fromMillis inclusive
+   * @param toMillis exclusive
+   * @param statusMask combination of LocationFilter.STATUS_* masks
+   * @return number of locations
+   */
+  public long countLocationsBetween(long fromMillis, long toMillis, int statusMask) {
+    LocationFilter filter = LocationFilter.between(fromMillis, toMillis, statusMask);
+    long count = DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME, filter.getSelection(), filter.getSelectionArgs());
+
+    if (filter.acceptsStatus(LocationArchiver.ARCHIVED_STATUS)) {
+      count += DatabaseUtils.longForQuery(db,
+          "SELECT " + LocationArchiveReader.CHUNK_COUNT_COLUMNS[0] + " FROM " + LocationArchiveEntry.TABLE_NAME +
+              " WHERE " + LocationArchiveReader.getCoveredChunkSelection(),
+          LocationArchiveReader.getCoveredChunkSelectionArgs(filter));
+
+      Cursor chunks = null;
+      try {
+        chunks = db.query(
+            LocationArchiveEntry.TABLE_NAME,
+            LocationArchiveReader.CHUNK_COLUMNS,
+            LocationArchiveReader.getBoundaryChunkSelection(),
+            LocationArchiveReader.getBoundaryChunkSelectionArgs(filter),
+            null,
+            null,
+            LocationArchiveReader.getChunkSortOrder(false)
+        );
+        count += new LocationArchiveReader(chunks, filter, null).count();
+      } finally {
+        if (chunks != null) {
+          chunks.close();
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Get locations (including archived ones) inside bounding box recorded in given time range
+   * ordered by time. Candidates are taken from spatial index when available.
+   *
+   * @param fromTime inclusive
+   * @param toTime exclusive
+   * @return collection of locations
+   */
+  public Collection<BackgroundLocation> getLocationsInBounds(double minLatitude, double minLongitude,
+                                                             double maxLatitude, double maxLongitude,
+                                                             long fromTime, long toTime) {
+    LocationFilter filter = LocationFilter.inBounds(minLatitude, minLongitude, maxLatitude, maxLongitude, fromTime, toTime);
+    final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+    String selection = filter.getSelection();
+    String[] selectionArgs = filter.getSelectionArgs();
+    String chunkSelection = LocationArchiveReader.getChunkSelection();
+    String[] chunkSelectionArgs = LocationArchiveReader.getChunkSelectionArgs(filter);
+
+    if (LocationSpatialIndex.isAvailable(db)) {
+      String[] spatialArgs = LocationSpatialIndex.getSelectionArgs(filter);
+      selection = LocationSpatialIndex.getSelection() + " AND " + selection;
+      selectionArgs = concat(spatialArgs, selectionArgs);
+      chunkSelection = LocationSpatialIndex.getChunkSelection() + " AND " + chunkSelection;
+      chunkSelectionArgs = concat(spatialArgs, chunkSelectionArgs);
+    }
+
+    Cursor cursor = null;
+    Cursor chunks = null;
+    try {
+      cursor = db.query(
+          LocationEntry.TABLE_NAME,
+          queryColumns(),
+          selection,
+          selectionArgs,
+          null,
+          null,
+          LocationEntry.COLUMN_NAME_TIME + " ASC," + LocationEntry._ID + " ASC"
+      );
+      chunks = db.query(
+          LocationArchiveEntry.TABLE_NAME,
+          LocationArchiveReader.CHUNK_COLUMNS,
+          chunkSelection,
+          chunkSelectionArgs,
+          null,
+          null,
+          LocationArchiveReader.getChunkSortOrder(false)
+      );
+      LocationArchiveReader.merge(cursor, new LocationArchiveReader(chunks, filter, null), new LocationVisitor() {
+        @Override
+        public boolean visit(BackgroundLocation location) {
+          locations.add(location);
+          return true;
+        }
+      }, false);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+      if (chunks != null) {
+        chunks.close();
+      }
+    }
+
+    return locations;
+  }
+
+  private static String[] concat(String[] first, String[] second) {
+    String[] result = new String[first.length + second.length];
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+
+  /**
+   * Get all locations including archived ones
+   */
   public Collection<BackgroundLocation> getAllLocations() {
-    return getLocations(null, null);
+    final Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+    visitLocations(LocationFilter.ALL, new LocationVisitor() {
+      @Override
+      public boolean visit(BackgroundLocation location) {
+        locations.add(location);
+        return true;
+      }
+    }, false);
+
+    return locations;
   }
 
   public Collection<BackgroundLocation> getValidLocations() {
@@ -77,6 +350,10 @@ public class SQLiteLocationDAO implements LocationDAO {
   }
 
   public BackgroundLocation getLocationById(long id) {
+    if (LocationArchiveReader.isArchivedId(id)) {
+      return getArchivedLocationById(id);
+    }
+
     String[] columns = queryColumns();
     String whereClause = LocationEntry._ID + " = ?";
     String[] whereArgs = { String.valueOf(id) };
@@ -108,6 +385,26 @@ public class SQLiteLocationDAO implements LocationDAO {
     return location;
   }
 
+  private BackgroundLocation getArchivedLocationById(long id) {
+    Cursor chunks = null;
+    try {
+      chunks = db.query(
+          LocationArchiveEntry.TABLE_NAME,
+          LocationArchiveReader.CHUNK_COLUMNS,
+          LocationArchiveReader.getChunkByIdSelection(),
+          LocationArchiveReader.getChunkByIdSelectionArgs(id),
+          null,
+          null,
+          null
+      );
+      return LocationArchiveReader.findById(chunks, id);
+    } finally {
+      if (chunks != null) {
+        chunks.close();
+      }
+    }
+  }
+
   public BackgroundLocation getFirstUnpostedLocation() {
     SqlSelectStatement subsql = new SqlSelectStatement();
     subsql.column(new SqlExpression(String.format("MIN(%s)", LocationEntry._ID)), LocationEntry._ID);
@@ -116,7 +413,7 @@ public class SQLiteLocationDAO implements LocationDAO {
     subsql.orderBy(LocationEntry.COLUMN_NAME_TIME);
 
     SqlSelectStatement sql = new SqlSelectStatement();
-    sql.columns(queryColumns());
+    selectQueryColumns(sql);
     sql.from(LocationEntry.TABLE_NAME);
     sql.where(LocationEntry._ID, SqlExpression.SqlOperatorEqualTo, subsql);
 
@@ -148,7 +445,7 @@ public class SQLiteLocationDAO implements LocationDAO {
     subsql.orderBy(LocationEntry.COLUMN_NAME_TIME);
 
     SqlSelectStatement sql = new SqlSelectStatement();
-    sql.columns(queryColumns());
+    selectQueryColumns(sql);
     sql.from(LocationEntry.TABLE_NAME);
     sql.where(LocationEntry._ID, SqlExpression.SqlOperatorEqualTo, subsql);
 
@@ -172,10 +469,27 @@ public class SQLiteLocationDAO implements LocationDAO {
   }
 
   public long getUnpostedLocationsCount() {
-    String whereClause = SQLiteLocationContract.LocationEntry.COLUMN_NAME_STATUS + " = ?";
-    String[] whereArgs = { String.valueOf(BackgroundLocation.POST_PENDING) };
+    return getStatusCount(BackgroundLocation.POST_PENDING);
+  }
 
-    return DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME, whereClause, whereArgs);
+  /**
+   * Get number of locations pending sync including those in unfinished batches
+   * (same as getLocationsForSyncCount(System.currentTimeMillis()), but without table scan)
+   */
+  public long getSyncPendingLocationsCount() {
+    return getStatusCount(BackgroundLocation.SYNC_PENDING);
+  }
+
+  /**
+   * Read number of locations in given status from counter maintained by triggers
+   */
+  private long getStatusCount(int status) {
+    String sql = "SELECT " + LocationCounterEntry.COLUMN_NAME_COUNT +
+        " FROM " + LocationCounterEntry.TABLE_NAME +
+        " WHERE " + LocationCounterEntry.COLUMN_NAME_STATUS + " = ?";
+    String[] args = { String.valueOf(status) };
+
+    return DatabaseUtils.longForQuery(db, sql, args);
   }
 
   public long getLocationsForSyncCount(long millisSinceLastBatch) {
@@ -199,10 +513,33 @@ public class SQLiteLocationDAO implements LocationDAO {
    * @return rowId or -1 when error occured
    */
   public long persistLocation(BackgroundLocation location) {
-    ContentValues values = getContentValues(location);
-    long rowId = db.insertOrThrow(LocationEntry.TABLE_NAME, LocationEntry.COLUMN_NAME_NULLABLE, values);
+    return LocationStatements.insert(db, location, 0);
+  }
+
+  /**
+   * Persist locations into database in single transaction
+   *
+   * On success location ids of persisted locations are updated.
+   *
+   * @param locations
+   * @return number of persisted locations
+   */
+  public int persistLocations(Collection<BackgroundLocation> locations) {
+    int count = 0;
 
-    return rowId;
+    db.beginTransactionNonExclusive();
+    try {
+      for (BackgroundLocation location : locations) {
+        long rowId = LocationStatements.insert(db, location, 0);
+        location.setLocationId(rowId);
+        count++;
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return count;
   }
 
   /**
@@ -221,29 +558,16 @@ public class SQLiteLocationDAO implements LocationDAO {
       return -1;
     }
 
-    String sql = null;
-    Boolean shouldVacuum = false;
-
     long rowCount = DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME);
 
     if (rowCount < maxRows) {
-      ContentValues values = getContentValues(location);
-      return db.insertOrThrow(LocationEntry.TABLE_NAME, LocationEntry.COLUMN_NAME_NULLABLE, values);
+      return LocationStatements.insert(db, location, 0);
     }
 
     db.beginTransactionNonExclusive();
 
     if (rowCount > maxRows) {
-      sql = new StringBuilder("DELETE FROM ")
-              .append(LocationEntry.TABLE_NAME)
-              .append(" WHERE ").append(LocationEntry._ID)
-              .append(" IN (SELECT ").append(LocationEntry._ID)
-              .append(" FROM ").append(LocationEntry.TABLE_NAME)
-              .append(" ORDER BY ").append(LocationEntry.COLUMN_NAME_TIME)
-              .append(" LIMIT ?)")
-              .toString();
-      db.execSQL(sql, new Object[] {(rowCount - maxRows)});
-      shouldVacuum = true;
+      LocationStatements.deleteOldest(db, rowCount - maxRows);
     }
 
     // get oldest location id to be overwritten
@@ -270,59 +594,34 @@ public class SQLiteLocationDAO implements LocationDAO {
       }
     }
 
-    sql = new StringBuilder("UPDATE ")
-            .append(LocationEntry.TABLE_NAME).append(" SET ")
-            .append(LocationEntry.COLUMN_NAME_PROVIDER).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_TIME).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_ACCURACY).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_SPEED).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_BEARING).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_ALTITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_RADIUS).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_LATITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_LONGITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_ACCURACY).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_SPEED).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_BEARING).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_ALTITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_RADIUS).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_STATUS).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_MOCK_FLAGS).append("= ?")
-            .append(" WHERE ").append(LocationEntry._ID)
-            .append("= ?")
-            .toString();
-    db.execSQL(sql, new Object[] {
-            location.getProvider(),
-            location.getTime(),
-            location.getAccuracy(),
-            location.getSpeed(),
-            location.getBearing(),
-            location.getAltitude(),
-            location.getRadius(),
-            location.getLatitude(),
-            location.getLongitude(),
-            location.hasAccuracy() ? 1 : 0,
-            location.hasSpeed() ? 1 : 0,
-            location.hasBearing() ? 1 : 0,
-            location.hasAltitude() ? 1 : 0,
-            location.hasRadius() ? 1 : 0,
-            location.getLocationProvider(),
-            location.getBatchStartMillis(),
-            location.getStatus(),
-            location.getMockFlags(),
-            locationId
-    });
+    LocationStatements.update(db, locationId, location);
 
     db.setTransactionSuccessful();
     db.endTransaction();
 
-    if (shouldVacuum) { db.execSQL("VACUUM"); }
+    if (rowCount > maxRows) {
+      // pages freed by deleted rows (no full VACUUM on write path)
+      new LocationCompactor(db).incrementalVacuum(LocationCompactor.DEFAULT_VACUUM_PAGES);
+    }
 
     return locationId;
   }
 
+  /**
+   * Persist location into ring buffer of given size
+   *
+   * Unlike persistLocation with maxRows, replacing oldest location
+   * is single update of the slot row. See {@link LocationRingBuffer}.
+   *
+   * @param location
+   * @param ringSize
+   * @return location id or -1 when error occured
+   */
+  public long persistLocationToRing(BackgroundLocation location, int ringSize) {
+    LocationRingBuffer ring = new LocationRingBuffer(db);
+    return ring.persist(location, ringSize);
+  }
+
   /**
    * Delete location by given locationId
    *
@@ -334,13 +633,7 @@ public class SQLiteLocationDAO implements LocationDAO {
       return;
     }
 
-    ContentValues values = new ContentValues();
-    values.put(LocationEntry.COLUMN_NAME_STATUS, BackgroundLocation.DELETED);
-
-    String whereClause = LocationEntry._ID + " = ?";
-    String[] whereArgs = { String.valueOf(locationId) };
-
-    db.update(LocationEntry.TABLE_NAME, values, whereClause, whereArgs);
+    LocationStatements.updateStatus(db, locationId, BackgroundLocation.DELETED);
   }
 
   public BackgroundLocation deleteFirstUnpostedLocation() {
@@ -357,37 +650,70 @@ public class SQLiteLocationDAO implements LocationDAO {
       location.setStatus(BackgroundLocation.SYNC_PENDING);
       return persistLocation(location, maxRows);
     } else {
-      ContentValues values = new ContentValues();
-      values.put(LocationEntry.COLUMN_NAME_STATUS, BackgroundLocation.SYNC_PENDING);
-
-      String whereClause = LocationEntry._ID + " = ?";
-      String[] whereArgs = { String.valueOf(locationId) };
-
-      db.update(LocationEntry.TABLE_NAME, values, whereClause, whereArgs);
+      LocationStatements.updateStatus(db, locationId, BackgroundLocation.SYNC_PENDING);
       return locationId;
     }
   }
 
   public void updateLocationForSync(long locationId) {
-    ContentValues values = new ContentValues();
-    values.put(LocationEntry.COLUMN_NAME_STATUS, BackgroundLocation.SYNC_PENDING);
+    LocationStatements.updateStatus(db, locationId, BackgroundLocation.SYNC_PENDING);
+  }
 
-    String whereClause = LocationEntry._ID + " = ?";
-    String[] whereArgs = { String.valueOf(locationId) };
+  /**
+   * Change status of given locations in single transaction
+   *
+   * Ids are updated by one statement per chunk (see LocationStatements.markLocations)
+   * instead of one statement per location.
+   *
+   * @param ids location ids
+   * @param status new status (eg. BackgroundLocation.DELETED)
+   * @return number of locations which status was changed
+   */
+  public int markLocations(long[] ids, int status) {
+    if (ids == null || ids.length == 0) {
+      return 0;
+    }
 
-    db.update(LocationEntry.TABLE_NAME, values, whereClause, whereArgs);
+    int rows;
+    db.beginTransactionNonExclusive();
+    try {
+      rows = LocationStatements.markLocations(db, ids, status);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return rows;
   }
 
   /**
-   * Delete all locations
+   * Change status of locations with id in given range by single statement
    *
-   * Note: location are not actually deleted only flagged as non valid
+   * @param fromId inclusive
+   * @param toId inclusive
+   * @param status new status (eg. BackgroundLocation.DELETED)
+   * @return number of locations which status was changed
    */
-  public int deleteAllLocations() {
-    ContentValues values = new ContentValues();
-    values.put(LocationEntry.COLUMN_NAME_STATUS, BackgroundLocation.DELETED);
+  public int markRange(long fromId, long toId, int status) {
+    return LocationStatements.markRange(db, fromId, toId, status);
+  }
 
-    return db.update(LocationEntry.TABLE_NAME, values, null, null);
+  /**
+   * Delete all locations including archived ones
+   *
+   * @return number of deleted locations
+   */
+  public int deleteAllLocations() {
+    int rows;
+    db.beginTransactionNonExclusive();
+    try {
+      rows = db.delete(LocationEntry.TABLE_NAME, null, null);
+      rows += new LocationArchiver(db).deleteAll();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return rows;
   }
 
   /**
@@ -396,91 +722,72 @@ public class SQLiteLocationDAO implements LocationDAO {
    * Note: Instead of deleting, location status is changed so they can be still synced
    */
   public int deleteUnpostedLocations() {
-    ContentValues values = new ContentValues();
-    values.put(LocationEntry.COLUMN_NAME_STATUS, BackgroundLocation.SYNC_PENDING);
+    return LocationStatements.transitionStatus(db, BackgroundLocation.POST_PENDING, BackgroundLocation.SYNC_PENDING);
+  }
 
-    String whereClause = LocationEntry.COLUMN_NAME_STATUS + " = ?";
-    String[] whereArgs = { String.valueOf(BackgroundLocation.POST_PENDING) };
+  /**
+   * Physically remove DELETED locations (see LocationCompactor)
+   *
+   * @return number of removed locations
+   */
+  public int compactLocations() {
+    return new LocationCompactor(db).compact();
+  }
 
-    return db.update(LocationEntry.TABLE_NAME, values, whereClause, whereArgs);
+  /**
+   * Physically remove all locations recorded before timestamp
+   *
+   * @param timestamp time in milliseconds since epoch
+   * @return number of removed locations
+   */
+  public int purgeOlderThan(long timestamp) {
+    return new LocationCompactor(db).purgeOlderThan(timestamp);
+  }
+
+  /**
+   * Move synced locations recorded before given time into archive (see LocationArchiver)
+   *
+   * @param olderThan time in milliseconds since epoch
+   * @return number of archived locations
+   */
+  public int archiveLocations(long olderThan) {
+    return new LocationArchiver(db).archive(olderThan);
+  }
+
+  /**
+   * Remove oldest archived locations over maxLocations (see LocationArchiver)
+   *
+   * @param maxLocations maximum number of stored locations
+   * @return number of removed locations
+   */
+  public int trimArchive(long maxLocations) {
+    return new LocationArchiver(db).trim(maxLocations);
+  }
+
+  /**
+   * Evict locations over byte budget by default retention policy (see LocationRetention)
+   *
+   * @param budgetBytes maximum size of database, 0 or less disables retention
+   * @return number of evicted locations
+   */
+  public int enforceRetention(long budgetBytes) {
+    return new LocationRetention(db, new LocationRetentionPolicy(budgetBytes)).enforce();
   }
 
   private BackgroundLocation hydrate(Cursor c) {
-    BackgroundLocation l = new BackgroundLocation(c.getString(c.getColumnIndex(LocationEntry.COLUMN_NAME_PROVIDER)));
-    l.setTime(c.getLong(c.getColumnIndex(LocationEntry.COLUMN_NAME_TIME)));
-    if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_ACCURACY)) == 1) {
-      l.setAccuracy(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_ACCURACY)));
-    }
-    if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_SPEED)) == 1) {
-      l.setSpeed(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_SPEED)));
-    }
-    if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_BEARING)) == 1) {
-      l.setBearing(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_BEARING)));
-    }
-    if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_ALTITUDE)) == 1) {
-      l.setAltitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_ALTITUDE)));
-    }
-    if (c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_HAS_RADIUS)) == 1) {
-      l.setRadius(c.getFloat(c.getColumnIndex(LocationEntry.COLUMN_NAME_RADIUS)));
-    }
-    l.setLatitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE)));
-    l.setLongitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_LONGITUDE)));
-    l.setLocationProvider(c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER)));
-    l.setBatchStartMillis(c.getLong(c.getColumnIndex(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS)));
-    l.setStatus(c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_STATUS)));
-    l.setLocationId(c.getLong(c.getColumnIndex(LocationEntry._ID)));
-    l.setMockFlags(c.getInt((c.getColumnIndex(LocationEntry.COLUMN_NAME_MOCK_FLAGS))));
-
-    return l;
-  }
-
-  private ContentValues getContentValues(BackgroundLocation l) {
-    ContentValues values = new ContentValues();
-    values.put(LocationEntry.COLUMN_NAME_PROVIDER, l.getProvider());
-    values.put(LocationEntry.COLUMN_NAME_TIME, l.getTime());
-    values.put(LocationEntry.COLUMN_NAME_ACCURACY, l.getAccuracy());
-    values.put(LocationEntry.COLUMN_NAME_SPEED, l.getSpeed());
-    values.put(LocationEntry.COLUMN_NAME_BEARING, l.getBearing());
-    values.put(LocationEntry.COLUMN_NAME_ALTITUDE, l.getAltitude());
-    values.put(LocationEntry.COLUMN_NAME_RADIUS, l.getRadius());
-    values.put(LocationEntry.COLUMN_NAME_LATITUDE, l.getLatitude());
-    values.put(LocationEntry.COLUMN_NAME_LONGITUDE, l.getLongitude());
-    values.put(LocationEntry.COLUMN_NAME_HAS_ACCURACY, l.hasAccuracy() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_SPEED, l.hasSpeed() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_BEARING, l.hasBearing() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_ALTITUDE, l.hasAltitude() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_RADIUS, l.hasRadius() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER, l.getLocationProvider());
-    values.put(LocationEntry.COLUMN_NAME_STATUS, l.getStatus());
-    values.put(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS, l.getBatchStartMillis());
-    values.put(LocationEntry.COLUMN_NAME_MOCK_FLAGS, l.getMockFlags());
-
-    return values;
+    return new LocationCursorReader(c).read();
   }
 
   private String[] queryColumns() {
-    String[] columns = {
-            LocationEntry._ID,
-            LocationEntry.COLUMN_NAME_PROVIDER,
-            LocationEntry.COLUMN_NAME_TIME,
-            LocationEntry.COLUMN_NAME_ACCURACY,
-            LocationEntry.COLUMN_NAME_SPEED,
-            LocationEntry.COLUMN_NAME_BEARING,
-            LocationEntry.COLUMN_NAME_ALTITUDE,
-            LocationEntry.COLUMN_NAME_RADIUS,
-            LocationEntry.COLUMN_NAME_LATITUDE,
-            LocationEntry.COLUMN_NAME_LONGITUDE,
-            LocationEntry.COLUMN_NAME_HAS_ACCURACY,
-            LocationEntry.COLUMN_NAME_HAS_SPEED,
-            LocationEntry.COLUMN_NAME_HAS_BEARING,
-            LocationEntry.COLUMN_NAME_HAS_ALTITUDE,
-            LocationEntry.COLUMN_NAME_HAS_RADIUS,
-            LocationEntry.COLUMN_NAME_LOCATION_PROVIDER,
-            LocationEntry.COLUMN_NAME_STATUS,
-            LocationEntry.COLUMN_NAME_BATCH_START_MILLIS,
-            LocationEntry.COLUMN_NAME_MOCK_FLAGS
-    };
+    return LocationEntry.PROJECTION_ALL;
+  }
 
-    return columns;
+  /**
+   * Add query columns as expressions, identifiers would be escaped by sql builder
+   */
+  private void selectQueryColumns(SqlSelectStatement sql) {
+    for (String column : queryColumns()) {
+      sql.column(new SqlExpression(column));
+    }
   }
 }
@@ -2,34 +2,71 @@ package com.marianhello.bgloc.data.sqlite;
 
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.util.Log;
 
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
 import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract.ConfigurationEntry;
 
+import org.json.JSONException;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract.ConfigurationEntry.SQL_CREATE_CONFIG_TABLE;
 import static com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract.ConfigurationEntry.SQL_DROP_CONFIG_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry.SQL_CREATE_LOCATION_ARCHIVE_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry.SQL_CREATE_LOCATION_ARCHIVE_TIME_MAX_IDX;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry.SQL_CREATE_LOCATION_ARCHIVE_TIME_MIN_IDX;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationArchiveEntry.SQL_DROP_LOCATION_ARCHIVE_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry.SQL_CREATE_LOCATION_COUNTER_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry.SQL_CREATE_LOCATION_DELETE_TRIGGER;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry.SQL_CREATE_LOCATION_INSERT_TRIGGER;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry.SQL_CREATE_LOCATION_UPDATE_TRIGGER;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry.SQL_DROP_LOCATION_COUNTER_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationCounterEntry.SQL_SEED_LOCATION_COUNTER;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_COPY_LEGACY_LOCATION_TABLE;
 import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_CREATE_LOCATION_TABLE;
 import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_CREATE_LOCATION_TABLE_BATCH_ID_IDX;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_CREATE_LOCATION_TABLE_RING_SLOT_IDX;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_CREATE_LOCATION_TABLE_STATUS_TIME_IDX;
 import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_CREATE_LOCATION_TABLE_TIME_IDX;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_DROP_LEGACY_LOCATION_TABLE;
 import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_DROP_LOCATION_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry.SQL_RENAME_LEGACY_LOCATION_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationProviderEntry.SQL_CREATE_LOCATION_PROVIDER_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationProviderEntry.SQL_DROP_LOCATION_PROVIDER_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationProviderEntry.SQL_POPULATE_LOCATION_PROVIDER;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationRingEntry.SQL_CREATE_LOCATION_RING_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationRingEntry.SQL_DROP_LOCATION_RING_TABLE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationRingEntry.SQL_RESET_LOCATION_RING;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationSpatialEntry.SQL_DROP_LOCATION_ARCHIVE_RTREE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationSpatialEntry.SQL_DROP_LOCATION_RTREE;
+import static com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationSpatialEntry.SQL_DROP_LOCATION_RTREE_UPDATE_TRIGGER;
 
 public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
     private static final String TAG = SQLiteOpenHelper.class.getName();
     public static final String SQLITE_DATABASE_NAME = "cordova_bg_geolocation.db";
-    public static final int DATABASE_VERSION = 15;
+    public static final int DATABASE_VERSION = 28;
 
     public static final String TEXT_TYPE = " TEXT";
     public static final String INTEGER_TYPE = " INTEGER";
     public static final String REAL_TYPE = " REAL";
+    public static final String BLOB_TYPE = " BLOB";
     public static final String COMMA_SEP = ",";
 
     private static SQLiteOpenHelper instance;
 
+    private final WalCheckpointPolicy mCheckpointPolicy;
+    private SQLiteDatabase mReadOnlyDatabase;
+    private boolean mConvertAutoVacuum = false;
+
     /**
      * Get SqliteOpenHelper instance (singleton)
      *
@@ -56,16 +93,49 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
      * @param context
      */
     public SQLiteOpenHelper(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     * @param checkpointPolicy automatic checkpoint policy of connection,
+     *                         when null it is taken from stored configuration on open
+     */
+    public SQLiteOpenHelper(Context context, WalCheckpointPolicy checkpointPolicy) {
         super(context, SQLITE_DATABASE_NAME, null, DATABASE_VERSION);
+        mCheckpointPolicy = checkpointPolicy;
+        // writers (location persistence) and readers (sync, history) don't block each other
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // takes effect only for new database (before first table is created)
+        execAndLogSql(db, "PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         Log.d(TAG, "Creating db: " + this.getDatabaseName());
         execAndLogSql(db, SQL_CREATE_LOCATION_TABLE);
+        execAndLogSql(db, SQL_CREATE_LOCATION_PROVIDER_TABLE);
         execAndLogSql(db, SQL_CREATE_CONFIG_TABLE);
         execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_TIME_IDX);
         execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_BATCH_ID_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_STATUS_TIME_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_RING_SLOT_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_RING_TABLE);
+        execAndLogSql(db, SQL_CREATE_LOCATION_COUNTER_TABLE);
+        execAndLogSql(db, SQL_SEED_LOCATION_COUNTER);
+        execAndLogSql(db, SQL_CREATE_LOCATION_INSERT_TRIGGER);
+        execAndLogSql(db, SQL_CREATE_LOCATION_DELETE_TRIGGER);
+        execAndLogSql(db, SQL_CREATE_LOCATION_UPDATE_TRIGGER);
+        execAndLogSql(db, SQL_CREATE_LOCATION_ARCHIVE_TABLE);
+        execAndLogSql(db, SQL_CREATE_LOCATION_ARCHIVE_TIME_MIN_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_ARCHIVE_TIME_MAX_IDX);
+        LocationSpatialIndex.create(db);
     }
 
     @Override
@@ -73,6 +143,9 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         Log.d(this.getClass().getName(), "Upgrading database oldVersion: " + oldVersion + " newVersion: " + newVersion);
 
         ArrayList<String> alterSql = new ArrayList<String>();
+        // statements, which must not fail silently (upgrade is aborted and rolled back instead)
+        Set<String> requiredSql = new HashSet<String>();
+        boolean createSpatialIndex = false;
         switch (oldVersion) {
             case 10:
                 alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
@@ -112,6 +185,77 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
             case 14:
                 alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
                         " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_NOTIFICATIONS_ENABLED + INTEGER_TYPE);
+            case 15:
+                alterSql.add(SQL_CREATE_LOCATION_RING_TABLE);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_STATUS_TIME_IDX);
+            case 16:
+                alterSql.add(SQL_CREATE_LOCATION_COUNTER_TABLE);
+                alterSql.add(SQL_SEED_LOCATION_COUNTER);
+                alterSql.add(SQL_CREATE_LOCATION_INSERT_TRIGGER);
+                alterSql.add(SQL_CREATE_LOCATION_DELETE_TRIGGER);
+                alterSql.add(SQL_CREATE_LOCATION_UPDATE_TRIGGER);
+            case 17:
+                alterSql.add(SQL_CREATE_LOCATION_ARCHIVE_TABLE);
+                alterSql.add(SQL_CREATE_LOCATION_ARCHIVE_TIME_MIN_IDX);
+                alterSql.add(SQL_CREATE_LOCATION_ARCHIVE_TIME_MAX_IDX);
+            case 18:
+                // rtree module may be missing, index is created after all statements
+                createSpatialIndex = true;
+            case 19:
+                // compact row format, spatial index triggers are recreated with table
+                // table is rebuilt, any failure would lose locations
+                List<String> rebuildSql = Arrays.asList(
+                        SQL_CREATE_LOCATION_PROVIDER_TABLE,
+                        SQL_RENAME_LEGACY_LOCATION_TABLE,
+                        SQL_POPULATE_LOCATION_PROVIDER,
+                        SQL_CREATE_LOCATION_TABLE,
+                        SQL_COPY_LEGACY_LOCATION_TABLE,
+                        SQL_DROP_LEGACY_LOCATION_TABLE);
+                alterSql.addAll(rebuildSql);
+                requiredSql.addAll(rebuildSql);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_TIME_IDX);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_BATCH_ID_IDX);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_STATUS_TIME_IDX);
+                alterSql.add(SQL_CREATE_LOCATION_INSERT_TRIGGER);
+                alterSql.add(SQL_CREATE_LOCATION_DELETE_TRIGGER);
+                alterSql.add(SQL_CREATE_LOCATION_UPDATE_TRIGGER);
+                createSpatialIndex = true;
+            case 20:
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE + INTEGER_TYPE);
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_DELAY + INTEGER_TYPE);
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_POST_BATCH_MAX_BYTES + INTEGER_TYPE);
+            case 21:
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_GZIP_REQUESTS + INTEGER_TYPE);
+            case 22:
+                // spatial index went stale on ring rebuild, it is rebuilt with new update trigger
+                alterSql.add(SQL_DROP_LOCATION_RTREE_UPDATE_TRIGGER);
+                alterSql.add(SQL_DROP_LOCATION_RTREE);
+                createSpatialIndex = true;
+            case 23:
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_RETENTION_BUDGET_BYTES + INTEGER_TYPE);
+            case 24:
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_RING_BUFFER + INTEGER_TYPE);
+            case 25:
+                // ring slot moved from _id to its own column, slots are assigned again by next ring write
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_RING_SLOT + INTEGER_TYPE);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_RING_SLOT_IDX);
+                alterSql.add(SQL_RESET_LOCATION_RING);
+            case 26:
+                // existing database is switched to incremental auto vacuum in onOpen,
+                // full VACUUM cannot run inside of upgrade transaction
+                mConvertAutoVacuum = true;
+            case 27:
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_WAL_AUTO_CHECKPOINT_PAGES + INTEGER_TYPE);
+                alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                        " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_WAL_CHECKPOINT_MODE + TEXT_TYPE);
 
                 break; // DO NOT FORGET TO MOVE DOWN BREAK ON DB UPGRADE!!!
             default:
@@ -120,7 +264,32 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         }
 
         for (String sql : alterSql) {
-            execAndLogSql(db, sql);
+            if (requiredSql.contains(sql)) {
+                Log.d(TAG, sql);
+                db.execSQL(sql);
+            } else {
+                execAndLogSql(db, sql);
+            }
+        }
+
+        if (createSpatialIndex) {
+            LocationSpatialIndex.create(db);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        int pages = getCheckpointPolicy(db).getAutoCheckpointPages();
+        execAndLogPragma(db, "PRAGMA wal_autocheckpoint = " + (pages > 0 ? pages : 0));
+
+        if (mConvertAutoVacuum) {
+            mConvertAutoVacuum = false;
+            if (!LocationCompactor.isIncrementalAutoVacuum(db)) {
+                // one time full VACUUM, so following compactions can use incremental vacuum
+                Log.i(TAG, "Converting database to incremental auto vacuum");
+                execAndLogSql(db, "PRAGMA auto_vacuum = INCREMENTAL");
+                execAndLogSql(db, "VACUUM");
+            }
         }
     }
 
@@ -129,9 +298,95 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         // we don't support db downgrade yet, instead we drop table and start over
         execAndLogSql(db, SQL_DROP_LOCATION_TABLE);
         execAndLogSql(db, SQL_DROP_CONFIG_TABLE);
+        execAndLogSql(db, SQL_DROP_LOCATION_RING_TABLE);
+        execAndLogSql(db, SQL_DROP_LOCATION_COUNTER_TABLE);
+        execAndLogSql(db, SQL_DROP_LOCATION_ARCHIVE_TABLE);
+        execAndLogSql(db, SQL_DROP_LOCATION_RTREE);
+        execAndLogSql(db, SQL_DROP_LOCATION_ARCHIVE_RTREE);
+        execAndLogSql(db, SQL_DROP_LOCATION_PROVIDER_TABLE);
         onCreate(db);
     }
 
+    /**
+     * Get read-only database connection
+     *
+     * Connection is separate from writable one, so history reads never wait
+     * for location persistence (and vice versa) in WAL mode.
+     * Falls back to writable connection if read-only cannot be opened.
+     *
+     * @return read-only database
+     */
+    public synchronized SQLiteDatabase getReadOnlyDatabase() {
+        if (mReadOnlyDatabase != null && mReadOnlyDatabase.isOpen()) {
+            return mReadOnlyDatabase;
+        }
+
+        // ensure database is created or upgraded before opening read-only connection
+        SQLiteDatabase db = getWritableDatabase();
+        try {
+            mReadOnlyDatabase = SQLiteDatabase.openDatabase(db.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Error opening read-only database: " + e.getMessage());
+            return db;
+        }
+
+        return mReadOnlyDatabase;
+    }
+
+    /**
+     * Open new read-only database connection
+     *
+     * Unlike getReadOnlyDatabase, connection is not shared, so long running reader
+     * (eg. export) does not hold connection used by history reads.
+     * Caller is responsible for closing it.
+     *
+     * @return read-only database
+     * @throws SQLiteException if connection cannot be opened
+     */
+    public SQLiteDatabase openReadOnlyConnection() {
+        // ensure database is created or upgraded before opening read-only connection
+        String path = getWritableDatabase().getPath();
+        return SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+    }
+
+    /**
+     * Get checkpoint policy given to constructor or the one of stored configuration
+     */
+    private WalCheckpointPolicy getCheckpointPolicy(SQLiteDatabase db) {
+        if (mCheckpointPolicy != null) {
+            return mCheckpointPolicy;
+        }
+        try {
+            return WalCheckpointPolicy.from(new SQLiteConfigurationDAO(db).retrieveConfiguration());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error retrieving checkpoint policy: " + e.getMessage());
+            return WalCheckpointPolicy.getDefault();
+        }
+    }
+
+    /**
+     * Run explicit checkpoint according to checkpoint policy
+     *
+     * Intended to be called when database goes idle, to keep WAL file small.
+     * Checkpoint can take a while, so it should not be run on main thread.
+     *
+     * @param policy checkpoint policy (see WalCheckpointPolicy.from(Config))
+     */
+    public void checkpoint(WalCheckpointPolicy policy) {
+        if (policy.hasIdleCheckpoint()) {
+            execAndLogPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(" + policy.getIdleCheckpointMode() + ")");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mReadOnlyDatabase != null) {
+            mReadOnlyDatabase.close();
+            mReadOnlyDatabase = null;
+        }
+        super.close();
+    }
+
     public void execAndLogSql(SQLiteDatabase db, String sql) {
         Log.d(TAG, sql);
         try {
@@ -140,4 +395,22 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
             Log.e(TAG, "Error executing sql: " + e.getMessage());
         }
     }
+
+    /**
+     * Execute pragma, which is returning result, thus cannot be executed by execSQL
+     */
+    private void execAndLogPragma(SQLiteDatabase db, String pragma) {
+        Log.d(TAG, pragma);
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(pragma, null);
+            cursor.moveToFirst();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error executing pragma: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
 }
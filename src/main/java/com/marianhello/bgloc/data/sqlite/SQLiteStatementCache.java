@@ -0,0 +1,69 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cache of compiled statements
+ *
+ * Statement is compiled on first use and reused afterwards, so SQL is parsed only once.
+ * SQLiteDatabase runs every thread on its own connection session, so caches are kept
+ * per database and thread. Statements are never shared between threads and don't
+ * need any locking (shared statement locked by thread waiting for connection held
+ * by other thread's transaction would deadlock).
+ *
+ * Caches of closed databases are dropped on next lookup.
+ */
+public class SQLiteStatementCache {
+    private static final ThreadLocal<Map<SQLiteDatabase, SQLiteStatementCache>> sCaches =
+            new ThreadLocal<Map<SQLiteDatabase, SQLiteStatementCache>>() {
+                @Override
+                protected Map<SQLiteDatabase, SQLiteStatementCache> initialValue() {
+                    return new HashMap<SQLiteDatabase, SQLiteStatementCache>();
+                }
+            };
+
+    private final SQLiteDatabase db;
+    private final Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
+    private SQLiteStatementCache(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * @param db
+     * @return statement cache of calling thread
+     */
+    public static SQLiteStatementCache forDatabase(SQLiteDatabase db) {
+        Map<SQLiteDatabase, SQLiteStatementCache> caches = sCaches.get();
+        SQLiteStatementCache cache = caches.get(db);
+        if (cache == null) {
+            Iterator<SQLiteDatabase> it = caches.keySet().iterator();
+            while (it.hasNext()) {
+                if (!it.next().isOpen()) {
+                    it.remove();
+                }
+            }
+            cache = new SQLiteStatementCache(db);
+            caches.put(db, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * @param sql statement with ? placeholders
+     * @return compiled statement
+     */
+    public SQLiteStatement get(String sql) {
+        SQLiteStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = db.compileStatement(sql);
+            statements.put(sql, stmt);
+        }
+        return stmt;
+    }
+}
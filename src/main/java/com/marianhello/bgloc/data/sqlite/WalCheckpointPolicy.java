@@ -0,0 +1,71 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import com.marianhello.bgloc.Config;
+
+/**
+ * Write-ahead log checkpoint policy
+ *
+ * autoCheckpointPages - WAL size (in pages) after which sqlite checkpoints automatically
+ *                       on commit (PRAGMA wal_autocheckpoint), 0 or less disables automatic checkpoints
+ * idleCheckpointMode  - mode of explicit checkpoint run when database goes idle
+ *                       (service destroyed, sync batch completed), null disables explicit checkpoints
+ *
+ * Both are taken from Config (walAutoCheckpointPages, walCheckpointMode), see from(Config).
+ */
+public class WalCheckpointPolicy {
+    public static final String MODE_PASSIVE = "PASSIVE";
+    public static final String MODE_FULL = "FULL";
+    public static final String MODE_RESTART = "RESTART";
+    public static final String MODE_TRUNCATE = "TRUNCATE";
+    public static final String MODE_NONE = "NONE";
+
+    public static final int DEFAULT_AUTO_CHECKPOINT_PAGES = 1000;
+
+    private final int autoCheckpointPages;
+    private final String idleCheckpointMode;
+
+    public WalCheckpointPolicy(int autoCheckpointPages, String idleCheckpointMode) {
+        this.autoCheckpointPages = autoCheckpointPages;
+        this.idleCheckpointMode = idleCheckpointMode;
+    }
+
+    public static WalCheckpointPolicy getDefault() {
+        return new WalCheckpointPolicy(DEFAULT_AUTO_CHECKPOINT_PAGES, MODE_PASSIVE);
+    }
+
+    /**
+     * Policy of given config, unset options fall back to defaults
+     *
+     * @param config
+     */
+    public static WalCheckpointPolicy from(Config config) {
+        if (config == null) {
+            return getDefault();
+        }
+        int pages = config.hasWalAutoCheckpointPages()
+                ? config.getWalAutoCheckpointPages() : DEFAULT_AUTO_CHECKPOINT_PAGES;
+        String mode = config.hasWalCheckpointMode() ? config.getWalCheckpointMode() : MODE_PASSIVE;
+        return new WalCheckpointPolicy(pages, MODE_NONE.equalsIgnoreCase(mode) ? null : mode);
+    }
+
+    public int getAutoCheckpointPages() {
+        return autoCheckpointPages;
+    }
+
+    public String getIdleCheckpointMode() {
+        return idleCheckpointMode;
+    }
+
+    public boolean hasIdleCheckpoint() {
+        return idleCheckpointMode != null;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("WalCheckpointPolicy[autoCheckpointPages=").append(autoCheckpointPages)
+                .append(" idleCheckpointMode=").append(idleCheckpointMode)
+                .append("]")
+                .toString();
+    }
+}
@@ -42,8 +42,13 @@ import com.marianhello.bgloc.data.BackgroundActivity;
 import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.ConfigurationDAO;
 import com.marianhello.bgloc.data.DAOFactory;
+import com.marianhello.bgloc.data.DatabaseExecutor;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationJournal;
 import com.marianhello.bgloc.data.LocationTransform;
+import com.marianhello.bgloc.data.LocationWriter;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+import com.marianhello.bgloc.data.sqlite.WalCheckpointPolicy;
 import com.marianhello.bgloc.headless.AbstractTaskRunner;
 import com.marianhello.bgloc.headless.ActivityTask;
 import com.marianhello.bgloc.headless.LocationTask;
@@ -62,6 +67,10 @@ import com.marianhello.logging.UncaughtExceptionLogger;
 import org.chromium.content.browser.ThreadUtils;
 import org.json.JSONException;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
 import static com.marianhello.bgloc.service.LocationServiceIntentBuilder.containsCommand;
 import static com.marianhello.bgloc.service.LocationServiceIntentBuilder.containsMessage;
 import static com.marianhello.bgloc.service.LocationServiceIntentBuilder.getCommand;
@@ -106,6 +115,8 @@ public class LocationServiceImpl extends Service implements ProviderDelegate, Lo
     /** notification id */
     private static int NOTIFICATION_ID = 1;
 
+    private static final String JOURNAL_FILE_NAME = "location.journal";
+
     private ResourceResolver mResolver;
     private Config mConfig;
     private LocationProvider mProvider;
@@ -117,6 +128,8 @@ public class LocationServiceImpl extends Service implements ProviderDelegate, Lo
     private HandlerThread mHandlerThread;
     private ServiceHandler mServiceHandler;
     private LocationDAO mLocationDAO;
+    private LocationJournal mLocationJournal;
+    private LocationWriter mLocationWriter;
     private PostLocationTask mPostLocationTask;
     private String mHeadlessTaskRunnerClass;
     private TaskRunner mHeadlessTaskRunner;
@@ -197,6 +210,8 @@ public class LocationServiceImpl extends Service implements ProviderDelegate, Lo
         ContentResolver.setSyncAutomatically(mSyncAccount, authority, true);
 
         mLocationDAO = DAOFactory.createLocationDAO(this);
+        mLocationJournal = openLocationJournal();
+        mLocationWriter = new LocationWriter(mLocationDAO, mLocationJournal);
 
         mPostLocationTask = new PostLocationTask(mLocationDAO,
                 new PostLocationTask.PostLocationTaskListener() {
@@ -219,12 +234,24 @@ public class LocationServiceImpl extends Service implements ProviderDelegate, Lo
             public boolean hasConnectivity() {
                 return isNetworkAvailable();
             }
-        });
+        }, mLocationWriter);
 
         registerReceiver(connectivityChangeReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
         NotificationHelper.registerServiceChannel(this);
     }
 
+    /**
+     * @return journal or null
+     */
+    private LocationJournal openLocationJournal() {
+        try {
+            return new LocationJournal(new File(getFilesDir(), JOURNAL_FILE_NAME));
+        } catch (IOException e) {
+            logger.warn("Location journal not available: {}", e.getMessage());
+            return null;
+        }
+    }
+
     @Override
     public void onDestroy() {
         logger.info("Destroying LocationServiceImpl");
@@ -246,6 +273,23 @@ public class LocationServiceImpl extends Service implements ProviderDelegate, Lo
             mPostLocationTask.shutdown();
         }
 
+        if (mLocationJournal != null) {
+            try {
+                mLocationJournal.close();
+            } catch (IOException e) {
+                logger.warn("Error closing location journal: {}", e.getMessage());
+            }
+        }
+
+        // checkpoint may take a while, keep it off the main thread
+        final SQLiteOpenHelper helper = SQLiteOpenHelper.getHelper(this);
+        DatabaseExecutor.getInstance().submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Void>() {
+            @Override
+            public Void call() {
+                helper.checkpoint(WalCheckpointPolicy.from(getConfig()));
+                return null;
+            }
+        });
 
         unregisterReceiver(connectivityChangeReceiver);
 
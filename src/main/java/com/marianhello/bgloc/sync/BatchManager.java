@@ -29,17 +29,21 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by finch on 20/07/16.
  */
 public class BatchManager {
+    public static final String GZIP_SUFFIX = ".gz";
+
     private Context context;
     private org.slf4j.Logger logger;
 
@@ -54,7 +58,7 @@ public class BatchManager {
         return LocationContentProvider.getContentUri(authority);
     }
 
-    private File createBatchFromTemplate(Long batchStartMillis, Integer syncThreshold, LocationTemplate template) throws IOException {
+    private File createBatchFromTemplate(Long batchStartMillis, Integer syncThreshold, LocationTemplate template, boolean gzip) throws IOException {
         logger.info("Creating batch {}", batchStartMillis);
 
         ContentResolver resolver = context.getContentResolver();
@@ -87,9 +91,9 @@ public class BatchManager {
                 return null;
             }
 
-            File file = File.createTempFile("locations", ".json");
+            File file = File.createTempFile("locations", gzip ? ".json" + GZIP_SUFFIX : ".json");
             FileOutputStream fs = new FileOutputStream(file);
-            writer = new LocationWriter(fs, template);
+            writer = new LocationWriter(gzip ? new GZIPOutputStream(fs) : fs, template);
 
             writer.beginArray();
             while (cursor.moveToNext()) {
@@ -120,13 +124,27 @@ public class BatchManager {
     }
 
     public File createBatch(Long batchStartMillis, Integer syncThreshold, LocationTemplate template) throws IOException {
+        return createBatch(batchStartMillis, syncThreshold, template, false);
+    }
+
+    /**
+     * Create batch file with sync pending locations
+     *
+     * @param gzip compress batch file, so it is uploaded (and reuploaded) without compressing again
+     * @return batch file or null if there are less than syncThreshold locations
+     */
+    public File createBatch(Long batchStartMillis, Integer syncThreshold, LocationTemplate template, boolean gzip) throws IOException {
         LocationTemplate tpl;
         if (template != null) {
             tpl = template;
         } else {
             tpl = LocationTemplateFactory.getDefault();
         }
-        return createBatchFromTemplate(batchStartMillis, syncThreshold, tpl);
+        return createBatchFromTemplate(batchStartMillis, syncThreshold, tpl, gzip);
+    }
+
+    public static boolean isGzipped(File file) {
+        return file.getName().endsWith(GZIP_SUFFIX);
     }
 
     public File createBatch(Long batchStartMillis, Integer syncThreshold) throws IOException {
@@ -215,7 +233,7 @@ public class BatchManager {
         private JsonWriter writer = null;
         private LocationTemplate template;
 
-        public LocationWriter(FileOutputStream fos, LocationTemplate template) throws IOException {
+        public LocationWriter(OutputStream fos, LocationTemplate template) throws IOException {
             writer = new JsonWriter(new OutputStreamWriter(fos, "UTF-8"));
             this.template = template;
         }
@@ -15,9 +15,13 @@ import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.LocalBroadcastManager;
 
 import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.HttpPostClient;
 import com.marianhello.bgloc.HttpPostService;
 import com.marianhello.bgloc.data.ConfigurationDAO;
 import com.marianhello.bgloc.data.DAOFactory;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+import com.marianhello.bgloc.data.sqlite.WalCheckpointPolicy;
 import com.marianhello.bgloc.service.LocationServiceImpl;
 import com.marianhello.logging.LoggerManager;
 
@@ -25,7 +29,8 @@ import org.json.JSONException;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Handle the transfer of data between a server and an
@@ -37,9 +42,12 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements HttpPost
 
     ContentResolver contentResolver;
     private ConfigurationDAO configDAO;
+    private LocationDAO locationDAO;
     private NotificationManager notificationManager;
     private BatchManager batchManager;
     private boolean notificationsEnabled = true;
+    // reused by following syncs, so connection to sync url can be kept alive
+    private HttpPostClient httpClient;
 
     private org.slf4j.Logger logger;
 
@@ -70,6 +78,8 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements HttpPost
          */
         contentResolver = context.getContentResolver();
         configDAO = DAOFactory.createConfigurationDAO(context);
+        // maintenance goes through location provider, so its observers are notified
+        locationDAO = DAOFactory.createLocationDAO(context);
         batchManager = new BatchManager(this.getContext());
         notificationManager = (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
 
@@ -110,7 +120,8 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements HttpPost
 
         File file = null;
         try {
-            file = batchManager.createBatch(batchStartMillis, syncThreshold, config.getTemplate());
+            file = batchManager.createBatch(batchStartMillis, syncThreshold, config.getTemplate(),
+                    Boolean.TRUE.equals(config.getGzipRequests()));
         } catch (IOException e) {
             logger.error("Failed to create batch: {}", e.getMessage());
         }
@@ -122,13 +133,26 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements HttpPost
 
         logger.info("Syncing startAt: {}", batchStartMillis);
         String url = config.getSyncUrl();
-        HashMap<String, String> httpHeaders = new HashMap<String, String>();
-        httpHeaders.putAll(config.getHttpHeaders());
-        httpHeaders.put("x-batch-id", String.valueOf(batchStartMillis));
+        Map<String, String> httpHeaders = Collections.singletonMap("x-batch-id", String.valueOf(batchStartMillis));
 
-        if (uploadLocations(file, url, httpHeaders)) {
+        if (uploadLocations(file, url, config.getHttpHeaders(), httpHeaders)) {
             logger.info("Batch sync successful");
             batchManager.setBatchCompleted(batchStartMillis);
+            // completed batch leaves synced locations behind, database is idle now
+            int archived = locationDAO.archiveLocations(System.currentTimeMillis());
+            logger.debug("Archived synced locations: {}", archived);
+            // maxLocations 0 means unlimited
+            if (config.hasMaxLocations() && config.getMaxLocations() > 0) {
+                int trimmed = locationDAO.trimArchive(config.getMaxLocations());
+                logger.debug("Trimmed archived locations over maxLocations: {}", trimmed);
+            }
+            int purged = locationDAO.compactLocations();
+            logger.debug("Purged deleted locations: {}", purged);
+            if (config.hasRetentionBudgetBytes()) {
+                int evicted = locationDAO.enforceRetention(config.getRetentionBudgetBytes());
+                logger.debug("Evicted locations over retention budget: {}", evicted);
+            }
+            SQLiteOpenHelper.getHelper(getContext()).checkpoint(WalCheckpointPolicy.from(config));
             if (file.delete()) {
                 logger.info("Batch file has been deleted: {}", file.getAbsolutePath());
             } else {
@@ -140,7 +164,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements HttpPost
         }
     }
 
-    private boolean uploadLocations(File file, String url, HashMap httpHeaders) {
+    private boolean uploadLocations(File file, String url, Map<String, String> configHeaders, Map httpHeaders) {
         NotificationCompat.Builder builder = null;
 
         if (notificationsEnabled) {
@@ -153,7 +177,12 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements HttpPost
         }
 
         try {
-            int responseCode = HttpPostService.postJSONFile(url, file, httpHeaders, this);
+            if (httpClient == null || !httpClient.isFor(url, configHeaders)) {
+                httpClient = new HttpPostClient(url, configHeaders);
+            }
+            int responseCode = BatchManager.isGzipped(file)
+                    ? httpClient.postGzippedJSONFile(file, httpHeaders, this)
+                    : httpClient.postJSONFile(file, httpHeaders, this);
 
             // All 2xx statuses are okay
             boolean isStatusOkay = responseCode >= 200 && responseCode < 300;
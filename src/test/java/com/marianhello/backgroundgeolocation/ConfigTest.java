@@ -77,6 +77,9 @@ public class ConfigTest {
         Assert.assertTrue(config.getHttpHeaders().isEmpty());
         Assert.assertEquals(config.getTemplate(), LocationTemplateFactory.getDefault());
         Assert.assertEquals(config.getMaxLocations().intValue(), 10000);
+        Assert.assertEquals(config.getPostBatchSize().intValue(), 1);
+        Assert.assertFalse(config.isPostBatching());
+        Assert.assertFalse(config.getGzipRequests());
     }
 
     @Test
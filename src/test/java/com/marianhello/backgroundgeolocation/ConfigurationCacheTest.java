@@ -0,0 +1,106 @@
+package com.marianhello.backgroundgeolocation;
+
+import android.support.test.filters.SmallTest;
+
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.data.CachedConfigurationDAO;
+import com.marianhello.bgloc.data.ConfigurationCache;
+import com.marianhello.bgloc.data.ConfigurationDAO;
+
+import junit.framework.Assert;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SmallTest
+public class ConfigurationCacheTest {
+    private ConfigurationDAO delegate;
+    private ConfigurationCache cache;
+    private ConfigurationDAO dao;
+
+    @Before
+    public void setUp() {
+        delegate = mock(ConfigurationDAO.class);
+        cache = new ConfigurationCache();
+        dao = new CachedConfigurationDAO(delegate, cache);
+    }
+
+    private Config createConfig(String url) {
+        Config config = Config.getDefault();
+        config.setUrl(url);
+        return config;
+    }
+
+    @Test
+    public void testRetrieveIsCached() throws JSONException {
+        when(delegate.retrieveConfiguration()).thenReturn(createConfig("http://first"));
+
+        Assert.assertEquals("http://first", dao.retrieveConfiguration().getUrl());
+        Assert.assertEquals("http://first", dao.retrieveConfiguration().getUrl());
+        verify(delegate, times(1)).retrieveConfiguration();
+    }
+
+    @Test
+    public void testMissingConfigIsCached() throws JSONException {
+        when(delegate.retrieveConfiguration()).thenReturn(null);
+
+        Assert.assertNull(dao.retrieveConfiguration());
+        Assert.assertNull(dao.retrieveConfiguration());
+        verify(delegate, times(1)).retrieveConfiguration();
+    }
+
+    @Test
+    public void testRetrievedConfigIsCopy() throws JSONException {
+        when(delegate.retrieveConfiguration()).thenReturn(createConfig("http://first"));
+
+        dao.retrieveConfiguration().setUrl("http://changed");
+        Config config = dao.retrieveConfiguration();
+        Assert.assertEquals("http://first", config.getUrl());
+
+        config.setUrl("http://changed");
+        Assert.assertEquals("http://first", dao.retrieveConfiguration().getUrl());
+    }
+
+    @Test
+    public void testPersistInvalidatesCache() throws JSONException {
+        Config persisted = createConfig("http://second");
+        when(delegate.retrieveConfiguration()).thenReturn(createConfig("http://first"), persisted);
+        when(delegate.persistConfiguration(persisted)).thenReturn(true);
+
+        Assert.assertEquals("http://first", dao.retrieveConfiguration().getUrl());
+        long version = cache.getVersion();
+        Assert.assertTrue(dao.persistConfiguration(persisted));
+        Assert.assertTrue(cache.getVersion() > version);
+        Assert.assertEquals("http://second", dao.retrieveConfiguration().getUrl());
+        verify(delegate, times(2)).retrieveConfiguration();
+    }
+
+    @Test
+    public void testStaleLoadIsNotCached() throws JSONException {
+        // configuration is persisted while it is being loaded
+        ConfigurationDAO racingDAO = new ConfigurationDAO() {
+            @Override
+            public boolean persistConfiguration(Config config) {
+                return true;
+            }
+
+            @Override
+            public Config retrieveConfiguration() {
+                cache.invalidate();
+                return createConfig("http://stale");
+            }
+        };
+
+        Assert.assertEquals("http://stale", cache.get(racingDAO).getUrl());
+
+        when(delegate.retrieveConfiguration()).thenReturn(createConfig("http://fresh"));
+        Assert.assertEquals("http://fresh", dao.retrieveConfiguration().getUrl());
+        verify(delegate, times(1)).retrieveConfiguration();
+    }
+}
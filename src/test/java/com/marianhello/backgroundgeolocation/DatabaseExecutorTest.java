@@ -0,0 +1,108 @@
+package com.marianhello.backgroundgeolocation;
+
+import android.support.test.filters.SmallTest;
+
+import com.marianhello.bgloc.data.DatabaseExecutor;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+@SmallTest
+public class DatabaseExecutorTest {
+    private DatabaseExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new DatabaseExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private Callable<String> record(final List<String> order, final String name) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                order.add(name);
+                return name;
+            }
+        };
+    }
+
+    @Test
+    public void testWritesRunAheadOfQueuedReads() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // occupy worker, so following tasks are queued
+        executor.submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        });
+        started.await();
+
+        executor.submit(DatabaseExecutor.PRIORITY_BULK_READ, record(order, "bulk1"));
+        executor.submit(DatabaseExecutor.PRIORITY_READ, record(order, "read1"));
+        executor.submit(DatabaseExecutor.PRIORITY_WRITE, record(order, "write1"));
+        executor.submit(DatabaseExecutor.PRIORITY_BULK_READ, record(order, "bulk2"));
+        executor.submit(DatabaseExecutor.PRIORITY_WRITE, record(order, "write2"));
+        Future<String> last = executor.submit(DatabaseExecutor.PRIORITY_BULK_READ, record(order, "bulk3"));
+        release.countDown();
+
+        Assert.assertEquals("bulk3", last.get());
+        Assert.assertEquals(Arrays.asList("write1", "write2", "read1", "bulk1", "bulk2", "bulk3"), order);
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testErrorIsReportedThroughFuture() throws Exception {
+        executor.submit(DatabaseExecutor.PRIORITY_READ, new Callable<Void>() {
+            @Override
+            public Void call() {
+                throw new IllegalStateException("database closed");
+            }
+        }).get();
+    }
+
+    @Test
+    public void testRunningExportDoesNotDelayDatabaseWork() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        Future<Void> export = DatabaseExecutor.getExportInstance().submit(DatabaseExecutor.PRIORITY_BULK_READ, new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                threads.add(Thread.currentThread().getName());
+                release.await();
+                return null;
+            }
+        });
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        Assert.assertEquals("write", executor.submit(DatabaseExecutor.PRIORITY_WRITE, record(order, "write")).get());
+        Assert.assertFalse(export.isDone());
+        release.countDown();
+        export.get();
+
+        Assert.assertNotSame(DatabaseExecutor.getInstance(), DatabaseExecutor.getExportInstance());
+        Assert.assertEquals(Arrays.asList("bgloc-export"), threads);
+    }
+}
@@ -0,0 +1,152 @@
+package com.marianhello.backgroundgeolocation;
+
+import com.marianhello.bgloc.HttpPostClient;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class HttpPostClientTest {
+    @Mock
+    HttpURLConnection mockHttpURLConnection;
+
+    @Rule
+    public final ExpectedException exception = ExpectedException.none();
+
+    private HashMap<String, String> headers;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        headers = new HashMap<String, String>();
+        headers.put("foo", "bar");
+    }
+
+    private HttpPostClient createClient() throws MalformedURLException {
+        return new HttpPostClient("http://localhost:3000/locations", headers) {
+            @Override
+            protected HttpURLConnection openConnection() throws IOException {
+                return mockHttpURLConnection;
+            }
+        };
+    }
+
+    @Test
+    public void testThrowsMalformedURLException() throws IOException {
+        exception.expect(MalformedURLException.class);
+        new HttpPostClient("invalid", null);
+    }
+
+    @Test
+    public void testPostsClientAndRequestHeaders() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+
+        HttpPostClient client = createClient();
+        assertThat(client.postJSONString("[]", Collections.singletonMap("correlationID", "1")), is(200));
+        verify(mockHttpURLConnection).setRequestMethod("POST");
+        verify(mockHttpURLConnection).setRequestProperty("Content-Type", "application/json");
+        verify(mockHttpURLConnection).setRequestProperty("foo", "bar");
+        verify(mockHttpURLConnection).setRequestProperty("correlationID", "1");
+        verify(mockHttpURLConnection).setFixedLengthStreamingMode(2);
+        assertThat(outputStream.toString(), is("[]"));
+    }
+
+    @Test
+    public void testPostsGzippedString() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            body.append(i > 0 ? "," : "").append("{\"latitude\":48.1,\"longitude\":17.1}");
+        }
+        body.append("]");
+
+        HttpPostClient client = createClient();
+        client.setGzip(true);
+        assertThat(client.postJSONString(body.toString(), null), is(200));
+        verify(mockHttpURLConnection).setRequestProperty("Content-Encoding", "gzip");
+        verify(mockHttpURLConnection).setFixedLengthStreamingMode(outputStream.size());
+        assertTrue(outputStream.size() < body.length() / 5);
+
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            decompressed.write(buffer, 0, read);
+        }
+        assertThat(decompressed.toString("UTF-8"), is(body.toString()));
+    }
+
+    @Test
+    public void testHeadersAreCopied() throws IOException {
+        HttpPostClient client = createClient();
+        headers.put("foo", "baz");
+        assertThat(client.getHeaders().get("foo"), is("bar"));
+    }
+
+    @Test
+    public void testResponseBodyIsDrained() throws IOException {
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+        InputStream inputStream = spy(new ByteArrayInputStream(new byte[5000]));
+        when(mockHttpURLConnection.getInputStream()).thenReturn(inputStream);
+
+        createClient().postJSONString("{}", null);
+        assertThat(inputStream.available(), is(0));
+        verify(inputStream).close();
+        verify(mockHttpURLConnection, never()).disconnect();
+    }
+
+    @Test
+    public void testErrorBodyIsDrained() throws IOException {
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(500);
+        InputStream errorStream = spy(new ByteArrayInputStream("error".getBytes()));
+        when(mockHttpURLConnection.getErrorStream()).thenReturn(errorStream);
+
+        assertThat(createClient().postJSONString("{}", null), is(500));
+        assertThat(errorStream.available(), is(0));
+        verify(errorStream).close();
+        verify(mockHttpURLConnection, never()).getInputStream();
+    }
+
+    @Test
+    public void testIsFor() throws MalformedURLException {
+        HttpPostClient client = new HttpPostClient("http://localhost:3000/locations", headers);
+        assertTrue(client.isFor("http://localhost:3000/locations", headers));
+        assertFalse(client.isFor("http://localhost:3000/sync", headers));
+        assertFalse(client.isFor("http://localhost:3000/locations", null));
+        assertTrue(new HttpPostClient("http://localhost:3000/locations", null)
+                .isFor("http://localhost:3000/locations", new HashMap<String, String>()));
+    }
+}
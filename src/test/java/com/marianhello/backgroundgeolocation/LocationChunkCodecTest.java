@@ -0,0 +1,77 @@
+package com.marianhello.backgroundgeolocation;
+
+import android.support.test.filters.SmallTest;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.LocationChunkCodec;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+public class LocationChunkCodecTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < 100; i++) {
+            BackgroundLocation l = new BackgroundLocation();
+            l.setLocationId(10L + i * 3);
+            l.setProvider(i % 2 == 0 ? "gps" : "network");
+            l.setTime(1500000000000L + i * 1000);
+            l.setLatitude(48.1234567 + i * 0.00001);
+            l.setLongitude(-17.7654321 - i * 0.00001);
+            l.setStatus(BackgroundLocation.DELETED);
+            l.setBatchStartMillis(1500000200000L);
+            if (i % 3 == 0) {
+                l.setAccuracy(12.5f);
+                l.setSpeed(3.25f);
+            }
+            if (i % 5 == 0) {
+                l.setAltitude(250.123456789);
+                l.setBearing(90f);
+            }
+            locations.add(l);
+        }
+
+        byte[] data = LocationChunkCodec.encode(locations);
+        List<BackgroundLocation> decoded = LocationChunkCodec.decode(data);
+
+        Assert.assertEquals(locations.size(), decoded.size());
+        for (int i = 0; i < locations.size(); i++) {
+            BackgroundLocation expected = locations.get(i);
+            BackgroundLocation actual = decoded.get(i);
+            Assert.assertEquals(expected.getLocationId(), actual.getLocationId());
+            Assert.assertEquals(expected.getProvider(), actual.getProvider());
+            Assert.assertEquals(expected.getTime(), actual.getTime());
+            Assert.assertEquals(expected.getLatitude(), actual.getLatitude(), 1e-7);
+            Assert.assertEquals(expected.getLongitude(), actual.getLongitude(), 1e-7);
+            Assert.assertEquals(expected.getStatus(), actual.getStatus());
+            Assert.assertEquals(expected.getBatchStartMillis(), actual.getBatchStartMillis());
+            Assert.assertEquals(expected.hasAccuracy(), actual.hasAccuracy());
+            Assert.assertEquals(expected.getAccuracy(), actual.getAccuracy(), 0f);
+            Assert.assertEquals(expected.hasSpeed(), actual.hasSpeed());
+            Assert.assertEquals(expected.getSpeed(), actual.getSpeed(), 0f);
+            Assert.assertEquals(expected.hasAltitude(), actual.hasAltitude());
+            Assert.assertEquals(expected.getAltitude(), actual.getAltitude(), 0);
+            Assert.assertEquals(expected.hasBearing(), actual.hasBearing());
+            Assert.assertEquals(expected.hasRadius(), actual.hasRadius());
+        }
+    }
+
+    @Test
+    public void testEmptyChunk() throws IOException {
+        byte[] data = LocationChunkCodec.encode(new ArrayList<BackgroundLocation>());
+        Assert.assertEquals(0, LocationChunkCodec.decode(data).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws IOException {
+        LocationChunkCodec.decode(new byte[] { 99 });
+    }
+}
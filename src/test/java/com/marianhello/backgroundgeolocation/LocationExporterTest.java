@@ -0,0 +1,160 @@
+package com.marianhello.backgroundgeolocation;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationExporter;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationVisitor;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocationExporterTest {
+    private LocationDAO dao;
+    private int count;
+
+    @Before
+    public void setUp() {
+        count = 3;
+        dao = mock(LocationDAO.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                LocationVisitor visitor = (LocationVisitor) invocation.getArguments()[1];
+                // single instance is reused as by real DAO
+                BackgroundLocation location = new BackgroundLocation();
+                for (int i = 0; i < count; i++) {
+                    location.setLocationId((long) i + 1);
+                    location.setProvider(i == 0 ? "gps, fused" : "gps");
+                    location.setTime(1000 + i);
+                    location.setLatitude(48.1 + i);
+                    location.setLongitude(17.1 + i);
+                    location.setAccuracy(5.5f);
+                    if (!visitor.visit(location)) {
+                        break;
+                    }
+                }
+                return null;
+            }
+        }).when(dao).forEachLocation(any(LocationFilter.class), any(LocationVisitor.class));
+        when(dao.countLocationsBetween(anyLong(), anyLong(), anyInt())).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return (long) count;
+            }
+        });
+    }
+
+    private String export(int format, boolean gzip) throws IOException {
+        LocationExporter exporter = new LocationExporter(dao, format);
+        exporter.setGzip(gzip);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(count, exporter.export(0, Long.MAX_VALUE, LocationFilter.STATUS_ANY, out));
+        if (!gzip) {
+            return out.toString("UTF-8");
+        }
+
+        Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), "UTF-8");
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[1024];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testCsvExport() throws IOException {
+        String[] lines = export(LocationExporter.FORMAT_CSV, false).split("\r\n");
+        Assert.assertEquals(4, lines.length);
+        Assert.assertEquals("id,time,latitude,longitude,accuracy,altitude,speed,bearing,radius,provider,locationProvider,status", lines[0]);
+        Assert.assertEquals("1,1000,48.1,17.1,5.5,,,,,\"gps, fused\",,1", lines[1]);
+        Assert.assertEquals("3,1002,50.1,19.1,5.5,,,,,gps,,1", lines[3]);
+    }
+
+    @Test
+    public void testGzipExport() throws IOException {
+        Assert.assertEquals(export(LocationExporter.FORMAT_CSV, false), export(LocationExporter.FORMAT_CSV, true));
+    }
+
+    @Test
+    public void testGeoJsonExport() throws IOException, JSONException {
+        JSONObject collection = new JSONObject(export(LocationExporter.FORMAT_GEOJSON, false));
+        Assert.assertEquals("FeatureCollection", collection.getString("type"));
+        JSONArray features = collection.getJSONArray("features");
+        Assert.assertEquals(3, features.length());
+
+        JSONObject feature = features.getJSONObject(1);
+        JSONArray coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+        Assert.assertEquals(18.1, coordinates.getDouble(0), 1e-9);
+        Assert.assertEquals(49.1, coordinates.getDouble(1), 1e-9);
+        Assert.assertEquals(1001, feature.getJSONObject("properties").getLong("time"));
+        Assert.assertEquals(5.5, feature.getJSONObject("properties").getDouble("accuracy"), 0);
+        Assert.assertFalse(feature.getJSONObject("properties").has("altitude"));
+    }
+
+    @Test
+    public void testNdjsonExport() throws IOException, JSONException {
+        String[] lines = export(LocationExporter.FORMAT_NDJSON, false).split("\n");
+        Assert.assertEquals(3, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            JSONObject location = new JSONObject(lines[i]);
+            Assert.assertEquals(i + 1, location.getLong("id"));
+            Assert.assertEquals(48.1 + i, location.getDouble("latitude"), 1e-9);
+        }
+    }
+
+    @Test
+    public void testGpxExport() throws IOException {
+        String gpx = export(LocationExporter.FORMAT_GPX, false);
+        Assert.assertTrue(gpx.contains("<gpx"));
+        Assert.assertTrue(gpx.contains("lat=\"48.1\""));
+        Assert.assertTrue(gpx.contains("<time>1970-01-01T00:00:01.002Z</time>"));
+        Assert.assertTrue(gpx.trim().endsWith("</gpx>"));
+    }
+
+    @Test
+    public void testProgressIsReported() throws IOException {
+        count = LocationExporter.PROGRESS_INTERVAL * 2 + 1;
+        final List<Long> progress = new ArrayList<Long>();
+        LocationExporter exporter = new LocationExporter(dao, LocationExporter.FORMAT_CSV);
+        exporter.setProgressListener(new LocationExporter.ProgressListener() {
+            @Override
+            public void onProgress(long exported, long total) {
+                Assert.assertEquals(count, total);
+                progress.add(exported);
+            }
+        });
+
+        exporter.export(0, Long.MAX_VALUE, LocationFilter.STATUS_ANY, new ByteArrayOutputStream());
+        Assert.assertEquals(3, progress.size());
+        Assert.assertEquals(Long.valueOf(count), progress.get(2));
+    }
+}
@@ -0,0 +1,128 @@
+package com.marianhello.backgroundgeolocation;
+
+import android.support.test.filters.SmallTest;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationJournal;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+@SmallTest
+public class LocationJournalTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("location", ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private BackgroundLocation createLocation(int i) {
+        BackgroundLocation location = new BackgroundLocation("gps");
+        location.setTime(1000 + i);
+        location.setLatitude(48.1 + i);
+        location.setLongitude(17.1 + i);
+        location.setLocationProvider(1);
+        if (i % 2 == 0) {
+            location.setAccuracy(5.5f);
+            location.setAltitude(300.25);
+        }
+        return location;
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        LocationJournal journal = new LocationJournal(file, 10);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(journal.append(createLocation(i)));
+        }
+
+        List<BackgroundLocation> locations = journal.read();
+        Assert.assertEquals(3, locations.size());
+        for (int i = 0; i < 3; i++) {
+            BackgroundLocation expected = createLocation(i);
+            BackgroundLocation actual = locations.get(i);
+            Assert.assertEquals("gps", actual.getProvider());
+            Assert.assertEquals(expected.getTime(), actual.getTime());
+            Assert.assertEquals(expected.getLatitude(), actual.getLatitude());
+            Assert.assertEquals(expected.getLongitude(), actual.getLongitude());
+            Assert.assertEquals(expected.getLocationProvider(), actual.getLocationProvider());
+            Assert.assertEquals(expected.hasAccuracy(), actual.hasAccuracy());
+            Assert.assertEquals(expected.hasAltitude(), actual.hasAltitude());
+            Assert.assertEquals(expected.getAltitude(), actual.getAltitude());
+            Assert.assertEquals(BackgroundLocation.POST_PENDING, actual.getStatus());
+            Assert.assertNull(actual.getLocationId());
+        }
+
+        journal.markFlushed(2);
+        Assert.assertEquals(1, journal.size());
+        Assert.assertEquals(1002, journal.read().get(0).getTime());
+
+        journal.markFlushed(1);
+        Assert.assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testFullJournalRejectsAppend() throws IOException {
+        LocationJournal journal = new LocationJournal(file, 2);
+        Assert.assertTrue(journal.append(createLocation(0)));
+        Assert.assertTrue(journal.append(createLocation(1)));
+        Assert.assertFalse(journal.append(createLocation(2)));
+
+        // flushed journal is rewound
+        journal.markFlushed(2);
+        Assert.assertTrue(journal.append(createLocation(2)));
+        journal.close();
+    }
+
+    @Test
+    public void testUnflushedRecordsAreReplayedAfterReopen() throws IOException {
+        LocationJournal journal = new LocationJournal(file, 10);
+        for (int i = 0; i < 5; i++) {
+            journal.append(createLocation(i));
+        }
+        journal.markFlushed(3);
+        journal.close();
+
+        journal = new LocationJournal(file, 10);
+        List<BackgroundLocation> locations = journal.read();
+        Assert.assertEquals(2, locations.size());
+        Assert.assertEquals(1003, locations.get(0).getTime());
+        Assert.assertEquals(1004, locations.get(1).getTime());
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        LocationJournal journal = new LocationJournal(file, 10);
+        for (int i = 0; i < 3; i++) {
+            journal.append(createLocation(i));
+        }
+        journal.close();
+
+        // corrupt latitude of last record (header 16 bytes, record 96 bytes)
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(16 + 2 * 96 + 16);
+        raf.writeDouble(0);
+        raf.close();
+
+        journal = new LocationJournal(file, 10);
+        Assert.assertEquals(2, journal.read().size());
+        Assert.assertEquals(2, journal.size());
+        journal.close();
+    }
+}
@@ -0,0 +1,333 @@
+package com.marianhello.backgroundgeolocation;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationFilter;
+import com.marianhello.bgloc.data.LocationJournal;
+import com.marianhello.bgloc.data.LocationWriter;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocationWriterTest {
+    private File file;
+    private LocationDAO dao;
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<BackgroundLocation> committed = Collections.synchronizedList(new ArrayList<BackgroundLocation>());
+
+    private final LocationWriter.Callback callback = new LocationWriter.Callback() {
+        @Override
+        public void onCommitted(BackgroundLocation location) {
+            committed.add(location);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("location", ".journal");
+        dao = mock(LocationDAO.class);
+        when(dao.persistLocations(anyCollectionOf(BackgroundLocation.class))).thenAnswer(new Answer<Integer>() {
+            private long nextId = 1;
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                Collection<BackgroundLocation> locations = (Collection<BackgroundLocation>) invocation.getArguments()[0];
+                for (BackgroundLocation location : locations) {
+                    location.setLocationId(nextId++);
+                }
+                batchSizes.add(locations.size());
+                return locations.size();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private BackgroundLocation createLocation(int i) {
+        BackgroundLocation location = new BackgroundLocation("gps");
+        location.setTime(1000 + i);
+        return location;
+    }
+
+    @Test
+    public void testFullBatchIsCommittedInSingleTransaction() throws InterruptedException {
+        LocationWriter writer = new LocationWriter(dao, null, 5, 60000);
+        for (int i = 0; i < 10; i++) {
+            writer.write(createLocation(i), callback);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (committed.size() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        writer.close();
+
+        Assert.assertEquals(2, batchSizes.size());
+        Assert.assertEquals(5, batchSizes.get(0).intValue());
+        Assert.assertEquals(5, batchSizes.get(1).intValue());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Long.valueOf(i + 1), committed.get(i).getLocationId());
+            Assert.assertEquals(1000 + i, committed.get(i).getTime());
+        }
+    }
+
+    @Test
+    public void testPartialBatchIsCommittedAfterDelay() throws InterruptedException {
+        LocationWriter writer = new LocationWriter(dao, null, 100, 50);
+        writer.write(createLocation(0), callback);
+        writer.write(createLocation(1), callback);
+
+        Thread.sleep(500);
+        Assert.assertEquals(2, committed.size());
+        Assert.assertEquals(1, batchSizes.size());
+        writer.close();
+    }
+
+    @Test
+    public void testCloseCommitsPendingLocations() {
+        LocationWriter writer = new LocationWriter(dao, null, 100, 60000);
+        for (int i = 0; i < 3; i++) {
+            writer.write(createLocation(i), callback);
+        }
+        writer.close();
+
+        Assert.assertEquals(3, committed.size());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testWriteAfterCloseIsRejected() {
+        LocationWriter writer = new LocationWriter(dao, null);
+        writer.close();
+        writer.write(createLocation(0), callback);
+    }
+
+    @Test
+    public void testRingBufferLocationsArePersistedToRing() {
+        when(dao.persistLocationToRing(any(BackgroundLocation.class), anyInt())).thenReturn(7L);
+        LocationWriter writer = new LocationWriter(dao, null, 100, 60000);
+        writer.setRingSize(10);
+        writer.write(createLocation(0), callback);
+        writer.close();
+
+        verify(dao, times(1)).persistLocationToRing(any(BackgroundLocation.class), anyInt());
+        verify(dao, never()).persistLocations(anyCollectionOf(BackgroundLocation.class));
+        Assert.assertEquals(Long.valueOf(7), committed.get(0).getLocationId());
+    }
+
+    @Test
+    public void testJournalIsReleasedAfterCommit() throws IOException {
+        LocationJournal journal = new LocationJournal(file, 10);
+        LocationWriter writer = new LocationWriter(dao, journal, 100, 60000);
+        for (int i = 0; i < 3; i++) {
+            writer.write(createLocation(i), callback);
+        }
+        Assert.assertEquals(3, journal.size());
+        writer.close();
+
+        Assert.assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testUncommittedJournalIsReplayed() throws IOException {
+        LocationJournal journal = new LocationJournal(file, 10);
+        journal.append(createLocation(0));
+        journal.append(createLocation(1));
+
+        LocationWriter writer = new LocationWriter(dao, journal, 100, 60000);
+        Assert.assertEquals(2, writer.replayJournal(callback));
+        writer.write(createLocation(2), callback);
+        writer.close();
+
+        Assert.assertEquals(3, committed.size());
+        Assert.assertEquals(1000, committed.get(0).getTime());
+        Assert.assertEquals(1002, committed.get(2).getTime());
+        Assert.assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testReplayedLocationCommittedBeforeCrashIsNotInsertedAgain() throws IOException {
+        BackgroundLocation stored = createLocation(0);
+        stored.setLocationId(42L);
+        when(dao.getLocationsBetween(1000, 1001, LocationFilter.STATUS_ANY)).thenReturn(Collections.singletonList(stored));
+
+        LocationJournal journal = new LocationJournal(file, 10);
+        journal.append(createLocation(0));
+        journal.append(createLocation(1));
+
+        LocationWriter writer = new LocationWriter(dao, journal, 100, 60000);
+        Assert.assertEquals(2, writer.replayJournal(callback));
+        writer.close();
+
+        Assert.assertEquals(1, batchSizes.size());
+        Assert.assertEquals(1, batchSizes.get(0).intValue());
+        Assert.assertEquals(2, committed.size());
+        Assert.assertEquals(Long.valueOf(42), committed.get(0).getLocationId());
+        Assert.assertEquals(1001, committed.get(1).getTime());
+        Assert.assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testFailedCommitIsRetriedAndKeptInJournal() throws IOException, InterruptedException {
+        when(dao.persistLocations(anyCollectionOf(BackgroundLocation.class)))
+                .thenThrow(new RuntimeException("disk I/O error"))
+                .thenReturn(0)
+                .thenAnswer(new Answer<Integer>() {
+                    @Override
+                    public Integer answer(InvocationOnMock invocation) {
+                        Collection<BackgroundLocation> locations = (Collection<BackgroundLocation>) invocation.getArguments()[0];
+                        long id = 1;
+                        for (BackgroundLocation location : locations) {
+                            location.setLocationId(id++);
+                        }
+                        return locations.size();
+                    }
+                });
+        LocationJournal journal = new LocationJournal(file, 10);
+        LocationWriter writer = new LocationWriter(dao, journal, 100, 20);
+        writer.write(createLocation(0), callback);
+        writer.write(createLocation(1), callback);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (committed.size() < 2 && System.currentTimeMillis() < deadline) {
+            Assert.assertTrue(committed.isEmpty() || journal.isEmpty());
+            Thread.sleep(5);
+        }
+        writer.close();
+
+        verify(dao, times(3)).persistLocations(anyCollectionOf(BackgroundLocation.class));
+        Assert.assertEquals(2, committed.size());
+        Assert.assertEquals(Long.valueOf(1), committed.get(0).getLocationId());
+        Assert.assertEquals(1001, committed.get(1).getTime());
+        Assert.assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testRetriedBatchDoesNotGrowOverMaxBatchSize() throws InterruptedException {
+        when(dao.persistLocations(anyCollectionOf(BackgroundLocation.class))).thenAnswer(new Answer<Integer>() {
+            private int calls = 0;
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                Collection<BackgroundLocation> locations = (Collection<BackgroundLocation>) invocation.getArguments()[0];
+                batchSizes.add(locations.size());
+                // first commit fails
+                return calls++ == 0 ? 0 : locations.size();
+            }
+        });
+        LocationWriter writer = new LocationWriter(dao, null, 3, 20);
+        for (int i = 0; i < 10; i++) {
+            writer.write(createLocation(i), callback);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (committed.size() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.close();
+
+        Assert.assertEquals(10, committed.size());
+        for (Integer batchSize : batchSizes) {
+            Assert.assertTrue(batchSize <= 3);
+        }
+    }
+
+    @Test
+    public void testFailedCommitIsRetriedWithBackoff() throws IOException, InterruptedException {
+        when(dao.persistLocations(anyCollectionOf(BackgroundLocation.class))).thenReturn(0);
+        LocationJournal journal = new LocationJournal(file, 10);
+        LocationWriter writer = new LocationWriter(dao, journal, 100, 20);
+        writer.write(createLocation(0), callback);
+
+        // without backoff commit would be retried every 20ms
+        Thread.sleep(500);
+        writer.close();
+
+        verify(dao, atMost(6)).persistLocations(anyCollectionOf(BackgroundLocation.class));
+        Assert.assertTrue(committed.isEmpty());
+        Assert.assertEquals(1, journal.size());
+        journal.close();
+    }
+
+    @Test
+    public void testLocationsUncommittedOnCloseStayInJournal() throws IOException {
+        when(dao.persistLocations(anyCollectionOf(BackgroundLocation.class))).thenReturn(0);
+        LocationJournal journal = new LocationJournal(file, 10);
+        LocationWriter writer = new LocationWriter(dao, journal, 100, 60000);
+        writer.write(createLocation(0), callback);
+        writer.write(createLocation(1), callback);
+        writer.close();
+
+        Assert.assertTrue(committed.isEmpty());
+        Assert.assertEquals(2, journal.size());
+        journal.close();
+    }
+
+    @Test
+    public void testRingLocationsAfterFailedSlotAreRetried() throws InterruptedException {
+        when(dao.persistLocationToRing(any(BackgroundLocation.class), anyInt())).thenReturn(1L, -1L, 2L);
+        LocationWriter writer = new LocationWriter(dao, null, 100, 20);
+        writer.setRingSize(10);
+        writer.write(createLocation(0), callback);
+        writer.write(createLocation(1), callback);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (committed.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.close();
+
+        verify(dao, times(3)).persistLocationToRing(any(BackgroundLocation.class), anyInt());
+        Assert.assertEquals(2, committed.size());
+        Assert.assertEquals(Long.valueOf(2), committed.get(1).getLocationId());
+    }
+
+    @Test
+    public void testThrowingCallbackDoesNotStopWriter() {
+        LocationWriter.Callback throwing = new LocationWriter.Callback() {
+            @Override
+            public void onCommitted(BackgroundLocation location) {
+                throw new NullPointerException();
+            }
+        };
+        LocationWriter writer = new LocationWriter(dao, null, 1, 60000);
+        writer.write(createLocation(0), throwing);
+        writer.write(createLocation(1), callback);
+        writer.close();
+
+        Assert.assertEquals(1, committed.size());
+        Assert.assertEquals(1001, committed.get(0).getTime());
+    }
+}
@@ -7,7 +7,10 @@ import com.marianhello.bgloc.PostLocationTask.PostLocationTaskListener;
 import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.LocationDAO;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
@@ -18,6 +21,7 @@ import org.junit.runner.RunWith;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
@@ -27,10 +31,17 @@ import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
 import java.util.concurrent.RejectedExecutionException;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Test inspired by
@@ -114,6 +125,44 @@ public class PostLocationTaskTest {
         verify(mockHttpURLConnection, times(10)).setRequestMethod("POST");
     }
 
+    @Test
+    public void persistTaskShouldUseRingOnlyWhenEnabled() {
+        LocationDAO mockDAO = mock(LocationDAO.class);
+        PostLocationTask task = new PostLocationTask(mockDAO, mock(PostLocationTaskListener.class), connectivityListener);
+
+        Config config = Config.getDefault();
+        task.setConfig(config);
+        task.add(new BackgroundLocation());
+        verify(mockDAO, times(1)).persistLocation(any(BackgroundLocation.class));
+        verify(mockDAO, never()).persistLocationToRing(any(BackgroundLocation.class), anyInt());
+
+        config.setRingBuffer(true);
+        task.setConfig(config);
+        task.add(new BackgroundLocation());
+        verify(mockDAO, times(1)).persistLocationToRing(any(BackgroundLocation.class), eq(config.getMaxLocations().intValue()));
+    }
+
+    @Test
+    public void persistTaskShouldEnforceRetentionBudgetOfConfig() throws InterruptedException {
+        LocationDAO mockDAO = mock(LocationDAO.class);
+        PostLocationTask task = new PostLocationTask(mockDAO, mock(PostLocationTaskListener.class), connectivityListener);
+
+        Config config = Config.getDefault();
+        task.setConfig(config);
+        for (int i = 0; i < PostLocationTask.RETENTION_INTERVAL; i++) {
+            task.add(new BackgroundLocation());
+        }
+        Thread.sleep(500);
+        verify(mockDAO, never()).enforceRetention(anyLong());
+
+        config.setRetentionBudgetBytes(1024L);
+        task.setConfig(config);
+        for (int i = 0; i < PostLocationTask.RETENTION_INTERVAL; i++) {
+            task.add(new BackgroundLocation());
+        }
+        verify(mockDAO, timeout(3000)).enforceRetention(1024L);
+    }
+
     @Test
     public void persistTaskShouldRejectAfterShutdown() {
         LocationDAO mockDAO = mock(LocationDAO.class);
@@ -177,4 +226,130 @@ public class PostLocationTaskTest {
         Thread.sleep(3000);
         verify(mockDAO).deleteUnpostedLocations();
     }
+
+    @Test
+    public void persistTaskShouldPostFullBatches() throws IOException, InterruptedException, JSONException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+        LocationDAO mockDAO = mock(LocationDAO.class);
+
+        PostLocationTaskListener mockListener = mock(PostLocationTaskListener.class);
+        PostLocationTask task = new PostLocationTask(mockDAO, mockListener, connectivityListener);
+
+        Config config = Config.getDefault();
+        config.setUrl(TEST_PROTOCOL + "://localhost:3000/locations");
+        config.setPostBatchSize(5);
+        config.setPostBatchMaxDelay(60000);
+        task.setConfig(config);
+
+        for (int i = 0; i < 10; i++) {
+            task.add(new BackgroundLocation());
+        }
+
+        Thread.sleep(1000);
+        verify(mockHttpURLConnection, times(2)).setRequestMethod("POST");
+        verify(mockDAO, times(2)).markLocations(any(long[].class), eq(BackgroundLocation.DELETED));
+        verify(mockDAO, never()).updateLocationForSync(0);
+        // both requests were written into same stream
+        String body = outputStream.toString("UTF-8");
+        Assert.assertEquals(5, new JSONArray(body.substring(0, body.indexOf(']') + 1)).length());
+    }
+
+    @Test
+    public void persistTaskShouldPostBatchAfterMaxDelay() throws IOException, InterruptedException, JSONException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+        LocationDAO mockDAO = mock(LocationDAO.class);
+
+        PostLocationTaskListener mockListener = mock(PostLocationTaskListener.class);
+        PostLocationTask task = new PostLocationTask(mockDAO, mockListener, connectivityListener);
+
+        Config config = Config.getDefault();
+        config.setUrl(TEST_PROTOCOL + "://localhost:3000/locations");
+        config.setPostBatchSize(100);
+        config.setPostBatchMaxDelay(200);
+        task.setConfig(config);
+
+        for (int i = 0; i < 3; i++) {
+            task.add(new BackgroundLocation());
+        }
+
+        Thread.sleep(1000);
+        verify(mockHttpURLConnection, times(1)).setRequestMethod("POST");
+        Assert.assertEquals(3, new JSONArray(outputStream.toString("UTF-8")).length());
+    }
+
+    @Test
+    public void persistTaskShouldSplitBatchOverMaxBytes() throws IOException, InterruptedException {
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+        LocationDAO mockDAO = mock(LocationDAO.class);
+
+        PostLocationTaskListener mockListener = mock(PostLocationTaskListener.class);
+        PostLocationTask task = new PostLocationTask(mockDAO, mockListener, connectivityListener);
+
+        Config config = Config.getDefault();
+        config.setUrl(TEST_PROTOCOL + "://localhost:3000/locations");
+        config.setPostBatchSize(100);
+        config.setPostBatchMaxDelay(60000);
+        config.setPostBatchMaxBytes(1);
+        task.setConfig(config);
+
+        for (int i = 0; i < 3; i++) {
+            task.add(new BackgroundLocation());
+        }
+
+        Thread.sleep(1000);
+        verify(mockHttpURLConnection, times(3)).setRequestMethod("POST");
+    }
+
+    @Test
+    public void persistTaskShouldFailWholeBatch() throws IOException, InterruptedException {
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(500);
+        LocationDAO mockDAO = mock(LocationDAO.class);
+
+        PostLocationTaskListener mockListener = mock(PostLocationTaskListener.class);
+        PostLocationTask task = new PostLocationTask(mockDAO, mockListener, connectivityListener);
+
+        Config config = Config.getDefault();
+        config.setUrl(TEST_PROTOCOL + "://localhost:3000/locations");
+        config.setPostBatchSize(5);
+        config.setPostBatchMaxDelay(60000);
+        task.setConfig(config);
+
+        for (int i = 0; i < 5; i++) {
+            task.add(new BackgroundLocation());
+        }
+
+        Thread.sleep(1000);
+        verify(mockDAO, times(1)).markLocations(any(long[].class), eq(BackgroundLocation.SYNC_PENDING));
+        verify(mockDAO, never()).markLocations(any(long[].class), eq(BackgroundLocation.DELETED));
+    }
+
+    @Test
+    public void persistTaskShouldPostIncompleteBatchOnShutdown() throws IOException {
+        when(mockHttpURLConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(mockHttpURLConnection.getResponseCode()).thenReturn(200);
+        LocationDAO mockDAO = mock(LocationDAO.class);
+
+        PostLocationTaskListener mockListener = mock(PostLocationTaskListener.class);
+        PostLocationTask task = new PostLocationTask(mockDAO, mockListener, connectivityListener);
+
+        Config config = Config.getDefault();
+        config.setUrl(TEST_PROTOCOL + "://localhost:3000/locations");
+        config.setPostBatchSize(100);
+        config.setPostBatchMaxDelay(600000);
+        task.setConfig(config);
+
+        for (int i = 0; i < 3; i++) {
+            task.add(new BackgroundLocation());
+        }
+
+        task.shutdown(5);
+        verify(mockHttpURLConnection, times(1)).setRequestMethod("POST");
+        verify(mockDAO, times(1)).markLocations(any(long[].class), eq(BackgroundLocation.DELETED));
+    }
 }